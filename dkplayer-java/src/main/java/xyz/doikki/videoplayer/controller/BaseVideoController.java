@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.OrientationEventListener;
 import android.view.View;
@@ -16,14 +17,15 @@ import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.player.VideoViewManager;
 import xyz.doikki.videoplayer.util.CutoutUtil;
 import xyz.doikki.videoplayer.util.L;
+import xyz.doikki.videoplayer.util.ListenerRegistry;
 import xyz.doikki.videoplayer.util.PlayerUtils;
 
 /**
@@ -70,9 +72,22 @@ public abstract class BaseVideoController extends FrameLayout
 
     //是否开始刷新进度
     private boolean mIsStartProgress;
+    //当前刷新进度的频率，见IProgressComponent
+    private int mProgressResolution = IProgressComponent.PROGRESS_NONE;
 
-    //保存了所有的控制组件
+    //保存了所有的控制组件及其订阅的事件，分发事件时遍历entries()
+    final ListenerRegistry<IControlComponent> mComponentRegistry = new ListenerRegistry<>();
+    /**
+     * 所有的控制组件，value为是否为游离的控制组件。只为兼容读取此字段的子类保留，和控制组件同步更新，
+     * 修改它不会影响事件分发
+     *
+     * @deprecated 事件分发已改用{@link ListenerRegistry}，请通过{@link #addControlComponent(IControlComponent, boolean, int)}、
+     * {@link #removeControlComponent(IControlComponent)}管理控制组件，之后的版本会移除此字段
+     */
+    @Deprecated
     protected LinkedHashMap<IControlComponent, Boolean> mControlComponents = new LinkedHashMap<>();
+    //游离的控制组件
+    private final List<IControlComponent> mDissociateComponents = new ArrayList<>();
 
     private Animation mShowAnim;
     private Animation mHideAnim;
@@ -119,9 +134,8 @@ public abstract class BaseVideoController extends FrameLayout
     public void setMediaPlayer(MediaPlayerControl mediaPlayer) {
         mControlWrapper = new ControlWrapper(mediaPlayer, this);
         //绑定ControlComponent和Controller
-        for (Map.Entry<IControlComponent, Boolean> next : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            component.attach(mControlWrapper);
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            entry.listener.attach(mControlWrapper);
         }
         //开始监听设备方向
         mOrientationHelper.setOnOrientationChangeListener(this);
@@ -153,7 +167,23 @@ public abstract class BaseVideoController extends FrameLayout
      *                     并将 isDissociate 设置为 true 来实现这种效果。
      */
     public void addControlComponent(IControlComponent component, boolean isDissociate) {
+        addControlComponent(component, isDissociate, IControlComponent.EVENT_ALL);
+    }
+
+    /**
+     * 添加只订阅部分事件的控制组件，控制器只向其分发订阅的事件，比如不显示进度的组件可以不订阅
+     * {@link IControlComponent#EVENT_PROGRESS}，此时也不会因为它刷新进度
+     *
+     * @param isDissociate 是否为游离的控制组件，见{@link #addControlComponent(IControlComponent, boolean)}
+     * @param events       订阅的事件，{@link IControlComponent}中EVENT_开头的常量按位或
+     */
+    public void addControlComponent(IControlComponent component, boolean isDissociate, int events) {
+        mComponentRegistry.add(component, events);
         mControlComponents.put(component, isDissociate);
+        mDissociateComponents.remove(component);
+        if (isDissociate) {
+            mDissociateComponents.add(component);
+        }
         if (mControlWrapper != null) {
             component.attach(mControlWrapper);
         }
@@ -161,6 +191,7 @@ public abstract class BaseVideoController extends FrameLayout
         if (view != null && !isDissociate) {
             addView(view, 0);
         }
+        updateProgressResolution();
     }
 
     /**
@@ -168,17 +199,23 @@ public abstract class BaseVideoController extends FrameLayout
      */
     public void removeControlComponent(IControlComponent component) {
         removeView(component.getView());
+        mComponentRegistry.remove(component);
         mControlComponents.remove(component);
+        mDissociateComponents.remove(component);
+        updateProgressResolution();
     }
 
     /**
      * 移除所有控制组件
      */
     public void removeAllControlComponent() {
-        for (Map.Entry<IControlComponent, Boolean> next : mControlComponents.entrySet()) {
-            removeView(next.getKey().getView());
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            removeView(entry.listener.getView());
         }
+        mComponentRegistry.clear();
         mControlComponents.clear();
+        mDissociateComponents.clear();
+        updateProgressResolution();
     }
 
     /**
@@ -186,13 +223,13 @@ public abstract class BaseVideoController extends FrameLayout
      * 关于游离控制组件的定义请看 {@link #addControlComponent(IControlComponent, boolean)} 关于 isDissociate 的解释
      */
     public void removeAllDissociateComponents() {
-        Iterator<Map.Entry<IControlComponent, Boolean>> it = mControlComponents.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<IControlComponent, Boolean> next = it.next();
-            if (next.getValue()) {
-                it.remove();
-            }
+        if (mDissociateComponents.isEmpty()) return;
+        for (IControlComponent component : mDissociateComponents) {
+            mComponentRegistry.remove(component);
+            mControlComponents.remove(component);
         }
+        mDissociateComponents.clear();
+        updateProgressResolution();
     }
 
     /**
@@ -229,6 +266,7 @@ public abstract class BaseVideoController extends FrameLayout
             stopFadeOut();
             handleVisibilityChanged(false, mHideAnim);
             mShowing = false;
+            updateProgressResolution();
         }
     }
 
@@ -241,6 +279,7 @@ public abstract class BaseVideoController extends FrameLayout
             handleVisibilityChanged(true, mShowAnim);
             startFadeOut();
             mShowing = true;
+            updateProgressResolution();
         }
     }
 
@@ -289,13 +328,14 @@ public abstract class BaseVideoController extends FrameLayout
     }
 
     /**
-     * 开始刷新进度，注意：需在STATE_PLAYING时调用才会开始刷新进度
+     * 开始刷新进度，注意：需在STATE_PLAYING时调用才会开始刷新进度。
+     * 按控制组件需要的最高频率刷新，没有控制组件需要时暂停刷新，见{@link IProgressComponent}
      */
     @Override
     public void startProgress() {
         if (mIsStartProgress) return;
-        post(mShowProgress);
         mIsStartProgress = true;
+        updateProgressResolution();
     }
 
     /**
@@ -304,8 +344,61 @@ public abstract class BaseVideoController extends FrameLayout
     @Override
     public void stopProgress() {
         if (!mIsStartProgress) return;
-        removeCallbacks(mShowProgress);
         mIsStartProgress = false;
+        cancelProgress();
+    }
+
+    /**
+     * 重新获取控制组件需要的刷新频率，频率改变时按新的频率刷新进度
+     */
+    public void updateProgressResolution() {
+        if (!mIsStartProgress) return;
+        int resolution = getProgressResolution();
+        if (resolution == mProgressResolution) return;
+        cancelProgress();
+        mProgressResolution = resolution;
+        if (resolution != IProgressComponent.PROGRESS_NONE) {
+            post(mShowProgress);
+        }
+    }
+
+    /**
+     * 返回需要的进度刷新频率，默认为所有控制组件中最高的频率。
+     * 没有控制组件或者{@link #needsProgressTicks()}返回true时至少每秒刷新一次，
+     * 子类需要其他频率时可重写此方法
+     */
+    protected int getProgressResolution() {
+        if (mComponentRegistry.isEmpty() || needsProgressTicks()) {
+            return Math.max(getComponentsProgressResolution(), IProgressComponent.PROGRESS_SECOND);
+        }
+        return getComponentsProgressResolution();
+    }
+
+    private int getComponentsProgressResolution() {
+        int resolution = IProgressComponent.PROGRESS_NONE;
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            if (!entry.accepts(IControlComponent.EVENT_PROGRESS)) continue;
+            if (entry.listener instanceof IProgressComponent) {
+                resolution = Math.max(resolution, ((IProgressComponent) entry.listener).getProgressResolution());
+            } else {
+                resolution = Math.max(resolution, IProgressComponent.PROGRESS_SECOND);
+            }
+        }
+        return resolution;
+    }
+
+    /**
+     * 子类是否需要{@link #setProgress(int, int)}回调，重写了此回调的子类需返回true，
+     * 这样即使控制组件都不需要进度也至少每秒刷新一次
+     */
+    protected boolean needsProgressTicks() {
+        return false;
+    }
+
+    private void cancelProgress() {
+        removeCallbacks(mShowProgress);
+        Choreographer.getInstance().removeFrameCallback(mProgressFrameCallback);
+        mProgressResolution = IProgressComponent.PROGRESS_NONE;
     }
 
     /**
@@ -315,14 +408,27 @@ public abstract class BaseVideoController extends FrameLayout
         @Override
         public void run() {
             int pos = setProgress();
-            if (mControlWrapper.isPlaying()) {
-                postDelayed(this, (long) ((1000 - pos % 1000) / mControlWrapper.getSpeed()));
-            } else {
+            if (!mControlWrapper.isPlaying()) {
                 mIsStartProgress = false;
+                mProgressResolution = IProgressComponent.PROGRESS_NONE;
+            } else if (mProgressResolution == IProgressComponent.PROGRESS_FRAME) {
+                Choreographer.getInstance().postFrameCallback(mProgressFrameCallback);
+            } else {
+                postDelayed(this, (long) ((1000 - pos % 1000) / mControlWrapper.getSpeed()));
             }
         }
     };
 
+    /**
+     * 每帧刷新进度
+     */
+    private final Choreographer.FrameCallback mProgressFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mShowProgress.run();
+        }
+    };
+
     private int setProgress() {
         int position = (int) mControlWrapper.getCurrentPosition();
         int duration = (int) mControlWrapper.getDuration();
@@ -541,10 +647,10 @@ public abstract class BaseVideoController extends FrameLayout
 
     private void handleVisibilityChanged(boolean isVisible, Animation anim) {
         if (!mIsLocked) { //没锁住时才向ControlComponent下发此事件
-            for (Map.Entry<IControlComponent, Boolean> next
-                    : mControlComponents.entrySet()) {
-                IControlComponent component = next.getKey();
-                component.onVisibilityChanged(isVisible, anim);
+            for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+                if (entry.accepts(IControlComponent.EVENT_VISIBILITY)) {
+                    entry.listener.onVisibilityChanged(isVisible, anim);
+                }
             }
         }
         onVisibilityChanged(isVisible, anim);
@@ -561,12 +667,13 @@ public abstract class BaseVideoController extends FrameLayout
     }
 
     private void handlePlayStateChanged(int playState) {
-        for (Map.Entry<IControlComponent, Boolean> next
-                : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            component.onPlayStateChanged(playState);
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            if (entry.accepts(IControlComponent.EVENT_PLAY_STATE)) {
+                entry.listener.onPlayStateChanged(playState);
+            }
         }
         onPlayStateChanged(playState);
+        updateProgressResolution();
     }
 
     /**
@@ -595,12 +702,13 @@ public abstract class BaseVideoController extends FrameLayout
     }
 
     private void handlePlayerStateChanged(int playerState) {
-        for (Map.Entry<IControlComponent, Boolean> next
-                : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            component.onPlayerStateChanged(playerState);
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            if (entry.accepts(IControlComponent.EVENT_PLAYER_STATE)) {
+                entry.listener.onPlayerStateChanged(playerState);
+            }
         }
         onPlayerStateChanged(playerState);
+        updateProgressResolution();
     }
 
     /**
@@ -633,16 +741,17 @@ public abstract class BaseVideoController extends FrameLayout
     }
 
     private void handleSetProgress(int duration, int position) {
-        for (Map.Entry<IControlComponent, Boolean> next
-                : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            component.setProgress(duration, position);
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            if (entry.accepts(IControlComponent.EVENT_PROGRESS)) {
+                entry.listener.setProgress(duration, position);
+            }
         }
         setProgress(duration, position);
     }
 
     /**
-     * 刷新进度回调，子类可在此方法监听进度刷新，然后更新ui
+     * 刷新进度回调，子类可在此方法监听进度刷新，然后更新ui，需同时重写{@link #needsProgressTicks()}返回true，
+     * 此时至少每秒回调一次，需要其他频率时重写{@link #getProgressResolution()}
      *
      * @param duration 视频总时长
      * @param position 视频当前时长
@@ -652,12 +761,13 @@ public abstract class BaseVideoController extends FrameLayout
     }
 
     private void handleLockStateChanged(boolean isLocked) {
-        for (Map.Entry<IControlComponent, Boolean> next
-                : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            component.onLockStateChanged(isLocked);
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            if (entry.accepts(IControlComponent.EVENT_LOCK_STATE)) {
+                entry.listener.onLockStateChanged(isLocked);
+            }
         }
         onLockStateChanged(isLocked);
+        updateProgressResolution();
     }
 
     /**
@@ -234,6 +234,15 @@ public class ControlWrapper implements MediaPlayerControl, IVideoController {
         mController.stopProgress();
     }
 
+    /**
+     * 按控制组件当前需要的最高频率刷新进度，见{@link IProgressComponent}
+     */
+    public void updateProgressResolution() {
+        if (mController instanceof BaseVideoController) {
+            ((BaseVideoController) mController).updateProgressResolution();
+        }
+    }
+
     @Override
     public void hide() {
         mController.hide();
@@ -13,9 +13,8 @@ import android.view.WindowManager;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.Map;
-
 import xyz.doikki.videoplayer.player.VideoView;
+import xyz.doikki.videoplayer.util.ListenerRegistry;
 import xyz.doikki.videoplayer.util.PlayerUtils;
 
 /**
@@ -203,9 +202,9 @@ public abstract class GestureVideoController extends BaseVideoController impleme
             }
 
             if (mChangePosition || mChangeBrightness || mChangeVolume) {
-                for (Map.Entry<IControlComponent, Boolean> next : mControlComponents.entrySet()) {
-                    IControlComponent component = next.getKey();
-                    if (component instanceof IGestureComponent) {
+                for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+                    IControlComponent component = entry.listener;
+                    if (entry.accepts(IControlComponent.EVENT_GESTURE) && component instanceof IGestureComponent) {
                         ((IGestureComponent) component).onStartSlide();
                     }
                 }
@@ -230,9 +229,9 @@ public abstract class GestureVideoController extends BaseVideoController impleme
         int position = (int) (deltaX / width * 120000 + currentPosition);
         if (position > duration) position = duration;
         if (position < 0) position = 0;
-        for (Map.Entry<IControlComponent, Boolean> next : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            if (component instanceof IGestureComponent) {
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            IControlComponent component = entry.listener;
+            if (entry.accepts(IControlComponent.EVENT_GESTURE) && component instanceof IGestureComponent) {
                 ((IGestureComponent) component).onPositionChange(position, currentPosition, duration);
             }
         }
@@ -254,9 +253,9 @@ public abstract class GestureVideoController extends BaseVideoController impleme
         int percent = (int) (brightness * 100);
         attributes.screenBrightness = brightness;
         window.setAttributes(attributes);
-        for (Map.Entry<IControlComponent, Boolean> next : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            if (component instanceof IGestureComponent) {
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            IControlComponent component = entry.listener;
+            if (entry.accepts(IControlComponent.EVENT_GESTURE) && component instanceof IGestureComponent) {
                 ((IGestureComponent) component).onBrightnessChange(percent);
             }
         }
@@ -271,9 +270,9 @@ public abstract class GestureVideoController extends BaseVideoController impleme
         if (index < 0) index = 0;
         int percent = (int) (index / streamMaxVolume * 100);
         mAudioManager.setStreamVolume(AudioManager.STREAM_MUSIC, (int) index, 0);
-        for (Map.Entry<IControlComponent, Boolean> next : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            if (component instanceof IGestureComponent) {
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            IControlComponent component = entry.listener;
+            if (entry.accepts(IControlComponent.EVENT_GESTURE) && component instanceof IGestureComponent) {
                 ((IGestureComponent) component).onVolumeChange(percent);
             }
         }
@@ -302,9 +301,9 @@ public abstract class GestureVideoController extends BaseVideoController impleme
     }
 
     private void stopSlide() {
-        for (Map.Entry<IControlComponent, Boolean> next : mControlComponents.entrySet()) {
-            IControlComponent component = next.getKey();
-            if (component instanceof IGestureComponent) {
+        for (ListenerRegistry.Entry<IControlComponent> entry : mComponentRegistry.entries()) {
+            IControlComponent component = entry.listener;
+            if (entry.accepts(IControlComponent.EVENT_GESTURE) && component instanceof IGestureComponent) {
                 ((IGestureComponent) component).onStopSlide();
             }
         }
@@ -6,11 +6,24 @@ import android.view.animation.Animation;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import xyz.doikki.videoplayer.util.ListenerRegistry;
+
 /**
  * 可继承此接口实现自己的控制ui，以及监听播放器的状态
  */
 public interface IControlComponent {
 
+    /**
+     * 以下为控制组件可订阅的事件，见{@link BaseVideoController#addControlComponent(IControlComponent, boolean, int)}
+     */
+    int EVENT_VISIBILITY = 1;//控制器显示和隐藏，onVisibilityChanged
+    int EVENT_PLAY_STATE = 1 << 1;//播放状态，onPlayStateChanged
+    int EVENT_PLAYER_STATE = 1 << 2;//播放器状态，onPlayerStateChanged
+    int EVENT_PROGRESS = 1 << 3;//播放进度，setProgress
+    int EVENT_LOCK_STATE = 1 << 4;//锁定状态，onLockStateChanged
+    int EVENT_GESTURE = 1 << 5;//手势，IGestureComponent中的回调
+    int EVENT_ALL = ListenerRegistry.ALL_EVENTS;
+
     /**
      * 将 ControlWrapper 传递到当前 ControlComponent 中
      */
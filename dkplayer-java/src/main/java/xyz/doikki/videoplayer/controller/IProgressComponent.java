@@ -0,0 +1,31 @@
+package xyz.doikki.videoplayer.controller;
+
+/**
+ * 可实现此接口声明控制组件需要的进度刷新频率，控制器按所有控制组件中最高的频率刷新进度，
+ * 没有控制组件需要时停止刷新，不再获取播放进度。未实现此接口的控制组件视为需要每秒刷新一次
+ */
+public interface IProgressComponent extends IControlComponent {
+
+    /**
+     * 不需要刷新进度
+     */
+    int PROGRESS_NONE = 0;
+
+    /**
+     * 每秒刷新一次进度
+     */
+    int PROGRESS_SECOND = 1;
+
+    /**
+     * 每帧刷新一次进度
+     */
+    int PROGRESS_FRAME = 2;
+
+    /**
+     * 返回当前需要的进度刷新频率，控制器在显示和隐藏、播放状态、播放器状态和锁定状态改变后重新获取，
+     * 其他时候频率改变需调用{@link ControlWrapper#updateProgressResolution()}
+     *
+     * @return {@link #PROGRESS_NONE}，{@link #PROGRESS_SECOND}或{@link #PROGRESS_FRAME}
+     */
+    int getProgressResolution();
+}
@@ -0,0 +1,209 @@
+package xyz.doikki.videoplayer.metrics;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import xyz.doikki.videoplayer.player.AbstractPlayer;
+import xyz.doikki.videoplayer.util.L;
+
+/**
+ * 播放质量统计：首帧耗时、起播耗时、卡顿次数和时长、拖动进度耗时、出错率。
+ * 通过{@link xyz.doikki.videoplayer.player.VideoViewConfig.Builder#setPlaybackMetrics(PlaybackMetrics)}
+ * 或{@link xyz.doikki.videoplayer.player.BaseVideoView#setPlaybackMetrics(PlaybackMetrics)}设置后，
+ * VideoView每次播放创建一个{@link PlaybackSession}，播放结束时保存到固定大小的环形缓冲区（超出时覆盖最早的），
+ * 并输出到{@link PlaybackMetricsSink}。播放核心特有的统计数据通过{@link PlayerStatsProvider}提供。
+ */
+public class PlaybackMetrics {
+
+    private final PlaybackSession[] mSessions;
+    //下一个写入位置
+    private int mNext;
+    private int mCount;
+    @Nullable
+    private final PlaybackMetricsSink mSink;
+
+    /**
+     * @param capacity 保存最近播放的数量
+     * @param sink     播放结束时的输出，可为null
+     */
+    public PlaybackMetrics(int capacity, @Nullable PlaybackMetricsSink sink) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive number!");
+        }
+        mSessions = new PlaybackSession[capacity];
+        mSink = sink;
+    }
+
+    /**
+     * 开始一次播放，由VideoView调用
+     */
+    @NonNull
+    public PlaybackSession startSession(@Nullable String url) {
+        return new PlaybackSession(url);
+    }
+
+    /**
+     * 结束一次播放，需在播放器释放之前调用，由VideoView调用
+     */
+    public void finishSession(@NonNull PlaybackSession session, @Nullable AbstractPlayer player) {
+        if (player instanceof PlayerStatsProvider) {
+            try {
+                ((PlayerStatsProvider) player).collectStats(session);
+            } catch (Exception e) {
+                L.e("collect player stats failed: " + e.getMessage());
+            }
+        }
+        session.finish(player == null ? null : player.getClass().getSimpleName());
+        synchronized (this) {
+            mSessions[mNext] = session;
+            mNext = (mNext + 1) % mSessions.length;
+            mCount = Math.min(mCount + 1, mSessions.length);
+        }
+        if (mSink != null) {
+            mSink.onSessionFinished(session);
+        }
+    }
+
+    /**
+     * 最近结束的播放，按结束顺序排列
+     */
+    @NonNull
+    public synchronized List<PlaybackSession> getSessions() {
+        List<PlaybackSession> sessions = new ArrayList<>(mCount);
+        int first = (mNext - mCount + mSessions.length) % mSessions.length;
+        for (int i = 0; i < mCount; i++) {
+            sessions.add(mSessions[(first + i) % mSessions.length]);
+        }
+        return sessions;
+    }
+
+    /**
+     * 最近结束的播放的汇总
+     */
+    @NonNull
+    public Summary getSummary() {
+        return new Summary(getSessions());
+    }
+
+    /**
+     * 清除保存的播放
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mSessions.length; i++) {
+            mSessions[i] = null;
+        }
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * 多次播放的汇总，时间单位为毫秒
+     */
+    public static class Summary {
+
+        private final int mSessionCount;
+        private final int mErrorCount;
+        private final long mAverageTimeToFirstFrame;
+        private final long mAverageJoinLatency;
+        private final int mRebufferCount;
+        private final float mRebufferRatio;
+        private final long mAverageSeekLatency;
+
+        Summary(List<PlaybackSession> sessions) {
+            int errorCount = 0;
+            int firstFrameCount = 0;
+            long firstFrameTime = 0;
+            int joinCount = 0;
+            long joinTime = 0;
+            int rebufferCount = 0;
+            long rebufferDuration = 0;
+            long playingDuration = 0;
+            int seekCount = 0;
+            long seekDuration = 0;
+            for (PlaybackSession session : sessions) {
+                if (session.isError()) errorCount++;
+                if (session.getTimeToFirstFrame() >= 0) {
+                    firstFrameCount++;
+                    firstFrameTime += session.getTimeToFirstFrame();
+                }
+                if (session.getJoinLatency() >= 0) {
+                    joinCount++;
+                    joinTime += session.getJoinLatency();
+                }
+                rebufferCount += session.getRebufferCount();
+                rebufferDuration += session.getRebufferDuration();
+                playingDuration += session.getPlayingDuration();
+                seekCount += session.getSeekCount();
+                seekDuration += session.getSeekDuration();
+            }
+            mSessionCount = sessions.size();
+            mErrorCount = errorCount;
+            mAverageTimeToFirstFrame = firstFrameCount > 0 ? firstFrameTime / firstFrameCount : -1;
+            mAverageJoinLatency = joinCount > 0 ? joinTime / joinCount : -1;
+            mRebufferCount = rebufferCount;
+            long total = playingDuration + rebufferDuration;
+            mRebufferRatio = total > 0 ? (float) rebufferDuration / total : 0;
+            mAverageSeekLatency = seekCount > 0 ? seekDuration / seekCount : -1;
+        }
+
+        public int getSessionCount() {
+            return mSessionCount;
+        }
+
+        /**
+         * 出错率：出错的播放占所有播放的比例
+         */
+        public float getErrorRate() {
+            return mSessionCount > 0 ? (float) mErrorCount / mSessionCount : 0;
+        }
+
+        /**
+         * 平均首帧耗时，没有数据时返回-1
+         */
+        public long getAverageTimeToFirstFrame() {
+            return mAverageTimeToFirstFrame;
+        }
+
+        /**
+         * 平均起播耗时，没有数据时返回-1
+         */
+        public long getAverageJoinLatency() {
+            return mAverageJoinLatency;
+        }
+
+        public int getRebufferCount() {
+            return mRebufferCount;
+        }
+
+        /**
+         * 卡顿率：卡顿总时长占播放和卡顿总时长的比例
+         */
+        public float getRebufferRatio() {
+            return mRebufferRatio;
+        }
+
+        /**
+         * 平均拖动进度耗时，没有数据时返回-1
+         */
+        public long getAverageSeekLatency() {
+            return mAverageSeekLatency;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Summary{" +
+                    "sessions=" + mSessionCount +
+                    ", errorRate=" + getErrorRate() +
+                    ", averageTimeToFirstFrame=" + mAverageTimeToFirstFrame +
+                    ", averageJoinLatency=" + mAverageJoinLatency +
+                    ", rebufferCount=" + mRebufferCount +
+                    ", rebufferRatio=" + mRebufferRatio +
+                    ", averageSeekLatency=" + mAverageSeekLatency +
+                    '}';
+        }
+    }
+}
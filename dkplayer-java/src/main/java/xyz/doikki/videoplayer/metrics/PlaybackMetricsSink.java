@@ -0,0 +1,14 @@
+package xyz.doikki.videoplayer.metrics;
+
+/**
+ * 播放质量数据的输出，比如写日志或上报服务器，见{@link PlaybackMetrics}
+ */
+public interface PlaybackMetricsSink {
+
+    /**
+     * 一次播放结束，在主线程回调，耗时操作请切换到其他线程
+     *
+     * @param session 结束的播放，之后不会再改变
+     */
+    void onSessionFinished(PlaybackSession session);
+}
@@ -0,0 +1,294 @@
+package xyz.doikki.videoplayer.metrics;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import xyz.doikki.videoplayer.player.AbstractPlayer;
+import xyz.doikki.videoplayer.player.VideoView;
+
+/**
+ * 一次播放（从开始播放到释放、播放完成或出错）的播放质量数据，由{@link PlaybackMetrics}创建，
+ * 播放过程中由VideoView调用on开头的方法记录，结束后通过{@link PlaybackMetricsSink}输出。时间单位均为毫秒
+ */
+public class PlaybackSession {
+
+    private final String mUrl;
+    private String mPlayerName;
+    private final long mStartTime;
+    private long mEndTime;
+    private boolean mIsFinished;
+
+    private long mPreparedTime;
+    private long mFirstFrameTime;
+
+    private boolean mIsPaused;
+    private long mPlayingSince;
+    private long mPlayingDuration;
+
+    private long mRebufferSince;
+    private int mRebufferCount;
+    private long mRebufferDuration;
+
+    private long mSeekSince;
+    private int mSeekCount;
+    private long mSeekDuration;
+    private long mMaxSeekLatency;
+
+    private boolean mIsCompleted;
+    private boolean mIsError;
+
+    private Map<String, Number> mStats;
+
+    PlaybackSession(@Nullable String url) {
+        mUrl = url;
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * VideoView播放状态改变时调用
+     */
+    public void onPlayStateChanged(int playState) {
+        if (mIsFinished) return;
+        long now = SystemClock.elapsedRealtime();
+        switch (playState) {
+            case VideoView.STATE_PREPARED:
+                if (mPreparedTime == 0) mPreparedTime = now;
+                break;
+            case VideoView.STATE_PLAYING:
+                mIsPaused = false;
+                stopRebuffer(now);
+                startPlaying(now);
+                break;
+            case VideoView.STATE_BUFFERED:
+                stopRebuffer(now);
+                //拖动进度引起的缓冲结束，拖动完成
+                stopSeek(now);
+                if (!mIsPaused) startPlaying(now);
+                break;
+            case VideoView.STATE_BUFFERING:
+                stopPlaying(now);
+                //首帧之前和拖动进度引起的缓冲不算卡顿
+                if (mFirstFrameTime > 0 && mSeekSince == 0 && mRebufferSince == 0) {
+                    mRebufferSince = now;
+                    mRebufferCount++;
+                }
+                break;
+            case VideoView.STATE_PAUSED:
+                mIsPaused = true;
+                stopPlaying(now);
+                stopRebuffer(now);
+                break;
+            case VideoView.STATE_PLAYBACK_COMPLETED:
+                mIsCompleted = true;
+                break;
+            case VideoView.STATE_ERROR:
+                mIsError = true;
+                break;
+        }
+    }
+
+    /**
+     * 播放器回调播放信息时调用
+     */
+    public void onInfo(int what) {
+        if (mIsFinished) return;
+        long now = SystemClock.elapsedRealtime();
+        if (what == AbstractPlayer.MEDIA_INFO_RENDERING_START) {
+            if (mFirstFrameTime == 0) mFirstFrameTime = now;
+        } else if (what == AbstractPlayer.MEDIA_INFO_SEEK_COMPLETE) {
+            stopSeek(now);
+        }
+    }
+
+    /**
+     * 开始拖动进度时调用，完成前再次拖动算作同一次
+     */
+    public void onSeek() {
+        if (mIsFinished || mSeekSince != 0) return;
+        long now = SystemClock.elapsedRealtime();
+        stopRebuffer(now);
+        mSeekSince = now;
+    }
+
+    /**
+     * 写入播放核心特有的统计数据，见{@link PlayerStatsProvider}
+     */
+    public void putStat(@NonNull String name, @NonNull Number value) {
+        if (mStats == null) {
+            mStats = new LinkedHashMap<>();
+        }
+        mStats.put(name, value);
+    }
+
+    void finish(@Nullable String playerName) {
+        mPlayerName = playerName;
+        long now = SystemClock.elapsedRealtime();
+        stopPlaying(now);
+        stopRebuffer(now);
+        //未完成的拖动不计入
+        mSeekSince = 0;
+        mEndTime = now;
+        mIsFinished = true;
+    }
+
+    private void startPlaying(long now) {
+        if (mPlayingSince == 0) mPlayingSince = now;
+    }
+
+    private void stopPlaying(long now) {
+        if (mPlayingSince != 0) {
+            mPlayingDuration += now - mPlayingSince;
+            mPlayingSince = 0;
+        }
+    }
+
+    private void stopRebuffer(long now) {
+        if (mRebufferSince != 0) {
+            mRebufferDuration += now - mRebufferSince;
+            mRebufferSince = 0;
+        }
+    }
+
+    private void stopSeek(long now) {
+        if (mSeekSince != 0) {
+            long latency = now - mSeekSince;
+            mSeekDuration += latency;
+            mMaxSeekLatency = Math.max(mMaxSeekLatency, latency);
+            mSeekCount++;
+            mSeekSince = 0;
+        }
+    }
+
+    @Nullable
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * 播放核心的类名，未结束时返回null
+     */
+    @Nullable
+    public String getPlayerName() {
+        return mPlayerName;
+    }
+
+    /**
+     * 开始播放的时间，{@link SystemClock#elapsedRealtime()}
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * 从开始播放到结束的时长，未结束时返回-1
+     */
+    public long getSessionDuration() {
+        return mIsFinished ? mEndTime - mStartTime : -1;
+    }
+
+    /**
+     * 起播耗时：从开始播放到准备完成，未准备完成时返回-1
+     */
+    public long getJoinLatency() {
+        return mPreparedTime > 0 ? mPreparedTime - mStartTime : -1;
+    }
+
+    /**
+     * 首帧耗时：从开始播放到开始渲染第一帧，未渲染时返回-1
+     */
+    public long getTimeToFirstFrame() {
+        return mFirstFrameTime > 0 ? mFirstFrameTime - mStartTime : -1;
+    }
+
+    /**
+     * 实际播放时长，不包括暂停和缓冲
+     */
+    public long getPlayingDuration() {
+        return mPlayingDuration;
+    }
+
+    /**
+     * 卡顿次数，首帧之后非拖动进度引起的缓冲
+     */
+    public int getRebufferCount() {
+        return mRebufferCount;
+    }
+
+    /**
+     * 卡顿总时长
+     */
+    public long getRebufferDuration() {
+        return mRebufferDuration;
+    }
+
+    /**
+     * 卡顿率：卡顿时长占播放和卡顿总时长的比例
+     */
+    public float getRebufferRatio() {
+        long total = mPlayingDuration + mRebufferDuration;
+        return total > 0 ? (float) mRebufferDuration / total : 0;
+    }
+
+    /**
+     * 完成的拖动进度次数，完成前再次拖动算作同一次
+     */
+    public int getSeekCount() {
+        return mSeekCount;
+    }
+
+    /**
+     * 拖动进度总耗时，从调用seekTo到拖动完成或缓冲结束
+     */
+    public long getSeekDuration() {
+        return mSeekDuration;
+    }
+
+    /**
+     * 单次拖动进度的最大耗时
+     */
+    public long getMaxSeekLatency() {
+        return mMaxSeekLatency;
+    }
+
+    public boolean isCompleted() {
+        return mIsCompleted;
+    }
+
+    public boolean isError() {
+        return mIsError;
+    }
+
+    /**
+     * 播放核心提供的统计数据，见{@link PlayerStatsProvider}
+     */
+    @NonNull
+    public Map<String, Number> getStats() {
+        return mStats == null ? Collections.<String, Number>emptyMap() : Collections.unmodifiableMap(mStats);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PlaybackSession{" +
+                "player=" + mPlayerName +
+                ", url=" + mUrl +
+                ", duration=" + getSessionDuration() +
+                ", joinLatency=" + getJoinLatency() +
+                ", timeToFirstFrame=" + getTimeToFirstFrame() +
+                ", playing=" + mPlayingDuration +
+                ", rebufferCount=" + mRebufferCount +
+                ", rebufferDuration=" + mRebufferDuration +
+                ", seekCount=" + mSeekCount +
+                ", seekDuration=" + mSeekDuration +
+                ", completed=" + mIsCompleted +
+                ", error=" + mIsError +
+                ", stats=" + getStats() +
+                '}';
+    }
+}
@@ -0,0 +1,13 @@
+package xyz.doikki.videoplayer.metrics;
+
+/**
+ * 播放核心可实现此接口提供自己特有的统计数据，比如丢帧数、码率、缓存时长，
+ * 每次播放结束时（播放器释放之前）由{@link PlaybackMetrics}调用，结果见{@link PlaybackSession#getStats()}
+ */
+public interface PlayerStatsProvider {
+
+    /**
+     * 通过{@link PlaybackSession#putStat(String, Number)}写入统计数据，在主线程调用
+     */
+    void collectStats(PlaybackSession session);
+}
@@ -32,11 +32,21 @@ public abstract class AbstractPlayer {
      */
     public static final int MEDIA_INFO_VIDEO_ROTATION_CHANGED = 10001;
 
+    /**
+     * 拖动进度完成，不支持的播放核心以缓冲结束代替
+     */
+    public static final int MEDIA_INFO_SEEK_COMPLETE = 10200;
+
     /**
      * 播放器事件回调
      */
     protected PlayerEventListener mPlayerEventListener;
 
+    /**
+     * 准备完成后是否自动开始播放
+     */
+    protected boolean mStartOnPrepared = true;
+
     /**
      * 初始化播放器实例
      */
@@ -150,6 +160,14 @@ public abstract class AbstractPlayer {
      */
     public abstract long getTcpSpeed();
 
+    /**
+     * 设置准备完成后是否自动开始播放，默认自动播放，需在{@link #initPlayer()}之前调用。
+     * {@link PlayerPool}预先准备的播放器不自动播放，准备完成后停在开头等待{@link #start()}
+     */
+    public void setStartOnPrepared(boolean startOnPrepared) {
+        mStartOnPrepared = startOnPrepared;
+    }
+
     /**
      * 绑定VideoView
      */
@@ -17,7 +17,7 @@ import java.util.Map;
 public class AndroidMediaPlayer extends AbstractPlayer implements MediaPlayer.OnErrorListener,
         MediaPlayer.OnCompletionListener, MediaPlayer.OnInfoListener,
         MediaPlayer.OnBufferingUpdateListener, MediaPlayer.OnPreparedListener,
-        MediaPlayer.OnVideoSizeChangedListener {
+        MediaPlayer.OnVideoSizeChangedListener, MediaPlayer.OnSeekCompleteListener {
 
     protected MediaPlayer mMediaPlayer;
     private int mBufferedPercent;
@@ -39,6 +39,7 @@ public class AndroidMediaPlayer extends AbstractPlayer implements MediaPlayer.On
         mMediaPlayer.setOnBufferingUpdateListener(this);
         mMediaPlayer.setOnPreparedListener(this);
         mMediaPlayer.setOnVideoSizeChangedListener(this);
+        mMediaPlayer.setOnSeekCompleteListener(this);
     }
 
     @Override
@@ -132,6 +133,7 @@ public class AndroidMediaPlayer extends AbstractPlayer implements MediaPlayer.On
         mMediaPlayer.setOnBufferingUpdateListener(null);
         mMediaPlayer.setOnPreparedListener(null);
         mMediaPlayer.setOnVideoSizeChangedListener(null);
+        mMediaPlayer.setOnSeekCompleteListener(null);
         stop();
         final MediaPlayer mediaPlayer = mMediaPlayer;
         mMediaPlayer = null;
@@ -252,6 +254,11 @@ public class AndroidMediaPlayer extends AbstractPlayer implements MediaPlayer.On
         return true;
     }
 
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        mPlayerEventListener.onInfo(AbstractPlayer.MEDIA_INFO_SEEK_COMPLETE, 0);
+    }
+
     @Override
     public void onBufferingUpdate(MediaPlayer mp, int percent) {
         mBufferedPercent = percent;
@@ -260,7 +267,9 @@ public class AndroidMediaPlayer extends AbstractPlayer implements MediaPlayer.On
     @Override
     public void onPrepared(MediaPlayer mp) {
         mPlayerEventListener.onPrepared();
-        start();
+        if (mStartOnPrepared) {
+            start();
+        }
         // 修复播放纯音频时状态出错问题
         if (!isVideo()) {
             mPlayerEventListener.onInfo(AbstractPlayer.MEDIA_INFO_RENDERING_START, 0);
@@ -29,9 +29,13 @@ import java.util.Map;
 import xyz.doikki.videoplayer.R;
 import xyz.doikki.videoplayer.controller.BaseVideoController;
 import xyz.doikki.videoplayer.controller.MediaPlayerControl;
+import xyz.doikki.videoplayer.metrics.PlaybackMetrics;
+import xyz.doikki.videoplayer.metrics.PlaybackSession;
 import xyz.doikki.videoplayer.render.IRenderView;
 import xyz.doikki.videoplayer.render.RenderViewFactory;
+import xyz.doikki.videoplayer.render.RenderViewPool;
 import xyz.doikki.videoplayer.util.L;
+import xyz.doikki.videoplayer.util.ListenerRegistry;
 import xyz.doikki.videoplayer.util.PlayerUtils;
 
 /**
@@ -44,6 +48,21 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
     protected P mMediaPlayer;//播放器
     protected PlayerFactory<P> mPlayerFactory;//工厂类，用于实例化播放核心
     @Nullable
+    protected PlayerPool<P> mPlayerPool;//播放器池，开始播放时优先使用池中已准备好的播放器
+    private final PlayerPool.PlayerInitializer<P> mPlayerInitializer = new PlayerPool.PlayerInitializer<P>() {
+        @Override
+        public void setInitOptions(P player) {
+            BaseVideoView.this.setInitOptions(player);
+        }
+
+        @Override
+        public void setOptions(P player) {
+            BaseVideoView.this.setOptions(player);
+        }
+    };
+    private boolean mIsPooledPlayer;//使用的是池中的播放器，它准备完成后不自动播放
+    private boolean mStartOnPrepared;//池中的播放器还在准备中，准备完成后由VideoView开始播放
+    @Nullable
     protected BaseVideoController mVideoController;//控制器
 
     /**
@@ -53,6 +72,8 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
 
     protected IRenderView mRenderView;
     protected RenderViewFactory mRenderViewFactory;
+    @Nullable
+    protected RenderViewPool mRenderViewPool;//渲染View池，释放时回收渲染View，开始播放时优先复用
 
     public static final int SCREEN_SCALE_DEFAULT = 0;
     public static final int SCREEN_SCALE_16_9 = 1;
@@ -72,6 +93,7 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
     protected AssetFileDescriptor mAssetFileDescriptor;//assets文件
 
     protected long mCurrentPosition;//当前正在播放视频的位置
+    private boolean mIsRestoringPosition;//是否正在恢复播放进度，恢复进度的seek不统计为用户拖动
 
     //播放器的各种状态
     public static final int STATE_ERROR = -1;
@@ -104,8 +126,17 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
     protected AudioFocusHelper mAudioFocusHelper;
 
     /**
-     * OnStateChangeListener集合，保存了所有开发者设置的监听器
+     * OnStateChangeListener集合，保存了所有开发者设置的监听器，分发状态时遍历entries()
+     */
+    final ListenerRegistry<OnStateChangeListener> mStateChangeListeners = new ListenerRegistry<>();
+
+    /**
+     * 所有开发者设置的监听器。只为兼容读取此字段的子类保留，和监听器同步更新，修改它不会影响状态分发
+     *
+     * @deprecated 状态分发已改用{@link ListenerRegistry}，请通过{@link #addOnStateChangeListener(OnStateChangeListener)}、
+     * {@link #removeOnStateChangeListener(OnStateChangeListener)}管理监听器，之后的版本会移除此字段
      */
+    @Deprecated
     protected List<OnStateChangeListener> mOnStateChangeListeners;
 
     /**
@@ -114,6 +145,14 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
     @Nullable
     protected ProgressManager mProgressManager;
 
+    /**
+     * 播放质量统计，设置之后每次播放记录首帧耗时、卡顿等数据
+     */
+    @Nullable
+    protected PlaybackMetrics mPlaybackMetrics;
+    @Nullable
+    private PlaybackSession mPlaybackSession;//当前播放的统计数据
+
     /**
      * 循环播放
      */
@@ -142,6 +181,7 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
         mPlayerFactory = config.mPlayerFactory;
         mCurrentScreenScaleType = config.mScreenScaleType;
         mRenderViewFactory = config.mRenderViewFactory;
+        mPlaybackMetrics = config.mPlaybackMetrics;
 
         //读取xml中的配置，并综合全局配置
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.BaseVideoView);
@@ -197,6 +237,7 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
             setPlayState(STATE_START_ABORT);
             return false;
         }
+        startPlaybackSession();
         //监听音频焦点改变
         if (mEnableAudioFocus) {
             mAudioFocusHelper = new AudioFocusHelper(this);
@@ -205,6 +246,9 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
         if (mProgressManager != null) {
             mCurrentPosition = mProgressManager.getSavedProgress(mUrl);
         }
+        if (adoptPooledPlayer()) {
+            return true;
+        }
         initPlayer();
         addDisplay();
         startPrepare(false);
@@ -246,19 +290,68 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
         setOptions();
     }
 
+    /**
+     * 使用播放器池中当前地址已准备好的播放器，省去创建播放器和准备的时间，播放器的回调在此重放
+     *
+     * @return 是否使用了池中的播放器
+     */
+    protected boolean adoptPooledPlayer() {
+        if (mPlayerPool == null || TextUtils.isEmpty(mUrl)) return false;
+        PlayerPool<P>.PooledPlayer pooledPlayer = mPlayerPool.acquire(mUrl);
+        if (pooledPlayer == null) return false;
+        mMediaPlayer = pooledPlayer.mPlayer;
+        mMediaPlayer.setPlayerEventListener(this);
+        mIsPooledPlayer = true;
+        //准备后可能修改了循环播放和静音
+        setOptions();
+        addDisplay();
+        setPlayState(STATE_PREPARING);
+        setPlayerState(isFullScreen() ? PLAYER_FULL_SCREEN : isTinyScreen() ? PLAYER_TINY_SCREEN : PLAYER_NORMAL);
+        if (pooledPlayer.mVideoSize[0] > 0 && pooledPlayer.mVideoSize[1] > 0) {
+            onVideoSizeChanged(pooledPlayer.mVideoSize[0], pooledPlayer.mVideoSize[1]);
+        }
+        if (pooledPlayer.mVideoRotation != 0) {
+            onInfo(AbstractPlayer.MEDIA_INFO_VIDEO_ROTATION_CHANGED, pooledPlayer.mVideoRotation);
+        }
+        if (!pooledPlayer.mIsPrepared) {
+            mStartOnPrepared = true;
+            return true;
+        }
+        onPrepared();
+        mMediaPlayer.start();
+        if (pooledPlayer.mIsRenderingStarted) {
+            onInfo(AbstractPlayer.MEDIA_INFO_RENDERING_START, 0);
+        }
+        return true;
+    }
+
     /**
      * 初始化之前的配置项
      */
     protected void setInitOptions() {
+        setInitOptions(mMediaPlayer);
+    }
+
+    /**
+     * 初始化之前的配置项，同样用于播放器池中的播放器，见{@link #getPlayerInitializer()}
+     */
+    protected void setInitOptions(P player) {
     }
 
     /**
      * 初始化之后的配置项
      */
     protected void setOptions() {
-        mMediaPlayer.setLooping(mIsLooping);
+        setOptions(mMediaPlayer);
+    }
+
+    /**
+     * 初始化之后的配置项，同样用于播放器池中的播放器，见{@link #getPlayerInitializer()}
+     */
+    protected void setOptions(P player) {
+        player.setLooping(mIsLooping);
         float volume = mIsMute ? 0.0f : 1.0f;
-        mMediaPlayer.setVolume(volume, volume);
+        player.setVolume(volume, volume);
     }
 
     /**
@@ -267,9 +360,14 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
     protected void addDisplay() {
         if (mRenderView != null) {
             mPlayerContainer.removeView(mRenderView.getView());
-            mRenderView.release();
+            releaseRenderView();
+        }
+        if (mRenderViewPool != null) {
+            mRenderView = mRenderViewPool.obtain(getContext(),
+                    mPlayerContainer.getWidth(), mPlayerContainer.getHeight());
+        } else {
+            mRenderView = mRenderViewFactory.createRenderView(getContext());
         }
-        mRenderView = mRenderViewFactory.createRenderView(getContext());
         mRenderView.attachToPlayer(mMediaPlayer);
         LayoutParams params = new LayoutParams(
                 ViewGroup.LayoutParams.MATCH_PARENT,
@@ -278,6 +376,19 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
         mPlayerContainer.addView(mRenderView.getView(), 0, params);
     }
 
+    /**
+     * 释放渲染View，设置了渲染View池时回收到池中
+     */
+    private void releaseRenderView() {
+        if (mRenderViewPool != null) {
+            //复用时不保留镜像旋转
+            mRenderView.getView().setScaleX(1);
+            mRenderViewPool.recycle(mRenderView);
+        } else {
+            mRenderView.release();
+        }
+    }
+
     /**
      * 开始准备播放（直接播放）
      */
@@ -287,6 +398,10 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
             //重新设置option，media player reset之后，option会失效
             setOptions();
         }
+        if (mIsPooledPlayer) {
+            //池中的播放器准备完成后不自动播放
+            mStartOnPrepared = true;
+        }
         if (prepareDataSource()) {
             mMediaPlayer.prepareAsync();
             setPlayState(STATE_PREPARING);
@@ -356,7 +471,11 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
      * 释放播放器
      */
     public void release() {
+        mIsPooledPlayer = false;
+        mStartOnPrepared = false;
         if (!isInIdleState()) {
+            //结束播放统计，需在释放播放器之前获取播放核心的统计数据
+            finishPlaybackSession();
             //释放播放器
             if (mMediaPlayer != null) {
                 mMediaPlayer.release();
@@ -365,7 +484,7 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
             //释放renderView
             if (mRenderView != null) {
                 mPlayerContainer.removeView(mRenderView.getView());
-                mRenderView.release();
+                releaseRenderView();
                 mRenderView = null;
             }
             //释放Assets资源
@@ -438,6 +557,7 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
         if (resetPosition) {
             mCurrentPosition = 0;
         }
+        startPlaybackSession();
         addDisplay();
         startPrepare(true);
     }
@@ -471,6 +591,7 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
     @Override
     public void seekTo(long pos) {
         if (isInPlaybackState()) {
+            if (mPlaybackSession != null && !mIsRestoringPosition) mPlaybackSession.onSeek();
             mMediaPlayer.seekTo(pos);
         }
     }
@@ -521,7 +642,16 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
             mAudioFocusHelper.requestFocus();
         }
         if (mCurrentPosition > 0) {
-            seekTo(mCurrentPosition);
+            mIsRestoringPosition = true;
+            try {
+                seekTo(mCurrentPosition);
+            } finally {
+                mIsRestoringPosition = false;
+            }
+        }
+        if (mStartOnPrepared) {
+            mStartOnPrepared = false;
+            mMediaPlayer.start();
         }
     }
 
@@ -530,6 +660,7 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
      */
     @Override
     public void onInfo(int what, int extra) {
+        if (mPlaybackSession != null) mPlaybackSession.onInfo(what);
         switch (what) {
             case AbstractPlayer.MEDIA_INFO_BUFFERING_START:
                 setPlayState(STATE_BUFFERING);
@@ -691,6 +822,59 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
         mPlayerFactory = playerFactory;
     }
 
+    /**
+     * 设置播放质量统计，见{@link PlaybackMetrics}，下次开始播放时生效
+     */
+    public void setPlaybackMetrics(@Nullable PlaybackMetrics playbackMetrics) {
+        mPlaybackMetrics = playbackMetrics;
+    }
+
+    /**
+     * 开始记录本次播放的统计数据，没有设置播放质量统计时不记录
+     */
+    private void startPlaybackSession() {
+        finishPlaybackSession();
+        if (mPlaybackMetrics != null) {
+            mPlaybackSession = mPlaybackMetrics.startSession(mUrl);
+        }
+    }
+
+    /**
+     * 结束记录本次播放的统计数据，需在释放播放器之前调用
+     */
+    private void finishPlaybackSession() {
+        if (mPlaybackSession == null) return;
+        PlaybackSession session = mPlaybackSession;
+        mPlaybackSession = null;
+        if (mPlaybackMetrics != null) {
+            mPlaybackMetrics.finishSession(session, mMediaPlayer);
+        }
+    }
+
+    /**
+     * 设置播放器池，开始播放时如果池中有当前地址已准备好的播放器则直接使用，见{@link PlayerPool}。
+     * 播放器池需使用与此VideoView一致的播放核心
+     */
+    public void setPlayerPool(@Nullable PlayerPool<P> playerPool) {
+        mPlayerPool = playerPool;
+    }
+
+    /**
+     * 获取与此VideoView一致的播放器配置，传给{@link PlayerPool#prepare(String, Map, PlayerPool.PlayerInitializer)}，
+     * 使池中的播放器在准备前应用{@link #setInitOptions(AbstractPlayer)}和{@link #setOptions(AbstractPlayer)}中的配置
+     */
+    public PlayerPool.PlayerInitializer<P> getPlayerInitializer() {
+        return mPlayerInitializer;
+    }
+
+    /**
+     * 设置渲染View池，释放时把渲染View回收到池中，开始播放时优先复用池中的渲染View，见{@link RenderViewPool}。
+     * 设置后使用池中的{@link RenderViewFactory}创建渲染View
+     */
+    public void setRenderViewPool(@Nullable RenderViewPool renderViewPool) {
+        mRenderViewPool = renderViewPool;
+    }
+
     /**
      * 自定义RenderView，继承{@link RenderViewFactory}实现自己的RenderView
      */
@@ -962,15 +1146,17 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
      */
     protected void setPlayState(int playState) {
         mCurrentPlayState = playState;
+        if (mPlaybackSession != null) {
+            mPlaybackSession.onPlayStateChanged(playState);
+            if (playState == STATE_PLAYBACK_COMPLETED || playState == STATE_ERROR) {
+                finishPlaybackSession();
+            }
+        }
         if (mVideoController != null) {
             mVideoController.setPlayState(playState);
         }
-        if (mOnStateChangeListeners != null) {
-            for (OnStateChangeListener l : PlayerUtils.getSnapshot(mOnStateChangeListeners)) {
-                if (l != null) {
-                    l.onPlayStateChanged(playState);
-                }
-            }
+        for (ListenerRegistry.Entry<OnStateChangeListener> entry : mStateChangeListeners.entries()) {
+            entry.listener.onPlayStateChanged(playState);
         }
     }
 
@@ -982,12 +1168,8 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
         if (mVideoController != null) {
             mVideoController.setPlayerState(playerState);
         }
-        if (mOnStateChangeListeners != null) {
-            for (OnStateChangeListener l : PlayerUtils.getSnapshot(mOnStateChangeListeners)) {
-                if (l != null) {
-                    l.onPlayerStateChanged(playerState);
-                }
-            }
+        for (ListenerRegistry.Entry<OnStateChangeListener> entry : mStateChangeListeners.entries()) {
+            entry.listener.onPlayerStateChanged(playerState);
         }
     }
 
@@ -1010,19 +1192,23 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
     }
 
     /**
-     * 添加一个播放状态监听器，播放状态发生变化时将会调用。
+     * 添加一个播放状态监听器，播放状态发生变化时将会调用，同一监听器只会添加一次。
      */
     public void addOnStateChangeListener(@NonNull OnStateChangeListener listener) {
+        mStateChangeListeners.add(listener);
         if (mOnStateChangeListeners == null) {
             mOnStateChangeListeners = new ArrayList<>();
         }
-        mOnStateChangeListeners.add(listener);
+        if (!mOnStateChangeListeners.contains(listener)) {
+            mOnStateChangeListeners.add(listener);
+        }
     }
 
     /**
      * 移除某个播放状态监听
      */
     public void removeOnStateChangeListener(@NonNull OnStateChangeListener listener) {
+        mStateChangeListeners.remove(listener);
         if (mOnStateChangeListeners != null) {
             mOnStateChangeListeners.remove(listener);
         }
@@ -1033,18 +1219,15 @@ public class BaseVideoView<P extends AbstractPlayer> extends FrameLayout
      * 如果你想同时设置多个监听器，推荐 {@link #addOnStateChangeListener(OnStateChangeListener)}。
      */
     public void setOnStateChangeListener(@NonNull OnStateChangeListener listener) {
-        if (mOnStateChangeListeners == null) {
-            mOnStateChangeListeners = new ArrayList<>();
-        } else {
-            mOnStateChangeListeners.clear();
-        }
-        mOnStateChangeListeners.add(listener);
+        clearOnStateChangeListeners();
+        addOnStateChangeListener(listener);
     }
 
     /**
      * 移除所有播放状态监听
      */
     public void clearOnStateChangeListeners() {
+        mStateChangeListeners.clear();
         if (mOnStateChangeListeners != null) {
             mOnStateChangeListeners.clear();
         }
@@ -0,0 +1,237 @@
+package xyz.doikki.videoplayer.player;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import xyz.doikki.videoplayer.util.L;
+
+/**
+ * 播放器池，预先为即将播放的视频（比如短视频列表中相邻的视频）创建播放器并准备好，准备完成后播放器停在开头不播放。
+ * 通过{@link BaseVideoView#setPlayerPool(PlayerPool)}设置后，开始播放池中已准备的地址时直接使用准备好的播放器，
+ * 省去创建播放器、解封装和创建解码器的时间。
+ * <p>
+ * 每个准备好的播放器都占用解码器和内存，所以池中播放器数量有上限，超出时释放最久未使用的播放器；
+ * 系统内存不足或应用退到后台时释放池中所有播放器。只能在主线程中使用。
+ */
+public class PlayerPool<P extends AbstractPlayer> implements ComponentCallbacks2 {
+
+    private final Context mAppContext;
+    private final PlayerFactory<P> mPlayerFactory;
+    private final int mMaxSize;
+    //按使用顺序排列，最久未使用的在最前面
+    private final LinkedHashMap<String, PooledPlayer> mPlayers = new LinkedHashMap<>(8, 0.75f, true);
+
+    /**
+     * @param playerFactory 创建播放器的工厂类，需与使用播放器池的VideoView的播放核心一致
+     * @param maxSize       池中播放器数量上限，也就是预先占用的解码器数量上限
+     */
+    public PlayerPool(@NonNull Context context, @NonNull PlayerFactory<P> playerFactory, int maxSize) {
+        if (playerFactory == null) {
+            throw new IllegalArgumentException("PlayerFactory can not be null!");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive number!");
+        }
+        mAppContext = context.getApplicationContext();
+        mPlayerFactory = playerFactory;
+        mMaxSize = maxSize;
+        mAppContext.registerComponentCallbacks(this);
+    }
+
+    /**
+     * 预先准备播放地址
+     */
+    public void prepare(String url) {
+        prepare(url, null);
+    }
+
+    /**
+     * 预先准备包含请求头信息的播放地址
+     */
+    public void prepare(String url, @Nullable Map<String, String> headers) {
+        prepare(url, headers, null);
+    }
+
+    /**
+     * 预先准备包含请求头信息的播放地址，已准备的地址只更新使用顺序
+     *
+     * @param url         视频地址，需与之后设置给VideoView的地址一致
+     * @param headers     请求头
+     * @param initializer 播放器的配置，一般为之后播放的VideoView的{@link BaseVideoView#getPlayerInitializer()}，
+     *                    为null时播放器只使用默认配置
+     */
+    public void prepare(String url, @Nullable Map<String, String> headers, @Nullable PlayerInitializer<P> initializer) {
+        if (TextUtils.isEmpty(url) || mPlayers.get(url) != null) {
+            return;
+        }
+        while (mPlayers.size() >= mMaxSize) {
+            Iterator<PooledPlayer> iterator = mPlayers.values().iterator();
+            PooledPlayer eldest = iterator.next();
+            iterator.remove();
+            L.d("PlayerPool evict: " + eldest.mUrl);
+            eldest.mPlayer.release();
+        }
+        L.d("PlayerPool prepare: " + url);
+        P player = mPlayerFactory.createPlayer(mAppContext);
+        PooledPlayer pooledPlayer = new PooledPlayer(url, player);
+        mPlayers.put(url, pooledPlayer);
+        player.setPlayerEventListener(pooledPlayer);
+        //准备完成后由VideoView开始播放
+        player.setStartOnPrepared(false);
+        if (initializer != null) {
+            initializer.setInitOptions(player);
+        }
+        player.initPlayer();
+        if (initializer != null) {
+            initializer.setOptions(player);
+        }
+        player.setDataSource(url, headers);
+        if (mPlayers.get(url) == pooledPlayer) {
+            //设置地址时可能已出错并被移除
+            player.prepareAsync();
+        }
+    }
+
+    /**
+     * 是否有地址对应的播放器
+     */
+    public boolean contains(String url) {
+        return mPlayers.containsKey(url);
+    }
+
+    /**
+     * 取出地址对应的播放器，取出后播放器归调用者所有，由调用者负责释放
+     *
+     * @return 播放器，没有时返回null
+     */
+    @Nullable
+    PooledPlayer acquire(String url) {
+        PooledPlayer pooledPlayer = mPlayers.remove(url);
+        if (pooledPlayer != null) {
+            L.d("PlayerPool hit: " + url);
+        }
+        return pooledPlayer;
+    }
+
+    /**
+     * 移除并释放地址对应的播放器
+     */
+    public void remove(String url) {
+        PooledPlayer pooledPlayer = mPlayers.remove(url);
+        if (pooledPlayer != null) {
+            pooledPlayer.mPlayer.release();
+        }
+    }
+
+    /**
+     * 释放池中所有播放器
+     */
+    public void clear() {
+        for (PooledPlayer pooledPlayer : new ArrayList<>(mPlayers.values())) {
+            pooledPlayer.mPlayer.release();
+        }
+        mPlayers.clear();
+    }
+
+    /**
+     * 释放池中所有播放器并停止监听内存状态，之后不能再使用
+     */
+    public void release() {
+        clear();
+        mAppContext.unregisterComponentCallbacks(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        //包括应用退到后台（TRIM_MEMORY_UI_HIDDEN），此时没有必要继续占用解码器
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    /**
+     * 池中播放器的配置，与VideoView中{@link BaseVideoView#setInitOptions()}和{@link BaseVideoView#setOptions()}对应
+     */
+    public interface PlayerInitializer<P extends AbstractPlayer> {
+
+        /**
+         * 初始化之前的配置项，在{@link AbstractPlayer#initPlayer()}之前调用
+         */
+        void setInitOptions(P player);
+
+        /**
+         * 初始化之后的配置项，在{@link AbstractPlayer#initPlayer()}之后、开始准备之前调用
+         */
+        void setOptions(P player);
+    }
+
+    /**
+     * 池中的播放器，在被取出前记录播放器的回调，取出后由{@link BaseVideoView}重放
+     */
+    final class PooledPlayer implements AbstractPlayer.PlayerEventListener {
+
+        final String mUrl;
+        final P mPlayer;
+        boolean mIsPrepared;
+        boolean mIsRenderingStarted;
+        int mVideoRotation;
+        int[] mVideoSize = {0, 0};
+
+        PooledPlayer(String url, P player) {
+            mUrl = url;
+            mPlayer = player;
+        }
+
+        @Override
+        public void onError() {
+            L.d("PlayerPool error: " + mUrl);
+            if (mPlayers.get(mUrl) == this) {
+                mPlayers.remove(mUrl);
+                mPlayer.release();
+            }
+        }
+
+        @Override
+        public void onCompletion() {
+        }
+
+        @Override
+        public void onInfo(int what, int extra) {
+            if (what == AbstractPlayer.MEDIA_INFO_RENDERING_START) {
+                mIsRenderingStarted = true;
+            } else if (what == AbstractPlayer.MEDIA_INFO_VIDEO_ROTATION_CHANGED) {
+                mVideoRotation = extra;
+            }
+        }
+
+        @Override
+        public void onPrepared() {
+            mIsPrepared = true;
+        }
+
+        @Override
+        public void onVideoSizeChanged(int width, int height) {
+            mVideoSize[0] = width;
+            mVideoSize[1] = height;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package xyz.doikki.videoplayer.player;
 
 import androidx.annotation.Nullable;
 
+import xyz.doikki.videoplayer.metrics.PlaybackMetrics;
 import xyz.doikki.videoplayer.render.RenderViewFactory;
 import xyz.doikki.videoplayer.render.TextureRenderViewFactory;
 
@@ -33,6 +34,8 @@ public class VideoViewConfig {
 
     public final boolean mAdaptCutout;
 
+    public final PlaybackMetrics mPlaybackMetrics;
+
     private VideoViewConfig(Builder builder) {
         mIsEnableLog = builder.mIsEnableLog;
         mEnableOrientation = builder.mEnableOrientation;
@@ -53,6 +56,7 @@ public class VideoViewConfig {
             mRenderViewFactory = builder.mRenderViewFactory;
         }
         mAdaptCutout = builder.mAdaptCutout;
+        mPlaybackMetrics = builder.mPlaybackMetrics;
     }
 
 
@@ -67,6 +71,7 @@ public class VideoViewConfig {
         private int mScreenScaleType;
         private RenderViewFactory mRenderViewFactory;
         private boolean mAdaptCutout = true;
+        private PlaybackMetrics mPlaybackMetrics;
 
         /**
          * 是否监听设备方向来切换全屏/半屏， 默认不开启
@@ -140,6 +145,14 @@ public class VideoViewConfig {
             return this;
         }
 
+        /**
+         * 设置播放质量统计，统计所有VideoView的首帧耗时、卡顿等数据，默认不统计
+         */
+        public Builder setPlaybackMetrics(@Nullable PlaybackMetrics playbackMetrics) {
+            mPlaybackMetrics = playbackMetrics;
+            return this;
+        }
+
         public VideoViewConfig build() {
             return new VideoViewConfig(this);
         }
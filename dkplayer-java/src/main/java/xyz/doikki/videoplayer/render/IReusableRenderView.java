@@ -0,0 +1,14 @@
+package xyz.doikki.videoplayer.render;
+
+/**
+ * 可复用的渲染View，与播放器解除关联后保留Surface，再次关联播放器时直接把原有Surface设置给新的播放器，
+ * 省去创建View、布局和创建Surface的时间，配合{@link RenderViewPool}使用
+ */
+public interface IReusableRenderView extends IRenderView {
+
+    /**
+     * 与当前关联的播放器解除关联，保留Surface以便关联下一个播放器
+     */
+    void detachFromPlayer();
+
+}
@@ -0,0 +1,88 @@
+package xyz.doikki.videoplayer.render;
+
+import android.content.Context;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 渲染View池，VideoView释放时回收实现了{@link IReusableRenderView}的渲染View，下次开始播放时取出复用，
+ * 复用的渲染View保留了Surface，滑动切换视频时省去创建View、布局和创建Surface的时间。
+ * 优先复用尺寸与播放器容器相同的渲染View，避免重新布局和重新分配Surface缓冲区。
+ * <p>
+ * 复用的渲染View在新视频渲染第一帧之前显示上一个视频的最后一帧，需要时可用封面遮挡。
+ * 池中的渲染View与创建时的Context关联，池不再使用时需调用{@link #clear()}。只能在主线程中使用。
+ */
+public class RenderViewPool {
+
+    private final RenderViewFactory mRenderViewFactory;
+    private final int mMaxSize;
+    //按回收顺序排列，最近回收的在最后面
+    private final List<IReusableRenderView> mRenderViews = new ArrayList<>();
+
+    /**
+     * @param renderViewFactory 创建渲染View的工厂类，池中没有可复用的渲染View时使用
+     * @param maxSize           池中渲染View数量上限
+     */
+    public RenderViewPool(@NonNull RenderViewFactory renderViewFactory, int maxSize) {
+        if (renderViewFactory == null) {
+            throw new IllegalArgumentException("RenderViewFactory can not be null!");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive number!");
+        }
+        mRenderViewFactory = renderViewFactory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 取出尺寸与指定宽高相同的渲染View，没有时取出最近回收的，池为空时创建新的渲染View
+     *
+     * @param width  播放器容器的宽
+     * @param height 播放器容器的高
+     */
+    public IRenderView obtain(Context context, int width, int height) {
+        for (int i = mRenderViews.size() - 1; i >= 0; i--) {
+            View view = mRenderViews.get(i).getView();
+            if (view.getWidth() == width && view.getHeight() == height) {
+                return mRenderViews.remove(i);
+            }
+        }
+        if (!mRenderViews.isEmpty()) {
+            return mRenderViews.remove(mRenderViews.size() - 1);
+        }
+        return mRenderViewFactory.createRenderView(context);
+    }
+
+    /**
+     * 回收渲染View，渲染View需已从父View中移除。不可复用的渲染View以及超出数量上限时最久回收的渲染View将被释放
+     */
+    public void recycle(@NonNull IRenderView renderView) {
+        if (!(renderView instanceof IReusableRenderView)) {
+            renderView.release();
+            return;
+        }
+        IReusableRenderView reusableRenderView = (IReusableRenderView) renderView;
+        reusableRenderView.detachFromPlayer();
+        if (mRenderViews.contains(reusableRenderView)) {
+            return;
+        }
+        if (mRenderViews.size() >= mMaxSize) {
+            mRenderViews.remove(0).release();
+        }
+        mRenderViews.add(reusableRenderView);
+    }
+
+    /**
+     * 释放池中所有渲染View
+     */
+    public void clear() {
+        for (IReusableRenderView renderView : mRenderViews) {
+            renderView.release();
+        }
+        mRenderViews.clear();
+    }
+}
@@ -14,7 +14,7 @@ import androidx.annotation.Nullable;
 import xyz.doikki.videoplayer.player.AbstractPlayer;
 
 @SuppressLint("ViewConstructor")
-public class TextureRenderView extends TextureView implements IRenderView, TextureView.SurfaceTextureListener {
+public class TextureRenderView extends TextureView implements IReusableRenderView, TextureView.SurfaceTextureListener {
     private final MeasureHelper mMeasureHelper;
     private SurfaceTexture mSurfaceTexture;
 
@@ -34,6 +34,16 @@ public class TextureRenderView extends TextureView implements IRenderView, Textu
     @Override
     public void attachToPlayer(@NonNull AbstractPlayer player) {
         this.mMediaPlayer = player;
+        if (mSurface != null) {
+            //复用时Surface已存在，直接设置给新的播放器
+            player.setSurface(mSurface);
+        }
+    }
+
+    @Override
+    public void detachFromPlayer() {
+        mMediaPlayer = null;
+        setVideoRotation(0);
     }
 
     @Override
@@ -0,0 +1,130 @@
+package xyz.doikki.videoplayer.util;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 写时复制的监听器集合，用于控制器和播放器向控制组件、状态监听器分发事件。
+ * 添加和移除时复制数组，分发事件时遍历{@link #entries()}返回的数组，不加锁，也不创建迭代器和快照；
+ * 分发过程中添加或移除监听器只影响之后的分发。每个监听器按位掩码订阅事件类型，同一监听器只保存一次。
+ */
+public final class ListenerRegistry<T> {
+
+    /**
+     * 订阅所有事件
+     */
+    public static final int ALL_EVENTS = 0xFFFFFFFF;
+
+    private static final Entry<?>[] EMPTY = new Entry<?>[0];
+
+    private volatile Entry<T>[] mEntries = newEntries(0);
+
+    /**
+     * 监听器及其订阅的事件
+     */
+    public static final class Entry<T> {
+
+        public final T listener;
+        public final int eventMask;
+
+        Entry(T listener, int eventMask) {
+            this.listener = listener;
+            this.eventMask = eventMask;
+        }
+
+        /**
+         * 是否订阅了事件
+         */
+        public boolean accepts(int event) {
+            return (eventMask & event) != 0;
+        }
+    }
+
+    /**
+     * 添加订阅所有事件的监听器
+     */
+    public void add(@NonNull T listener) {
+        add(listener, ALL_EVENTS);
+    }
+
+    /**
+     * 添加监听器，已添加的监听器只更新订阅的事件，位置不变
+     *
+     * @param eventMask 订阅的事件，多个事件按位或
+     */
+    public synchronized void add(@NonNull T listener, int eventMask) {
+        Entry<T>[] entries = mEntries;
+        int index = indexOf(entries, listener);
+        Entry<T>[] newEntries;
+        if (index >= 0) {
+            newEntries = entries.clone();
+        } else {
+            newEntries = newEntries(entries.length + 1);
+            System.arraycopy(entries, 0, newEntries, 0, entries.length);
+            index = entries.length;
+        }
+        newEntries[index] = new Entry<>(listener, eventMask);
+        mEntries = newEntries;
+    }
+
+    /**
+     * 移除监听器
+     *
+     * @return 监听器是否已添加
+     */
+    public synchronized boolean remove(T listener) {
+        Entry<T>[] entries = mEntries;
+        int index = indexOf(entries, listener);
+        if (index < 0) {
+            return false;
+        }
+        Entry<T>[] newEntries = newEntries(entries.length - 1);
+        System.arraycopy(entries, 0, newEntries, 0, index);
+        System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+        mEntries = newEntries;
+        return true;
+    }
+
+    /**
+     * 移除所有监听器
+     */
+    public synchronized void clear() {
+        mEntries = newEntries(0);
+    }
+
+    public boolean contains(T listener) {
+        return indexOf(mEntries, listener) >= 0;
+    }
+
+    public int size() {
+        return mEntries.length;
+    }
+
+    public boolean isEmpty() {
+        return mEntries.length == 0;
+    }
+
+    /**
+     * 返回当前所有监听器，按添加顺序排列。返回的数组之后不会再改变，调用者不能修改
+     */
+    @NonNull
+    public Entry<T>[] entries() {
+        return mEntries;
+    }
+
+    private static <T> int indexOf(Entry<T>[] entries, T listener) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 数组中只保存同一类型的监听器，空数组共用一个
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newEntries(int length) {
+        return (Entry<T>[]) (length == 0 ? EMPTY : new Entry<?>[length]);
+    }
+}
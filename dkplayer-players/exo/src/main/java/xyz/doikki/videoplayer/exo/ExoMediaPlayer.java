@@ -8,12 +8,14 @@ import android.view.SurfaceHolder;
 import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.PlaybackException;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.RenderersFactory;
 import com.google.android.exoplayer2.analytics.DefaultAnalyticsCollector;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
 import com.google.android.exoplayer2.source.DefaultMediaSourceFactory;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
@@ -26,11 +28,13 @@ import com.google.android.exoplayer2.video.VideoSize;
 
 import java.util.Map;
 
+import xyz.doikki.videoplayer.metrics.PlaybackSession;
+import xyz.doikki.videoplayer.metrics.PlayerStatsProvider;
 import xyz.doikki.videoplayer.player.AbstractPlayer;
 import xyz.doikki.videoplayer.player.VideoViewManager;
 
 
-public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
+public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener, PlayerStatsProvider {
 
     protected Context mAppContext;
     protected ExoPlayer mInternalPlayer;
@@ -40,6 +44,8 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
     private PlaybackParameters mSpeedPlaybackParameters;
 
     private boolean mIsPreparing;
+    //ExoPlayer没有拖动完成的回调，拖动后再次就绪时视为完成
+    private boolean mIsSeeking;
 
     private LoadControl mLoadControl;
     private RenderersFactory mRenderersFactory;
@@ -85,7 +91,8 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
 
     @Override
     public void setDataSource(String path, Map<String, String> headers) {
-        mMediaSource = mMediaSourceHelper.getMediaSource(path, headers);
+        //已经预加载过的地址通过缓存播放
+        mMediaSource = mMediaSourceHelper.getMediaSource(path, headers, mMediaSourceHelper.isCached(path));
     }
 
     @Override
@@ -123,6 +130,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
             mInternalPlayer.setPlaybackParameters(mSpeedPlaybackParameters);
         }
         mIsPreparing = true;
+        mIsSeeking = false;
         mInternalPlayer.setMediaSource(mMediaSource);
         mInternalPlayer.prepare();
     }
@@ -134,6 +142,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
             mInternalPlayer.clearMediaItems();
             mInternalPlayer.setVideoSurface(null);
             mIsPreparing = false;
+            mIsSeeking = false;
         }
     }
 
@@ -157,6 +166,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
     public void seekTo(long time) {
         if (mInternalPlayer == null)
             return;
+        mIsSeeking = true;
         mInternalPlayer.seekTo(time);
     }
 
@@ -169,6 +179,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
         }
 
         mIsPreparing = false;
+        mIsSeeking = false;
         mSpeedPlaybackParameters = null;
     }
 
@@ -221,7 +232,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
     @Override
     public void setOptions() {
         //准备好就开始播放
-        mInternalPlayer.setPlayWhenReady(true);
+        mInternalPlayer.setPlayWhenReady(mStartOnPrepared);
     }
 
     @Override
@@ -247,6 +258,23 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
         return 0;
     }
 
+    @Override
+    public void collectStats(PlaybackSession session) {
+        if (mInternalPlayer == null)
+            return;
+        DecoderCounters counters = mInternalPlayer.getVideoDecoderCounters();
+        if (counters != null) {
+            counters.ensureUpdated();
+            session.putStat("exo.dropped_frames", counters.droppedBufferCount);
+            session.putStat("exo.rendered_frames", counters.renderedOutputBufferCount);
+        }
+        Format format = mInternalPlayer.getVideoFormat();
+        if (format != null && format.bitrate != Format.NO_VALUE) {
+            session.putStat("exo.bit_rate", format.bitrate);
+        }
+        session.putStat("exo.buffered_duration", mInternalPlayer.getTotalBufferedDuration());
+    }
+
     @Override
     public void onPlaybackStateChanged(int playbackState) {
         if (mPlayerEventListener == null) return;
@@ -263,6 +291,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
                 mPlayerEventListener.onInfo(MEDIA_INFO_BUFFERING_START, getBufferedPercentage());
                 break;
             case Player.STATE_READY:
+                notifySeekComplete();
                 mPlayerEventListener.onInfo(MEDIA_INFO_BUFFERING_END, getBufferedPercentage());
                 break;
             case Player.STATE_ENDED:
@@ -273,6 +302,21 @@ public class ExoMediaPlayer extends AbstractPlayer implements Player.Listener {
         }
     }
 
+    @Override
+    public void onPositionDiscontinuity(Player.PositionInfo oldPosition, Player.PositionInfo newPosition, int reason) {
+        //拖动到已缓冲的位置时可能不经过缓冲，直接完成
+        if (reason == Player.DISCONTINUITY_REASON_SEEK && !mIsPreparing && mInternalPlayer != null
+                && mInternalPlayer.getPlaybackState() == Player.STATE_READY) {
+            notifySeekComplete();
+        }
+    }
+
+    private void notifySeekComplete() {
+        if (!mIsSeeking || mPlayerEventListener == null) return;
+        mIsSeeking = false;
+        mPlayerEventListener.onInfo(MEDIA_INFO_SEEK_COMPLETE, 0);
+    }
+
     @Override
     public void onPlayerError(PlaybackException error) {
         if (mPlayerEventListener != null) {
@@ -14,9 +14,11 @@ import com.google.android.exoplayer2.source.dash.DashMediaSource;
 import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.source.rtsp.RtspMediaSource;
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
@@ -26,6 +28,7 @@ import com.google.android.exoplayer2.util.Util;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class ExoMediaSourceHelper {
 
@@ -36,6 +39,11 @@ public final class ExoMediaSourceHelper {
     private HttpDataSource.Factory mHttpDataSourceFactory;
     private Cache mCache;
 
+    //缓存命中统计
+    private final AtomicLong mCacheBytesRead = new AtomicLong();
+    private final AtomicLong mNetworkBytesRead = new AtomicLong();
+    private final AtomicLong mPrefetchedBytes = new AtomicLong();
+
     private ExoMediaSourceHelper(Context context) {
         mAppContext = context.getApplicationContext();
         mUserAgent = Util.getUserAgent(mAppContext, mAppContext.getApplicationInfo().name);
@@ -104,14 +112,84 @@ public final class ExoMediaSourceHelper {
         }
     }
 
-    private DataSource.Factory getCacheDataSourceFactory() {
+    /**
+     * 地址是否有缓存数据，比如已经通过{@link ExoPrefetcher}预加载。
+     * 分段格式（HLS、DASH）判断的是播放列表是否已缓存
+     */
+    public boolean isCached(String uri) {
+        Cache cache;
+        synchronized (this) {
+            cache = mCache;
+        }
+        return cache != null && !cache.getCachedSpans(uri).isEmpty();
+    }
+
+    /**
+     * 返回播放和预加载共用的缓存，第一次调用时创建
+     */
+    public synchronized Cache getCache() {
         if (mCache == null) {
             mCache = newCache();
         }
+        return mCache;
+    }
+
+    /**
+     * 返回播放器通过缓存读取的数据统计
+     */
+    public CacheStats getCacheStats() {
+        return new CacheStats(mCacheBytesRead.get(), mNetworkBytesRead.get(), mPrefetchedBytes.get());
+    }
+
+    private DataSource.Factory getCacheDataSourceFactory() {
+        DefaultDataSource.Factory upstreamFactory = new DefaultDataSource.Factory(mAppContext, getHttpDataSourceFactory());
+        upstreamFactory.setTransferListener(new TransferListener() {
+            @Override
+            public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+            }
+
+            @Override
+            public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+            }
+
+            @Override
+            public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+                if (isNetwork) {
+                    mNetworkBytesRead.addAndGet(bytesTransferred);
+                }
+            }
+
+            @Override
+            public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+            }
+        });
         return new CacheDataSource.Factory()
-                .setCache(mCache)
-                .setUpstreamDataSourceFactory(getDataSourceFactory())
-                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+                .setCache(getCache())
+                .setUpstreamDataSourceFactory(upstreamFactory)
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR)
+                .setEventListener(new CacheDataSource.EventListener() {
+                    @Override
+                    public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+                        mCacheBytesRead.addAndGet(cachedBytesRead);
+                    }
+
+                    @Override
+                    public void onCacheIgnored(int reason) {
+                    }
+                });
+    }
+
+    /**
+     * 预加载使用的数据源，直接从网络读取并写入缓存，不计入播放器的缓存命中统计
+     */
+    CacheDataSource.Factory getPrefetchDataSourceFactory() {
+        return new CacheDataSource.Factory()
+                .setCache(getCache())
+                .setUpstreamDataSourceFactory(getDataSourceFactory());
+    }
+
+    void onPrefetched(long bytes) {
+        mPrefetchedBytes.addAndGet(bytes);
     }
 
     private Cache newCache() {
@@ -135,7 +213,7 @@ public final class ExoMediaSourceHelper {
      *
      * @return A new HttpDataSource factory.
      */
-    private DataSource.Factory getHttpDataSourceFactory() {
+    private synchronized DataSource.Factory getHttpDataSourceFactory() {
         if (mHttpDataSourceFactory == null) {
             mHttpDataSourceFactory = new DefaultHttpDataSource.Factory()
                     .setUserAgent(mUserAgent)
@@ -163,7 +241,62 @@ public final class ExoMediaSourceHelper {
         }
     }
 
-    public void setCache(Cache cache) {
+    public synchronized void setCache(Cache cache) {
         this.mCache = cache;
     }
+
+    /**
+     * 播放器通过缓存读取数据的统计，见{@link #getCacheStats()}
+     */
+    public static final class CacheStats {
+
+        private final long mCacheBytesRead;
+        private final long mNetworkBytesRead;
+        private final long mPrefetchedBytes;
+
+        CacheStats(long cacheBytesRead, long networkBytesRead, long prefetchedBytes) {
+            mCacheBytesRead = cacheBytesRead;
+            mNetworkBytesRead = networkBytesRead;
+            mPrefetchedBytes = prefetchedBytes;
+        }
+
+        /**
+         * 播放器从缓存读取的字节数
+         */
+        public long getCacheBytesRead() {
+            return mCacheBytesRead;
+        }
+
+        /**
+         * 播放器因缓存未命中从网络读取的字节数
+         */
+        public long getNetworkBytesRead() {
+            return mNetworkBytesRead;
+        }
+
+        /**
+         * 预加载写入缓存的字节数
+         */
+        public long getPrefetchedBytes() {
+            return mPrefetchedBytes;
+        }
+
+        /**
+         * 缓存命中率，按字节计算，没有读取数据时返回0
+         */
+        public float getHitRatio() {
+            long total = mCacheBytesRead + mNetworkBytesRead;
+            return total == 0 ? 0 : (float) mCacheBytesRead / total;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{" +
+                    "cacheBytesRead=" + mCacheBytesRead +
+                    ", networkBytesRead=" + mNetworkBytesRead +
+                    ", prefetchedBytes=" + mPrefetchedBytes +
+                    ", hitRatio=" + getHitRatio() +
+                    '}';
+        }
+    }
 }
@@ -0,0 +1,496 @@
+package xyz.doikki.videoplayer.exo;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMultivariantPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2.util.UriUtil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xyz.doikki.videoplayer.util.L;
+
+/**
+ * ExoPlayer的预加载，通过{@link CacheWriter}把视频开头的数据直接写入{@link ExoMediaSourceHelper#getCache()}，
+ * 不经过本地代理。之后{@link ExoMediaPlayer}发现地址已有缓存时通过缓存播放，起播时不需要再等待网络。
+ * <p>
+ * 普通文件预加载开头{@link Builder#setPrefetchBytes(long)}字节；HLS和DASH先解析播放列表，再预加载开头
+ * {@link Builder#setPrefetchSeconds(float)}秒的分段（包括初始化分段）。分段格式只预加载一个码率，
+ * 选择不超过{@link Builder#setMaxBitrate(int)}的最高码率，需与播放器起播时选择的码率一致才能命中缓存。
+ * 直播流不预加载。
+ * <p>
+ * 优先级高的地址先预加载，同时进行的预加载数量有上限，可以随时取消。只能在主线程中调用。
+ * <pre><code>
+ * ExoPrefetcher prefetcher = new ExoPrefetcher.Builder(context).build();
+ * // 列表中相邻的视频，越靠近当前位置的优先级越高
+ * prefetcher.prefetch(url, priority);
+ * // 滑出范围后取消
+ * prefetcher.cancel(url);
+ * </code></pre>
+ */
+public final class ExoPrefetcher {
+
+    private final ExoMediaSourceHelper mHelper;
+    private final long mPrefetchBytes;
+    private final long mPrefetchUs;
+    private final int mMaxBitrate;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, PrefetchTask> mTasks = new HashMap<>();
+    //已完成预加载的地址
+    private final Set<String> mPrefetchedUrls = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicLong mTaskSequence = new AtomicLong();
+
+    private ExoPrefetcher(Builder builder) {
+        mHelper = ExoMediaSourceHelper.getInstance(builder.mContext);
+        mPrefetchBytes = builder.mPrefetchBytes;
+        mPrefetchUs = (long) (builder.mPrefetchSeconds * C.MICROS_PER_SECOND);
+        mMaxBitrate = builder.mMaxBitrate;
+        mExecutor = new ThreadPoolExecutor(builder.mMaxConcurrentPrefetches, builder.mMaxConcurrentPrefetches,
+                30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new PrefetchThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void prefetch(String url, int priority) {
+        prefetch(url, null, priority);
+    }
+
+    /**
+     * 预加载地址，已在等待的地址更新优先级，已完成或正在进行的地址忽略
+     *
+     * @param headers  请求头
+     * @param priority 优先级，数值越大越先预加载
+     */
+    public void prefetch(String url, @Nullable Map<String, String> headers, int priority) {
+        if (TextUtils.isEmpty(url) || isPrefetched(url)) {
+            return;
+        }
+        PrefetchTask task = mTasks.get(url);
+        if (task != null) {
+            if (task.mPriority == priority || !mExecutor.remove(task)) {
+                //优先级不变或已经开始
+                return;
+            }
+        }
+        task = new PrefetchTask(url, headers, priority, mTaskSequence.getAndIncrement());
+        mTasks.put(url, task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * 取消地址的预加载，已写入缓存的数据保留
+     */
+    public void cancel(String url) {
+        PrefetchTask task = mTasks.remove(url);
+        if (task != null) {
+            cancel(task);
+        }
+    }
+
+    /**
+     * 取消所有预加载
+     */
+    public void cancelAll() {
+        for (PrefetchTask task : mTasks.values()) {
+            cancel(task);
+        }
+        mTasks.clear();
+    }
+
+    /**
+     * 地址是否已完成预加载并且缓存仍在
+     */
+    public boolean isPrefetched(String url) {
+        if (!mPrefetchedUrls.contains(url)) {
+            return false;
+        }
+        if (!mHelper.isCached(url)) {
+            //已被缓存淘汰
+            mPrefetchedUrls.remove(url);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 取消所有预加载并停止线程，之后不能再使用
+     */
+    public void release() {
+        cancelAll();
+        mExecutor.shutdownNow();
+    }
+
+    private void cancel(PrefetchTask task) {
+        mExecutor.remove(task);
+        task.cancel();
+    }
+
+    private void onTaskFinished(final PrefetchTask task, boolean isSuccess) {
+        if (isSuccess) {
+            mPrefetchedUrls.add(task.mUrl);
+        }
+        //mTasks只在主线程中访问
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mTasks.get(task.mUrl) == task) {
+                    mTasks.remove(task.mUrl);
+                }
+            }
+        });
+    }
+
+    private final class PrefetchTask implements Runnable, Comparable<PrefetchTask> {
+
+        final String mUrl;
+        final Map<String, String> mHeaders;
+        final int mPriority;
+        final long mSequence;
+        private CacheDataSource mDataSource;
+        //已写入缓存的播放列表，包括多码率播放列表
+        private final List<String> mLoadedPlaylists = new ArrayList<>();
+        private volatile boolean mIsCanceled;
+        @Nullable
+        private volatile CacheWriter mCacheWriter;
+
+        PrefetchTask(String url, @Nullable Map<String, String> headers, int priority, long sequence) {
+            mUrl = url;
+            mHeaders = headers == null ? Collections.<String, String>emptyMap() : new HashMap<>(headers);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrefetchTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        void cancel() {
+            mIsCanceled = true;
+            CacheWriter cacheWriter = mCacheWriter;
+            if (cacheWriter != null) {
+                cacheWriter.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mIsCanceled) {
+                return;
+            }
+            boolean isSuccess = false;
+            try {
+                mDataSource = mHelper.getPrefetchDataSourceFactory().createDataSourceForDownloading();
+                Uri uri = Uri.parse(mUrl);
+                String fileName = mUrl.toLowerCase(Locale.US);
+                if (fileName.contains(".m3u8")) {
+                    isSuccess = prefetchHls(uri);
+                } else if (fileName.contains(".mpd")) {
+                    isSuccess = prefetchDash(uri);
+                } else {
+                    cache(newDataSpec(uri, 0, mPrefetchBytes, null));
+                    isSuccess = true;
+                }
+                L.d("ExoPrefetcher finished: " + mUrl);
+            } catch (InterruptedIOException e) {
+                L.d("ExoPrefetcher canceled: " + mUrl);
+            } catch (Exception e) {
+                L.e("ExoPrefetcher failed: " + mUrl + ", " + e.getMessage());
+            } finally {
+                onTaskFinished(this, isSuccess && !mIsCanceled);
+            }
+        }
+
+        private boolean prefetchHls(Uri uri) throws IOException {
+            HlsPlaylist playlist = load(new HlsPlaylistParser(), uri);
+            if (playlist instanceof HlsMultivariantPlaylist) {
+                HlsMultivariantPlaylist multivariantPlaylist = (HlsMultivariantPlaylist) playlist;
+                if (multivariantPlaylist.variants.isEmpty()) {
+                    return false;
+                }
+                int index = selectFormat(multivariantPlaylist.variants);
+                if (!prefetchHlsMediaPlaylist(multivariantPlaylist.variants.get(index).url)) {
+                    return false;
+                }
+                //单独的音频分段
+                for (HlsMultivariantPlaylist.Rendition audio : multivariantPlaylist.audios) {
+                    if (audio.url != null) {
+                        return prefetchHlsMediaPlaylist(audio.url);
+                    }
+                }
+                return true;
+            }
+            return prefetchHlsSegments(uri, (HlsMediaPlaylist) playlist);
+        }
+
+        private boolean prefetchHlsMediaPlaylist(Uri uri) throws IOException {
+            return prefetchHlsSegments(uri, (HlsMediaPlaylist) load(new HlsPlaylistParser(), uri));
+        }
+
+        private boolean prefetchHlsSegments(Uri uri, HlsMediaPlaylist playlist) throws IOException {
+            if (!playlist.hasEndTag) {
+                removeLoadedPlaylists();
+                return false;
+            }
+            Set<String> initializationSegments = new HashSet<>();
+            long durationUs = 0;
+            for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+                if (durationUs >= mPrefetchUs || mIsCanceled) {
+                    break;
+                }
+                HlsMediaPlaylist.Segment initializationSegment = segment.initializationSegment;
+                if (initializationSegment != null
+                        && initializationSegments.add(initializationSegment.url + "@" + initializationSegment.byteRangeOffset)) {
+                    cache(newDataSpec(UriUtil.resolveToUri(playlist.baseUri, initializationSegment.url),
+                            initializationSegment.byteRangeOffset, initializationSegment.byteRangeLength, null));
+                }
+                cache(newDataSpec(UriUtil.resolveToUri(playlist.baseUri, segment.url),
+                        segment.byteRangeOffset, segment.byteRangeLength, null));
+                durationUs += segment.durationUs;
+            }
+            return true;
+        }
+
+        private boolean prefetchDash(Uri uri) throws IOException {
+            DashManifest manifest = load(new DashManifestParser(), uri);
+            if (manifest.dynamic) {
+                removeLoadedPlaylists();
+                return false;
+            }
+            if (manifest.getPeriodCount() == 0) {
+                return false;
+            }
+            Period period = manifest.getPeriod(0);
+            long periodDurationUs = manifest.getPeriodDurationUs(0);
+            for (AdaptationSet adaptationSet : period.adaptationSets) {
+                if ((adaptationSet.type != C.TRACK_TYPE_VIDEO && adaptationSet.type != C.TRACK_TYPE_AUDIO)
+                        || adaptationSet.representations.isEmpty()) {
+                    continue;
+                }
+                List<Representation> representations = adaptationSet.representations;
+                Representation representation = representations.get(selectFormat(representations));
+                prefetchDashRepresentation(representation, periodDurationUs);
+            }
+            return true;
+        }
+
+        private void prefetchDashRepresentation(Representation representation, long periodDurationUs) throws IOException {
+            if (representation.baseUrls.isEmpty()) {
+                return;
+            }
+            String baseUrl = representation.baseUrls.get(0).url;
+            String cacheKey = representation.getCacheKey();
+            RangedUri initializationUri = representation.getInitializationUri();
+            if (initializationUri != null) {
+                cache(newDataSpec(initializationUri.resolveUri(baseUrl), initializationUri.start, initializationUri.length, cacheKey));
+            }
+            RangedUri indexUri = representation.getIndexUri();
+            if (indexUri != null) {
+                cache(newDataSpec(indexUri.resolveUri(baseUrl), indexUri.start, indexUri.length, cacheKey));
+            }
+            DashSegmentIndex index = representation.getIndex();
+            if (index == null) {
+                //索引在媒体文件中，按普通文件预加载开头的数据
+                cache(newDataSpec(Uri.parse(baseUrl), 0, mPrefetchBytes, cacheKey));
+                return;
+            }
+            long firstSegmentNum = index.getFirstSegmentNum();
+            long segmentCount = index.getSegmentCount(periodDurationUs);
+            long lastSegmentNum = segmentCount == DashSegmentIndex.INDEX_UNBOUNDED
+                    ? Long.MAX_VALUE : firstSegmentNum + segmentCount - 1;
+            long startUs = index.getTimeUs(firstSegmentNum);
+            for (long segmentNum = firstSegmentNum; segmentNum <= lastSegmentNum; segmentNum++) {
+                if (index.getTimeUs(segmentNum) - startUs >= mPrefetchUs || mIsCanceled) {
+                    break;
+                }
+                RangedUri segmentUri = index.getSegmentUrl(segmentNum);
+                cache(newDataSpec(segmentUri.resolveUri(baseUrl), segmentUri.start, segmentUri.length, cacheKey));
+            }
+        }
+
+        /**
+         * 选择不超过最高码率的最高码率，都超过时选择最低码率
+         *
+         * @param formats HLS的Variant或DASH的Representation
+         */
+        private int selectFormat(List<?> formats) {
+            int selected = -1;
+            int lowest = 0;
+            for (int i = 0; i < formats.size(); i++) {
+                int bitrate = getBitrate(formats.get(i));
+                if (bitrate < getBitrate(formats.get(lowest))) {
+                    lowest = i;
+                }
+                if (bitrate <= mMaxBitrate && (selected < 0 || bitrate > getBitrate(formats.get(selected)))) {
+                    selected = i;
+                }
+            }
+            return selected >= 0 ? selected : lowest;
+        }
+
+        private int getBitrate(Object item) {
+            Format format = item instanceof Representation
+                    ? ((Representation) item).format
+                    : ((HlsMultivariantPlaylist.Variant) item).format;
+            return format.bitrate == Format.NO_VALUE ? 0 : format.bitrate;
+        }
+
+        private <T> T load(ParsingLoadable.Parser<T> parser, Uri uri) throws IOException {
+            if (mIsCanceled) {
+                throw new InterruptedIOException();
+            }
+            mLoadedPlaylists.add(uri.toString());
+            return ParsingLoadable.load(mDataSource, parser, newDataSpec(uri, 0, C.LENGTH_UNSET, null), C.DATA_TYPE_MANIFEST);
+        }
+
+        /**
+         * 直播的播放列表会更新，不能留在缓存中，否则{@link ExoMediaPlayer}会通过缓存播放并读到过期的播放列表
+         */
+        private void removeLoadedPlaylists() {
+            for (String playlist : mLoadedPlaylists) {
+                mHelper.getCache().removeResource(playlist);
+            }
+        }
+
+        private void cache(DataSpec dataSpec) throws IOException {
+            if (mIsCanceled) {
+                throw new InterruptedIOException();
+            }
+            CacheWriter cacheWriter = new CacheWriter(mDataSource, dataSpec, null, new CacheWriter.ProgressListener() {
+                @Override
+                public void onProgress(long requestLength, long bytesCached, long newBytesCached) {
+                    mHelper.onPrefetched(newBytesCached);
+                }
+            });
+            mCacheWriter = cacheWriter;
+            if (mIsCanceled) {
+                //设置mCacheWriter之前被取消
+                throw new InterruptedIOException();
+            }
+            cacheWriter.cache();
+        }
+
+        private DataSpec newDataSpec(Uri uri, long position, long length, @Nullable String key) {
+            return new DataSpec.Builder()
+                    .setUri(uri)
+                    .setPosition(position)
+                    .setLength(length)
+                    .setKey(key)
+                    .setHttpRequestHeaders(mHeaders)
+                    .build();
+        }
+    }
+
+    private static final class PrefetchThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "ExoPrefetcher " + mThreadNumber.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+
+    public static final class Builder {
+
+        private final Context mContext;
+        private int mMaxConcurrentPrefetches = 2;
+        private long mPrefetchBytes = 1024 * 1024;
+        private float mPrefetchSeconds = 5;
+        private int mMaxBitrate = 800 * 1000;
+
+        public Builder(@NonNull Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        /**
+         * 同时进行的预加载数量，默认2
+         */
+        public Builder setMaxConcurrentPrefetches(int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Max concurrent prefetches count must be positive number!");
+            }
+            mMaxConcurrentPrefetches = count;
+            return this;
+        }
+
+        /**
+         * 普通文件预加载的字节数，默认1M
+         */
+        public Builder setPrefetchBytes(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Prefetch bytes must be positive number!");
+            }
+            mPrefetchBytes = bytes;
+            return this;
+        }
+
+        /**
+         * HLS和DASH预加载的时长，默认5秒
+         */
+        public Builder setPrefetchSeconds(float seconds) {
+            if (seconds <= 0) {
+                throw new IllegalArgumentException("Prefetch seconds must be positive number!");
+            }
+            mPrefetchSeconds = seconds;
+            return this;
+        }
+
+        /**
+         * HLS和DASH预加载的最高码率，默认800kbps，应与播放器起播时选择的码率一致
+         */
+        public Builder setMaxBitrate(int bitrate) {
+            if (bitrate <= 0) {
+                throw new IllegalArgumentException("Max bitrate must be positive number!");
+            }
+            mMaxBitrate = bitrate;
+            return this;
+        }
+
+        public ExoPrefetcher build() {
+            return new ExoPrefetcher(this);
+        }
+    }
+}
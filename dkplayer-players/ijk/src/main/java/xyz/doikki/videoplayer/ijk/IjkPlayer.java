@@ -15,13 +15,16 @@ import tv.danmaku.ijk.media.player.IMediaPlayer;
 import tv.danmaku.ijk.media.player.IjkMediaPlayer;
 import tv.danmaku.ijk.media.player.misc.ITrackInfo;
 import tv.danmaku.ijk.media.player.misc.IjkTrackInfo;
+import xyz.doikki.videoplayer.metrics.PlaybackSession;
+import xyz.doikki.videoplayer.metrics.PlayerStatsProvider;
 import xyz.doikki.videoplayer.player.AbstractPlayer;
 import xyz.doikki.videoplayer.player.VideoViewManager;
 
 public class IjkPlayer extends AbstractPlayer implements IMediaPlayer.OnErrorListener,
         IMediaPlayer.OnCompletionListener, IMediaPlayer.OnInfoListener,
         IMediaPlayer.OnBufferingUpdateListener, IMediaPlayer.OnPreparedListener,
-        IMediaPlayer.OnVideoSizeChangedListener, IjkMediaPlayer.OnNativeInvokeListener {
+        IMediaPlayer.OnVideoSizeChangedListener, IMediaPlayer.OnSeekCompleteListener,
+        IjkMediaPlayer.OnNativeInvokeListener, PlayerStatsProvider {
 
     protected IjkMediaPlayer mMediaPlayer;
     private int mBufferedPercent;
@@ -43,6 +46,7 @@ public class IjkPlayer extends AbstractPlayer implements IMediaPlayer.OnErrorLis
         mMediaPlayer.setOnBufferingUpdateListener(this);
         mMediaPlayer.setOnPreparedListener(this);
         mMediaPlayer.setOnVideoSizeChangedListener(this);
+        mMediaPlayer.setOnSeekCompleteListener(this);
         mMediaPlayer.setOnNativeInvokeListener(this);
     }
 
@@ -114,6 +118,7 @@ public class IjkPlayer extends AbstractPlayer implements IMediaPlayer.OnErrorLis
     @Override
     public void prepareAsync() {
         try {
+            mMediaPlayer.setOption(IjkMediaPlayer.OPT_CATEGORY_PLAYER, "start-on-prepared", mStartOnPrepared ? 1 : 0);
             mMediaPlayer.prepareAsync();
         } catch (IllegalStateException e) {
             mPlayerEventListener.onError();
@@ -149,6 +154,7 @@ public class IjkPlayer extends AbstractPlayer implements IMediaPlayer.OnErrorLis
         mMediaPlayer.setOnBufferingUpdateListener(null);
         mMediaPlayer.setOnPreparedListener(null);
         mMediaPlayer.setOnVideoSizeChangedListener(null);
+        mMediaPlayer.setOnSeekCompleteListener(null);
         new Thread() {
             @Override
             public void run() {
@@ -211,6 +217,15 @@ public class IjkPlayer extends AbstractPlayer implements IMediaPlayer.OnErrorLis
         return mMediaPlayer.getTcpSpeed();
     }
 
+    @Override
+    public void collectStats(PlaybackSession session) {
+        session.putStat("ijk.drop_frame_rate", mMediaPlayer.getDropFrameRate());
+        session.putStat("ijk.video_cached_duration", mMediaPlayer.getVideoCachedDuration());
+        session.putStat("ijk.audio_cached_duration", mMediaPlayer.getAudioCachedDuration());
+        session.putStat("ijk.bit_rate", mMediaPlayer.getBitRate());
+        session.putStat("ijk.tcp_speed", mMediaPlayer.getTcpSpeed());
+    }
+
     @Override
     public boolean onError(IMediaPlayer mp, int what, int extra) {
         mPlayerEventListener.onError();
@@ -228,6 +243,11 @@ public class IjkPlayer extends AbstractPlayer implements IMediaPlayer.OnErrorLis
         return true;
     }
 
+    @Override
+    public void onSeekComplete(IMediaPlayer mp) {
+        mPlayerEventListener.onInfo(AbstractPlayer.MEDIA_INFO_SEEK_COMPLETE, 0);
+    }
+
     @Override
     public void onBufferingUpdate(IMediaPlayer mp, int percent) {
         mBufferedPercent = percent;
@@ -7,7 +7,9 @@ import android.view.View;
 import androidx.viewpager.widget.ViewPager;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import xyz.doikki.dkplayer.R;
 import xyz.doikki.dkplayer.activity.BaseActivity;
@@ -20,7 +22,11 @@ import xyz.doikki.dkplayer.util.cache.ProxyVideoCacheManager;
 import xyz.doikki.dkplayer.widget.VerticalViewPager;
 import xyz.doikki.dkplayer.widget.controller.TikTokController;
 import xyz.doikki.dkplayer.widget.render.TikTokRenderViewFactory;
+import xyz.doikki.videoplayer.player.AbstractPlayer;
+import xyz.doikki.videoplayer.player.PlayerPool;
 import xyz.doikki.videoplayer.player.VideoView;
+import xyz.doikki.videoplayer.player.VideoViewManager;
+import xyz.doikki.videoplayer.render.RenderViewPool;
 import xyz.doikki.videoplayer.util.L;
 
 
@@ -43,6 +49,16 @@ public class TikTok2Activity extends BaseActivity<VideoView> {
 
     private TikTokController mController;
 
+    /**
+     * 预先准备相邻视频的播放器，滑动后直接使用准备好的播放器播放
+     */
+    private PlayerPool<AbstractPlayer> mPlayerPool;
+    private RenderViewPool mRenderViewPool;
+    /**
+     * 原始地址和播放器池中准备的播放地址的对应关系
+     */
+    private final Map<String, String> mPooledPlayUrls = new HashMap<>();
+
     private static final String KEY_INDEX = "index";
 
     public static void start(Context context, int index) {
@@ -85,9 +101,13 @@ public class TikTok2Activity extends BaseActivity<VideoView> {
     private void initVideoView() {
         mVideoView = new VideoView(this);
         mVideoView.setLooping(true);
+        mPlayerPool = new PlayerPool<AbstractPlayer>(this, VideoViewManager.getConfig().mPlayerFactory, 2);
+        mVideoView.setPlayerPool(mPlayerPool);
 
         //以下只能二选一，看你的需求
-        mVideoView.setRenderViewFactory(TikTokRenderViewFactory.create());
+        //使用渲染View池，滑动切换视频时复用渲染View和Surface
+        mRenderViewPool = new RenderViewPool(TikTokRenderViewFactory.create(), 1);
+        mVideoView.setRenderViewPool(mRenderViewPool);
 //        mVideoView.setScreenScaleType(VideoView.SCREEN_SCALE_CENTER_CROP);
 
         mController = new TikTokController(this);
@@ -102,42 +122,13 @@ public class TikTok2Activity extends BaseActivity<VideoView> {
         mViewPager.setOverScrollMode(View.OVER_SCROLL_NEVER);
         mViewPager.setOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
 
-            private int mCurItem;
-
-            /**
-             * VerticalViewPager是否反向滑动
-             */
-            private boolean mIsReverseScroll;
-
-            @Override
-            public void onPageScrolled(int position, float positionOffset, int positionOffsetPixels) {
-                super.onPageScrolled(position, positionOffset, positionOffsetPixels);
-                if (position == mCurItem) {
-                    return;
-                }
-                mIsReverseScroll = position < mCurItem;
-            }
-
             @Override
             public void onPageSelected(int position) {
                 super.onPageSelected(position);
+                mPreloadManager.setCurrentPosition(position);
                 if (position == mCurPos) return;
                 startPlay(position);
             }
-
-            @Override
-            public void onPageScrollStateChanged(int state) {
-                super.onPageScrollStateChanged(state);
-                if (state == VerticalViewPager.SCROLL_STATE_DRAGGING) {
-                    mCurItem = mViewPager.getCurrentItem();
-                }
-
-                if (state == VerticalViewPager.SCROLL_STATE_IDLE) {
-                    mPreloadManager.resumePreload(mCurPos, mIsReverseScroll);
-                } else {
-                    mPreloadManager.pausePreload(mCurPos, mIsReverseScroll);
-                }
-            }
         });
     }
 
@@ -151,7 +142,12 @@ public class TikTok2Activity extends BaseActivity<VideoView> {
                 Utils.removeViewFormParent(mVideoView);
 
                 TiktokBean tiktokBean = mVideoList.get(position);
+                //开始播放时才停止预加载并统计命中率，已准备好播放器的视频使用准备时的地址
                 String playUrl = mPreloadManager.getPlayUrl(tiktokBean.videoDownloadUrl);
+                String pooledPlayUrl = mPooledPlayUrls.remove(tiktokBean.videoDownloadUrl);
+                if (pooledPlayUrl != null) {
+                    playUrl = pooledPlayUrl;
+                }
                 L.i("startPlay: " + "position: " + position + "  url: " + playUrl);
                 mVideoView.setUrl(playUrl);
                 //请点进去看isDissociate的解释
@@ -159,11 +155,30 @@ public class TikTok2Activity extends BaseActivity<VideoView> {
                 viewHolder.mPlayerContainer.addView(mVideoView, 0);
                 mVideoView.start();
                 mCurPos = position;
+                prepareAdjacentPlayers(position);
                 break;
             }
         }
     }
 
+    /**
+     * 为上下相邻的视频预先准备播放器
+     */
+    private void prepareAdjacentPlayers(int position) {
+        for (int adjacent : new int[]{position - 1, position + 1}) {
+            if (adjacent < 0 || adjacent >= mVideoList.size()) continue;
+            String rawUrl = mVideoList.get(adjacent).videoDownloadUrl;
+            String playUrl = mPooledPlayUrls.get(rawUrl);
+            if (playUrl == null || !mPlayerPool.contains(playUrl)) {
+                //还没有播放，不能影响预加载，始终经过缓存代理
+                playUrl = mPreloadManager.getProxyUrl(rawUrl);
+                mPooledPlayUrls.put(rawUrl, playUrl);
+            }
+            //池中的播放器与播放时使用一致的配置
+            mPlayerPool.prepare(playUrl, null, mVideoView.getPlayerInitializer());
+        }
+    }
+
     public void addData(View view) {
         mVideoList.addAll(DataUtil.getTiktokDataFromAssets(this));
         mTiktok2Adapter.notifyDataSetChanged();
@@ -173,6 +188,8 @@ public class TikTok2Activity extends BaseActivity<VideoView> {
     protected void onDestroy() {
         super.onDestroy();
         mPreloadManager.removeAllPreloadTask();
+        mPlayerPool.release();
+        mRenderViewPool.clear();
         //清除缓存，实际使用可以不需要清除，这里为了方便测试
         ProxyVideoCacheManager.clearAllCache(this);
     }
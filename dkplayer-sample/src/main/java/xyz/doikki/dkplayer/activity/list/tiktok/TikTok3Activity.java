@@ -18,7 +18,6 @@ import xyz.doikki.dkplayer.util.DataUtil;
 import xyz.doikki.dkplayer.util.Utils;
 import xyz.doikki.dkplayer.util.cache.PreloadManager;
 import xyz.doikki.dkplayer.util.cache.ProxyVideoCacheManager;
-import xyz.doikki.dkplayer.widget.VerticalViewPager;
 import xyz.doikki.dkplayer.widget.controller.TikTokController;
 import xyz.doikki.dkplayer.widget.render.TikTokRenderViewFactory;
 import xyz.doikki.videoplayer.player.VideoView;
@@ -106,25 +105,10 @@ public class TikTok3Activity extends BaseActivity<VideoView> {
         mViewPager.setOverScrollMode(View.OVER_SCROLL_NEVER);
         mViewPager.registerOnPageChangeCallback(new ViewPager2.OnPageChangeCallback() {
 
-            private int mCurItem;
-
-            /**
-             * VerticalViewPager是否反向滑动
-             */
-            private boolean mIsReverseScroll;
-
-            @Override
-            public void onPageScrolled(int position, float positionOffset, int positionOffsetPixels) {
-                super.onPageScrolled(position, positionOffset, positionOffsetPixels);
-                if (position == mCurItem) {
-                    return;
-                }
-                mIsReverseScroll = position < mCurItem;
-            }
-
             @Override
             public void onPageSelected(int position) {
                 super.onPageSelected(position);
+                mPreloadManager.setCurrentPosition(position);
                 if (position == mCurPos) return;
                 mViewPager.post(new Runnable() {
                     @Override
@@ -133,19 +117,6 @@ public class TikTok3Activity extends BaseActivity<VideoView> {
                     }
                 });
             }
-
-            @Override
-            public void onPageScrollStateChanged(int state) {
-                super.onPageScrollStateChanged(state);
-                if (state == VerticalViewPager.SCROLL_STATE_DRAGGING) {
-                    mCurItem = mViewPager.getCurrentItem();
-                }
-                if (state == ViewPager2.SCROLL_STATE_IDLE) {
-                    mPreloadManager.resumePreload(mCurPos, mIsReverseScroll);
-                } else {
-                    mPreloadManager.pausePreload(mCurPos, mIsReverseScroll);
-                }
-            }
         });
 
         //ViewPage2内部是通过RecyclerView去实现的，它位于ViewPager2的第0个位置
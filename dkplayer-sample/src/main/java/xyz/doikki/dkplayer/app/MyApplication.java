@@ -45,6 +45,8 @@ public class MyApplication extends MultiDexApplication {
 //                .setPlayOnMobileNetwork(false)
                 // 进度管理器，继承ProgressManager，实现自己的管理逻辑
 //                .setProgressManager(new ProgressManagerImpl())
+                // 播放质量统计，记录最近50次播放的首帧耗时、卡顿等数据，PlaybackMetricsSink可将数据输出到日志或上报
+//                .setPlaybackMetrics(new PlaybackMetrics(50, null))
                 .build());
 
 //        if (BuildConfig.DEBUG) {
@@ -3,47 +3,44 @@ package xyz.doikki.dkplayer.util.cache;
 import android.content.Context;
 
 import com.danikula.videocache.HttpProxyCacheServer;
-
-import java.io.File;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import com.danikula.videocache.preload.Preloader;
 
 import xyz.doikki.videoplayer.util.L;
 
 /**
- * 抖音预加载工具，使用AndroidVideoCache实现
+ * 抖音预加载工具，使用AndroidVideoCache的{@link Preloader}实现
+ * 根据当前位置、滑动方向和速度动态调整预加载顺序，同时预加载多个视频，播放器下载数据时让出带宽
+ * 按播放时长预加载，每分钟预加载的数据量不超过测得带宽的一半
  */
 public class PreloadManager {
 
     private static PreloadManager sPreloadManager;
 
     /**
-     * 单线程池，按照添加顺序依次执行{@link PreloadTask}
+     * 同时预加载的视频数量，这个参数可根据实际情况调整
      */
-    private final ExecutorService mExecutorService = Executors.newSingleThreadExecutor();
+    public static final int MAX_CONCURRENT_PRELOADS = 2;
 
     /**
-     * 保存正在预加载的{@link PreloadTask}
+     * 预加载的时长（秒），MP4视频根据moov中的时长和文件大小换算成字节数，HLS视频按分片预加载，这个参数可根据实际情况调整
      */
-    private final LinkedHashMap<String, PreloadTask> mPreloadTasks = new LinkedHashMap<>();
-
-    /**
-     * 标识是否需要预加载
-     */
-    private boolean mIsStartPreload = true;
-
-    private final HttpProxyCacheServer mHttpProxyCacheServer;
+    public static final int PRELOAD_SECONDS = 5;
 
     /**
-     * 预加载的大小，每个视频预加载1M，这个参数可根据实际情况调整
+     * 无法按时长计算时（非MP4视频或找不到时长）预加载的大小，moov在文件末尾的MP4会先预加载末尾的moov，每个视频预加载1M，这个参数可根据实际情况调整
      */
     public static final int PRELOAD_LENGTH = 1024 * 1024;
 
+    private final HttpProxyCacheServer mProxy;
+    private final Preloader mPreloader;
+
     private PreloadManager(Context context) {
-        mHttpProxyCacheServer = ProxyVideoCacheManager.getProxy(context);
+        mProxy = ProxyVideoCacheManager.getProxy(context);
+        mPreloader = new Preloader.Builder(mProxy)
+                .maxConcurrentPreloads(MAX_CONCURRENT_PRELOADS)
+                .preloadLength(PRELOAD_LENGTH)
+                .preloadSeconds(PRELOAD_SECONDS)
+                .build();
     }
 
     public static PreloadManager getInstance(Context context) {
@@ -63,94 +60,18 @@ public class PreloadManager {
      * @param rawUrl 原始视频地址
      */
     public void addPreloadTask(String rawUrl, int position) {
-        if (isPreloaded(rawUrl)) return;
-        PreloadTask task = new PreloadTask();
-        task.mRawUrl = rawUrl;
-        task.mPosition = position;
-        task.mCacheServer = mHttpProxyCacheServer;
         L.i("addPreloadTask: " + position);
-        mPreloadTasks.put(rawUrl, task);
-
-        if (mIsStartPreload) {
-            //开始预加载
-            task.executeOn(mExecutorService);
-        }
+        mPreloader.add(rawUrl, position);
     }
 
     /**
-     * 判断该播放地址是否已经预加载
-     */
-    private boolean isPreloaded(String rawUrl) {
-        //先判断是否有缓存文件，如果已经存在缓存文件，并且其大小大于1KB，则表示已经预加载完成了
-        File cacheFile = mHttpProxyCacheServer.getCacheFile(rawUrl);
-        if (cacheFile.exists()) {
-            if (cacheFile.length() >= 1024) {
-                return true;
-            } else {
-                //这种情况一般是缓存出错，把缓存删掉，重新缓存
-                cacheFile.delete();
-                return false;
-            }
-        }
-        //再判断是否有临时缓存文件，如果已经存在临时缓存文件，并且临时缓存文件超过了预加载大小，则表示已经预加载完成了
-        File tempCacheFile = mHttpProxyCacheServer.getTempCacheFile(rawUrl);
-        if (tempCacheFile.exists()) {
-            return tempCacheFile.length() >= PRELOAD_LENGTH;
-        }
-
-        return false;
-    }
-
-    /**
-     * 暂停预加载
-     * 根据是否反向滑动取消在position之下或之上的PreloadTask
+     * 更新当前位置，根据位置的变化计算滑动方向和速度，重新排列预加载顺序
      *
      * @param position 当前滑到的位置
-     * @param isReverseScroll 列表是否反向滑动
      */
-    public void pausePreload(int position, boolean isReverseScroll) {
-        L.d("pausePreload：" + position + " isReverseScroll: " + isReverseScroll);
-        mIsStartPreload = false;
-        for (Map.Entry<String, PreloadTask> next : mPreloadTasks.entrySet()) {
-            PreloadTask task = next.getValue();
-            if (isReverseScroll) {
-                if (task.mPosition >= position) {
-                    task.cancel();
-                }
-            } else {
-                if (task.mPosition <= position) {
-                    task.cancel();
-                }
-            }
-        }
-    }
-
-    /**
-     * 恢复预加载
-     * 根据是否反向滑动开始在position之下或之上的PreloadTask
-     *
-     * @param position        当前滑到的位置
-     * @param isReverseScroll 列表是否反向滑动
-     */
-    public void resumePreload(int position, boolean isReverseScroll) {
-        L.d("resumePreload：" + position + " isReverseScroll: " + isReverseScroll);
-        mIsStartPreload = true;
-        for (Map.Entry<String, PreloadTask> next : mPreloadTasks.entrySet()) {
-            PreloadTask task = next.getValue();
-            if (isReverseScroll) {
-                if (task.mPosition < position) {
-                    if (!isPreloaded(task.mRawUrl)) {
-                        task.executeOn(mExecutorService);
-                    }
-                }
-            } else {
-                if (task.mPosition > position) {
-                    if (!isPreloaded(task.mRawUrl)) {
-                        task.executeOn(mExecutorService);
-                    }
-                }
-            }
-        }
+    public void setCurrentPosition(int position) {
+        L.d("setCurrentPosition: " + position);
+        mPreloader.setCurrentPosition(position);
     }
 
     /**
@@ -159,38 +80,27 @@ public class PreloadManager {
      * @param rawUrl 原始地址
      */
     public void removePreloadTask(String rawUrl) {
-        PreloadTask task = mPreloadTasks.get(rawUrl);
-        if (task != null) {
-            task.cancel();
-            mPreloadTasks.remove(rawUrl);
-        }
+        mPreloader.remove(rawUrl);
     }
 
     /**
      * 取消所有的预加载
      */
     public void removeAllPreloadTask() {
-        Iterator<Map.Entry<String, PreloadTask>> iterator = mPreloadTasks.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, PreloadTask> next = iterator.next();
-            PreloadTask task = next.getValue();
-            task.cancel();
-            iterator.remove();
-        }
+        mPreloader.removeAll();
     }
 
     /**
-     * 获取播放地址
+     * 获取播放地址，只在真正开始播放时调用：会停止这个视频的预加载并计入命中率统计，没有预加载时返回原始地址
      */
     public String getPlayUrl(String rawUrl) {
-        PreloadTask task = mPreloadTasks.get(rawUrl);
-        if (task != null) {
-            task.cancel();
-        }
-        if (isPreloaded(rawUrl)) {
-            return mHttpProxyCacheServer.getProxyUrl(rawUrl);
-        } else {
-            return rawUrl;
-        }
+        return mPreloader.getPlayUrl(rawUrl);
+    }
+
+    /**
+     * 获取经过缓存代理的地址，不影响预加载和统计，用于预先准备但还没有播放的播放器
+     */
+    public String getProxyUrl(String rawUrl) {
+        return mProxy.getProxyUrl(rawUrl);
     }
 }
@@ -21,6 +21,7 @@ public class ProxyVideoCacheManager {
     private static HttpProxyCacheServer newProxy(Context context) {
         return new HttpProxyCacheServer.Builder(context)
                 .maxCacheSize(512 * 1024 * 1024)       // 512MB for cache
+                .memoryCacheSize(16 * 1024 * 1024)     // 16MB内存缓存最近播放视频的开头
                 //缓存路径，不设置默认在sd_card/Android/data/[app_package_name]/cache中
 //                .cacheDirectory()
                 .build();
@@ -15,7 +15,7 @@ import androidx.core.content.ContextCompat;
 
 import xyz.doikki.dkplayer.util.Utils;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.exo.ExoMediaPlayerFactory;
 import xyz.doikki.videoplayer.ijk.IjkPlayerFactory;
 import xyz.doikki.videoplayer.player.AndroidMediaPlayerFactory;
@@ -23,7 +23,7 @@ import xyz.doikki.videoplayer.player.AndroidMediaPlayerFactory;
 /**
  * 调试信息
  */
-public class DebugInfoView extends AppCompatTextView implements IControlComponent {
+public class DebugInfoView extends AppCompatTextView implements IProgressComponent {
 
     private ControlWrapper mControlWrapper;
 
@@ -103,6 +103,11 @@ public class DebugInfoView extends AppCompatTextView implements IControlComponen
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
 
@@ -21,7 +21,7 @@ import xyz.doikki.dkplayer.R;
 import xyz.doikki.dkplayer.widget.CenteredImageSpan;
 import xyz.doikki.videoplayer.BuildConfig;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.util.PlayerUtils;
 
@@ -36,7 +36,7 @@ import master.flame.danmaku.danmaku.model.android.SpannedCacheStuffer;
 import master.flame.danmaku.danmaku.parser.BaseDanmakuParser;
 import master.flame.danmaku.ui.widget.DanmakuView;
 
-public class MyDanmakuView extends DanmakuView implements IControlComponent {
+public class MyDanmakuView extends DanmakuView implements IProgressComponent {
 
     private final DanmakuContext mContext;
     private final BaseDanmakuParser mParser;
@@ -155,6 +155,11 @@ public class MyDanmakuView extends DanmakuView implements IControlComponent {
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
 
@@ -15,11 +15,11 @@ import androidx.annotation.Nullable;
 
 import xyz.doikki.dkplayer.R;
 import xyz.doikki.dkplayer.util.PIPManager;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.player.VideoView;
 
-public class PipControlView extends FrameLayout implements IControlComponent, View.OnClickListener {
+public class PipControlView extends FrameLayout implements IProgressComponent, View.OnClickListener {
 
     private ControlWrapper mControlWrapper;
 
@@ -139,6 +139,11 @@ public class PipControlView extends FrameLayout implements IControlComponent, Vi
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
 
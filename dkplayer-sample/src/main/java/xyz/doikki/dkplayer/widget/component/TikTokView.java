@@ -15,12 +15,12 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import xyz.doikki.dkplayer.R;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.util.L;
 
-public class TikTokView extends FrameLayout implements IControlComponent {
+public class TikTokView extends FrameLayout implements IProgressComponent {
 
     private final ImageView thumb;
     private final ImageView mPlayBtn;
@@ -129,6 +129,11 @@ public class TikTokView extends FrameLayout implements IControlComponent {
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
 
@@ -8,12 +8,13 @@ import androidx.annotation.NonNull;
 import xyz.doikki.videoplayer.player.AbstractPlayer;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.render.IRenderView;
+import xyz.doikki.videoplayer.render.IReusableRenderView;
 
 /**
  * TikTok专用RenderView，横屏视频默认显示，竖屏视频居中裁剪
  * 使用代理模式实现
  */
-public class TikTokRenderView implements IRenderView {
+public class TikTokRenderView implements IReusableRenderView {
 
     private final IRenderView mProxyRenderView;
 
@@ -26,6 +27,13 @@ public class TikTokRenderView implements IRenderView {
         mProxyRenderView.attachToPlayer(player);
     }
 
+    @Override
+    public void detachFromPlayer() {
+        if (mProxyRenderView instanceof IReusableRenderView) {
+            ((IReusableRenderView) mProxyRenderView).detachFromPlayer();
+        }
+    }
+
     @Override
     public void setVideoSize(int videoWidth, int videoHeight) {
         if (videoWidth > 0 && videoHeight > 0) {
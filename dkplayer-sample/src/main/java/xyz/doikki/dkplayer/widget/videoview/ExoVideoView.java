@@ -54,11 +54,11 @@ public class ExoVideoView extends BaseVideoView<CustomExoMediaPlayer> {
     }
 
     @Override
-    protected void setInitOptions() {
-        super.setInitOptions();
-        mMediaPlayer.setLoadControl(mLoadControl);
-        mMediaPlayer.setRenderersFactory(mRenderersFactory);
-        mMediaPlayer.setTrackSelector(mTrackSelector);
+    protected void setInitOptions(CustomExoMediaPlayer player) {
+        super.setInitOptions(player);
+        player.setLoadControl(mLoadControl);
+        player.setRenderersFactory(mRenderersFactory);
+        player.setTrackSelector(mTrackSelector);
     }
 
     @Override
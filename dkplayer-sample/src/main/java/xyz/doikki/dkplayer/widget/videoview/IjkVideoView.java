@@ -42,42 +42,42 @@ public class IjkVideoView extends BaseVideoView<CustomIjkMediaPlayer> {
     }
 
     @Override
-    protected void setOptions() {
-        super.setOptions();
+    protected void setOptions(CustomIjkMediaPlayer player) {
+        super.setOptions(player);
         for (Map.Entry<String, Object> next : mPlayerOptions.entrySet()) {
             String key = next.getKey();
             Object value = next.getValue();
             if (value instanceof String) {
-                mMediaPlayer.setPlayerOption(key, (String) value);
+                player.setPlayerOption(key, (String) value);
             } else if (value instanceof Long) {
-                mMediaPlayer.setPlayerOption(key, (Long) value);
+                player.setPlayerOption(key, (Long) value);
             }
         }
         for (Map.Entry<String, Object> next : mFormatOptions.entrySet()) {
             String key = next.getKey();
             Object value = next.getValue();
             if (value instanceof String) {
-                mMediaPlayer.setFormatOption(key, (String) value);
+                player.setFormatOption(key, (String) value);
             } else if (value instanceof Long) {
-                mMediaPlayer.setFormatOption(key, (Long) value);
+                player.setFormatOption(key, (Long) value);
             }
         }
         for (Map.Entry<String, Object> next : mCodecOptions.entrySet()) {
             String key = next.getKey();
             Object value = next.getValue();
             if (value instanceof String) {
-                mMediaPlayer.setCodecOption(key, (String) value);
+                player.setCodecOption(key, (String) value);
             } else if (value instanceof Long) {
-                mMediaPlayer.setCodecOption(key, (Long) value);
+                player.setCodecOption(key, (Long) value);
             }
         }
         for (Map.Entry<String, Object> next : mSwsOptions.entrySet()) {
             String key = next.getKey();
             Object value = next.getValue();
             if (value instanceof String) {
-                mMediaPlayer.setSwsOption(key, (String) value);
+                player.setSwsOption(key, (String) value);
             } else if (value instanceof Long) {
-                mMediaPlayer.setSwsOption(key, (Long) value);
+                player.setSwsOption(key, (Long) value);
             }
         }
     }
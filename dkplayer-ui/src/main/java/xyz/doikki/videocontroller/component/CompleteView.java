@@ -14,7 +14,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import xyz.doikki.videocontroller.R;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.util.PlayerUtils;
@@ -22,7 +22,7 @@ import xyz.doikki.videoplayer.util.PlayerUtils;
 /**
  * 自动播放完成界面
  */
-public class CompleteView extends FrameLayout implements IControlComponent {
+public class CompleteView extends FrameLayout implements IProgressComponent {
 
     private ControlWrapper mControlWrapper;
 
@@ -119,6 +119,11 @@ public class CompleteView extends FrameLayout implements IControlComponent {
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLock) {
 
@@ -13,7 +13,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import xyz.doikki.videocontroller.R;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.player.VideoView;
 
@@ -21,7 +21,7 @@ import xyz.doikki.videoplayer.player.VideoView;
  * 播放出错提示界面
  * Created by Doikki on 2017/4/13.
  */
-public class ErrorView extends LinearLayout implements IControlComponent {
+public class ErrorView extends LinearLayout implements IProgressComponent {
 
     private float mDownX;
     private float mDownY;
@@ -88,6 +88,11 @@ public class ErrorView extends LinearLayout implements IControlComponent {
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLock) {
 
@@ -21,12 +21,13 @@ import androidx.annotation.Nullable;
 import xyz.doikki.videocontroller.R;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.controller.IGestureComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.player.VideoView;
 
 /**
  * 手势控制
  */
-public class GestureView extends FrameLayout implements IGestureComponent {
+public class GestureView extends FrameLayout implements IGestureComponent, IProgressComponent {
 
     public GestureView(@NonNull Context context) {
         super(context);
@@ -151,6 +152,11 @@ public class GestureView extends FrameLayout implements IGestureComponent {
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLock) {
 
@@ -15,7 +15,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import xyz.doikki.videocontroller.R;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.util.PlayerUtils;
@@ -23,7 +23,7 @@ import xyz.doikki.videoplayer.util.PlayerUtils;
 /**
  * 直播底部控制栏
  */
-public class LiveControlView extends FrameLayout implements IControlComponent, View.OnClickListener {
+public class LiveControlView extends FrameLayout implements IProgressComponent, View.OnClickListener {
 
     private ControlWrapper mControlWrapper;
 
@@ -139,6 +139,11 @@ public class LiveControlView extends FrameLayout implements IControlComponent, V
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
         onVisibilityChanged(!isLocked, null);
@@ -13,7 +13,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import xyz.doikki.videocontroller.R;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.player.VideoViewManager;
@@ -21,7 +21,7 @@ import xyz.doikki.videoplayer.player.VideoViewManager;
 /**
  * 准备播放界面
  */
-public class PrepareView extends FrameLayout implements IControlComponent {
+public class PrepareView extends FrameLayout implements IProgressComponent {
 
     private ControlWrapper mControlWrapper;
     
@@ -129,6 +129,11 @@ public class PrepareView extends FrameLayout implements IControlComponent {
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
 
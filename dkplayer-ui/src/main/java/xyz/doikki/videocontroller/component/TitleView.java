@@ -20,7 +20,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import xyz.doikki.videocontroller.R;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.util.PlayerUtils;
@@ -28,7 +28,7 @@ import xyz.doikki.videoplayer.util.PlayerUtils;
 /**
  * 播放器顶部标题栏
  */
-public class TitleView extends FrameLayout implements IControlComponent {
+public class TitleView extends FrameLayout implements IProgressComponent {
 
     private ControlWrapper mControlWrapper;
 
@@ -173,6 +173,11 @@ public class TitleView extends FrameLayout implements IControlComponent {
 
     }
 
+    @Override
+    public int getProgressResolution() {
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
         if (isLocked) {
@@ -24,14 +24,14 @@ import androidx.annotation.Nullable;
 
 import xyz.doikki.videocontroller.R;
 import xyz.doikki.videoplayer.controller.ControlWrapper;
-import xyz.doikki.videoplayer.controller.IControlComponent;
+import xyz.doikki.videoplayer.controller.IProgressComponent;
 import xyz.doikki.videoplayer.player.VideoView;
 import xyz.doikki.videoplayer.util.PlayerUtils;
 
 /**
  * 点播底部控制栏
  */
-public class VodControlView extends FrameLayout implements IControlComponent, View.OnClickListener, SeekBar.OnSeekBarChangeListener {
+public class VodControlView extends FrameLayout implements IProgressComponent, View.OnClickListener, SeekBar.OnSeekBarChangeListener {
     
     protected ControlWrapper mControlWrapper;
 
@@ -234,6 +234,16 @@ public class VodControlView extends FrameLayout implements IControlComponent, Vi
             mCurrTime.setText(stringForTime(position));
     }
 
+    @Override
+    public int getProgressResolution() {
+        //控制栏或底部进度条可见时才需要刷新进度
+        if (getVisibility() == VISIBLE && (mBottomContainer.getVisibility() == VISIBLE
+                || mBottomProgress.getVisibility() == VISIBLE)) {
+            return PROGRESS_SECOND;
+        }
+        return PROGRESS_NONE;
+    }
+
     @Override
     public void onLockStateChanged(boolean isLocked) {
         onVisibilityChanged(!isLocked, null);
@@ -1,6 +1,5 @@
 package com.danikula.videocache;
 
-import java.io.ByteArrayInputStream;
 import java.util.Arrays;
 
 /**
@@ -10,7 +9,8 @@ import java.util.Arrays;
  */
 public class ByteArrayCache implements Cache {
 
-    private volatile byte[] data;
+    private byte[] data;
+    private int length;
     private volatile boolean completed;
 
     public ByteArrayCache() {
@@ -19,32 +19,52 @@ public class ByteArrayCache implements Cache {
 
     public ByteArrayCache(byte[] data) {
         this.data = Preconditions.checkNotNull(data);
+        this.length = data.length;
     }
 
     @Override
-    public int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
-        if (offset >= data.length) {
+    public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        if (offset >= this.length) {
             return -1;
         }
         if (offset > Integer.MAX_VALUE) {
             throw new IllegalArgumentException("Too long offset for memory cache " + offset);
         }
-        return new ByteArrayInputStream(data).read(buffer, (int) offset, length);
+        int count = Math.min(length, this.length - (int) offset);
+        System.arraycopy(data, (int) offset, buffer, 0, count);
+        return count;
     }
 
     @Override
-    public long available() throws ProxyCacheException {
-        return data.length;
+    public synchronized long available() throws ProxyCacheException {
+        return length;
     }
 
     @Override
-    public void append(byte[] newData, int length) throws ProxyCacheException {
-        Preconditions.checkNotNull(data);
+    public synchronized long available(long offset) throws ProxyCacheException {
+        return Math.max(0, length - offset);
+    }
+
+    @Override
+    public synchronized void append(byte[] newData, int length) throws ProxyCacheException {
+        write(newData, this.length, length);
+    }
+
+    @Override
+    public synchronized void write(byte[] newData, long offset, int length) throws ProxyCacheException {
+        Preconditions.checkNotNull(newData);
         Preconditions.checkArgument(length >= 0 && length <= newData.length);
+        if (offset > this.length) {
+            throw new ProxyCacheException("Memory cache doesn't support holes: offset " + offset + " is beyond " + this.length);
+        }
 
-        byte[] appendedData = Arrays.copyOf(data, data.length + length);
-        System.arraycopy(newData, 0, appendedData, data.length, length);
-        data = appendedData;
+        int end = (int) Math.max(this.length, offset + length);
+        if (end > data.length) {
+            // grow array geometrically, so appending doesn't copy all data every time
+            data = Arrays.copyOf(data, Math.max(end, data.length * 2));
+        }
+        System.arraycopy(newData, 0, data, (int) offset, length);
+        this.length = end;
     }
 
     @Override
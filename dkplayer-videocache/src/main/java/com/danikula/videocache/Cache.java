@@ -7,12 +7,39 @@ package com.danikula.videocache;
  */
 public interface Cache {
 
+    /**
+     * Returns count of bytes cached continuously from the beginning of data.
+     *
+     * @return count of cached bytes.
+     * @throws ProxyCacheException if error occur while reading cache state.
+     */
     long available() throws ProxyCacheException;
 
+    /**
+     * Returns count of bytes cached continuously starting with passed offset.
+     * Cache may contain data after holes, so returned value is {@code 0} if offset points to not cached data.
+     *
+     * @param offset an offset in bytes.
+     * @return count of cached bytes starting with offset.
+     * @throws ProxyCacheException if error occur while reading cache state.
+     */
+    long available(long offset) throws ProxyCacheException;
+
     int read(byte[] buffer, long offset, int length) throws ProxyCacheException;
 
     void append(byte[] data, int length) throws ProxyCacheException;
 
+    /**
+     * Writes data to cache at passed offset. Offset may point beyond {@link #available()},
+     * in this case hole between cached data and written one stays not cached.
+     *
+     * @param data   a data to be written.
+     * @param offset an offset in bytes data is written to.
+     * @param length count of bytes from data to be written.
+     * @throws ProxyCacheException if error occur while writing data.
+     */
+    void write(byte[] data, long offset, int length) throws ProxyCacheException;
+
     void close() throws ProxyCacheException;
 
     void complete() throws ProxyCacheException;
@@ -2,6 +2,7 @@ package com.danikula.videocache;
 
 import com.danikula.videocache.file.DiskUsage;
 import com.danikula.videocache.file.FileNameGenerator;
+import com.danikula.videocache.file.MemoryCache;
 import com.danikula.videocache.headers.HeaderInjector;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 
@@ -19,13 +20,23 @@ class Config {
     public final DiskUsage diskUsage;
     public final SourceInfoStorage sourceInfoStorage;
     public final HeaderInjector headerInjector;
+    public final int selectorWorkerThreads;
+    public final int maxConcurrentDownloads;
+    public final int parallelDownloads;
+    public final MemoryCache memoryCache;
+    public final boolean verifyContentIdentity;
 
-    Config(File cacheRoot, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector) {
+    Config(File cacheRoot, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector, int selectorWorkerThreads, int maxConcurrentDownloads, int parallelDownloads, MemoryCache memoryCache, boolean verifyContentIdentity) {
         this.cacheRoot = cacheRoot;
         this.fileNameGenerator = fileNameGenerator;
         this.diskUsage = diskUsage;
         this.sourceInfoStorage = sourceInfoStorage;
         this.headerInjector = headerInjector;
+        this.selectorWorkerThreads = selectorWorkerThreads;
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.parallelDownloads = parallelDownloads;
+        this.memoryCache = memoryCache;
+        this.verifyContentIdentity = verifyContentIdentity;
     }
 
     File generateCacheFile(String url) {
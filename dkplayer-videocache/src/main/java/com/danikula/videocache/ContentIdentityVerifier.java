@@ -0,0 +1,283 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileCache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Checks that cache file shared by several urls (see {@link com.danikula.videocache.file.NormalizingFileNameGenerator})
+ * keeps content of url being requested.
+ * <p/>
+ * Url that created cache file or passed verification is trusted, so network is used only when cache file is requested
+ * by other url, e.g. by the same video with new CDN token. Content is considered the same if server returns known ETag
+ * or if source's length and sampled bytes (beginning, middle and end of source) are equal to cached ones.
+ * Cached data is deleted if content differs. If nothing can be compared (e.g. only samples not cached yet are
+ * available) content is unknown, cached data is kept and url isn't trusted.
+ * <p/>
+ * Trusted urls are saved to service file in cache directory, so cached files aren't verified again after restart.
+ * If verification fails (e.g. device is offline) url isn't verified again for some time, cached data is used as is.
+ */
+final class ContentIdentityVerifier {
+
+    private static final int SAMPLE_SIZE = 4 * 1024;
+    private static final String IDENTITIES_FILE_NAME = FileCache.SERVICE_FILE_PREFIX + "identities";
+    private static final String IDENTITY_FIELDS_SEPARATOR = "\t";
+    // url isn't verified again for this time after failed verification
+    private static final long RETRY_INTERVAL_MS = 60 * 1000;
+
+    // by absolute path of cache file
+    private final Map<String, Identity> identities = new ConcurrentHashMap<>();
+    private final Map<String, Identity> failures = new ConcurrentHashMap<>();
+    private final Config config;
+    private final File identitiesFile;
+    private boolean identitiesRead;
+
+    ContentIdentityVerifier(Config config) {
+        this.config = checkNotNull(config);
+        this.identitiesFile = new File(config.cacheRoot, IDENTITIES_FILE_NAME);
+    }
+
+    /**
+     * Returns whether cached data of file is known to be content of url, so it can be used without verification.
+     *
+     * @param url  an url of source.
+     * @param file a cache file for url.
+     * @return {@code true} if url created cache file or passed verification.
+     */
+    boolean isTrusted(String url, File file) {
+        readIdentities();
+        Identity identity = identities.get(file.getAbsolutePath());
+        return identity != null && identity.url.equals(url);
+    }
+
+    /**
+     * Verifies cached data of file is content of url and deletes cached data otherwise.
+     * Cached data is kept if source isn't available, so cache can be used offline, and url isn't verified again
+     * for some time.
+     *
+     * @param url  an url of source.
+     * @param file a cache file for url.
+     * @throws ProxyCacheException if cache can't be read or deleted.
+     */
+    void verify(String url, File file) throws ProxyCacheException {
+        if (isTrusted(url, file)) {
+            return;
+        }
+        String key = file.getAbsolutePath();
+        Identity failure = failures.get(key);
+        if (failure != null && failure.url.equals(url) && System.currentTimeMillis() - failure.time < RETRY_INTERVAL_MS) {
+            return;
+        }
+        Identity known = identities.get(key);
+        FileCache cache = new FileCache(file, config.diskUsage, config.memoryCache);
+        boolean deleted = false;
+        try {
+            if (known == null && !cache.isCompleted() && cache.available() == 0) {
+                putIdentity(key, new Identity(url, null, -1)); // nothing to verify, url will create cached data
+                return;
+            }
+            HttpUrlSource source = new HttpUrlSource(url, config.sourceInfoStorage, config.headerInjector);
+            Match match = matchContent(source, cache, known);
+            if (match == Match.UNKNOWN) {
+                Logger.debug("Content of " + url + " can't be compared with cached data of " + file + ", cached data is kept");
+                failures.put(key, new Identity(url, null, -1));
+                return;
+            }
+            if (match == Match.DIFFERENT) {
+                Logger.warn("Cached data of " + file + " doesn't match content of " + url + ", it will be downloaded again");
+                cache.delete();
+                deleted = true;
+            }
+            failures.remove(key);
+            putIdentity(key, new Identity(url, source.getETag(), source.length()));
+        } catch (ProxyCacheException e) {
+            Logger.warn("Error verifying content of " + url + ", cached data is used as is: " + e.getMessage());
+            failures.put(key, new Identity(url, null, -1));
+        } finally {
+            if (!deleted) {
+                cache.close();
+            }
+        }
+    }
+
+    private void putIdentity(String key, Identity identity) {
+        readIdentities();
+        identities.put(key, identity);
+        writeIdentities();
+    }
+
+    private synchronized void readIdentities() {
+        if (identitiesRead) {
+            return;
+        }
+        identitiesRead = true;
+        if (!identitiesFile.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(identitiesFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // <path of cache file> <url> <etag or empty string> <length>
+                String[] fields = line.split(IDENTITY_FIELDS_SEPARATOR, -1);
+                if (fields.length != 4) {
+                    continue;
+                }
+                if (!FileCache.exists(new File(fields[0]))) {
+                    continue; // cache file is deleted
+                }
+                String etag = fields[2].isEmpty() ? null : fields[2];
+                identities.put(fields[0], new Identity(fields[1], etag, Long.parseLong(fields[3])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            Logger.error("Error reading content identities from " + identitiesFile + ": " + e.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private synchronized void writeIdentities() {
+        File newIdentitiesFile = new File(identitiesFile.getParentFile(), identitiesFile.getName() + ".new");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(newIdentitiesFile), "UTF-8"));
+            for (Map.Entry<String, Identity> entry : identities.entrySet()) {
+                Identity identity = entry.getValue();
+                boolean storableEtag = identity.etag != null && !identity.etag.contains(IDENTITY_FIELDS_SEPARATOR);
+                writer.write(entry.getKey() + IDENTITY_FIELDS_SEPARATOR + identity.url + IDENTITY_FIELDS_SEPARATOR +
+                        (storableEtag ? identity.etag : "") + IDENTITY_FIELDS_SEPARATOR + identity.length + '\n');
+            }
+            writer.close();
+            writer = null;
+            if (!newIdentitiesFile.renameTo(identitiesFile)) {
+                throw new IOException("Error renaming " + newIdentitiesFile + " to " + identitiesFile);
+            }
+        } catch (IOException e) {
+            Logger.error("Error writing content identities to " + identitiesFile + ": " + e.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Logger.warn("Error closing " + closeable);
+            }
+        }
+    }
+
+    private Match matchContent(HttpUrlSource source, FileCache cache, Identity known) throws ProxyCacheException {
+        byte[] head = readSample(source, 0, SAMPLE_SIZE);
+        String etag = source.getETag();
+        if (known != null && known.etag != null && known.etag.equals(etag)) {
+            return Match.SAME;
+        }
+        // other etag doesn't mean other content, e.g. mirrors may generate etags differently
+        long length = source.length();
+        long cachedLength = cache.isCompleted() ? cache.available() : (known != null ? known.length : -1);
+        if (length >= 0 && cachedLength >= 0 && length != cachedLength) {
+            return Match.DIFFERENT;
+        }
+        int compared = 0;
+        for (long offset : getSampleOffsets(length)) {
+            int size = (int) (length >= 0 ? Math.min(SAMPLE_SIZE, length - offset) : head.length);
+            if (size <= 0 || cache.available(offset) < size) {
+                continue; // sample isn't cached
+            }
+            byte[] remote = offset == 0 ? head : readOptionalSample(source, offset, size);
+            if (remote == null || remote.length < size) {
+                continue;
+            }
+            byte[] cached = readCached(cache, offset, size);
+            if (!Arrays.equals(Arrays.copyOf(remote, size), cached)) {
+                return Match.DIFFERENT;
+            }
+            compared++;
+        }
+        return compared > 0 ? Match.SAME : Match.UNKNOWN;
+    }
+
+    private long[] getSampleOffsets(long length) {
+        return length > 2 * SAMPLE_SIZE ? new long[]{0, length / 2, length - SAMPLE_SIZE} : new long[]{0};
+    }
+
+    private byte[] readOptionalSample(HttpUrlSource source, long offset, int size) {
+        try {
+            return readSample(source, offset, size);
+        } catch (ProxyCacheException e) {
+            Logger.debug("Error reading sample of " + source.getUrl() + " with offset " + offset + ": " + e.getMessage());
+            return null; // e.g. server doesn't support ranges
+        }
+    }
+
+    private byte[] readSample(HttpUrlSource source, long offset, int size) throws ProxyCacheException {
+        byte[] sample = new byte[size];
+        int sampleLength = 0;
+        try {
+            source.open(offset, offset + size);
+            byte[] buffer = new byte[size];
+            int readBytes;
+            while (sampleLength < size && (readBytes = source.read(buffer)) != -1) {
+                int count = Math.min(readBytes, size - sampleLength);
+                System.arraycopy(buffer, 0, sample, sampleLength, count);
+                sampleLength += count;
+            }
+        } finally {
+            source.close();
+        }
+        return Arrays.copyOf(sample, sampleLength);
+    }
+
+    private byte[] readCached(FileCache cache, long offset, int size) throws ProxyCacheException {
+        byte[] data = new byte[size];
+        int position = 0;
+        while (position < size) {
+            byte[] buffer = new byte[size - position];
+            int readBytes = cache.read(buffer, offset + position, buffer.length);
+            if (readBytes <= 0) {
+                break;
+            }
+            System.arraycopy(buffer, 0, data, position, readBytes);
+            position += readBytes;
+        }
+        return data;
+    }
+
+    private enum Match {
+        SAME, DIFFERENT, UNKNOWN
+    }
+
+    private static final class Identity {
+
+        final String url;
+        final String etag;
+        final long length;
+        // time of verification
+        final long time;
+
+        Identity(String url, String etag, long length) {
+            this.url = url;
+            this.etag = etag;
+            this.length = length;
+            this.time = System.currentTimeMillis();
+        }
+    }
+}
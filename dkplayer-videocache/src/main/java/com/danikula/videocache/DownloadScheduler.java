@@ -0,0 +1,234 @@
+package com.danikula.videocache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+
+/**
+ * Shared executor for all source readers of {@link HttpProxyCacheServer}.
+ * <p/>
+ * Runs limited count of downloads concurrently, the rest wait in queue ordered by priority and then by submitting order.
+ * If all download slots are busy, task with higher priority preempts running task with the lowest priority,
+ * so playback is never blocked by preloading.
+ */
+final class DownloadScheduler {
+
+    static final int PRIORITY_PRELOAD = 0;
+    // parts of source fetched in parallel ahead of the part being played
+    static final int PRIORITY_READ_AHEAD = 1;
+    static final int PRIORITY_PLAYBACK = 2;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final int maxConcurrentDownloads;
+    private final ThreadPoolExecutor executor;
+    private final List<Task> activeTasks = new ArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong preloadFetchedBytes = new AtomicLong();
+
+    DownloadScheduler(int maxConcurrentDownloads) {
+        checkArgument(maxConcurrentDownloads > 0, "Max concurrent downloads must be positive");
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.executor = new ThreadPoolExecutor(maxConcurrentDownloads, maxConcurrentDownloads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new SourceReaderThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    void submit(Task task) {
+        task.scheduler = this;
+        task.sequence = sequence.incrementAndGet();
+        executor.execute(task);
+        // task is queued before preempting, so slot of preempted task is taken by it instead of another queued task
+        if (executor.getQueue().contains(task)) {
+            preemptIfNeeded(task.priority);
+        }
+    }
+
+    void cancel(Task task) {
+        task.canceled = true;
+        if (!executor.remove(task)) {
+            task.interrupt();
+            // interruption doesn't abort blocking socket read, task keeps download slot till data or timeout come
+            task.abort();
+        }
+    }
+
+    /**
+     * Raises priority of task if it is lower than passed one.
+     */
+    void raisePriority(Task task, int priority) {
+        if (task.priority >= priority) {
+            return;
+        }
+        boolean queued = executor.remove(task);
+        task.priority = priority;
+        if (queued) {
+            submit(task);
+        }
+    }
+
+    /**
+     * Returns count of downloads waiting for free slot.
+     */
+    int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns count of running downloads.
+     */
+    int getActiveCount() {
+        synchronized (activeTasks) {
+            return activeTasks.size();
+        }
+    }
+
+    /**
+     * Returns count of running downloads with priority not lower than passed one.
+     */
+    int getActiveCount(int minPriority) {
+        int count = 0;
+        synchronized (activeTasks) {
+            for (Task task : activeTasks) {
+                if (task.priority >= minPriority) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts bytes fetched from source by task.
+     */
+    void onDataFetched(Task task, int bytes) {
+        if (task.priority == PRIORITY_PRELOAD) {
+            preloadFetchedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Returns count of bytes fetched by preloading tasks since scheduler is created.
+     */
+    long getPreloadFetchedBytes() {
+        return preloadFetchedBytes.get();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void preemptIfNeeded(int priority) {
+        Task victim = null;
+        synchronized (activeTasks) {
+            if (activeTasks.size() < maxConcurrentDownloads) {
+                return;
+            }
+            for (Task task : activeTasks) {
+                if (task.priority < priority && (victim == null || task.priority < victim.priority)) {
+                    victim = task;
+                }
+            }
+        }
+        if (victim != null) {
+            Logger.debug("Preempt download " + victim + " by download with priority " + priority);
+            cancel(victim);
+        }
+    }
+
+    private void onStarted(Task task) {
+        synchronized (activeTasks) {
+            activeTasks.add(task);
+        }
+    }
+
+    private void onFinished(Task task) {
+        synchronized (activeTasks) {
+            activeTasks.remove(task);
+        }
+    }
+
+    /**
+     * Download to be executed by {@link DownloadScheduler}.
+     */
+    abstract static class Task implements Runnable, Comparable<Task> {
+
+        private volatile int priority;
+        private volatile boolean canceled;
+        private volatile DownloadScheduler scheduler;
+        private long sequence;
+        private Thread thread;
+
+        Task(int priority) {
+            this.priority = priority;
+        }
+
+        protected abstract void execute();
+
+        /**
+         * Aborts blocking I/O of running task, called from thread canceling task. Thread executing task is interrupted
+         * too, but interruption doesn't abort blocking read from socket.
+         */
+        protected void abort() {
+        }
+
+        int getPriority() {
+            return priority;
+        }
+
+        boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public final void run() {
+            synchronized (this) {
+                if (canceled) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            scheduler.onStarted(this);
+            try {
+                execute();
+            } finally {
+                scheduler.onFinished(this);
+                synchronized (this) {
+                    thread = null;
+                    Thread.interrupted(); // don't leak interruption to next task executed by this thread
+                }
+            }
+        }
+
+        private synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (priority != another.priority) {
+                return priority > another.priority ? -1 : 1;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+    private static final class SourceReaderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "Source reader " + threadNumber.incrementAndGet());
+        }
+    }
+}
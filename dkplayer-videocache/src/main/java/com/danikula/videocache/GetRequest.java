@@ -1,70 +1,85 @@
 package com.danikula.videocache;
 
-import android.text.TextUtils;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.danikula.videocache.Preconditions.checkNotNull;
 
 /**
  * Model for Http GET request.
+ * <p/>
+ * Requested range is {@code [rangeOffset, rangeEnd)}. Range requested by suffix ({@code bytes=-N}) depends on
+ * source length, so it is known only after request is resolved by {@link #resolve(long)}.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 class GetRequest {
 
-    private static final Pattern RANGE_HEADER_PATTERN = Pattern.compile("[R,r]ange:[ ]?bytes=(\\d*)-");
-    private static final Pattern URL_PATTERN = Pattern.compile("GET /(.*) HTTP");
+    static final int MAX_REQUEST_SIZE = 8 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024;
 
     public final String uri;
     public final long rangeOffset;
+    // exclusive end of requested range or -1 if range isn't bounded
+    public final long rangeEnd;
     public final boolean partial;
+    public final int priority;
+    // id of preloading request belongs to or null, see HttpProxyCacheServer.PRELOAD_ID_HEADER
+    public final String preloadId;
+    private final long suffixLength;
 
-    public GetRequest(String request) {
-        checkNotNull(request);
-        long offset = findRangeOffset(request);
-        this.rangeOffset = Math.max(0, offset);
-        this.partial = offset >= 0;
-        this.uri = findUri(request);
+    GetRequest(String uri, long rangeOffset, long rangeEnd, long suffixLength, int priority, String preloadId) {
+        this.uri = checkNotNull(uri);
+        this.rangeOffset = Math.max(0, rangeOffset);
+        this.rangeEnd = rangeEnd;
+        this.suffixLength = suffixLength;
+        this.partial = rangeOffset >= 0 || suffixLength >= 0;
+        this.priority = priority;
+        this.preloadId = preloadId;
     }
 
     public static GetRequest read(InputStream inputStream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
-        StringBuilder stringRequest = new StringBuilder();
-        String line;
-        while (!TextUtils.isEmpty(line = reader.readLine())) { // until new line (headers ending)
-            stringRequest.append(line).append('\n');
+        RequestParser parser = new RequestParser(MAX_REQUEST_SIZE);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        while (!parser.isCompleted()) {
+            // request has no body, so bytes read after headers are just thrown away
+            int read = inputStream.read(buffer);
+            if (read < 0) {
+                throw new IOException("Request is not completed: socket is closed by client");
+            }
+            parser.parse(buffer, 0, read);
         }
-        return new GetRequest(stringRequest.toString());
+        return parser.getRequest();
     }
 
-    private long findRangeOffset(String request) {
-        Matcher matcher = RANGE_HEADER_PATTERN.matcher(request);
-        if (matcher.find()) {
-            String rangeValue = matcher.group(1);
-            return Long.parseLong(rangeValue);
+    /**
+     * Returns request with absolute range limited by source length.
+     *
+     * @param length a length of source in bytes or negative value if length is unknown.
+     * @return resolved request, suffix range is returned as whole data if length is unknown.
+     * End of range is left unbounded if range ends with source's end, range beyond source's end is empty.
+     */
+    public GetRequest resolve(long length) {
+        if (length < 0) {
+            return suffixLength >= 0 ? new GetRequest(uri, -1, -1, -1, priority, preloadId) : this;
         }
-        return -1;
-    }
-
-    private String findUri(String request) {
-        Matcher matcher = URL_PATTERN.matcher(request);
-        if (matcher.find()) {
-            return matcher.group(1);
+        long offset = suffixLength >= 0 ? Math.max(0, length - suffixLength) : rangeOffset;
+        long end = suffixLength >= 0 ? -1 : (rangeEnd >= 0 ? Math.min(rangeEnd, length) : -1);
+        if (offset >= length) {
+            end = offset; // range isn't satisfiable, there is no data to be sent
         }
-        throw new IllegalArgumentException("Invalid request `" + request + "`: url not found!");
+        return new GetRequest(uri, partial ? offset : -1, end, -1, priority, preloadId);
     }
 
     @Override
     public String toString() {
         return "GetRequest{" +
                 "rangeOffset=" + rangeOffset +
+                ", rangeEnd=" + rangeEnd +
+                (suffixLength >= 0 ? ", suffixLength=" + suffixLength : "") +
                 ", partial=" + partial +
+                ", priority=" + priority +
+                (preloadId != null ? ", preloadId=" + preloadId : "") +
                 ", uri='" + uri + '\'' +
                 '}';
     }
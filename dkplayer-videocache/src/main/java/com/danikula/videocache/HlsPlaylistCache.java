@@ -0,0 +1,164 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.hls.HlsPlaylist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Serves HLS playlists for {@link HttpProxyCacheServer}.
+ * <p/>
+ * Playlist is small and is always sent whole, so unlike other urls it isn't streamed: it is fetched (or read from cache),
+ * rewritten to make player request media playlists and segments via proxy (so each segment is cached as separate url)
+ * and sent with single response. Original playlist is stored because proxy urls depend on proxy's port.
+ * Only complete playlists (master playlists and VOD media playlists) are cached, live playlists are always fetched.
+ * Relative urls are resolved against final url of playlist after redirects; playlist fetched via redirect is stored
+ * with absolute urls, so cached copy doesn't depend on redirect.
+ */
+final class HlsPlaylistCache {
+
+    static final String MIME = "application/vnd.apple.mpegurl";
+    private static final int MAX_PLAYLIST_SIZE = 2 * 1024 * 1024;
+    private static final String CHARSET = "UTF-8";
+
+    private final Object saveLock = new Object();
+    private final Config config;
+    private final HlsPlaylist.UrlRewriter urlRewriter;
+    private final HlsPlaylist.UrlRewriter absoluteUrls = new HlsPlaylist.UrlRewriter() {
+
+        @Override
+        public String rewrite(String url) {
+            return url;
+        }
+    };
+
+    HlsPlaylistCache(Config config, HlsPlaylist.UrlRewriter urlRewriter) {
+        this.config = checkNotNull(config);
+        this.urlRewriter = checkNotNull(urlRewriter);
+    }
+
+    /**
+     * Returns whole http response with rewritten playlist. Requested range is ignored, playlist is always sent whole.
+     *
+     * @param url an original url of playlist.
+     * @return bytes of response.
+     * @throws ProxyCacheException if playlist can't be fetched or it isn't valid HLS playlist.
+     */
+    byte[] newResponse(String url) throws ProxyCacheException {
+        HlsPlaylist playlist = getPlaylist(url);
+        try {
+            byte[] body = playlist.rewrite(urlRewriter).getBytes(CHARSET);
+            String headers = new StringBuilder()
+                    .append("HTTP/1.1 200 OK\n")
+                    .append(String.format("Content-Length: %d\n", body.length))
+                    .append(String.format("Content-Type: %s\n", MIME))
+                    .append("\n") // headers end
+                    .toString();
+            byte[] headersBytes = headers.getBytes(CHARSET);
+            byte[] response = new byte[headersBytes.length + body.length];
+            System.arraycopy(headersBytes, 0, response, 0, headersBytes.length);
+            System.arraycopy(body, 0, response, headersBytes.length, body.length);
+            return response;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error encoding playlist " + url, e);
+        }
+    }
+
+    private HlsPlaylist getPlaylist(String url) throws ProxyCacheException {
+        File cacheFile = config.generateCacheFile(url);
+        byte[] cachedContent = cacheFile.exists() ? readCached(cacheFile) : null;
+        if (cachedContent != null) {
+            return parse(cachedContent, url);
+        }
+        HttpUrlSource source = new HttpUrlSource(url, config.sourceInfoStorage, config.headerInjector);
+        byte[] content = fetch(source);
+        String responseUrl = source.getResponseUrl();
+        HlsPlaylist playlist = parse(content, responseUrl);
+        if (playlist.isComplete()) {
+            try {
+                save(cacheFile, responseUrl.equals(url) ? content : playlist.rewrite(absoluteUrls).getBytes(CHARSET));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("Error encoding playlist " + url, e);
+            }
+        }
+        return playlist;
+    }
+
+    private HlsPlaylist parse(byte[] content, String url) throws ProxyCacheException {
+        try {
+            return HlsPlaylist.parse(new String(content, CHARSET), url);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error decoding playlist " + url, e);
+        } catch (IllegalArgumentException e) {
+            throw new ProxyCacheException("Error parsing playlist " + url, e);
+        }
+    }
+
+    private byte[] readCached(File file) {
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            byte[] content = new byte[(int) Math.min(input.length(), MAX_PLAYLIST_SIZE)];
+            input.readFully(content);
+            config.diskUsage.touch(file);
+            return content;
+        } catch (IOException e) {
+            Logger.warn("Error reading cached playlist " + file + ", it will be fetched again");
+            return null; // e.g. file is evicted right now
+        } finally {
+            ProxyCacheUtils.close(input);
+        }
+    }
+
+    private byte[] fetch(HttpUrlSource source) throws ProxyCacheException {
+        try {
+            source.open(0);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
+            int readBytes;
+            while ((readBytes = source.read(buffer)) != -1) {
+                content.write(buffer, 0, readBytes);
+                if (content.size() > MAX_PLAYLIST_SIZE) {
+                    throw new ProxyCacheException("Playlist " + source.getUrl() + " is too big, more than " + MAX_PLAYLIST_SIZE + " bytes");
+                }
+            }
+            return content.toByteArray();
+        } finally {
+            source.close();
+        }
+    }
+
+    private void save(File file, byte[] content) {
+        synchronized (saveLock) {
+            if (file.exists()) {
+                return; // saved by concurrent request
+            }
+            File tempFile = new File(file.getParentFile(), file.getName() + ".download");
+            FileOutputStream output = null;
+            try {
+                if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+                    throw new IOException("Error creating directory " + file.getParentFile());
+                }
+                output = new FileOutputStream(tempFile);
+                output.write(content);
+                output.close();
+                output = null;
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Error renaming file " + tempFile + " to " + file);
+                }
+                config.diskUsage.touch(file);
+            } catch (IOException e) {
+                Logger.warn("Error caching playlist " + file + ": " + e.getMessage());
+                tempFile.delete();
+            } finally {
+                ProxyCacheUtils.close(output);
+            }
+        }
+    }
+}
@@ -8,10 +8,11 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Locale;
 
-import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
-
 /**
  * {@link ProxyCache} that read http url and writes data to {@link Socket}
  *
@@ -19,14 +20,16 @@ import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
  */
 class HttpProxyCache extends ProxyCache {
 
-    private static final float NO_CACHE_BARRIER = .2f;
-
     private final HttpUrlSource source;
     private final FileCache cache;
     private CacheListener listener;
 
-    public HttpProxyCache(HttpUrlSource source, FileCache cache) {
-        super(source, cache);
+    public HttpProxyCache(HttpUrlSource source, FileCache cache, DownloadScheduler scheduler) {
+        this(source, cache, scheduler, 1);
+    }
+
+    public HttpProxyCache(HttpUrlSource source, FileCache cache, DownloadScheduler scheduler, int parallelDownloads) {
+        super(source, cache, scheduler, parallelDownloads);
         this.cache = cache;
         this.source = source;
     }
@@ -37,65 +40,85 @@ class HttpProxyCache extends ProxyCache {
 
     public void processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
         OutputStream out = new BufferedOutputStream(socket.getOutputStream());
-        String responseHeaders = newResponseHeaders(request);
-        out.write(responseHeaders.getBytes("UTF-8"));
+        GetRequest resolvedRequest = resolveRequest(request);
+        out.write(newResponseHeaders(resolvedRequest));
 
-        long offset = request.rangeOffset;
-        if (isUseCache(request)) {
-            responseWithCache(out, offset);
-        } else {
-            responseWithoutCache(out, offset);
-        }
+        responseWithCache(out, socket.getChannel(), resolvedRequest);
+    }
+
+    /**
+     * Resolves requested range against source length, see {@link GetRequest#resolve(long)}.
+     * Headers and data must be sent for resolved request.
+     */
+    GetRequest resolveRequest(GetRequest request) throws ProxyCacheException {
+        long length = getLength();
+        onSourceLengthKnown(length);
+        return request.resolve(length);
     }
 
-    private boolean isUseCache(GetRequest request) throws ProxyCacheException {
-        long sourceLength = source.length();
-        boolean sourceLengthKnown = sourceLength > 0;
-        long cacheAvailable = cache.available();
-        // do not use cache for partial requests which too far from available cache. It seems user seek video.
-        return !sourceLengthKnown || !request.partial || request.rangeOffset <= cacheAvailable + sourceLength * NO_CACHE_BARRIER;
+    /**
+     * Transfers cached data directly to channel, see {@link FileCache#transferTo(long, long, WritableByteChannel)}.
+     */
+    long transferTo(long offset, long count, WritableByteChannel target) throws ProxyCacheException, IOException {
+        return cache.transferTo(offset, count, target);
     }
 
-    private String newResponseHeaders(GetRequest request) throws IOException, ProxyCacheException {
+    long getCachedPrefixLength() throws ProxyCacheException {
+        return cache.available(0);
+    }
+
+    byte[] newResponseHeaders(GetRequest request) throws IOException, ProxyCacheException {
         String mime = source.getMime();
         boolean mimeKnown = !TextUtils.isEmpty(mime);
-        long length = cache.isCompleted() ? cache.available() : source.length();
+        long length = getLength();
         boolean lengthKnown = length >= 0;
-        long contentLength = request.partial ? length - request.rangeOffset : length;
-        boolean addRange = lengthKnown && request.partial;
+        if (request.partial && lengthKnown && request.rangeOffset >= length) {
+            return new StringBuilder()
+                    .append("HTTP/1.1 416 RANGE NOT SATISFIABLE\n")
+                    .append(format("Content-Range: bytes */%d\n", length))
+                    .append("Content-Length: 0\n")
+                    .append("\n") // headers end
+                    .toString()
+                    .getBytes("UTF-8");
+        }
+        long end = request.rangeEnd >= 0 ? request.rangeEnd : length;
+        boolean endKnown = end >= 0;
+        long contentLength = end - request.rangeOffset;
+        boolean addRange = request.partial && endKnown;
         return new StringBuilder()
                 .append(request.partial ? "HTTP/1.1 206 PARTIAL CONTENT\n" : "HTTP/1.1 200 OK\n")
                 .append("Accept-Ranges: bytes\n")
-                .append(lengthKnown ? format("Content-Length: %d\n", contentLength) : "")
-                .append(addRange ? format("Content-Range: bytes %d-%d/%d\n", request.rangeOffset, length - 1, length) : "")
+                .append(endKnown ? format("Content-Length: %d\n", contentLength) : "")
+                .append(addRange ? format("Content-Range: bytes %d-%d/%s\n", request.rangeOffset, end - 1, lengthKnown ? length : "*") : "")
                 .append(mimeKnown ? format("Content-Type: %s\n", mime) : "")
                 .append("\n") // headers end
-                .toString();
+                .toString()
+                .getBytes("UTF-8");
     }
 
-    private void responseWithCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        int readBytes;
-        while ((readBytes = read(buffer, offset, buffer.length)) != -1) {
-            out.write(buffer, 0, readBytes);
-            offset += readBytes;
-        }
-        out.flush();
+    private long getLength() throws ProxyCacheException {
+        return cache.isCompleted() ? cache.available() : source.length();
     }
 
-    private void responseWithoutCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
-        HttpUrlSource newSourceNoCache = new HttpUrlSource(this.source);
+    private void responseWithCache(OutputStream out, SocketChannel socketChannel, GetRequest request) throws ProxyCacheException, IOException {
+        out.flush(); // headers are written through stream, data goes directly to channel
+        WritableByteChannel channel = socketChannel != null ? socketChannel : Channels.newChannel(out);
+        long offset = request.rangeOffset;
+        long end = request.rangeEnd;
+        Consumer consumer = addConsumer(offset, end, request.preloadId);
         try {
-            newSourceNoCache.open((int) offset);
-            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-            int readBytes;
-            while ((readBytes = newSourceNoCache.read(buffer)) != -1) {
-                out.write(buffer, 0, readBytes);
-                offset += readBytes;
+            long cached;
+            while ((end < 0 || offset < end) && (cached = waitForCache(offset, end, request.priority, consumer)) > 0) {
+                long transferred = cache.transferTo(offset, end < 0 ? cached : Math.min(cached, end - offset), channel);
+                if (transferred < 0) {
+                    continue; // corrupted data is dropped, wait for it to be fetched again
+                }
+                offset += transferred;
+                consumer.setPosition(offset);
             }
             out.flush();
         } finally {
-            newSourceNoCache.close();
+            removeConsumer(consumer);
         }
     }
 
@@ -103,6 +126,42 @@ class HttpProxyCache extends ProxyCache {
         return String.format(Locale.US, pattern, args);
     }
 
+    @Override
+    protected Source newSourceReader() {
+        return new HttpUrlSource(source);
+    }
+
+    @Override
+    protected void abortSource(Source source) {
+        ((HttpUrlSource) source).abort();
+    }
+
+    /**
+     * Opens source with validator of cached data, so data of changed source is never written next to old one.
+     * If source is changed, cached data is dropped and source is opened again by next attempt to fetch data.
+     */
+    @Override
+    protected void openSource(Source source, long offset, long end) throws ProxyCacheException {
+        HttpUrlSource urlSource = (HttpUrlSource) source;
+        String cachedValidator = cache.getValidator();
+        try {
+            urlSource.open(offset, end, cachedValidator);
+        } finally {
+            onValidatorReceived(cachedValidator, urlSource.getValidator());
+        }
+    }
+
+    private void onValidatorReceived(String cachedValidator, String validator) throws ProxyCacheException {
+        if (validator == null || validator.equals(cachedValidator)) {
+            return;
+        }
+        if (cachedValidator != null && !cache.isCompleted()) {
+            Logger.warn("Source " + source.getUrl() + " is changed, cached data is dropped");
+            cache.clear();
+        }
+        cache.setValidator(validator);
+    }
+
     @Override
     protected void onCachePercentsAvailableChanged(int percents) {
         if (listener != null) {
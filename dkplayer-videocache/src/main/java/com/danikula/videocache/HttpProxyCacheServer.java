@@ -4,21 +4,27 @@ import android.content.Context;
 import android.net.Uri;
 
 import com.danikula.videocache.file.DiskUsage;
+import com.danikula.videocache.file.FileCache;
 import com.danikula.videocache.file.FileNameGenerator;
 import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.file.MemoryCache;
 import com.danikula.videocache.file.TotalCountLruDiskUsage;
 import com.danikula.videocache.file.TotalSizeLruDiskUsage;
 import com.danikula.videocache.headers.EmptyHeadersInjector;
 import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.hls.HlsPlaylist;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,12 +51,28 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
  * // should return single instance of HttpProxyCacheServer shared for whole app.
  * }
  * </code></pre>
+ * HLS streams are supported too: playlists (urls ending with {@code .m3u8}) are rewritten, so player requests media
+ * playlists and segments via proxy and every segment is cached as separate url.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 public class HttpProxyCacheServer {
 
+    /**
+     * Request header marking request to proxy as preloading, e.g. {@code X-Preload: 1}.
+     * Downloads for such requests have lower priority than downloads for playback and are preempted by them
+     * when all download slots are busy, see {@link Builder#maxConcurrentDownloads(int)}.
+     */
+    public static final String PRELOAD_HEADER = "X-Preload";
+
+    /**
+     * Request header with id of preloading request belongs to, e.g. {@code X-Preload-Id: 42}. All requests of preloading
+     * can be canceled at once by {@link #cancelPreload(String)}.
+     */
+    public static final String PRELOAD_ID_HEADER = "X-Preload-Id";
+
     private static final String PROXY_HOST = "127.0.0.1";
+    private static final int SELECTOR_BACKLOG = 64;
 
     private final Object clientsLock = new Object();
     private final ExecutorService socketProcessor = Executors.newFixedThreadPool(8);
@@ -58,6 +80,10 @@ public class HttpProxyCacheServer {
     private final ServerSocket serverSocket;
     private final int port;
     private final Thread waitConnectionThread;
+    private final SelectorLoop selectorLoop;
+    private final DownloadScheduler downloadScheduler;
+    private final HlsPlaylistCache playlistCache;
+    private final ContentIdentityVerifier verifier;
     private final Config config;
 
     public HttpProxyCacheServer(Context context) {
@@ -66,17 +92,33 @@ public class HttpProxyCacheServer {
 
     private HttpProxyCacheServer(Config config) {
         this.config = checkNotNull(config);
+        this.downloadScheduler = new DownloadScheduler(config.maxConcurrentDownloads);
+        this.verifier = config.verifyContentIdentity ? new ContentIdentityVerifier(config) : null;
         try {
             InetAddress inetAddress = InetAddress.getByName(PROXY_HOST);
-            this.serverSocket = new ServerSocket(0, 8, inetAddress);
+            // socket is opened via channel, so accepted sockets have channels for zero-copy transferring of cached data
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            this.serverSocket = serverChannel.socket();
+            boolean useSelector = config.selectorWorkerThreads > 0;
+            this.serverSocket.bind(new InetSocketAddress(inetAddress, 0), useSelector ? SELECTOR_BACKLOG : 8);
             this.port = serverSocket.getLocalPort();
+            this.playlistCache = new HlsPlaylistCache(config, new ProxyUrlRewriter());
             IgnoreHostProxySelector.install(PROXY_HOST, port);
-            CountDownLatch startSignal = new CountDownLatch(1);
-            this.waitConnectionThread = new Thread(new WaitRequestsRunnable(startSignal));
-            this.waitConnectionThread.start();
-            startSignal.await(); // freeze thread, wait for server starts
+            if (useSelector) {
+                this.waitConnectionThread = null;
+                this.selectorLoop = new SelectorLoop(this, serverChannel, config.selectorWorkerThreads);
+                this.selectorLoop.start();
+                socketProcessor.shutdown(); // connections are served by selector loop
+            } else {
+                this.selectorLoop = null;
+                CountDownLatch startSignal = new CountDownLatch(1);
+                this.waitConnectionThread = new Thread(new WaitRequestsRunnable(startSignal));
+                this.waitConnectionThread.start();
+                startSignal.await(); // freeze thread, wait for server starts
+            }
         } catch (IOException | InterruptedException e) {
             socketProcessor.shutdown();
+            downloadScheduler.shutdown();
             throw new IllegalStateException("Error starting local proxy server", e);
         }
     }
@@ -91,6 +133,9 @@ public class HttpProxyCacheServer {
      *
      * @param url a url to file that should be cached.
      * @return a wrapped by proxy url if file is not fully cached or url pointed to cache file otherwise.
+     * Url of HLS playlist is always wrapped by proxy because urls listed by playlist must be rewritten.
+     * If content identity is verified (see {@link Builder#verifyContentIdentity(boolean)}) url is wrapped by proxy
+     * until cached file is verified for this url.
      */
     public String getProxyUrl(String url) {
         return getProxyUrl(url, true);
@@ -107,8 +152,9 @@ public class HttpProxyCacheServer {
      * @return a wrapped by proxy url if file is not fully cached or url pointed to cache file otherwise (if {@code allowCachedFileUri} is {@code true}).
      */
     public String getProxyUrl(String url, boolean allowCachedFileUri) {
-        if (allowCachedFileUri && getCacheFile(url).exists()) {
-            File cacheFile = getCacheFile(url);
+        File cacheFile = getCacheFile(url);
+        boolean trusted = verifier == null || verifier.isTrusted(url, cacheFile);
+        if (allowCachedFileUri && trusted && !HlsPlaylist.isPlaylistUrl(url) && cacheFile.exists()) {
             touchFileSafely(cacheFile);
             return Uri.fromFile(cacheFile).toString();
         }
@@ -157,14 +203,89 @@ public class HttpProxyCacheServer {
         return getCacheFile(url).exists();
     }
 
+    /**
+     * Returns count of bytes cached continuously from the start of video. Unlike length of temp cache file it doesn't
+     * count data cached after a gap, e.g. after seek or fetched tail of video.
+     *
+     * @param url an url of video.
+     * @return count of bytes player can read from cache starting with the first byte.
+     */
+    public long getCachedPrefixLength(String url) {
+        checkNotNull(url, "Url can't be null!");
+        HttpProxyCacheServerClients clients = clientsMap.get(config.fileNameGenerator.generate(url));
+        long cachedByClients = clients != null ? clients.getCachedPrefixLength() : -1;
+        // index of cache being used right now is saved periodically, so it may be behind cache in memory
+        return cachedByClients >= 0 ? cachedByClients : FileCache.readCachedPrefixLength(getCacheFile(url));
+    }
+
+    /**
+     * Returns count of downloads waiting for free download slot.
+     *
+     * @return count of queued downloads.
+     */
+    public int getQueuedDownloadsCount() {
+        return downloadScheduler.getQueueSize();
+    }
+
+    /**
+     * Returns count of downloads being executed right now.
+     *
+     * @return count of active downloads, never greater than {@link Builder#maxConcurrentDownloads(int)}.
+     */
+    public int getActiveDownloadsCount() {
+        return downloadScheduler.getActiveCount();
+    }
+
+    /**
+     * Returns count of downloads being executed right now for playback, i.e. for requests not marked
+     * by {@link #PRELOAD_HEADER}. Preloaders may use it to yield bandwidth to player.
+     *
+     * @return count of active playback downloads.
+     */
+    public int getActivePlaybackDownloadsCount() {
+        return downloadScheduler.getActiveCount(DownloadScheduler.PRIORITY_PLAYBACK);
+    }
+
+    /**
+     * Returns count of bytes fetched from sources for requests marked by {@link #PRELOAD_HEADER} since server is started.
+     * Data already cached or fetched after player requested the same url isn't counted.
+     *
+     * @return count of bytes downloaded by preloading.
+     */
+    public long getPreloadFetchedBytesCount() {
+        return downloadScheduler.getPreloadFetchedBytes();
+    }
+
+    /**
+     * Cancels requests marked by {@link #PRELOAD_ID_HEADER} with given id: they are finished and source data needed only
+     * by them isn't fetched any more. Unlike closing connection by client it takes effect at once, proxy doesn't wait
+     * till failed write to closed socket.
+     *
+     * @param preloadId an id of preloading.
+     * @return {@code true} if some request is canceled.
+     */
+    public boolean cancelPreload(String preloadId) {
+        checkNotNull(preloadId, "Preload id can't be null!");
+        boolean canceled = false;
+        for (HttpProxyCacheServerClients clients : clientsMap.values()) {
+            canceled |= clients.cancelPreload(preloadId);
+        }
+        return canceled;
+    }
+
     public void shutdown() {
         Logger.info("Shutdown proxy server");
 
         shutdownClients();
+        downloadScheduler.shutdown();
 
         config.sourceInfoStorage.release();
 
-        waitConnectionThread.interrupt();
+        if (selectorLoop != null) {
+            selectorLoop.shutdown();
+        } else {
+            waitConnectionThread.interrupt();
+        }
         try {
             if (!serverSocket.isClosed()) {
                 serverSocket.close();
@@ -228,8 +349,14 @@ public class HttpProxyCacheServer {
             GetRequest request = GetRequest.read(socket.getInputStream());
             Logger.debug("Request to cache proxy:" + request);
             String url = ProxyCacheUtils.decode(request.uri);
-            HttpProxyCacheServerClients clients = getClients(url);
-            clients.processRequest(request, socket);
+            if (HlsPlaylist.isPlaylistUrl(url)) {
+                OutputStream out = socket.getOutputStream();
+                out.write(newPlaylistResponse(url));
+                out.flush();
+            } else {
+                HttpProxyCacheServerClients clients = getClients(url);
+                clients.processRequest(request, socket);
+            }
         } catch (SocketException e) {
             // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
             // So just to prevent log flooding don't log stacktrace
@@ -242,12 +369,18 @@ public class HttpProxyCacheServer {
         }
     }
 
-    private HttpProxyCacheServerClients getClients(String url) throws ProxyCacheException {
+    byte[] newPlaylistResponse(String url) throws ProxyCacheException {
+        return playlistCache.newResponse(url);
+    }
+
+    HttpProxyCacheServerClients getClients(String url) throws ProxyCacheException {
+        // clients are shared by urls with the same cache file (see NormalizingFileNameGenerator), so file is never written concurrently
+        String cacheKey = config.fileNameGenerator.generate(url);
         synchronized (clientsLock) {
-            HttpProxyCacheServerClients clients = clientsMap.get(url);
+            HttpProxyCacheServerClients clients = clientsMap.get(cacheKey);
             if (clients == null) {
-                clients = new HttpProxyCacheServerClients(url, config);
-                clientsMap.put(url, clients);
+                clients = new HttpProxyCacheServerClients(url, config, downloadScheduler, verifier);
+                clientsMap.put(cacheKey, clients);
             }
             return clients;
         }
@@ -307,6 +440,14 @@ public class HttpProxyCacheServer {
         Logger.error("HttpProxyCacheServer error");
     }
 
+    private final class ProxyUrlRewriter implements HlsPlaylist.UrlRewriter {
+
+        @Override
+        public String rewrite(String url) {
+            return appendToProxyUrl(url);
+        }
+    }
+
     private final class WaitRequestsRunnable implements Runnable {
 
         private final CountDownLatch startSignal;
@@ -342,12 +483,18 @@ public class HttpProxyCacheServer {
     public static final class Builder {
 
         private static final long DEFAULT_MAX_SIZE = 512 * 1024 * 1024;
+        private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 6;
 
         private File cacheRoot;
         private FileNameGenerator fileNameGenerator;
         private DiskUsage diskUsage;
         private SourceInfoStorage sourceInfoStorage;
         private HeaderInjector headerInjector;
+        private int selectorWorkerThreads;
+        private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+        private int parallelDownloads = 1;
+        private MemoryCache memoryCache;
+        private boolean verifyContentIdentity;
 
         public Builder(Context context) {
             this.sourceInfoStorage = SourceInfoStorageFactory.newSourceInfoStorage(context);
@@ -425,6 +572,20 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Overrides default storage of sources' info (length and mime), by default infos are stored in SQLite database.
+         * <p>
+         * E.g. {@link SourceInfoStorageFactory#newFileSourceInfoStorage(File)} keeps infos in plain file without SQLite.
+         * </p>
+         *
+         * @param sourceInfoStorage a storage of sources' info, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder sourceInfoStorage(SourceInfoStorage sourceInfoStorage) {
+            this.sourceInfoStorage = checkNotNull(sourceInfoStorage);
+            return this;
+        }
+
         /**
          * Add headers along the request to the server
          *
@@ -436,6 +597,112 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Serves proxy connections with single NIO selector thread instead of thread per connection.
+         * <p>
+         * By default every connection holds one of 8 threads until whole response is sent, so long responses
+         * (e.g. player's connection and several preloading urls) make new requests wait in queue.
+         * In selector mode waiting for data being downloaded doesn't hold any thread, so hundreds of connections
+         * are served by selector thread and few worker threads used for blocking operations like opening cache files.
+         * </p>
+         *
+         * @param workerThreads count of worker threads, must be positive.
+         * @return a builder.
+         */
+        public Builder useSelector(int workerThreads) {
+            if (workerThreads <= 0) {
+                throw new IllegalArgumentException("Worker threads count must be positive number!");
+            }
+            this.selectorWorkerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * Sets max count of source downloads executed concurrently by all urls.
+         * <p>
+         * Other downloads wait in queue ordered by priority: downloads for requests marked by {@link #PRELOAD_HEADER}
+         * are executed after downloads for playback, and running preloading is canceled if playback needs free slot.
+         * Default value is 6.
+         * </p>
+         *
+         * @param count max count of concurrent downloads, must be positive.
+         * @return a builder.
+         */
+        public Builder maxConcurrentDownloads(int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Max concurrent downloads count must be positive number!");
+            }
+            this.maxConcurrentDownloads = count;
+            return this;
+        }
+
+        /**
+         * Enables fetching single url by several connections in parallel.
+         * <p>
+         * Useful for servers limiting speed of each connection. Not cached data after requested offset is split into
+         * several parts (at least 512 Kb each) fetched concurrently by ranged requests and written to proper offsets of cache file.
+         * Part at requested offset is fetched with priority of request, the rest of parts have lower priority,
+         * so they never delay data being played. Parallel fetching is turned off for url if server doesn't support ranges.
+         * By default every url is fetched by single connection.
+         * </p>
+         * Note all connections share limit set by {@link #maxConcurrentDownloads(int)}.
+         *
+         * @param connections max count of connections used for single url, must be positive.
+         * @return a builder.
+         */
+        public Builder parallelDownloads(int connections) {
+            if (connections <= 0) {
+                throw new IllegalArgumentException("Parallel connections count must be positive number!");
+            }
+            this.parallelDownloads = connections;
+            return this;
+        }
+
+        /**
+         * Keeps beginnings of recently used urls in memory, so they are served without reading cache files.
+         * <p>
+         * E.g. returning to recently watched video in feed doesn't touch flash storage at all.
+         * By default all data is read from cache files.
+         * </p>
+         *
+         * @param maxSize max size of memory used for caching in bytes, at least 64 Kb.
+         * @return a builder.
+         * @see MemoryCache
+         */
+        public Builder memoryCacheSize(long maxSize) {
+            this.memoryCache = new MemoryCache(maxSize);
+            return this;
+        }
+
+        /**
+         * Sets memory tier shared by all urls, see {@link #memoryCacheSize(long)}.
+         *
+         * @param memoryCache a memory cache, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder memoryCache(MemoryCache memoryCache) {
+            this.memoryCache = checkNotNull(memoryCache);
+            return this;
+        }
+
+        /**
+         * Verifies content of url before using cache file created by other url.
+         * <p>
+         * Useful with {@link com.danikula.videocache.file.NormalizingFileNameGenerator} if normalized urls may point to
+         * different videos. When cache file is requested by new url, proxy compares ETag or length and sampled bytes
+         * of url's content with cached data (it costs few small range requests), and cached data is downloaded again
+         * if content differs. Verified urls are remembered in cache directory, so they aren't verified again after
+         * restart. By default cache file is trusted for all urls with the same file name.
+         * </p>
+         *
+         * @param verify {@code true} to verify content identity.
+         * @return a builder.
+         */
+        public Builder verifyContentIdentity(boolean verify) {
+            this.verifyContentIdentity = verify;
+            return this;
+        }
+
         /**
          * Builds new instance of {@link HttpProxyCacheServer}.
          *
@@ -447,7 +714,7 @@ public class HttpProxyCacheServer {
         }
 
         private Config buildConfig() {
-            return new Config(cacheRoot, fileNameGenerator, diskUsage, sourceInfoStorage, headerInjector);
+            return new Config(cacheRoot, fileNameGenerator, diskUsage, sourceInfoStorage, headerInjector, selectorWorkerThreads, maxConcurrentDownloads, parallelDownloads, memoryCache, verifyContentIdentity);
         }
 
     }
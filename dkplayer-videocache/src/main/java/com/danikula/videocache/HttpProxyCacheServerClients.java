@@ -23,39 +23,85 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
 final class HttpProxyCacheServerClients {
 
     private final AtomicInteger clientsCount = new AtomicInteger(0);
-    private final String url;
+    // the latest requested url, urls of clients share the same cache file
+    private String url;
     private volatile HttpProxyCache proxyCache;
     private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
     private final CacheListener uiCacheListener;
     private final Config config;
+    private final DownloadScheduler scheduler;
+    private final ContentIdentityVerifier verifier;
 
-    public HttpProxyCacheServerClients(String url, Config config) {
+    public HttpProxyCacheServerClients(String url, Config config, DownloadScheduler scheduler, ContentIdentityVerifier verifier) {
         this.url = checkNotNull(url);
         this.config = checkNotNull(config);
-        this.uiCacheListener = new UiListenerHandler(url, listeners);
+        this.scheduler = checkNotNull(scheduler);
+        this.verifier = verifier;
+        this.uiCacheListener = new UiListenerHandler(listeners);
     }
 
     public void processRequest(GetRequest request, Socket socket) throws ProxyCacheException, IOException {
-        startProcessRequest();
+        HttpProxyCache proxyCache = startRequest(ProxyCacheUtils.decode(request.uri));
         try {
-            clientsCount.incrementAndGet();
             proxyCache.processRequest(request, socket);
         } finally {
-            finishProcessRequest();
+            finishRequest();
         }
     }
 
-    private synchronized void startProcessRequest() throws ProxyCacheException {
-        proxyCache = proxyCache == null ? newHttpProxyCache() : proxyCache;
+    /**
+     * Returns proxy cache to be used for processing new request. Every call must be paired with {@link #finishRequest()}.
+     * <p/>
+     * If several urls share the same cache file, source of the latest requested url is used when no other request
+     * is being processed, so expired url (e.g. signed one) isn't requested again.
+     *
+     * @param url an url requested by client.
+     * @return proxy cache for url.
+     * @throws ProxyCacheException if error occur while opening cache.
+     */
+    synchronized HttpProxyCache startRequest(String url) throws ProxyCacheException {
+        if (proxyCache == null) {
+            this.url = checkNotNull(url);
+            proxyCache = newHttpProxyCache();
+        }
+        clientsCount.incrementAndGet();
+        return proxyCache;
     }
 
-    private synchronized void finishProcessRequest() {
-        if (clientsCount.decrementAndGet() <= 0) {
+    synchronized void finishRequest() {
+        if (clientsCount.decrementAndGet() <= 0 && proxyCache != null) {
             proxyCache.shutdown();
             proxyCache = null;
         }
     }
 
+    /**
+     * Cancels requests of preloading, see {@link ProxyCache#cancelPreload(String)}.
+     *
+     * @return {@code true} if some request is canceled.
+     */
+    boolean cancelPreload(String preloadId) {
+        HttpProxyCache cache = proxyCache;
+        return cache != null && cache.cancelPreload(preloadId);
+    }
+
+    /**
+     * Returns count of bytes cached from the start of source by cache being used right now.
+     *
+     * @return count of bytes or {@code -1} if cache isn't opened.
+     */
+    long getCachedPrefixLength() {
+        HttpProxyCache cache = proxyCache;
+        if (cache == null) {
+            return -1;
+        }
+        try {
+            return cache.getCachedPrefixLength();
+        } catch (ProxyCacheException e) {
+            return -1; // cache is being closed
+        }
+    }
+
     public void registerCacheListener(CacheListener cacheListener) {
         listeners.add(cacheListener);
     }
@@ -79,21 +125,23 @@ final class HttpProxyCacheServerClients {
     }
 
     private HttpProxyCache newHttpProxyCache() throws ProxyCacheException {
+        File file = config.generateCacheFile(url);
+        if (verifier != null) {
+            verifier.verify(url, file);
+        }
         HttpUrlSource source = new HttpUrlSource(url, config.sourceInfoStorage, config.headerInjector);
-        FileCache cache = new FileCache(config.generateCacheFile(url), config.diskUsage);
-        HttpProxyCache httpProxyCache = new HttpProxyCache(source, cache);
+        FileCache cache = new FileCache(file, config.diskUsage, config.memoryCache);
+        HttpProxyCache httpProxyCache = new HttpProxyCache(source, cache, scheduler, config.parallelDownloads);
         httpProxyCache.registerCacheListener(uiCacheListener);
         return httpProxyCache;
     }
 
     private static final class UiListenerHandler extends Handler implements CacheListener {
 
-        private final String url;
         private final List<CacheListener> listeners;
 
-        public UiListenerHandler(String url, List<CacheListener> listeners) {
+        public UiListenerHandler(List<CacheListener> listeners) {
             super(Looper.getMainLooper());
-            this.url = url;
             this.listeners = listeners;
         }
 
@@ -101,15 +149,28 @@ final class HttpProxyCacheServerClients {
         public void onCacheAvailable(File file, String url, int percentsAvailable) {
             Message message = obtainMessage();
             message.arg1 = percentsAvailable;
-            message.obj = file;
+            // clients of cache file may request it by different urls, url of source being read is passed
+            message.obj = new CacheAvailability(file, url);
             sendMessage(message);
         }
 
         @Override
         public void handleMessage(Message msg) {
+            CacheAvailability availability = (CacheAvailability) msg.obj;
             for (CacheListener cacheListener : listeners) {
-                cacheListener.onCacheAvailable((File) msg.obj, url, msg.arg1);
+                cacheListener.onCacheAvailable(availability.file, availability.url, msg.arg1);
             }
         }
     }
+
+    private static final class CacheAvailability {
+
+        private final File file;
+        private final String url;
+
+        CacheAvailability(File file, String url) {
+            this.file = file;
+            this.url = url;
+        }
+    }
 }
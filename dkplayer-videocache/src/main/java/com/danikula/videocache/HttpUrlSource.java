@@ -4,6 +4,7 @@ import android.text.TextUtils;
 
 import com.danikula.videocache.headers.EmptyHeadersInjector;
 import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.hls.HlsByteRange;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
 
@@ -13,10 +14,13 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static com.danikula.videocache.Preconditions.checkNotNull;
 import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
 import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
 import static java.net.HttpURLConnection.HTTP_OK;
@@ -25,17 +29,39 @@ import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
 
 /**
  * {@link Source} that uses http resource as source for {@link ProxyCache}.
+ * <p/>
+ * Connections are released without {@link HttpURLConnection#disconnect()} if possible, so platform's keep-alive pool
+ * (that is kept per host) reuses them for next requests to the same server instead of new TCP and TLS handshakes.
+ * Final urls of redirects are remembered, and connection opened for fetching source info is passed to the first
+ * source reader reading data from the beginning.
+ * <p/>
+ * Url of sub-range of resource (see {@link HlsByteRange}) is source consisting of this sub-range only: offsets are
+ * relative to start of sub-range and only sub-range is requested from server.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 public class HttpUrlSource implements Source {
 
     private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_CACHED_REDIRECTS = 64;
+    // connection opened for fetching info is not reused after this timeout, server may close it already
+    private static final long INFO_CONNECTION_TTL_MS = 5000;
+    private static final Map<String, String> REDIRECTS = Collections.synchronizedMap(new RedirectsMap());
     private final SourceInfoStorage sourceInfoStorage;
     private final HeaderInjector headerInjector;
+    // sub-range of resource if url points to it or null
+    private final HlsByteRange range;
     private SourceInfo sourceInfo;
-    private HttpURLConnection connection;
+    private volatile String etag;
+    private volatile String lastModified;
+    private volatile HttpURLConnection connection;
+    private volatile boolean aborted;
     private InputStream inputStream;
+    // count of bytes of response body not read yet, negative if body length is unknown
+    private long unreadBytes;
+    private boolean endOfStream;
+    private HttpURLConnection infoConnection;
+    private long infoConnectionTime;
 
     public HttpUrlSource(String url) {
         this(url, SourceInfoStorageFactory.newEmptySourceInfoStorage());
@@ -48,15 +74,24 @@ public class HttpUrlSource implements Source {
     public HttpUrlSource(String url, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector) {
         this.sourceInfoStorage = checkNotNull(sourceInfoStorage);
         this.headerInjector = checkNotNull(headerInjector);
+        this.range = HlsByteRange.fromUrl(url);
         SourceInfo sourceInfo = sourceInfoStorage.get(url);
         this.sourceInfo = sourceInfo != null ? sourceInfo :
                 new SourceInfo(url, Integer.MIN_VALUE, ProxyCacheUtils.getSupposablyMime(url));
     }
 
     public HttpUrlSource(HttpUrlSource source) {
-        this.sourceInfo = source.sourceInfo;
+        synchronized (source) {
+            this.sourceInfo = source.sourceInfo;
+            this.etag = source.etag;
+            this.lastModified = source.lastModified;
+            this.infoConnection = source.infoConnection;
+            this.infoConnectionTime = source.infoConnectionTime;
+            source.infoConnection = null;
+        }
         this.sourceInfoStorage = source.sourceInfoStorage;
         this.headerInjector = source.headerInjector;
+        this.range = source.range;
     }
 
     @Override
@@ -69,11 +104,58 @@ public class HttpUrlSource implements Source {
 
     @Override
     public void open(long offset) throws ProxyCacheException {
+        open(offset, -1);
+    }
+
+    /**
+     * Opens source for reading only range of data {@code [offset, end)}.
+     * Like {@link #open(long)} with positive offset requires server to support range requests.
+     *
+     * @param offset offset in bytes for source.
+     * @param end    end of range in bytes (exclusive) or negative value to read data until end of source.
+     * @throws ProxyCacheException if error occur while opening source or server ignores requested range.
+     */
+    public void open(long offset, long end) throws ProxyCacheException {
+        open(offset, end, null);
+    }
+
+    /**
+     * Opens source for reading range of data {@code [offset, end)} only if source isn't changed since data before
+     * offset was read. Validator is sent as {@code If-Range} header, so server returns whole new version of source
+     * instead of requested range if source is changed.
+     *
+     * @param offset  offset in bytes for source.
+     * @param end     end of range in bytes (exclusive) or negative value to read data until end of source.
+     * @param ifRange a validator of known source version (see {@link #getValidator()}), may be {@code null}.
+     * @throws ProxyCacheException if error occur while opening source, server ignores requested range
+     *                             or source is changed (validator can be checked by {@link #getValidator()} then).
+     */
+    public void open(long offset, long end, String ifRange) throws ProxyCacheException {
         try {
-            connection = openConnection(offset, -1);
+            connection = takeInfoConnection(offset, end);
+            if (connection == null) {
+                connection = openConnection(offset, end, -1, ifRange);
+            }
+            if (aborted) {
+                disconnect(connection);
+                connection = null;
+                throw new InterruptedProxyCacheException("Opening " + sourceInfo.url + " is aborted");
+            }
+            int responseCode = connection.getResponseCode();
+            etag = connection.getHeaderField("ETag");
+            lastModified = connection.getHeaderField("Last-Modified");
+            if ((offset > 0 || range != null) && responseCode != HTTP_PARTIAL) {
+                // whole data is returned, it can't be written at requested offset
+                String reason = responseCode == HTTP_OK && ifRange != null ? "source is changed" : "server doesn't support range requests";
+                disconnect(connection);
+                connection = null;
+                throw new ProxyCacheException("Error opening " + sourceInfo.url + " with offset " + offset + ": " + reason + ", response code: " + responseCode);
+            }
             String mime = connection.getContentType();
+            unreadBytes = getContentLength(connection);
+            endOfStream = false;
             inputStream = new BufferedInputStream(connection.getInputStream(), DEFAULT_BUFFER_SIZE);
-            long length = readSourceAvailableBytes(connection, offset, connection.getResponseCode());
+            long length = readSourceAvailableBytes(connection, offset, responseCode);
             this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime);
             this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
         } catch (IOException e) {
@@ -82,9 +164,29 @@ public class HttpUrlSource implements Source {
     }
 
     private long readSourceAvailableBytes(HttpURLConnection connection, long offset, int responseCode) throws IOException {
+        if (range != null) {
+            return range.length;
+        }
         long contentLength = getContentLength(connection);
-        return responseCode == HTTP_OK ? contentLength
-                : responseCode == HTTP_PARTIAL ? contentLength + offset : sourceInfo.length;
+        if (responseCode == HTTP_PARTIAL) {
+            // response for bounded range contains only part of data, so total length is taken from Content-Range if possible
+            long totalLength = getTotalLength(connection);
+            return totalLength >= 0 ? totalLength : contentLength + offset;
+        }
+        return responseCode == HTTP_OK ? contentLength : sourceInfo.length;
+    }
+
+    private long getTotalLength(HttpURLConnection connection) {
+        String contentRangeValue = connection.getHeaderField("Content-Range");
+        int slashIndex = contentRangeValue == null ? -1 : contentRangeValue.lastIndexOf('/');
+        if (slashIndex < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRangeValue.substring(slashIndex + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1; // total length is unknown: '*'
+        }
     }
 
     private long getContentLength(HttpURLConnection connection) {
@@ -94,6 +196,26 @@ public class HttpUrlSource implements Source {
 
     @Override
     public void close() throws ProxyCacheException {
+        disconnect(takeInfoConnection(-1, -1));
+        if (inputStream != null && endOfStream) {
+            // closing stream instead of disconnecting returns connection to keep-alive pool if response is read
+            ProxyCacheUtils.close(inputStream);
+        } else {
+            // closing stream of response that isn't read completely would drain the rest of body to reuse connection
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Aborts reading source from any thread: connection is disconnected, so blocked read fails at once instead of waiting
+     * for data or timeout. Source can't be opened after it.
+     */
+    public void abort() {
+        aborted = true;
+        disconnect(connection);
+    }
+
+    private void disconnect(HttpURLConnection connection) {
         if (connection != null) {
             try {
                 connection.disconnect();
@@ -117,7 +239,12 @@ public class HttpUrlSource implements Source {
             throw new ProxyCacheException("Error reading data from " + sourceInfo.url + ": connection is absent!");
         }
         try {
-            return inputStream.read(buffer, 0, buffer.length);
+            int read = inputStream.read(buffer, 0, buffer.length);
+            if (read > 0 && unreadBytes > 0) {
+                unreadBytes -= read;
+            }
+            endOfStream = read == -1 || unreadBytes == 0;
+            return read;
         } catch (InterruptedIOException e) {
             throw new InterruptedProxyCacheException("Reading source " + sourceInfo.url + " is interrupted", e);
         } catch (IOException e) {
@@ -128,36 +255,80 @@ public class HttpUrlSource implements Source {
     private void fetchContentInfo() throws ProxyCacheException {
         Logger.debug("Read content info from " + sourceInfo.url);
         HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
         try {
-            urlConnection = openConnection(0, 10000);
-            long length = getContentLength(urlConnection);
+            urlConnection = openConnection(0, -1, 10000, null);
+            long length = range != null ? range.length : getContentLength(urlConnection);
             String mime = urlConnection.getContentType();
-            inputStream = urlConnection.getInputStream();
+            etag = urlConnection.getHeaderField("ETag");
+            lastModified = urlConnection.getHeaderField("Last-Modified");
+            urlConnection.getInputStream();
             this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime);
             this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
             Logger.debug("Source info fetched: " + sourceInfo);
+            // response contains data from the beginning, so keep it for source reader instead of opening new connection
+            disconnect(infoConnection);
+            infoConnection = urlConnection;
+            infoConnectionTime = System.currentTimeMillis();
+            urlConnection = null;
         } catch (IOException e) {
             Logger.error("Error fetching info from " + sourceInfo.url);
         } finally {
-            ProxyCacheUtils.close(inputStream);
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            disconnect(urlConnection);
+        }
+    }
+
+    /**
+     * Returns connection opened for fetching info if it is still fresh and can be used for reading range {@code [offset, end)}.
+     * Not suitable connection is disconnected.
+     */
+    private synchronized HttpURLConnection takeInfoConnection(long offset, long end) {
+        HttpURLConnection connection = infoConnection;
+        infoConnection = null;
+        boolean fresh = System.currentTimeMillis() - infoConnectionTime < INFO_CONNECTION_TTL_MS;
+        if (connection != null && offset == 0 && end < 0 && fresh) {
+            Logger.debug("Reuse connection opened for fetching info from " + sourceInfo.url);
+            // info is fetched with short timeout, data is read without timeout like by any other source reader
+            connection.setReadTimeout(0);
+            return connection;
+        }
+        disconnect(connection);
+        return null;
+    }
+
+    private HttpURLConnection openConnection(long offset, long end, int timeout, String ifRange) throws IOException, ProxyCacheException {
+        if (range != null) {
+            end = range.offset + (end >= 0 ? Math.min(end, range.length) : range.length);
+            offset = range.offset + offset;
+        }
+        String redirectedUrl = REDIRECTS.get(sourceInfo.url);
+        if (redirectedUrl != null) {
+            try {
+                HttpURLConnection connection = openConnection(redirectedUrl, offset, end, timeout, ifRange);
+                if (connection.getResponseCode() < HTTP_BAD_REQUEST) {
+                    return connection;
+                }
+                disconnect(connection);
+            } catch (IOException e) {
+                Logger.warn("Error opening connection to redirected url " + redirectedUrl);
             }
+            REDIRECTS.remove(sourceInfo.url); // e.g. signed url is expired, redirect again
         }
+        return openConnection(sourceInfo.url, offset, end, timeout, ifRange);
     }
 
-    private HttpURLConnection openConnection(long offset, int timeout) throws IOException, ProxyCacheException {
+    private HttpURLConnection openConnection(String url, long offset, long end, int timeout, String ifRange) throws IOException, ProxyCacheException {
         HttpURLConnection connection;
         boolean redirected;
         int redirectCount = 0;
-        String url = this.sourceInfo.url;
         do {
             Logger.debug("Open connection " + (offset > 0 ? " with offset " + offset : "") + " to " + url);
             connection = (HttpURLConnection) new URL(url).openConnection();
             injectCustomHeaders(connection, url);
-            if (offset > 0) {
-                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            if (offset > 0 || end >= 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-" + (end >= 0 ? end - 1 : ""));
+                if (ifRange != null) {
+                    connection.setRequestProperty("If-Range", ifRange);
+                }
             }
             if (timeout > 0) {
                 connection.setConnectTimeout(timeout);
@@ -174,6 +345,9 @@ public class HttpUrlSource implements Source {
                 throw new ProxyCacheException("Too many redirects: " + redirectCount);
             }
         } while (redirected);
+        if (redirectCount > 0) {
+            REDIRECTS.put(sourceInfo.url, url);
+        }
         return connection;
     }
 
@@ -191,12 +365,58 @@ public class HttpUrlSource implements Source {
         return sourceInfo.mime;
     }
 
+    /**
+     * Returns entity tag of source returned by server with the last response.
+     *
+     * @return value of {@code ETag} header or {@code null} if it is unknown yet or server doesn't send it.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Returns validator of source version returned by server with the last response, it can be used for
+     * {@link #open(long, long, String)}.
+     *
+     * @return strong ETag, Last-Modified date if there is no strong ETag, or {@code null} if both are unknown.
+     */
+    public String getValidator() {
+        String currentEtag = etag;
+        boolean strongEtag = currentEtag != null && !currentEtag.startsWith("W/");
+        return strongEtag ? currentEtag : lastModified;
+    }
+
     public String getUrl() {
         return sourceInfo.url;
     }
 
+    /**
+     * Returns url of the last response, it differs from source's url if request is redirected.
+     * Relative urls in source's content should be resolved against it.
+     *
+     * @return final url of opened source or source's url if source isn't opened yet.
+     */
+    public String getResponseUrl() {
+        HttpURLConnection currentConnection = connection;
+        return currentConnection != null ? currentConnection.getURL().toString() : sourceInfo.url;
+    }
+
     @Override
     public String toString() {
         return "HttpUrlSource{sourceInfo='" + sourceInfo + "}";
     }
+
+    private static final class RedirectsMap extends LinkedHashMap<String, String> {
+
+        private static final long serialVersionUID = 1L;
+
+        RedirectsMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_REDIRECTS;
+        }
+    }
 }
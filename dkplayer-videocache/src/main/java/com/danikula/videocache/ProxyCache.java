@@ -1,7 +1,12 @@
 package com.danikula.videocache;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.danikula.videocache.Preconditions.checkArgument;
 import static com.danikula.videocache.Preconditions.checkNotNull;
 
 /**
@@ -10,42 +15,293 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
  * Can be used only for sources with persistent data (that doesn't change with time).
  * Method {@link #read(byte[], long, int)} will be blocked while fetching data from source.
  * Useful for streaming something with caching e.g. streaming video/audio etc.
+ * <p/>
+ * Data is fetched from the first not cached byte at or after requested offset, so seeking far from
+ * already cached data starts new source reader at seek position instead of downloading everything before it.
+ * Each source reader stops as soon as it reaches data cached before, so every byte is downloaded once.
+ * Source readers are executed by shared {@link DownloadScheduler}.
+ * <p/>
+ * If parallel downloads are enabled, not cached data after requested offset is split into several parts fetched
+ * concurrently by ranged requests. Part at requested offset keeps priority of request, the rest are fetched with
+ * lower read ahead priority, so they never delay data needed for playback right now.
+ * <p/>
+ * Positions of clients reading data are tracked by {@link Consumer}s. Source reader is stopped as soon as no client
+ * will read data it fetches (e.g. player seeks forward or closes connection used for probing), and reader reaching
+ * data cached before jumps over it to the next not cached data needed by clients instead of stopping. Count of
+ * readers is kept low by canceling readers nobody needs, readers needed by clients are never canceled.
+ * Clients of canceled preloading (see {@link #cancelPreload(String)}) are dropped at once, without waiting
+ * for failed write to their sockets.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
-class ProxyCache {
+abstract class ProxyCache {
 
     private static final int MAX_READ_SOURCE_ATTEMPTS = 1;
+    // readers over this count are canceled if nobody needs their data
+    private static final int MAX_SOURCE_READERS = 2;
+    // don't start new reader for offset which will be reached by running one soon. It seems user doesn't seek video.
+    private static final float NEW_READER_BARRIER = .2f;
+    // waiters are woken up as soon as their data is cached, timeout just guards against stuck source reader
+    private static final long MAX_WAIT_MILLIS = 1000;
+    // don't split source into parts smaller than this, there is no profit from parallel fetching of small parts
+    private static final long MIN_PARALLEL_PART_SIZE = 512 * 1024;
 
     private final Source source;
     private final Cache cache;
-    private final Object wc = new Object();
+    private final DownloadScheduler scheduler;
+    private final int parallelDownloads;
     private final Object stopLock = new Object();
     private final AtomicInteger readSourceErrorsCount;
-    private volatile Thread sourceReaderThread;
+    private final List<SourceReaderRunnable> sourceReaders = new ArrayList<>();
+    private final List<DataWaiter> waiters = new ArrayList<>();
+    private final List<Runnable> dataListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private volatile long sourceLength = Integer.MIN_VALUE;
     private volatile boolean stopped;
+    private volatile boolean parallelDownloadsFailed;
     private volatile int percentsAvailable = -1;
 
-    public ProxyCache(Source source, Cache cache) {
+    public ProxyCache(Source source, Cache cache, DownloadScheduler scheduler) {
+        this(source, cache, scheduler, 1);
+    }
+
+    public ProxyCache(Source source, Cache cache, DownloadScheduler scheduler, int parallelDownloads) {
+        checkArgument(parallelDownloads > 0, "Parallel downloads count must be positive");
         this.source = checkNotNull(source);
         this.cache = checkNotNull(cache);
+        this.scheduler = checkNotNull(scheduler);
+        this.parallelDownloads = parallelDownloads;
         this.readSourceErrorsCount = new AtomicInteger();
     }
 
     public int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
         ProxyCacheUtils.assertBuffer(buffer, offset, length);
 
-        while (!cache.isCompleted() && cache.available() < (offset + length) && !stopped) {
-            readSourceAsync();
-            waitForSourceData();
+        while (true) {
+            long cached = waitForCache(offset, -1, DownloadScheduler.PRIORITY_PLAYBACK, null);
+            int read = cache.read(buffer, offset, length);
+            if (read >= 0 || cached == 0) {
+                return read;
+            }
+            // corrupted data is dropped by cache, wait for it to be fetched again
+        }
+    }
+
+    /**
+     * Blocks until some data starting with offset is cached, fetching it from source if needed.
+     * If end of requested range is known, only data before it is fetched.
+     *
+     * @param offset   an offset in bytes.
+     * @param end      end of requested range in bytes (exclusive) or negative value if range is not bounded.
+     * @param priority a priority of fetching data, see {@link DownloadScheduler}.
+     * @param consumer a consumer of client waiting for data or {@code null}.
+     * @return count of bytes cached continuously starting with offset,
+     * {@code 0} if offset is end of source, proxy is stopped or consumer is canceled.
+     * @throws ProxyCacheException if error occur while fetching source.
+     */
+    protected long waitForCache(long offset, long end, int priority, Consumer consumer) throws ProxyCacheException {
+        while (!cache.isCompleted() && cache.available(offset) == 0 && !isEndOfSource(offset) && !stopped) {
+            if (consumer != null && consumer.isCanceled()) {
+                return 0;
+            }
+            readSourceAsync(offset, end, priority);
+            waitForSourceData(offset);
             checkReadSourceErrorsCount();
         }
-        int read = cache.read(buffer, offset, length);
         if (cache.isCompleted() && percentsAvailable != 100) {
             percentsAvailable = 100;
             onCachePercentsAvailableChanged(100);
         }
-        return read;
+        return stopped ? 0 : cache.available(offset);
+    }
+
+    /**
+     * Non blocking version of {@link #waitForCache(long, long, int, Consumer)}: starts fetching data at offset if it is not cached yet
+     * and returns immediately. Listeners added by {@link #addDataListener(Runnable)} are notified when new data is cached.
+     *
+     * @param offset   an offset in bytes.
+     * @param end      end of requested range in bytes (exclusive) or negative value if range is not bounded.
+     * @param priority a priority of fetching data, see {@link DownloadScheduler}.
+     * @return count of bytes cached continuously starting with offset, {@code 0} if data is being fetched,
+     * {@code -1} if offset is end of source or proxy is stopped.
+     * @throws ProxyCacheException if error occur while fetching source.
+     */
+    protected long requestCache(long offset, long end, int priority) throws ProxyCacheException {
+        long cached = cache.available(offset);
+        if (cached > 0) {
+            return cached;
+        }
+        if (cache.isCompleted() || isEndOfSource(offset) || stopped) {
+            return -1;
+        }
+        checkReadSourceErrorsCount();
+        readSourceAsync(offset, end, priority);
+        return 0;
+    }
+
+    /**
+     * Adds listener to be notified from source reader thread every time new data is cached or source reading is finished.
+     *
+     * @param listener a listener to be notified.
+     */
+    public void addDataListener(Runnable listener) {
+        dataListeners.add(listener);
+    }
+
+    public void removeDataListener(Runnable listener) {
+        dataListeners.remove(listener);
+    }
+
+    /**
+     * Registers client reading range {@code [offset, end)}. Every call must be paired with {@link #removeConsumer(Consumer)}.
+     *
+     * @param offset    an offset client starts reading with.
+     * @param end       end of requested range in bytes (exclusive) or negative value if range is not bounded.
+     * @param preloadId an id of preloading client's request belongs to or {@code null}.
+     * @return consumer to be updated by client while reading data.
+     */
+    Consumer addConsumer(long offset, long end, String preloadId) {
+        Consumer consumer = new Consumer(offset, end, preloadId);
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    /**
+     * Unregisters client and stops fetching data nobody needs any more.
+     *
+     * @param consumer a consumer returned by {@link #addConsumer(long, long, String)}.
+     */
+    void removeConsumer(Consumer consumer) {
+        consumers.remove(consumer);
+        cancelNotNeededReaders();
+    }
+
+    /**
+     * Cancels clients of preloading: they stop waiting for data and fetching data needed only by them is stopped.
+     * Clients finish their requests themselves, so connection is closed even if client is still here.
+     *
+     * @param preloadId an id of preloading.
+     * @return {@code true} if some client is canceled.
+     */
+    boolean cancelPreload(String preloadId) {
+        boolean canceled = false;
+        for (Consumer consumer : consumers) {
+            if (preloadId.equals(consumer.preloadId)) {
+                consumer.canceled = true;
+                consumers.remove(consumer);
+                canceled = true;
+            }
+        }
+        if (canceled) {
+            Logger.debug("Preloading " + preloadId + " of " + source + " is canceled");
+            synchronized (this) {
+                if (consumers.isEmpty()) {
+                    // nobody reads data, remaining clients will leave soon, so proxy doesn't wait for them to stop readers
+                    for (SourceReaderRunnable reader : sourceReaders) {
+                        scheduler.cancel(reader);
+                    }
+                    sourceReaders.clear();
+                } else {
+                    cancelNotNeededReaders();
+                }
+            }
+            notifyWaiters(0, Long.MAX_VALUE);
+        }
+        return canceled;
+    }
+
+    /**
+     * Returns new instance of source to be used by source reader.
+     * Readers may fetch different ranges of data concurrently, so every reader needs own source.
+     *
+     * @return new not opened source.
+     */
+    protected abstract Source newSourceReader();
+
+    /**
+     * Aborts reading source by canceled source reader from another thread, so blocking read fails at once instead of
+     * keeping download slot till data or timeout come. Default implementation does nothing, reader is only interrupted.
+     *
+     * @param source a source being read.
+     */
+    protected void abortSource(Source source) {
+    }
+
+    /**
+     * Opens source to read range {@code [offset, end)}. Default implementation reads source from offset till end of data,
+     * source reader stops reading itself when range is fetched.
+     *
+     * @param source a source to be opened.
+     * @param offset an offset in bytes.
+     * @param end    end of range in bytes (exclusive) or negative value if range is not bounded.
+     * @throws ProxyCacheException if error occur while opening source.
+     */
+    protected void openSource(Source source, long offset, long end) throws ProxyCacheException {
+        source.open(offset);
+    }
+
+    /**
+     * Remembers source length known before any source reader is opened, e.g. from source info fetched for response
+     * headers, so requests for data at source's end don't open source.
+     *
+     * @param length a length of source in bytes or negative value if length is unknown.
+     */
+    protected void onSourceLengthKnown(long length) {
+        if (length >= 0 && sourceLength < 0) {
+            sourceLength = length;
+        }
+    }
+
+    /**
+     * Returns whether some client will read data at offset. If there are no registered clients (e.g. data is read
+     * by {@link #read(byte[], long, int)}) all data is considered needed.
+     */
+    private boolean isNeeded(long offset) {
+        if (consumers.isEmpty()) {
+            return true;
+        }
+        for (Consumer consumer : consumers) {
+            if (consumer.position <= offset && (consumer.end < 0 || offset < consumer.end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void cancelNotNeededReaders() {
+        if (consumers.isEmpty()) {
+            return; // proxy is shut down when the last client leaves, so readers are canceled anyway
+        }
+        Iterator<SourceReaderRunnable> iterator = sourceReaders.iterator();
+        while (iterator.hasNext()) {
+            SourceReaderRunnable reader = iterator.next();
+            if (!reader.isFinished() && !isNeeded(reader.position)) {
+                Logger.debug("Cancel " + reader + ": nobody needs its data");
+                scheduler.cancel(reader);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns whether reader that reached cached data should continue with not cached data at offset.
+     */
+    private synchronized boolean shouldFetchNextGap(SourceReaderRunnable reader, long offset) {
+        boolean endReached = reader.endOffset >= 0 && offset >= reader.endOffset;
+        if (stopped || cache.isCompleted() || endReached || sourceLength < 0 || isEndOfSource(offset) || !isNeeded(offset)) {
+            return false;
+        }
+        for (SourceReaderRunnable another : sourceReaders) {
+            if (another != reader && !another.isFinished() && another.startOffset <= offset && offset <= another.position) {
+                return false; // gap is being fetched by another reader
+            }
+        }
+        return true;
+    }
+
+    private boolean isEndOfSource(long offset) {
+        long length = sourceLength;
+        return length >= 0 && offset >= length;
     }
 
     private void checkReadSourceErrorsCount() throws ProxyCacheException {
@@ -61,39 +317,154 @@ class ProxyCache {
             Logger.debug("Shutdown proxy for " + source);
             try {
                 stopped = true;
-                if (sourceReaderThread != null) {
-                    sourceReaderThread.interrupt();
+                synchronized (this) {
+                    for (SourceReaderRunnable reader : sourceReaders) {
+                        scheduler.cancel(reader);
+                    }
+                    sourceReaders.clear();
+                }
+                if (!cache.isCompleted() && sourceLength >= 0 && cache.available() == sourceLength) {
+                    cache.complete(); // data is fully cached just before shutdown
                 }
                 cache.close();
             } catch (ProxyCacheException e) {
                 onError(e);
             }
+            closeSource(source); // releases connection kept by source for fetching data, if any
         }
+        notifyWaiters(0, Long.MAX_VALUE);
     }
 
-    private synchronized void readSourceAsync() throws ProxyCacheException {
-        boolean readingInProgress = sourceReaderThread != null && sourceReaderThread.getState() != Thread.State.TERMINATED;
-        if (!stopped && !cache.isCompleted() && !readingInProgress) {
-            sourceReaderThread = new Thread(new SourceReaderRunnable(), "Source reader for " + source);
-            sourceReaderThread.start();
+    private synchronized void readSourceAsync(long offset, long end, int priority) throws ProxyCacheException {
+        if (stopped || cache.isCompleted()) {
+            return;
+        }
+        removeFinishedReaders();
+        for (SourceReaderRunnable reader : sourceReaders) {
+            if (reader.willReach(offset)) {
+                scheduler.raisePriority(reader, priority);
+                return;
+            }
+        }
+        long readerOffset = offset + cache.available(offset);
+        long[] parts = splitForParallelDownloads(readerOffset, end);
+        int partsCount = parts.length - 1;
+        if (evictNotNeededReaders(sourceReaders.size() + partsCount - (MAX_SOURCE_READERS + parallelDownloads - 1))) {
+            notifyWaiters(0, Long.MAX_VALUE);
+        }
+        for (int i = 0; i < partsCount; i++) {
+            boolean readAhead = i > 0;
+            // first part is fetched till cached data or requested end instead of part's end, so it isn't stuck if read ahead parts fail
+            long readerEnd = readAhead ? parts[i + 1] : end;
+            int readerPriority = readAhead ? Math.min(priority, DownloadScheduler.PRIORITY_READ_AHEAD) : priority;
+            SourceReaderRunnable reader = new SourceReaderRunnable(newSourceReader(), parts[i], readerEnd, readerPriority, readAhead);
+            sourceReaders.add(reader);
+            scheduler.submit(reader);
         }
     }
 
-    private void waitForSourceData() throws ProxyCacheException {
-        synchronized (wc) {
-            try {
-                wc.wait(1000);
-            } catch (InterruptedException e) {
-                throw new ProxyCacheException("Waiting source data is interrupted!", e);
+    /**
+     * Returns bounds of parts to fetch data after offset in parallel: part {@code i} is {@code [parts[i], parts[i + 1])}.
+     * Data isn't split if parallel downloads are disabled, source length is unknown or data is too short.
+     */
+    private long[] splitForParallelDownloads(long offset, long requestedEnd) throws ProxyCacheException {
+        if (parallelDownloads == 1 || parallelDownloadsFailed) {
+            return new long[]{offset, requestedEnd};
+        }
+        // before any reader is opened length is known from source info fetched for response headers
+        long length = sourceLength >= 0 ? sourceLength : source.length();
+        if (length <= offset) {
+            return new long[]{offset, requestedEnd};
+        }
+        long end = requestedEnd >= 0 ? Math.min(requestedEnd, length) : length;
+        for (SourceReaderRunnable reader : sourceReaders) {
+            if (reader.startOffset > offset && reader.startOffset < end) {
+                end = reader.startOffset; // data after it is being fetched already
+            }
+        }
+        int partsCount = (int) Math.max(1, Math.min(parallelDownloads, (end - offset) / MIN_PARALLEL_PART_SIZE));
+        long[] parts = new long[partsCount + 1];
+        long partSize = (end - offset) / partsCount;
+        for (int i = 0; i < partsCount; i++) {
+            parts[i] = offset + i * partSize;
+        }
+        parts[partsCount] = end;
+        return parts;
+    }
+
+    /**
+     * Cancels up to {@code count} readers fetching data no client needs, the oldest first. Readers needed by some client
+     * are never canceled to make room for new one: new reader waits for free slot in {@link DownloadScheduler} instead,
+     * otherwise concurrent clients reading different ranges would cancel and restart each other's readers endlessly.
+     *
+     * @return {@code true} if some reader is canceled.
+     */
+    private boolean evictNotNeededReaders(int count) {
+        if (count <= 0 || consumers.isEmpty()) {
+            return false;
+        }
+        boolean canceled = false;
+        Iterator<SourceReaderRunnable> iterator = sourceReaders.iterator();
+        while (count > 0 && iterator.hasNext()) {
+            SourceReaderRunnable reader = iterator.next();
+            if (!isNeeded(reader.position)) {
+                Logger.debug("Evict " + reader + ": nobody needs its data");
+                scheduler.cancel(reader);
+                iterator.remove();
+                canceled = true;
+                count--;
+            }
+        }
+        return canceled;
+    }
+
+    private void removeFinishedReaders() {
+        Iterator<SourceReaderRunnable> iterator = sourceReaders.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
             }
         }
     }
 
-    private void notifyNewCacheDataAvailable(long cacheAvailable, long sourceAvailable) {
+    private void waitForSourceData(long offset) throws ProxyCacheException {
+        DataWaiter waiter = new DataWaiter(offset);
+        synchronized (waiters) {
+            waiters.add(waiter);
+        }
+        try {
+            // check after registering waiter, so data cached in between is not missed
+            if (cache.available(offset) > 0 || stopped) {
+                return;
+            }
+            waiter.await();
+        } catch (InterruptedException e) {
+            throw new ProxyCacheException("Waiting source data is interrupted!", e);
+        } finally {
+            synchronized (waiters) {
+                waiters.remove(waiter);
+            }
+        }
+    }
+
+    private void notifyNewCacheDataAvailable(long start, long end, long cacheAvailable, long sourceAvailable) {
         onCacheAvailable(cacheAvailable, sourceAvailable);
+        notifyWaiters(start, end);
+    }
 
-        synchronized (wc) {
-            wc.notifyAll();
+    /**
+     * Wakes up readers waiting for data at offsets in range {@code [start, end)} and notifies data listeners.
+     */
+    private void notifyWaiters(long start, long end) {
+        synchronized (waiters) {
+            for (DataWaiter waiter : waiters) {
+                if (waiter.offset >= start && waiter.offset < end) {
+                    waiter.signal();
+                }
+            }
+        }
+        for (Runnable listener : dataListeners) {
+            listener.run();
         }
     }
 
@@ -111,33 +482,72 @@ class ProxyCache {
     protected void onCachePercentsAvailableChanged(int percentsAvailable) {
     }
 
-    private void readSource() {
+    private void readSource(SourceReaderRunnable reader) {
+        Source source = reader.source;
         long sourceAvailable = -1;
-        long offset = 0;
+        long offset = reader.position;
         try {
-            offset = cache.available();
-            source.open(offset);
-            sourceAvailable = source.length();
             byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
-            int readBytes;
-            while ((readBytes = source.read(buffer)) != -1) {
-                synchronized (stopLock) {
-                    if (isStopped()) {
-                        return;
+            while (true) {
+                openSource(source, offset, reader.endOffset);
+                sourceAvailable = source.length();
+                sourceLength = sourceAvailable;
+                boolean cachedDataReached = false;
+                int readBytes;
+                while ((readBytes = source.read(buffer)) != -1) {
+                    if (reader.endOffset >= 0) {
+                        readBytes = (int) Math.min(readBytes, reader.endOffset - offset);
+                    }
+                    synchronized (stopLock) {
+                        if (isStopped(reader)) {
+                            return;
+                        }
+                        if (cache.isCompleted()) {
+                            break; // completed by another reader
+                        }
+                        cache.write(buffer, offset, readBytes);
                     }
-                    cache.append(buffer, readBytes);
+                    scheduler.onDataFetched(reader, readBytes);
+                    offset += readBytes;
+                    reader.position = offset;
+                    notifyNewCacheDataAvailable(offset - readBytes, offset, cache.available(), sourceAvailable);
+                    if (offset == reader.endOffset) {
+                        break; // range is fetched
+                    }
+                    if (cache.available(offset) > 0) {
+                        cachedDataReached = true; // the rest is cached by another reader
+                        break;
+                    }
+                    if (!isNeeded(offset)) {
+                        Logger.debug("Stop " + reader + " at " + offset + ": nobody needs its data");
+                        break;
+                    }
+                }
+                long nextOffset = cachedDataReached ? offset + cache.available(offset) : -1;
+                if (!cachedDataReached || !shouldFetchNextGap(reader, nextOffset)) {
+                    break;
                 }
-                offset += readBytes;
-                notifyNewCacheDataAvailable(offset, sourceAvailable);
+                // jump over cached data, so client doesn't wait for new reader when it reaches the gap
+                closeSource(source);
+                offset = nextOffset;
+                reader.position = offset;
+            }
+            tryComplete(source);
+            if (cache.isCompleted()) {
+                onSourceRead();
             }
-            tryComplete();
-            onSourceRead();
         } catch (Throwable e) {
-            readSourceErrorsCount.incrementAndGet();
+            if (reader.readAhead) {
+                // e.g. server doesn't support ranges, the rest of data will be fetched by single reader
+                parallelDownloadsFailed = true;
+            } else if (!isStopped(reader)) {
+                readSourceErrorsCount.incrementAndGet();
+            }
             onError(e);
         } finally {
-            closeSource();
-            notifyNewCacheDataAvailable(offset, sourceAvailable);
+            closeSource(source);
+            reader.finished = true;
+            notifyWaiters(0, Long.MAX_VALUE);
         }
     }
 
@@ -147,19 +557,19 @@ class ProxyCache {
         onCachePercentsAvailableChanged(percentsAvailable);
     }
 
-    private void tryComplete() throws ProxyCacheException {
+    private void tryComplete(Source source) throws ProxyCacheException {
         synchronized (stopLock) {
-            if (!isStopped() && cache.available() == source.length()) {
+            if (!stopped && cache.available() == source.length()) {
                 cache.complete();
             }
         }
     }
 
-    private boolean isStopped() {
-        return Thread.currentThread().isInterrupted() || stopped;
+    private boolean isStopped(SourceReaderRunnable reader) {
+        return Thread.currentThread().isInterrupted() || stopped || reader.isCanceled();
     }
 
-    private void closeSource() {
+    private void closeSource(Source source) {
         try {
             source.close();
         } catch (ProxyCacheException e) {
@@ -176,11 +586,98 @@ class ProxyCache {
         }
     }
 
-    private class SourceReaderRunnable implements Runnable {
+    /**
+     * Reader waiting for data at some offset. Every waiter has own monitor, so source reader wakes up
+     * only readers which data is cached instead of all readers of the proxy.
+     */
+    private static final class DataWaiter {
+
+        private final long offset;
+        private boolean signalled;
+
+        DataWaiter(long offset) {
+            this.offset = offset;
+        }
+
+        synchronized void await() throws InterruptedException {
+            if (!signalled) {
+                wait(MAX_WAIT_MILLIS);
+            }
+        }
+
+        synchronized void signal() {
+            signalled = true;
+            notify();
+        }
+    }
+
+    /**
+     * Position of client reading range of data from cache.
+     */
+    static final class Consumer {
+
+        private final long end;
+        private final String preloadId;
+        private volatile long position;
+        private volatile boolean canceled;
+
+        Consumer(long offset, long end, String preloadId) {
+            this.position = offset;
+            this.end = end;
+            this.preloadId = preloadId;
+        }
+
+        void setPosition(long position) {
+            this.position = position;
+        }
+
+        boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+    private class SourceReaderRunnable extends DownloadScheduler.Task {
+
+        private final Source source;
+        private final long startOffset;
+        private final long endOffset;
+        private final boolean readAhead;
+        private volatile long position;
+        private volatile boolean finished;
+
+        SourceReaderRunnable(Source source, long offset, long end, int priority, boolean readAhead) {
+            super(priority);
+            this.source = source;
+            this.startOffset = offset;
+            this.endOffset = end;
+            this.readAhead = readAhead;
+            this.position = offset;
+        }
+
+        boolean isFinished() {
+            return finished || isCanceled();
+        }
+
+        boolean willReach(long offset) {
+            long length = sourceLength;
+            long barrier = length > 0 ? (long) (length * NEW_READER_BARRIER) : Long.MAX_VALUE - position;
+            boolean inRange = endOffset < 0 || offset < endOffset;
+            return !isFinished() && inRange && offset >= startOffset && offset <= position + barrier;
+        }
+
+        @Override
+        protected void execute() {
+            readSource(this);
+        }
+
+        @Override
+        protected void abort() {
+            abortSource(source);
+        }
 
         @Override
-        public void run() {
-            readSource();
+        public String toString() {
+            return "SourceReader{" + source + " from " + startOffset + (endOffset >= 0 ? " to " + endOffset : "") + '}';
         }
     }
 }
@@ -0,0 +1,244 @@
+package com.danikula.videocache;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+/**
+ * Incremental parser of proxy's http request, see {@link GetRequest}.
+ * <p/>
+ * Request is fed by chunks as they are read from socket, so there is no need to collect whole request before parsing.
+ * Parser works with bytes directly: only headers used by proxy are recognized, the rest of headers are skipped
+ * without creating strings. Supported range forms are {@code bytes=N-}, {@code bytes=N-M} and {@code bytes=-N},
+ * only the first range of multi-range request is served.
+ * <p/>
+ * Class is not thread safe.
+ */
+final class RequestParser {
+
+    private static final byte[] METHOD = ascii("GET /");
+    private static final byte[] PROTOCOL = ascii(" HTTP");
+    private static final byte[] RANGE_HEADER = ascii("range");
+    private static final byte[] PRELOAD_HEADER = ascii(HttpProxyCacheServer.PRELOAD_HEADER.toLowerCase(Locale.US));
+    private static final byte[] PRELOAD_ID_HEADER = ascii(HttpProxyCacheServer.PRELOAD_ID_HEADER.toLowerCase(Locale.US));
+    private static final byte[] BYTES_UNIT = ascii("bytes=");
+    private static final byte[] TRUE = ascii("true");
+    // more than enough for 18 digits, so parsed value never overflows long
+    private static final int MAX_NUMBER_LENGTH = 18;
+
+    private final int maxSize;
+    private final byte[] line;
+    private int lineLength;
+    private int size;
+    private String uri;
+    private long rangeOffset = -1;
+    private long rangeEnd = -1;
+    private long suffixLength = -1;
+    private boolean preload;
+    private String preloadId;
+    private boolean completed;
+
+    RequestParser(int maxSize) {
+        this.maxSize = maxSize;
+        this.line = new byte[maxSize];
+    }
+
+    /**
+     * Parses next chunk of request.
+     *
+     * @return count of consumed bytes, it is less than {@code length} only if request is completed by chunk.
+     * @throws IllegalArgumentException if request is invalid or too long.
+     */
+    int parse(byte[] data, int offset, int length) {
+        int consumed = 0;
+        while (consumed < length && !completed) {
+            byte b = data[offset + consumed];
+            consumed++;
+            if (++size > maxSize) {
+                throw new IllegalArgumentException("Too long request, more than " + maxSize + " bytes");
+            }
+            if (b == '\n') {
+                int end = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                onLine(end);
+                lineLength = 0;
+            } else {
+                line[lineLength++] = b;
+            }
+        }
+        return consumed;
+    }
+
+    boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Returns parsed request.
+     *
+     * @throws IllegalStateException if request is not completed yet.
+     */
+    GetRequest getRequest() {
+        if (!completed) {
+            throw new IllegalStateException("Request is not completed yet");
+        }
+        int priority = preload ? DownloadScheduler.PRIORITY_PRELOAD : DownloadScheduler.PRIORITY_PLAYBACK;
+        return new GetRequest(uri, rangeOffset, rangeEnd, suffixLength, priority, preloadId);
+    }
+
+    private void onLine(int length) {
+        if (uri == null) {
+            if (length > 0) {
+                uri = parseUri(length);
+            }
+        } else if (length == 0) {
+            completed = true; // empty line ends headers
+        } else {
+            parseHeader(length);
+        }
+    }
+
+    private String parseUri(int length) {
+        int end = lastIndexOf(PROTOCOL, length);
+        if (!startsWith(METHOD, 0, length) || end < METHOD.length) {
+            throw new IllegalArgumentException("Invalid request `" + string(0, length) + "`: url not found!");
+        }
+        return string(METHOD.length, end);
+    }
+
+    private void parseHeader(int length) {
+        int colon = indexOf((byte) ':', 0, length);
+        if (colon < 0) {
+            return;
+        }
+        int nameEnd = colon;
+        while (nameEnd > 0 && line[nameEnd - 1] == ' ') {
+            nameEnd--;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < length && line[valueStart] == ' ') {
+            valueStart++;
+        }
+        int valueEnd = length;
+        while (valueEnd > valueStart && line[valueEnd - 1] == ' ') {
+            valueEnd--;
+        }
+        if (equalsIgnoreCase(RANGE_HEADER, 0, nameEnd)) {
+            parseRange(valueStart, valueEnd);
+        } else if (equalsIgnoreCase(PRELOAD_HEADER, 0, nameEnd)) {
+            preload = valueEnd - valueStart == 1 && line[valueStart] == '1' || equalsIgnoreCase(TRUE, valueStart, valueEnd);
+        } else if (equalsIgnoreCase(PRELOAD_ID_HEADER, 0, nameEnd) && valueEnd > valueStart) {
+            preloadId = string(valueStart, valueEnd);
+        }
+    }
+
+    private void parseRange(int start, int end) {
+        if (!startsWith(BYTES_UNIT, start, end)) {
+            return;
+        }
+        int position = start + BYTES_UNIT.length;
+        int comma = indexOf((byte) ',', position, end);
+        end = comma >= 0 ? comma : end;
+        int dash = indexOf((byte) '-', position, end);
+        if (dash < 0) {
+            return;
+        }
+        long first = parseNumber(position, dash);
+        long last = parseNumber(dash + 1, end);
+        if (first >= 0 && (last < 0 || last >= first)) {
+            rangeOffset = first;
+            rangeEnd = last >= 0 ? last + 1 : -1;
+            suffixLength = -1;
+        } else if (first < 0 && last > 0) {
+            rangeOffset = -1;
+            rangeEnd = -1;
+            suffixLength = last;
+        }
+        // otherwise range is invalid and ignored as http allows, whole data is returned
+    }
+
+    /**
+     * Returns decimal number stored in {@code line[start, end)} or {@code -1} if there is no valid number.
+     */
+    private long parseNumber(int start, int end) {
+        while (start < end && line[start] == ' ') {
+            start++;
+        }
+        while (end > start && line[end - 1] == ' ') {
+            end--;
+        }
+        if (start == end || end - start > MAX_NUMBER_LENGTH) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    private int indexOf(byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int lastIndexOf(byte[] pattern, int end) {
+        for (int i = end - pattern.length; i >= 0; i--) {
+            if (startsWith(pattern, i, end)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(byte[] prefix, int start, int end) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares ascii {@code line[start, end)} with lower case pattern.
+     */
+    private boolean equalsIgnoreCase(byte[] lowerCasePattern, int start, int end) {
+        if (end - start != lowerCasePattern.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCasePattern.length; i++) {
+            int b = line[start + i];
+            int lowerCase = b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+            if (lowerCase != lowerCasePattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int start, int end) {
+        try {
+            return new String(line, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error decoding request", e);
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        try {
+            return value.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("Error encoding " + value, e);
+        }
+    }
+}
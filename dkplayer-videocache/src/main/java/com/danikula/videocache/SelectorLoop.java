@@ -0,0 +1,368 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.hls.HlsPlaylist;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Event loop that serves all connections of {@link HttpProxyCacheServer} by single thread with NIO {@link Selector}.
+ * <p/>
+ * Requests are read and cached data is transferred to clients by non-blocking channels, so connection waiting for data
+ * being downloaded doesn't hold any thread. Blocking operations (opening cache, fetching source info for response headers,
+ * releasing cache) are executed by small pool of worker threads.
+ */
+final class SelectorLoop {
+
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private final HttpProxyCacheServer server;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Connection> readyConnections = new ConcurrentLinkedQueue<>();
+    private final Thread loopThread;
+
+    SelectorLoop(HttpProxyCacheServer server, ServerSocketChannel serverChannel, int workerThreads) throws IOException {
+        checkArgument(workerThreads > 0, "Worker threads count must be positive");
+        this.server = checkNotNull(server);
+        this.serverChannel = checkNotNull(serverChannel);
+        this.selector = Selector.open();
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.loopThread = new Thread(new LoopRunnable(), "Proxy selector loop");
+    }
+
+    void start() {
+        loopThread.start();
+    }
+
+    void shutdown() {
+        loopThread.interrupt();
+        selector.wakeup();
+        workers.shutdown();
+    }
+
+    private void loop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                processReadyConnections();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        process((Connection) key.attachment(), key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            onError(new ProxyCacheException("Error in selector loop", e));
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            Logger.debug("Accept new socket " + channel);
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void process(Connection connection, SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (RuntimeException e) {
+            // never let one broken connection stop serving others
+            onError(e);
+            connection.close();
+        }
+    }
+
+    private void processReadyConnections() {
+        Connection connection;
+        while ((connection = readyConnections.poll()) != null) {
+            connection.queued.set(false);
+            connection.onReady();
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        ProxyCacheUtils.close(selector);
+        ProxyCacheUtils.close(serverChannel);
+    }
+
+    private void onError(Throwable e) {
+        Logger.error("Selector loop error: " + e.getMessage());
+    }
+
+    private enum State {
+        READING_REQUEST, PREPARING, WRITING_HEADERS, WRITING_DATA, WAITING_DATA, CLOSED
+    }
+
+    /**
+     * State of single proxy connection. All methods except {@link #run()} are called only by loop thread.
+     * {@link #run()} is called by source reader when new data is cached, and by worker when response is prepared.
+     */
+    private final class Connection implements Runnable {
+
+        private final SocketChannel channel;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private SelectionKey key;
+        private State state = State.READING_REQUEST;
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private RequestParser parser = new RequestParser(GetRequest.MAX_REQUEST_SIZE);
+        // request is resolved by worker while preparing response
+        private GetRequest request;
+        private long offset;
+        // written by worker, published to loop thread by readyConnections queue
+        private HttpProxyCacheServerClients clients;
+        private HttpProxyCache proxyCache;
+        private ProxyCache.Consumer consumer;
+        private Throwable prepareError;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            if (queued.compareAndSet(false, true)) {
+                readyConnections.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void onReadable() {
+            try {
+                if (state == State.READING_REQUEST) {
+                    readRequest();
+                } else {
+                    // response is sent already, so just check client is still here
+                    ByteBuffer trash = ByteBuffer.allocate(256);
+                    if (channel.read(trash) < 0) {
+                        Logger.debug("Socket is closed by client.");
+                        close();
+                    }
+                }
+            } catch (IOException e) {
+                Logger.debug("Closing socket… Socket is closed by client.");
+                close();
+            } catch (IllegalArgumentException e) {
+                onError(new ProxyCacheException("Error parsing request", e));
+                close();
+            }
+        }
+
+        void onWritable() {
+            try {
+                if (state == State.WRITING_HEADERS) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    buffer = null;
+                    if (proxyCache == null) {
+                        close(); // response without data, e.g. playlist
+                        return;
+                    }
+                    state = State.WRITING_DATA;
+                }
+                if (state == State.WRITING_DATA) {
+                    writeData();
+                }
+            } catch (ProxyCacheException | IOException e) {
+                onError(new ProxyCacheException("Error processing request " + request, e));
+                close();
+            }
+        }
+
+        void onReady() {
+            if (state == State.CLOSED) {
+                release(); // connection is closed while worker prepared response
+            } else if (state == State.PREPARING) {
+                onPrepared();
+            } else if (state == State.WAITING_DATA) {
+                state = State.WRITING_DATA;
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void readRequest() throws IOException {
+            if (channel.read(buffer) < 0) {
+                close();
+                return;
+            }
+            parser.parse(buffer.array(), 0, buffer.position());
+            buffer.clear();
+            if (!parser.isCompleted()) {
+                return;
+            }
+            request = parser.getRequest();
+            parser = null;
+            buffer = null;
+            Logger.debug("Request to cache proxy:" + request);
+            state = State.PREPARING;
+            workers.execute(new PrepareRunnable(this));
+        }
+
+        private void prepare() {
+            try {
+                String url = ProxyCacheUtils.decode(request.uri);
+                if (HlsPlaylist.isPlaylistUrl(url)) {
+                    // playlist is small, so whole response is prepared at once and sent as headers
+                    buffer = ByteBuffer.wrap(server.newPlaylistResponse(url));
+                    run();
+                    return;
+                }
+                clients = server.getClients(url);
+                proxyCache = clients.startRequest(url);
+                request = proxyCache.resolveRequest(request);
+                buffer = ByteBuffer.wrap(proxyCache.newResponseHeaders(request));
+                proxyCache.addDataListener(this);
+            } catch (ProxyCacheException | IOException | RuntimeException e) {
+                prepareError = e;
+            }
+            run();
+        }
+
+        private void onPrepared() {
+            state = State.WRITING_HEADERS;
+            if (prepareError != null) {
+                onError(new ProxyCacheException("Error processing request " + request, prepareError));
+                close();
+                return;
+            }
+            offset = request.rangeOffset;
+            if (proxyCache != null) {
+                consumer = proxyCache.addConsumer(offset, request.rangeEnd, request.preloadId);
+            }
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void writeData() throws ProxyCacheException, IOException {
+            long end = request.rangeEnd;
+            while (true) {
+                if (consumer.isCanceled()) {
+                    close(); // preloading is canceled
+                    return;
+                }
+                long cached = end >= 0 && offset >= end ? -1 : proxyCache.requestCache(offset, end, request.priority);
+                if (cached < 0) {
+                    close(); // all data is sent
+                    return;
+                }
+                if (cached == 0) {
+                    state = State.WAITING_DATA; // wait for source reader's notification
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                long transferred = proxyCache.transferTo(offset, end >= 0 ? Math.min(cached, end - offset) : cached, channel);
+                if (transferred == 0) {
+                    return; // socket buffer is full, wait for OP_WRITE
+                }
+                if (transferred > 0) {
+                    offset += transferred;
+                    consumer.setPosition(offset);
+                }
+            }
+        }
+
+        void close() {
+            if (state == State.CLOSED) {
+                return;
+            }
+            boolean preparing = state == State.PREPARING;
+            state = State.CLOSED;
+            if (key != null) {
+                key.cancel();
+            }
+            ProxyCacheUtils.close(channel);
+            if (!preparing) {
+                // otherwise it will be released by loop thread when worker finishes preparing
+                release();
+            }
+        }
+
+        private void release() {
+            final HttpProxyCache cache = proxyCache;
+            final HttpProxyCacheServerClients requestClients = clients;
+            final ProxyCache.Consumer requestConsumer = consumer;
+            proxyCache = null;
+            clients = null;
+            consumer = null;
+            if (cache != null) {
+                cache.removeDataListener(this);
+            }
+            if (requestClients != null && !workers.isShutdown()) {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestConsumer != null) {
+                            // may wait for proxy's lock, so it isn't done by loop thread
+                            cache.removeConsumer(requestConsumer);
+                        }
+                        requestClients.finishRequest();
+                    }
+                });
+            }
+        }
+    }
+
+    private final class PrepareRunnable implements Runnable {
+
+        private final Connection connection;
+
+        PrepareRunnable(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            connection.prepare();
+        }
+    }
+
+    private final class LoopRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            loop();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.danikula.videocache.file;
+
+/**
+ * Metadata of cache file used by {@link EvictionPolicy} to choose files to be deleted.
+ */
+public final class CacheEntry {
+
+    private final String name;
+    private long size;
+    private int hits;
+    private long lastAccessTime;
+
+    CacheEntry(String name, long size, int hits, long lastAccessTime) {
+        this.name = name;
+        this.size = size;
+        this.hits = hits;
+        this.lastAccessTime = lastAccessTime;
+    }
+
+    /**
+     * Returns name of cache file.
+     *
+     * @return file name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns size of cache file in bytes.
+     *
+     * @return file size.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns count of accesses to file: opening cache for playing or preloading, completing cache, etc.
+     *
+     * @return count of accesses, at least 1.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns time of the last access to file.
+     *
+     * @return time in milliseconds since epoch.
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * Returns whether file is not completed yet, i.e. it contains only part of source, e.g. preloaded prefix.
+     *
+     * @return {@code true} if file is partial.
+     */
+    public boolean isPartial() {
+        return FileCache.isTempFileName(name);
+    }
+
+    void onAccess(long size, long time) {
+        this.size = size;
+        this.hits++;
+        this.lastAccessTime = time;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheEntry{" +
+                "name='" + name + '\'' +
+                ", size=" + size +
+                ", hits=" + hits +
+                ", lastAccessTime=" + lastAccessTime +
+                '}';
+    }
+}
@@ -0,0 +1,143 @@
+package com.danikula.videocache.file;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * CRC-32C checksums of cached data split into aligned chunks of {@link #CHUNK_SIZE} bytes.
+ * <p/>
+ * Checksum of chunk written sequentially is computed on the fly, otherwise owner computes it by reading chunk back
+ * when chunk is fully cached. Checksum of chunk cached partially covers only its cached bytes and is computed by owner
+ * before saving index. Checksums read from index are not trusted until chunk is verified by reading it again.
+ * Not thread safe, guarded by owner.
+ */
+final class ChunkChecksums {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final TreeMap<Long, Integer> checksums = new TreeMap<>();
+    private final Set<Long> unverified = new HashSet<>();
+    // checksums of chunks being written sequentially
+    private final Map<Long, Digest> digests = new HashMap<>();
+
+    static int checksum(byte[] data, int offset, int length) {
+        Crc32c crc = new Crc32c();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Forgets checksums of chunks changed by written data and updates checksums being computed on the fly.
+     */
+    void onWrite(byte[] data, long offset, int length) {
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            long chunk = position / CHUNK_SIZE;
+            long chunkStart = chunk * CHUNK_SIZE;
+            int count = (int) (Math.min(end, chunkStart + CHUNK_SIZE) - position);
+            remove(chunk);
+            Digest digest = position == chunkStart ? new Digest(chunkStart) : digests.get(chunk);
+            if (digest != null && digest.position == position) {
+                digest.crc.update(data, (int) (position - offset), count);
+                digest.position += count;
+                digests.put(chunk, digest);
+            } else {
+                digests.remove(chunk); // written not sequentially, checksum will be computed from file
+            }
+            position += count;
+        }
+    }
+
+    /**
+     * Returns checksum of whole chunk computed while chunk was written or {@code null} if chunk wasn't written sequentially.
+     */
+    Integer takeDigest(long chunk) {
+        Digest digest = digests.remove(chunk);
+        return digest != null && digest.position == (chunk + 1) * CHUNK_SIZE ? (int) digest.crc.getValue() : null;
+    }
+
+    void put(long chunk, int checksum) {
+        checksums.put(chunk, checksum);
+        unverified.remove(chunk);
+    }
+
+    boolean contains(long chunk) {
+        return checksums.containsKey(chunk);
+    }
+
+    int get(long chunk) {
+        return checksums.get(chunk);
+    }
+
+    boolean isUnverified(long chunk) {
+        return unverified.contains(chunk);
+    }
+
+    boolean hasUnverified() {
+        return !unverified.isEmpty();
+    }
+
+    void setVerified(long chunk) {
+        unverified.remove(chunk);
+    }
+
+    void remove(long chunk) {
+        checksums.remove(chunk);
+        unverified.remove(chunk);
+    }
+
+    /**
+     * Returns indexes of chunks with checksums in ascending order.
+     */
+    Set<Long> chunks() {
+        return checksums.keySet();
+    }
+
+    void clear() {
+        checksums.clear();
+        unverified.clear();
+        digests.clear();
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(checksums.size());
+        for (Map.Entry<Long, Integer> entry : checksums.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    static ChunkChecksums readFrom(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupted checksums: negative chunks count " + count);
+        }
+        ChunkChecksums chunkChecksums = new ChunkChecksums();
+        for (int i = 0; i < count; i++) {
+            long chunk = in.readLong();
+            if (chunk < 0) {
+                throw new IOException("Corrupted checksums: negative chunk index " + chunk);
+            }
+            chunkChecksums.checksums.put(chunk, in.readInt());
+            chunkChecksums.unverified.add(chunk);
+        }
+        return chunkChecksums;
+    }
+
+    private static final class Digest {
+
+        final Crc32c crc = new Crc32c();
+        long position;
+
+        Digest(long position) {
+            this.position = position;
+        }
+    }
+}
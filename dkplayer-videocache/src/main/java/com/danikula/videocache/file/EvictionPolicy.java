@@ -0,0 +1,26 @@
+package com.danikula.videocache.file;
+
+/**
+ * Strategy of choosing cache files to be deleted by {@link PolicyDiskUsage} when cache exceeds its limits.
+ * <p/>
+ * Policy assigns value to every file, files with the lowest value are deleted first.
+ * Value is recalculated every time file is accessed.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Returns value of keeping file in cache.
+     *
+     * @param entry a metadata of accessed file.
+     * @return value of file, files with lower value are deleted first.
+     */
+    double getValue(CacheEntry entry);
+
+    /**
+     * Notifies policy about deleted file, e.g. to age values of remaining files.
+     *
+     * @param entry a metadata of deleted file.
+     * @param value a value of deleted file.
+     */
+    void onEvicted(CacheEntry entry, double value);
+}
@@ -1,40 +1,110 @@
 package com.danikula.videocache.file;
 
 import com.danikula.videocache.Cache;
+import com.danikula.videocache.Logger;
 import com.danikula.videocache.ProxyCacheException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 
 /**
  * {@link Cache} that uses file for storing data.
+ * <p/>
+ * Not completed cache is sparse: data may be written at any offset, and ranges that are really stored
+ * in temp file are tracked by index persisted in sidecar file near temp one. So every downloaded byte
+ * is cached regardless of offset it was requested with.
+ * <p/>
+ * Integrity of cached data is protected by CRC-32C checksums of 64 Kb chunks (see {@link ChunkChecksums}) kept in the same
+ * index, both for temp and completed files. Checksum of chunk partially covered by ranges (e.g. range is not aligned
+ * by chunks) covers only cached bytes of chunk. Data is trusted only if it is covered by checksum: torn tails of ranges
+ * (e.g. process was killed while writing) are verified and truncated when cache is opened, the rest of chunks are
+ * verified when they are read for the first time, and corrupted chunk is dropped and downloaded again instead of
+ * being sent to player. Index also keeps validator (ETag or Last-Modified) of source version the data belongs to,
+ * see {@link #getValidator()}.
+ * <p/>
+ * Beginning of data may be also kept in {@link MemoryCache} shared by all files, in this case data stored in memory
+ * is read without accessing file.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 public class FileCache implements Cache {
 
+    // prefix of service files kept in cache directory, they aren't cached data and are never evicted
+    public static final String SERVICE_FILE_PREFIX = LruIndex.SERVICE_FILE_PREFIX;
     private static final String TEMP_POSTFIX = ".download";
+    private static final String INDEX_POSTFIX = ".idx";
+    private static final String NEW_INDEX_POSTFIX = ".new" + INDEX_POSTFIX;
+    private static final int INDEX_MAGIC = 0x524E4733; // "RNG3"
+    // index without ranges, its checksums always cover whole chunks
+    private static final int CHUNKS_INDEX_MAGIC = 0x524E4732; // "RNG2"
+    private static final int MAX_VALIDATOR_LENGTH = 1024;
+    // index is saved while downloading, so only the last chunks are lost if process is killed
+    private static final int INDEX_SAVE_INTERVAL_CHUNKS = 64;
+    // limits delay of single read caused by verification of not verified chunks
+    private static final int MAX_CHUNKS_VERIFIED_AT_ONCE = 16;
 
     private final DiskUsage diskUsage;
+    private final MemoryCache memoryCache;
+    private final String memoryKey;
     public File file;
     private RandomAccessFile dataFile;
+    private RangeSet ranges;
+    private boolean rangesChanged;
+    private ChunkChecksums checksums;
+    private String validator;
+    private int chunksSinceIndexSaved;
+    private byte[] chunkBuffer;
 
     public FileCache(File file) throws ProxyCacheException {
         this(file, new UnlimitedDiskUsage());
     }
 
     public FileCache(File file, DiskUsage diskUsage) throws ProxyCacheException {
+        this(file, diskUsage, null);
+    }
+
+    /**
+     * Creates file cache.
+     *
+     * @param file        a file to be used for caching.
+     * @param diskUsage   a disk usage strategy.
+     * @param memoryCache a memory tier for file's data, may be {@code null}.
+     * @throws ProxyCacheException if file can't be used for caching.
+     */
+    public FileCache(File file, DiskUsage diskUsage, MemoryCache memoryCache) throws ProxyCacheException {
         try {
             if (diskUsage == null) {
                 throw new NullPointerException();
             }
             this.diskUsage = diskUsage;
+            this.memoryCache = memoryCache;
+            this.memoryKey = file.getAbsolutePath();
             File directory = file.getParentFile();
             Files.makeDir(directory);
             boolean completed = file.exists();
             this.file = completed ? file : new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
             this.dataFile = new RandomAccessFile(this.file, completed ? "r" : "rw");
+            if (completed) {
+                readCompletedIndex();
+            } else {
+                this.ranges = readIndex();
+                truncateTornTails();
+                writeIndex();
+                if (memoryCache != null && ranges.end() == 0) {
+                    memoryCache.invalidate(memoryKey); // file was deleted, memory may keep outdated data
+                }
+            }
         } catch (IOException e) {
             throw new ProxyCacheException("Error using file " + file + " as disc cache", e);
         }
@@ -42,8 +112,16 @@ public class FileCache implements Cache {
 
     @Override
     public synchronized long available() throws ProxyCacheException {
+        return available(0);
+    }
+
+    @Override
+    public synchronized long available(long offset) throws ProxyCacheException {
+        if (!isCompleted()) {
+            return ranges.contiguousLength(offset);
+        }
         try {
-            return (int) dataFile.length();
+            return Math.max(0, dataFile.length() - offset);
         } catch (IOException e) {
             throw new ProxyCacheException("Error reading length of file " + file, e);
         }
@@ -52,31 +130,117 @@ public class FileCache implements Cache {
     @Override
     public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
         try {
+            if (!isCompleted()) {
+                // never expose holes of sparse file
+                long cached = ranges.contiguousLength(offset);
+                if (cached == 0) {
+                    return -1;
+                }
+                length = (int) Math.min(length, cached);
+            }
+            int read = memoryCache != null ? memoryCache.read(memoryKey, offset, buffer, length) : 0;
+            if (read > 0) {
+                return read;
+            }
+            length = (int) verify(offset, length);
+            if (length == 0) {
+                return -1; // corrupted data is dropped
+            }
             dataFile.seek(offset);
-            return dataFile.read(buffer, 0, length);
+            read = dataFile.read(buffer, 0, length);
+            if (memoryCache != null && read > 0) {
+                memoryCache.write(memoryKey, offset, buffer, read);
+            }
+            return read;
         } catch (IOException e) {
             String format = "Error reading %d bytes with offset %d from file[%d bytes] to buffer[%d bytes]";
             throw new ProxyCacheException(String.format(format, length, offset, available(), buffer.length), e);
         }
     }
 
+    /**
+     * Transfers cached data starting with offset directly to channel without copying it through java heap.
+     * For socket channels it is done by kernel (sendfile) if platform supports it.
+     * <p/>
+     * Unlike {@link #read(byte[], long, int)} data is transferred without holding cache's lock,
+     * so concurrent readers of the same file don't block each other and downloading.
+     * Data kept by {@link MemoryCache} is written to channel from memory. Not verified chunks are verified before transferring.
+     *
+     * @param offset an offset in bytes to transfer data from.
+     * @param count  max count of bytes to be transferred.
+     * @param target a channel to transfer data to.
+     * @return count of transferred bytes, possibly zero, or {@code -1} if there is no cached data at offset.
+     * @throws ProxyCacheException if error occur while reading cache.
+     * @throws IOException         if error occur while writing to target channel.
+     */
+    public long transferTo(long offset, long count, WritableByteChannel target) throws ProxyCacheException, IOException {
+        while (true) {
+            FileChannel channel;
+            long cached;
+            synchronized (this) {
+                cached = Math.min(count, available(offset));
+            }
+            if (cached <= 0) {
+                return -1;
+            }
+            MemoryCache.Page page = memoryCache != null ? memoryCache.acquire(memoryKey, offset) : null;
+            if (page != null) {
+                try {
+                    ByteBuffer buffer = page.asBuffer(offset, cached);
+                    return target.write(buffer);
+                } finally {
+                    memoryCache.release(page);
+                }
+            }
+            synchronized (this) {
+                cached = verify(offset, Math.min(cached, available(offset)));
+                channel = dataFile.getChannel();
+            }
+            if (cached <= 0) {
+                return -1; // corrupted data is dropped
+            }
+            try {
+                return channel.transferTo(offset, cached, target);
+            } catch (IOException e) {
+                if (channel.isOpen() || !isCompleted()) {
+                    throw e;
+                }
+                // file is reopened for completion while transferring, just retry with new one
+            }
+        }
+    }
+
     @Override
     public synchronized void append(byte[] data, int length) throws ProxyCacheException {
+        write(data, available(), length);
+    }
+
+    @Override
+    public synchronized void write(byte[] data, long offset, int length) throws ProxyCacheException {
         try {
             if (isCompleted()) {
                 throw new ProxyCacheException("Error append cache: cache file " + file + " is completed!");
             }
-            dataFile.seek(available());
+            dataFile.seek(offset);
             dataFile.write(data, 0, length);
+            ranges.add(offset, offset + length);
+            rangesChanged = true;
+            updateChecksums(data, offset, length);
+            if (memoryCache != null) {
+                memoryCache.write(memoryKey, offset, data, length);
+            }
         } catch (IOException e) {
-            String format = "Error writing %d bytes to %s from buffer with size %d";
-            throw new ProxyCacheException(String.format(format, length, dataFile, data.length), e);
+            String format = "Error writing %d bytes with offset %d to %s from buffer with size %d";
+            throw new ProxyCacheException(String.format(format, length, offset, dataFile, data.length), e);
         }
     }
 
     @Override
     public synchronized void close() throws ProxyCacheException {
         try {
+            if (!isCompleted() && rangesChanged) {
+                writeIndex();
+            }
             dataFile.close();
             diskUsage.touch(file);
         } catch (IOException e) {
@@ -91,21 +255,88 @@ public class FileCache implements Cache {
         }
 
         close();
-        String fileName = file.getName().substring(0, file.getName().length() - TEMP_POSTFIX.length());
-        File completedFile = new File(file.getParentFile(), fileName);
+        File completedFile = new File(file.getParentFile(), getCompletedFileName(file.getName()));
         boolean renamed = file.renameTo(completedFile);
         if (!renamed) {
             throw new ProxyCacheException("Error renaming file " + file + " to " + completedFile + " for completion!");
         }
+        deleteIndex(file);
         file = completedFile;
+        ranges = null;
         try {
             dataFile = new RandomAccessFile(file, "r");
+            completeChecksums();
+            writeIndex();
             diskUsage.touch(file);
         } catch (IOException e) {
             throw new ProxyCacheException("Error opening " + file + " as disc cache", e);
         }
     }
 
+    /**
+     * Closes cache and deletes all cached data, e.g. if it turns out data belongs to other source.
+     * Cache can't be used after deleting.
+     *
+     * @throws ProxyCacheException if cache file can't be deleted.
+     */
+    public synchronized void delete() throws ProxyCacheException {
+        close();
+        if (memoryCache != null) {
+            memoryCache.invalidate(memoryKey);
+        }
+        deleteIndex(file);
+        if (file.exists() && !file.delete()) {
+            throw new ProxyCacheException("Error deleting cache file " + file);
+        }
+    }
+
+    /**
+     * Drops all cached data of not completed cache, e.g. if source is changed since data was cached.
+     *
+     * @throws ProxyCacheException if cache is completed or error occur while truncating file.
+     */
+    public synchronized void clear() throws ProxyCacheException {
+        if (isCompleted()) {
+            throw new ProxyCacheException("Error clearing cache: cache file " + file + " is completed!");
+        }
+        try {
+            dataFile.setLength(0);
+            ranges.clear();
+            checksums.clear();
+            validator = null;
+            if (memoryCache != null) {
+                memoryCache.invalidate(memoryKey);
+            }
+            writeIndex();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error clearing file " + file, e);
+        }
+    }
+
+    /**
+     * Returns validator of source version cached data belongs to.
+     *
+     * @return strong ETag or Last-Modified date of source or {@code null} if it is unknown.
+     */
+    public synchronized String getValidator() {
+        return validator;
+    }
+
+    /**
+     * Sets validator of source version cached data belongs to, it is persisted with cache's index.
+     *
+     * @param validator strong ETag or Last-Modified date of source, may be {@code null}.
+     */
+    public synchronized void setValidator(String validator) {
+        if (validator != null && validator.length() > MAX_VALIDATOR_LENGTH) {
+            validator = null;
+        }
+        if (validator == null ? this.validator != null : !validator.equals(this.validator)) {
+            this.validator = validator;
+            rangesChanged = true;
+        }
+    }
+
     @Override
     public synchronized boolean isCompleted() {
         return !isTempFile(file);
@@ -121,7 +352,425 @@ public class FileCache implements Cache {
     }
 
     private boolean isTempFile(File file) {
-        return file.getName().endsWith(TEMP_POSTFIX);
+        return isTempFileName(file.getName());
+    }
+
+    private RangeSet readIndex() throws IOException {
+        File indexFile = getIndexFile(file);
+        long dataLength = dataFile.length();
+        checksums = new ChunkChecksums();
+        if (!indexFile.exists()) {
+            // temp file created by previous versions of cache is always continuous
+            RangeSet legacyRanges = new RangeSet();
+            legacyRanges.add(0, dataLength);
+            return migrateLegacyRanges(legacyRanges, dataLength);
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            in.mark(4);
+            int magic = in.readInt();
+            if (magic != INDEX_MAGIC && magic != CHUNKS_INDEX_MAGIC) {
+                in.reset();
+                RangeSet legacyRanges = RangeSet.readFrom(in);
+                if (legacyRanges.end() > dataLength) {
+                    throw new IOException("Index " + indexFile + " points beyond data file");
+                }
+                return migrateLegacyRanges(legacyRanges, dataLength);
+            }
+            readIndexBody(in);
+            RangeSet storedRanges = new RangeSet();
+            if (magic == INDEX_MAGIC) {
+                storedRanges = RangeSet.readFrom(in);
+            } else {
+                for (long chunk : checksums.chunks()) {
+                    storedRanges.add(chunk * ChunkChecksums.CHUNK_SIZE, (chunk + 1) * ChunkChecksums.CHUNK_SIZE);
+                }
+            }
+            return getTrustedRanges(storedRanges, dataLength);
+        } catch (IOException e) {
+            Logger.warn("Cache index " + indexFile + " is broken, cached data will be downloaded again");
+            checksums = new ChunkChecksums();
+            validator = null;
+            return new RangeSet();
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    private void readCompletedIndex() throws IOException {
+        File indexFile = getIndexFile(file);
+        if (!indexFile.exists()) {
+            return; // completed by previous versions of cache, there is nothing to verify
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            int magic = in.readInt();
+            if (magic != INDEX_MAGIC && magic != CHUNKS_INDEX_MAGIC) {
+                throw new IOException("Not a cache index");
+            }
+            readIndexBody(in);
+        } catch (IOException e) {
+            Logger.warn("Cache index " + indexFile + " is broken, cached data can't be verified");
+            checksums = null;
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    private void readIndexBody(DataInputStream in) throws IOException {
+        String storedValidator = in.readUTF();
+        validator = storedValidator.isEmpty() ? null : storedValidator;
+        checksums = ChunkChecksums.readFrom(in);
+    }
+
+    /**
+     * Returns part of stored ranges covered by checksums, only such data is trusted. Chunks pointing beyond data file
+     * (it is truncated) are dropped.
+     */
+    private RangeSet getTrustedRanges(RangeSet storedRanges, long dataLength) {
+        RangeSet trustedRanges = new RangeSet();
+        for (long chunk : new ArrayList<>(checksums.chunks())) {
+            long chunkStart = chunk * ChunkChecksums.CHUNK_SIZE;
+            long chunkEnd = chunkStart + ChunkChecksums.CHUNK_SIZE;
+            RangeSet chunkRanges = new RangeSet();
+            for (int i = 0; i < storedRanges.size(); i++) {
+                chunkRanges.add(Math.max(chunkStart, storedRanges.start(i)), Math.min(chunkEnd, storedRanges.end(i)));
+            }
+            if (chunkRanges.size() == 0 || chunkRanges.end() > dataLength) {
+                checksums.remove(chunk);
+                continue;
+            }
+            for (int i = 0; i < chunkRanges.size(); i++) {
+                trustedRanges.add(chunkRanges.start(i), chunkRanges.end(i));
+            }
+        }
+        return trustedRanges;
+    }
+
+    /**
+     * Computes checksums for ranges stored by previous versions of cache.
+     */
+    private RangeSet migrateLegacyRanges(RangeSet legacyRanges, long dataLength) throws IOException {
+        RangeSet trustedRanges = new RangeSet();
+        for (int i = 0; i < legacyRanges.size(); i++) {
+            trustedRanges.add(legacyRanges.start(i), Math.min(legacyRanges.end(i), dataLength));
+        }
+        for (int i = 0; i < trustedRanges.size(); i++) {
+            long lastChunk = (trustedRanges.end(i) - 1) / ChunkChecksums.CHUNK_SIZE;
+            for (long chunk = trustedRanges.start(i) / ChunkChecksums.CHUNK_SIZE; chunk <= lastChunk; chunk++) {
+                if (!checksums.contains(chunk)) {
+                    checksums.put(chunk, readChunkChecksum(trustedRanges, chunk));
+                }
+            }
+        }
+        return trustedRanges;
+    }
+
+    /**
+     * Verifies the last chunks of every range and drops corrupted ones. Torn writes happen at ranges' ends,
+     * so cache never reports data lost by crash as available.
+     */
+    private void truncateTornTails() throws IOException {
+        long[] ends = new long[ranges.size()];
+        long[] starts = new long[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            starts[i] = ranges.start(i);
+            ends[i] = ranges.end(i);
+        }
+        for (int i = 0; i < ends.length; i++) {
+            long chunk = (ends[i] - 1) / ChunkChecksums.CHUNK_SIZE;
+            while ((chunk + 1) * ChunkChecksums.CHUNK_SIZE > starts[i] && checksums.isUnverified(chunk) && !verifyChunk(chunk)) {
+                Logger.warn("Torn chunk " + chunk + " of " + file + " is truncated");
+                dropChunk(chunk);
+                chunk--;
+            }
+        }
+    }
+
+    /**
+     * Returns count of bytes starting with offset that are verified and can be sent to client.
+     * Corrupted chunk is dropped, so data is fetched again.
+     */
+    private long verify(long offset, long count) throws ProxyCacheException {
+        if (checksums == null || !checksums.hasUnverified() || count <= 0) {
+            return Math.max(0, count);
+        }
+        try {
+            long end = offset + count;
+            long position = offset;
+            int verifiedChunks = 0;
+            while (position < end) {
+                long chunk = position / ChunkChecksums.CHUNK_SIZE;
+                if (checksums.isUnverified(chunk)) {
+                    if (verifiedChunks++ == MAX_CHUNKS_VERIFIED_AT_ONCE) {
+                        break;
+                    }
+                    if (!verifyChunk(chunk)) {
+                        Logger.warn("Chunk " + chunk + " of " + file + " is corrupted, it will be downloaded again");
+                        if (isCompleted()) {
+                            reopenAsTemp();
+                        }
+                        dropChunk(chunk);
+                        writeIndex();
+                        break;
+                    }
+                }
+                position = (chunk + 1) * ChunkChecksums.CHUNK_SIZE;
+            }
+            return Math.max(0, Math.min(position, end) - offset);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error verifying data of " + file, e);
+        }
+    }
+
+    private boolean verifyChunk(long chunk) throws IOException {
+        Integer checksum = readChunkChecksum(isCompleted() ? null : ranges, chunk);
+        boolean valid = checksum != null && checksum == checksums.get(chunk);
+        if (valid) {
+            checksums.setVerified(chunk);
+        }
+        return valid;
+    }
+
+    private void dropChunk(long chunk) {
+        long start = chunk * ChunkChecksums.CHUNK_SIZE;
+        ranges.remove(start, start + ChunkChecksums.CHUNK_SIZE);
+        checksums.remove(chunk);
+        rangesChanged = true;
+        if (memoryCache != null) {
+            memoryCache.invalidate(memoryKey);
+        }
+    }
+
+    /**
+     * Turns completed file with corrupted data back to temp one, so corrupted data can be downloaded again.
+     */
+    private void reopenAsTemp() throws IOException {
+        long length = dataFile.length();
+        dataFile.close();
+        File tempFile = getTempFile(file);
+        if (!file.renameTo(tempFile)) {
+            throw new IOException("Error renaming file " + file + " to " + tempFile);
+        }
+        deleteIndex(file);
+        file = tempFile;
+        dataFile = new RandomAccessFile(file, "rw");
+        ranges = new RangeSet();
+        ranges.add(0, length);
+        diskUsage.touch(file);
+    }
+
+    private void updateChecksums(byte[] data, long offset, int length) throws IOException {
+        checksums.onWrite(data, offset, length);
+        long lastChunk = (offset + length - 1) / ChunkChecksums.CHUNK_SIZE;
+        for (long chunk = offset / ChunkChecksums.CHUNK_SIZE; chunk <= lastChunk; chunk++) {
+            long start = chunk * ChunkChecksums.CHUNK_SIZE;
+            if (!checksums.contains(chunk) && ranges.contiguousLength(start) >= ChunkChecksums.CHUNK_SIZE) {
+                Integer checksum = checksums.takeDigest(chunk);
+                checksums.put(chunk, checksum != null ? checksum : readChecksum(start, ChunkChecksums.CHUNK_SIZE));
+                chunksSinceIndexSaved++;
+            }
+        }
+        if (chunksSinceIndexSaved >= INDEX_SAVE_INTERVAL_CHUNKS) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Computes checksums of chunks partially covered by ranges: the first and the last chunks of every range
+     * if range isn't aligned by chunks, e.g. tail of range being downloaded or the last chunk of source.
+     */
+    private void checksumPartialChunks() throws IOException {
+        for (int i = 0; i < ranges.size(); i++) {
+            long firstChunk = ranges.start(i) / ChunkChecksums.CHUNK_SIZE;
+            long lastChunk = (ranges.end(i) - 1) / ChunkChecksums.CHUNK_SIZE;
+            for (long chunk : new long[]{firstChunk, lastChunk}) {
+                Integer checksum = checksums.contains(chunk) ? null : readChunkChecksum(ranges, chunk);
+                if (checksum != null) {
+                    checksums.put(chunk, checksum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes checksums of chunks not covered by them yet, e.g. the last chunk shorter than others.
+     */
+    private void completeChecksums() throws IOException {
+        long length = dataFile.length();
+        for (long chunk = 0; chunk * ChunkChecksums.CHUNK_SIZE < length; chunk++) {
+            if (!checksums.contains(chunk)) {
+                long start = chunk * ChunkChecksums.CHUNK_SIZE;
+                checksums.put(chunk, readChecksum(start, (int) Math.min(ChunkChecksums.CHUNK_SIZE, length - start)));
+            }
+        }
+    }
+
+    /**
+     * Computes checksum of chunk's data covered by ranges.
+     *
+     * @param coveredRanges ranges of cached data or {@code null} if whole file is cached.
+     * @return checksum or {@code null} if data file is too short to contain cached data of chunk.
+     */
+    private Integer readChunkChecksum(RangeSet coveredRanges, long chunk) throws IOException {
+        if (chunkBuffer == null) {
+            chunkBuffer = new byte[ChunkChecksums.CHUNK_SIZE];
+        }
+        long chunkStart = chunk * ChunkChecksums.CHUNK_SIZE;
+        long chunkEnd = chunkStart + ChunkChecksums.CHUNK_SIZE;
+        long dataLength = dataFile.length();
+        if (coveredRanges == null) {
+            long length = Math.min(chunkEnd, dataLength) - chunkStart;
+            return length > 0 ? readChecksum(chunkStart, (int) length) : null;
+        }
+        int length = 0;
+        for (int i = 0; i < coveredRanges.size() && coveredRanges.start(i) < chunkEnd; i++) {
+            long start = Math.max(chunkStart, coveredRanges.start(i));
+            long end = Math.min(chunkEnd, coveredRanges.end(i));
+            if (start >= end) {
+                continue;
+            }
+            if (end > dataLength) {
+                return null;
+            }
+            dataFile.seek(start);
+            dataFile.readFully(chunkBuffer, length, (int) (end - start));
+            length += end - start;
+        }
+        return length > 0 ? ChunkChecksums.checksum(chunkBuffer, 0, length) : null;
+    }
+
+    private int readChecksum(long offset, int length) throws IOException {
+        if (chunkBuffer == null) {
+            chunkBuffer = new byte[ChunkChecksums.CHUNK_SIZE];
+        }
+        dataFile.seek(offset);
+        dataFile.readFully(chunkBuffer, 0, length);
+        return ChunkChecksums.checksum(chunkBuffer, 0, length);
+    }
+
+    /**
+     * Writes index to new file and replaces old index with it, so index is never torn.
+     */
+    private void writeIndex() throws IOException {
+        if (!isCompleted()) {
+            checksumPartialChunks();
+        }
+        File indexFile = getIndexFile(file);
+        File newIndexFile = new File(file.getParentFile(), file.getName() + NEW_INDEX_POSTFIX);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newIndexFile)));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeUTF(validator != null ? validator : "");
+            checksums.writeTo(out);
+            (isCompleted() ? new RangeSet() : ranges).writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!newIndexFile.renameTo(indexFile)) {
+            throw new IOException("Error renaming index " + newIndexFile + " to " + indexFile);
+        }
+        rangesChanged = false;
+        chunksSinceIndexSaved = 0;
+    }
+
+    /**
+     * Returns whether file has any cached data, completed or not, without opening cache.
+     *
+     * @param file a completed cache file.
+     * @return {@code true} if completed file or its temp file exists.
+     */
+    public static boolean exists(File file) {
+        return file.exists() || getTempFile(file).exists();
+    }
+
+    /**
+     * Returns count of bytes cached continuously from the start of file without opening cache. Data file is sparse,
+     * so its length is the highest offset written rather than cached start; ranges saved in index are used instead.
+     * Index of cache opened right now is saved periodically, so result may be behind data cached by it.
+     *
+     * @param file a completed cache file, data of not completed one is read from its temp file.
+     * @return count of bytes cached from offset 0.
+     */
+    public static long readCachedPrefixLength(File file) {
+        if (file.exists()) {
+            return file.length();
+        }
+        File tempFile = getTempFile(file);
+        File indexFile = getIndexFile(tempFile);
+        if (!tempFile.exists()) {
+            return 0;
+        }
+        if (!indexFile.exists()) {
+            return tempFile.length(); // temp file created by previous versions of cache is always continuous
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            in.mark(4);
+            int magic = in.readInt();
+            long prefix;
+            if (magic == INDEX_MAGIC) {
+                in.readUTF();
+                ChunkChecksums.readFrom(in);
+                prefix = RangeSet.readFrom(in).contiguousLength(0);
+            } else if (magic == CHUNKS_INDEX_MAGIC) {
+                in.readUTF();
+                ChunkChecksums checksums = ChunkChecksums.readFrom(in);
+                long chunk = 0;
+                while (checksums.contains(chunk)) {
+                    chunk++;
+                }
+                prefix = chunk * ChunkChecksums.CHUNK_SIZE;
+            } else {
+                in.reset();
+                prefix = RangeSet.readFrom(in).contiguousLength(0);
+            }
+            return Math.min(prefix, tempFile.length());
+        } catch (IOException e) {
+            Logger.warn("Error reading cache index " + indexFile);
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to do, index is only read
+                }
+            }
+        }
     }
 
+    static boolean isTempFileName(String name) {
+        return name.endsWith(TEMP_POSTFIX);
+    }
+
+    static String getCompletedFileName(String name) {
+        return isTempFileName(name) ? name.substring(0, name.length() - TEMP_POSTFIX.length()) : name;
+    }
+
+    static File getTempFile(File file) {
+        return file.getName().endsWith(TEMP_POSTFIX) ? file : new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+    }
+
+    static File getIndexFile(File file) {
+        return new File(file.getParentFile(), file.getName() + INDEX_POSTFIX);
+    }
+
+    static boolean isIndexFile(File file) {
+        return file.getName().endsWith(INDEX_POSTFIX);
+    }
+
+    static void deleteIndex(File file) {
+        File indexFile = getIndexFile(file);
+        if (indexFile.exists() && !indexFile.delete()) {
+            Logger.warn("Error deleting cache index " + indexFile);
+        }
+    }
 }
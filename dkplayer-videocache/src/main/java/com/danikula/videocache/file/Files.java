@@ -1,15 +1,10 @@
 package com.danikula.videocache.file;
 
-import com.danikula.videocache.Logger;
-
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -33,48 +28,18 @@ class Files {
     }
 
     static List<File> getLruListFiles(File directory) {
-        List<File> result = new LinkedList<>();
+        List<File> result = new ArrayList<>();
         File[] files = directory.listFiles();
         if (files != null) {
-            result = Arrays.asList(files);
-            Collections.sort(result, new LastModifiedComparator());
-        }
-        return result;
-    }
-
-    static void setLastModifiedNow(File file) throws IOException {
-        if (file.exists()) {
-            long now = System.currentTimeMillis();
-            boolean modified = file.setLastModified(now); // on some devices (e.g. Nexus 5) doesn't work
-            if (!modified) {
-                modify(file);
-                if (file.lastModified() < now) {
-                    // NOTE: apparently this is a known issue (see: http://stackoverflow.com/questions/6633748/file-lastmodified-is-never-what-was-set-with-file-setlastmodified)
-                    Logger.warn(String.format("Last modified date %s is not set for file %s", new Date(file.lastModified()), file.getAbsolutePath()));
+            for (File file : files) {
+                // index is a part of its temp file
+                if (!FileCache.isIndexFile(file) && !file.getName().startsWith(LruIndex.SERVICE_FILE_PREFIX)) {
+                    result.add(file);
                 }
             }
+            Collections.sort(result, new LastModifiedComparator());
         }
-    }
-
-    static void modify(File file) throws IOException {
-        long size = file.length();
-        if (size == 0) {
-            recreateZeroSizeFile(file);
-            return;
-        }
-
-        RandomAccessFile accessFile = new RandomAccessFile(file, "rwd");
-        accessFile.seek(size - 1);
-        byte lastByte = accessFile.readByte();
-        accessFile.seek(size - 1);
-        accessFile.write(lastByte);
-        accessFile.close();
-    }
-
-    private static void recreateZeroSizeFile(File file) throws IOException {
-        if (!file.delete() || !file.createNewFile()) {
-            throw new IOException("Error recreate zero-size file " + file);
-        }
+        return result;
     }
 
     private static final class LastModifiedComparator implements Comparator<File> {
@@ -0,0 +1,45 @@
+package com.danikula.videocache.file;
+
+/**
+ * Size aware {@link EvictionPolicy} implementing GreedyDual-Size-Frequency algorithm.
+ * <p/>
+ * Value of file is {@code L + hits * cost / size}, where {@code L} is value of the last deleted file. So files that are
+ * accessed often and are cheap to be kept are deleted last, and files that are not accessed for a long time lose
+ * their value relatively to recently accessed ones ({@code L} is growing).
+ * <p/>
+ * Cost of file may be {@code 1} to maximize count of requests served from cache (small files are preferred) or
+ * file's size to maximize count of bytes served from cache (policy behaves like LFU with aging).
+ */
+public class GreedyDualSizeEvictionPolicy implements EvictionPolicy {
+
+    private final boolean sizeCost;
+    private double inflation;
+
+    /**
+     * Creates policy maximizing count of requests served from cache.
+     */
+    public GreedyDualSizeEvictionPolicy() {
+        this(false);
+    }
+
+    /**
+     * Creates policy.
+     *
+     * @param maximizeBytes {@code true} to maximize count of bytes served from cache instead of count of requests.
+     */
+    public GreedyDualSizeEvictionPolicy(boolean maximizeBytes) {
+        this.sizeCost = maximizeBytes;
+    }
+
+    @Override
+    public double getValue(CacheEntry entry) {
+        long size = Math.max(1, entry.getSize());
+        double cost = sizeCost ? size : 1;
+        return inflation + entry.getHits() * cost / size;
+    }
+
+    @Override
+    public void onEvicted(CacheEntry entry, double value) {
+        inflation = Math.max(inflation, value);
+    }
+}
@@ -0,0 +1,20 @@
+package com.danikula.videocache.file;
+
+/**
+ * {@link EvictionPolicy} that deletes the least frequently used files first,
+ * files with equal count of accesses are deleted in LRU order.
+ * <p/>
+ * Unlike LRU policy keeps popular completed videos, while preloaded prefixes of videos that were never watched
+ * (accessed once) are deleted first.
+ */
+public class LfuEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public double getValue(CacheEntry entry) {
+        return entry.getHits();
+    }
+
+    @Override
+    public void onEvicted(CacheEntry entry, double value) {
+    }
+}
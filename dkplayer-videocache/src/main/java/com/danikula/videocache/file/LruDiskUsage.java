@@ -4,60 +4,72 @@ import com.danikula.videocache.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.util.Iterator;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * {@link DiskUsage} that uses LRU (Least Recently Used) strategy to trim cache.
+ * <p/>
+ * Files' access order and total size are maintained incrementally by persistent {@link LruIndex},
+ * so touching file costs O(1) and trimming costs O(count of deleted files) instead of listing and sorting
+ * whole cache directory every time.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 public abstract class LruDiskUsage implements DiskUsage {
 
     private final ExecutorService workerThread = Executors.newSingleThreadExecutor();
+    private LruIndex index;
 
     @Override
     public void touch(File file) throws IOException {
         workerThread.submit(new TouchCallable(file));
     }
 
-    private void touchInBackground(File file) throws IOException {
-        Files.setLastModifiedNow(file);
-        List<File> files = Files.getLruListFiles(file.getParentFile());
-        trim(files);
+    private void touchInBackground(File file) {
+        File directory = file.getParentFile();
+        if (index == null || !index.getDirectory().equals(directory)) {
+            if (index != null) {
+                index.close();
+            }
+            index = new LruIndex(directory);
+        }
+        index.touch(file);
+        trim();
     }
 
+    /**
+     * Checks whether file can be kept in cache. Files are checked starting with the least recently used one,
+     * trimming stops on the first accepted file.
+     *
+     * @param file       a file to be checked.
+     * @param totalSize  total size of cache files including checked one.
+     * @param totalCount total count of cache files including checked one.
+     * @return {@code true} if file can be kept in cache.
+     */
     protected abstract boolean accept(File file, long totalSize, int totalCount);
 
-    private void trim(List<File> files) {
-        long totalSize = countTotalSize(files);
-        int totalCount = files.size();
-        for (File file : files) {
-            boolean accepted = accept(file, totalSize, totalCount);
-            if (!accepted) {
-                long fileSize = file.length();
-                boolean deleted = file.delete();
-                if (deleted) {
-                    totalCount--;
-                    totalSize -= fileSize;
-                    Logger.info("Cache file " + file + " is deleted because it exceeds cache limit");
-                } else {
-                    Logger.error("Error deleting file " + file + " for trimming cache");
-                }
+    private void trim() {
+        Iterator<CacheEntry> entries = index.iterator();
+        while (entries.hasNext()) {
+            File file = new File(index.getDirectory(), entries.next().getName());
+            if (accept(file, index.getTotalSize(), index.getCount())) {
+                return;
+            }
+            if (!file.exists()) {
+                entries.remove(); // deleted not by cache
+            } else if (file.delete()) {
+                FileCache.deleteIndex(file);
+                entries.remove();
+                Logger.info("Cache file " + file + " is deleted because it exceeds cache limit");
+            } else {
+                Logger.error("Error deleting file " + file + " for trimming cache");
             }
         }
     }
 
-    private long countTotalSize(List<File> files) {
-        long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
-        }
-        return totalSize;
-    }
-
     private class TouchCallable implements Callable<Void> {
 
         private final File file;
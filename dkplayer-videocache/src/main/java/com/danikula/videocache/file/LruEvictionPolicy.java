@@ -0,0 +1,16 @@
+package com.danikula.videocache.file;
+
+/**
+ * {@link EvictionPolicy} that deletes the least recently used files first.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public double getValue(CacheEntry entry) {
+        return entry.getLastAccessTime();
+    }
+
+    @Override
+    public void onEvicted(CacheEntry entry, double value) {
+    }
+}
@@ -0,0 +1,330 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Persistent index of cache files in access order with running total size of files.
+ * <p/>
+ * Every change is appended to journal file in cache directory, so index isn't rebuilt by listing directory and reading
+ * all files' metadata on every touch. Journal is read and checked against directory's content only when index is opened,
+ * if journal is absent or broken index is rebuilt from files' last modified dates.
+ * Journal is rewritten when it contains too many outdated records.
+ * <p/>
+ * Besides access order index keeps count of accesses to every file, see {@link CacheEntry}.
+ * Sizes of partial (not completed) files are summed up separately.
+ * <p/>
+ * Class is not thread safe.
+ */
+final class LruIndex {
+
+    // prefix of service files in cache directory (disk usage's own files, content identities), they aren't cache files
+    static final String SERVICE_FILE_PREFIX = "disk-usage.";
+
+    private static final String JOURNAL_NAME = SERVICE_FILE_PREFIX + "journal";
+    private static final String TEMP_JOURNAL_NAME = JOURNAL_NAME + ".tmp";
+    // T <size> <hits> <last access time> <name>
+    private static final String TOUCH = "T";
+    // R <name>
+    private static final String REMOVE = "R";
+    private static final int MIN_JOURNAL_RECORDS_TO_COMPACT = 1000;
+
+    private final File directory;
+    private final File journalFile;
+    // the eldest entry is the least recently used one
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+    private long partialSize;
+    private int journalRecords;
+    private Writer journal;
+
+    LruIndex(File directory) {
+        this.directory = directory;
+        this.journalFile = new File(directory, JOURNAL_NAME);
+        boolean loaded = readJournal();
+        if (!loaded) {
+            rebuild();
+        }
+        synchronizeWithDirectory();
+        compactJournal();
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    long getPartialSize() {
+        return partialSize;
+    }
+
+    int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Marks file as the most recently used one and updates its size.
+     *
+     * @return entry for touched file or {@code null} if file doesn't exist.
+     */
+    CacheEntry touch(File file) {
+        String name = file.getName();
+        if (!file.exists()) {
+            remove(name);
+            return null;
+        }
+        File tempFile = FileCache.getTempFile(file);
+        CacheEntry tempEntry = null;
+        if (!tempFile.getName().equals(name)) {
+            tempEntry = remove(tempFile.getName()); // temp file is renamed to completed one
+        }
+        CacheEntry entry = entries.get(name);
+        if (entry == null) {
+            // completed file inherits history of its temp file
+            entry = new CacheEntry(name, 0, tempEntry == null ? 0 : tempEntry.getHits(), 0);
+            entries.put(name, entry);
+        } else {
+            removeSize(entry);
+        }
+        entry.onAccess(file.length(), System.currentTimeMillis());
+        addSize(entry);
+        appendToJournal(toRecord(entry));
+        return entry;
+    }
+
+    CacheEntry remove(String name) {
+        CacheEntry entry = entries.remove(name);
+        if (entry != null) {
+            removeSize(entry);
+            appendToJournal(REMOVE + " " + name);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns iterator over entries starting with the least recently used one.
+     * Removing entry by iterator removes it from index.
+     */
+    Iterator<CacheEntry> iterator() {
+        return new LruIterator();
+    }
+
+    void close() {
+        closeJournal();
+    }
+
+    private void addSize(CacheEntry entry) {
+        totalSize += entry.getSize();
+        if (entry.isPartial()) {
+            partialSize += entry.getSize();
+        }
+    }
+
+    private void removeSize(CacheEntry entry) {
+        totalSize -= entry.getSize();
+        if (entry.isPartial()) {
+            partialSize -= entry.getSize();
+        }
+    }
+
+    private boolean readJournal() {
+        if (!journalFile.exists()) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                readRecord(line);
+                journalRecords++;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Logger.warn("Disk usage journal " + journalFile + " is broken, it will be rebuilt");
+            entries.clear();
+            totalSize = 0;
+            partialSize = 0;
+            return false;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void readRecord(String line) throws IOException {
+        String[] fields = line.split(" ", 5);
+        if (fields[0].equals(TOUCH) && fields.length == 5) {
+            CacheEntry entry = new CacheEntry(fields[4], Long.parseLong(fields[1]), Integer.parseInt(fields[2]), Long.parseLong(fields[3]));
+            CacheEntry oldEntry = entries.remove(entry.getName());
+            if (oldEntry != null) {
+                removeSize(oldEntry);
+            }
+            entries.put(entry.getName(), entry);
+            addSize(entry);
+        } else if (fields[0].equals(REMOVE) && fields.length >= 2) {
+            CacheEntry entry = entries.remove(line.substring(REMOVE.length() + 1));
+            if (entry != null) {
+                removeSize(entry);
+            }
+        } else if (!line.isEmpty()) {
+            throw new IOException("Unexpected journal record: " + line);
+        }
+    }
+
+    private void rebuild() {
+        // access time is kept by journal only, so without journal files are ordered by time of their last writing
+        for (File file : Files.getLruListFiles(directory)) {
+            addNewEntry(file);
+        }
+    }
+
+    private void addNewEntry(File file) {
+        CacheEntry entry = new CacheEntry(file.getName(), file.length(), 1, file.lastModified());
+        entries.put(entry.getName(), entry);
+        addSize(entry);
+    }
+
+    /**
+     * Forgets files deleted not by cache and adds unknown files as the least recently used ones.
+     */
+    private void synchronizeWithDirectory() {
+        String[] names = directory.list();
+        Set<String> existing = new HashSet<>();
+        if (names != null) {
+            for (String name : names) {
+                if (isCacheFile(name)) {
+                    existing.add(name);
+                }
+            }
+        }
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (!existing.remove(entry.getName())) {
+                removeSize(entry);
+                iterator.remove();
+            }
+        }
+        if (!existing.isEmpty()) {
+            LinkedHashMap<String, CacheEntry> known = new LinkedHashMap<>(entries);
+            entries.clear();
+            for (String name : existing) {
+                addNewEntry(new File(directory, name));
+            }
+            entries.putAll(known);
+        }
+    }
+
+    private boolean isCacheFile(String name) {
+        return !name.startsWith(SERVICE_FILE_PREFIX) && !FileCache.isIndexFile(new File(directory, name));
+    }
+
+    private String toRecord(CacheEntry entry) {
+        return TOUCH + " " + entry.getSize() + " " + entry.getHits() + " " + entry.getLastAccessTime() + " " + entry.getName();
+    }
+
+    private void appendToJournal(String record) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.write(record);
+            journal.write('\n');
+            journal.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            Logger.error("Error writing disk usage journal " + journalFile + ": " + e.getMessage());
+            closeJournal();
+        }
+        if (journalRecords > Math.max(MIN_JOURNAL_RECORDS_TO_COMPACT, entries.size() * 2)) {
+            compactJournal();
+        }
+    }
+
+    private void compactJournal() {
+        closeJournal();
+        File tempFile = new File(directory, TEMP_JOURNAL_NAME);
+        Writer writer = null;
+        try {
+            writer = newWriter(tempFile, false);
+            for (CacheEntry entry : entries.values()) {
+                writer.write(toRecord(entry));
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("Error renaming " + tempFile + " to " + journalFile);
+            }
+            journalRecords = entries.size();
+            journal = newWriter(journalFile, true);
+        } catch (IOException e) {
+            // index still works in memory, it will be rebuilt on next opening
+            Logger.error("Error writing disk usage journal " + journalFile + ": " + e.getMessage());
+            closeQuietly(writer);
+            if (!journalFile.delete() && journalFile.exists()) {
+                Logger.warn("Error deleting disk usage journal " + journalFile);
+            }
+        }
+    }
+
+    private Writer newWriter(File file, boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8"));
+    }
+
+    private void closeJournal() {
+        closeQuietly(journal);
+        journal = null;
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Logger.warn("Error closing " + closeable);
+            }
+        }
+    }
+
+    private final class LruIterator implements Iterator<CacheEntry> {
+
+        private final Iterator<CacheEntry> iterator = entries.values().iterator();
+        private CacheEntry current;
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public CacheEntry next() {
+            current = iterator.next();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+            removeSize(current);
+            appendToJournal(REMOVE + " " + current.getName());
+        }
+    }
+}
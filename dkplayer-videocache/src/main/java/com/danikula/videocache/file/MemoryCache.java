@@ -0,0 +1,257 @@
+package com.danikula.videocache.file;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory tier in front of {@link FileCache} shared by all urls.
+ * <p/>
+ * Keeps beginnings of recently played or preloaded urls in fixed-size pages, so returning to recent video
+ * doesn't read flash storage at all. Total size of pages is limited by global budget, the least recently used
+ * pages are evicted and their arrays are reused for new pages. Only first {@code maxSizePerUrl} bytes of every url
+ * are kept, the rest of data is served from file.
+ * <p/>
+ * Page is filled when data is downloaded into cache or read from file, only data continuous from page's beginning
+ * is kept. Memory cache never answers whether data is cached, {@link FileCache} asks it only for data already
+ * stored in file.
+ * <p/>
+ * Class is thread safe.
+ */
+public class MemoryCache {
+
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final long DEFAULT_MAX_SIZE_PER_URL = 2 * 1024 * 1024;
+
+    private final long maxSize;
+    private final int pagesPerUrl;
+    private final Map<String, Page[]> pages = new HashMap<>();
+    private final List<byte[]> freeArrays = new ArrayList<>();
+    // the most recently used page is head's next one, the least recently used one is head's previous one
+    private final Page head = new Page(null, 0, null);
+    private long size;
+
+    /**
+     * Creates memory cache keeping first 2 Mb of every url.
+     *
+     * @param maxSize max total size of cached data in bytes.
+     */
+    public MemoryCache(long maxSize) {
+        this(maxSize, DEFAULT_MAX_SIZE_PER_URL);
+    }
+
+    /**
+     * Creates memory cache.
+     *
+     * @param maxSize       max total size of cached data in bytes.
+     * @param maxSizePerUrl count of bytes from the beginning of every url to be kept in memory.
+     */
+    public MemoryCache(long maxSize, long maxSizePerUrl) {
+        if (maxSize < PAGE_SIZE) {
+            throw new IllegalArgumentException("Max size must be at least " + PAGE_SIZE + " bytes!");
+        }
+        if (maxSizePerUrl <= 0) {
+            throw new IllegalArgumentException("Max size per url must be positive number!");
+        }
+        this.maxSize = maxSize;
+        this.pagesPerUrl = (int) Math.min(Integer.MAX_VALUE, (maxSizePerUrl + PAGE_SIZE - 1) / PAGE_SIZE);
+        head.previous = head;
+        head.next = head;
+    }
+
+    /**
+     * Returns total size of allocated pages in bytes.
+     *
+     * @return size of memory used by cache.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Copies cached data starting with offset to buffer.
+     *
+     * @return count of copied bytes, {@code 0} if data at offset isn't kept in memory.
+     */
+    synchronized int read(String key, long offset, byte[] buffer, int length) {
+        Page page = findPage(key, offset);
+        if (page == null) {
+            return 0;
+        }
+        int pageOffset = (int) (offset % PAGE_SIZE);
+        int count = Math.min(length, page.length - pageOffset);
+        System.arraycopy(page.data, pageOffset, buffer, 0, count);
+        return count;
+    }
+
+    /**
+     * Returns page containing data at offset. Page isn't reused until it is returned by {@link #release(Page)},
+     * so its data may be accessed without holding cache's lock.
+     *
+     * @return page or {@code null} if data at offset isn't kept in memory.
+     */
+    synchronized Page acquire(String key, long offset) {
+        Page page = findPage(key, offset);
+        if (page != null) {
+            page.usages++;
+        }
+        return page;
+    }
+
+    synchronized void release(Page page) {
+        page.usages--;
+        if (page.usages == 0 && page.evicted) {
+            recycle(page);
+        }
+    }
+
+    /**
+     * Keeps data written to cache at offset in memory.
+     */
+    synchronized void write(String key, long offset, byte[] data, int length) {
+        long maxOffset = (long) pagesPerUrl * PAGE_SIZE;
+        int written = 0;
+        while (written < length && offset + written < maxOffset) {
+            long position = offset + written;
+            int index = (int) (position / PAGE_SIZE);
+            int pageOffset = (int) (position % PAGE_SIZE);
+            int count = Math.min(length - written, PAGE_SIZE - pageOffset);
+            Page page = getPage(key, index);
+            if (page == null && pageOffset == 0) {
+                page = allocatePage(key, index);
+            }
+            if (page != null && pageOffset <= page.length) {
+                System.arraycopy(data, written, page.data, pageOffset, count);
+                page.length = Math.max(page.length, pageOffset + count);
+                moveToHead(page);
+            }
+            written += count;
+        }
+    }
+
+    /**
+     * Forgets all data of key, e.g. if data stored in file doesn't match memory any more.
+     */
+    synchronized void invalidate(String key) {
+        Page[] keyPages = pages.get(key);
+        if (keyPages == null) {
+            return;
+        }
+        for (Page page : keyPages) {
+            if (page != null) {
+                evict(page);
+            }
+        }
+    }
+
+    private Page findPage(String key, long offset) {
+        long index = offset / PAGE_SIZE;
+        if (index >= pagesPerUrl) {
+            return null;
+        }
+        Page page = getPage(key, (int) index);
+        if (page == null || offset % PAGE_SIZE >= page.length) {
+            return null;
+        }
+        moveToHead(page);
+        return page;
+    }
+
+    private Page getPage(String key, int index) {
+        Page[] keyPages = pages.get(key);
+        return keyPages != null ? keyPages[index] : null;
+    }
+
+    private Page allocatePage(String key, int index) {
+        while (size + PAGE_SIZE > maxSize && head.previous != head) {
+            evict(head.previous);
+        }
+        if (size + PAGE_SIZE > maxSize) {
+            return null;
+        }
+        byte[] data = freeArrays.isEmpty() ? new byte[PAGE_SIZE] : freeArrays.remove(freeArrays.size() - 1);
+        Page page = new Page(key, index, data);
+        Page[] keyPages = pages.get(key);
+        if (keyPages == null) {
+            keyPages = new Page[pagesPerUrl];
+            pages.put(key, keyPages);
+        }
+        keyPages[index] = page;
+        size += PAGE_SIZE;
+        return page;
+    }
+
+    private void evict(Page page) {
+        page.previous.next = page.next;
+        page.next.previous = page.previous;
+        page.previous = null;
+        page.next = null;
+        Page[] keyPages = pages.get(page.key);
+        keyPages[page.index] = null;
+        if (isEmpty(keyPages)) {
+            pages.remove(page.key);
+        }
+        page.evicted = true;
+        if (page.usages == 0) {
+            recycle(page);
+        }
+    }
+
+    private void recycle(Page page) {
+        // array is counted in size until it is returned to pool, so used and pooled arrays fit budget together
+        freeArrays.add(page.data);
+        size -= PAGE_SIZE;
+        while (!freeArrays.isEmpty() && size + (long) freeArrays.size() * PAGE_SIZE > maxSize) {
+            freeArrays.remove(freeArrays.size() - 1);
+        }
+    }
+
+    private boolean isEmpty(Page[] keyPages) {
+        for (Page page : keyPages) {
+            if (page != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void moveToHead(Page page) {
+        if (page.previous != null) {
+            page.previous.next = page.next;
+            page.next.previous = page.previous;
+        }
+        page.previous = head;
+        page.next = head.next;
+        head.next.previous = page;
+        head.next = page;
+    }
+
+    static final class Page {
+
+        private final String key;
+        private final int index;
+        private final byte[] data;
+        // count of bytes stored continuously from page's beginning, it only grows while page is used
+        private volatile int length;
+        private int usages;
+        private boolean evicted;
+        private Page previous;
+        private Page next;
+
+        Page(String key, int index, byte[] data) {
+            this.key = key;
+            this.index = index;
+            this.data = data;
+        }
+
+        /**
+         * Returns buffer containing page's data starting with offset.
+         */
+        ByteBuffer asBuffer(long offset, long count) {
+            int pageOffset = (int) (offset % PAGE_SIZE);
+            return ByteBuffer.wrap(data, pageOffset, (int) Math.min(count, length - pageOffset));
+        }
+    }
+}
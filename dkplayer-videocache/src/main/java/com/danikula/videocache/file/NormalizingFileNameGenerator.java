@@ -0,0 +1,170 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.hls.HlsByteRange;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link FileNameGenerator} that normalizes url before generating file name, so urls differing only by
+ * insignificant parts share the same cache file.
+ * <p/>
+ * E.g. the same video behind signed CDN urls with different tokens ({@code ?token=...&expires=...}) or behind
+ * several mirror hosts is downloaded and stored only once. Normalization removes fragment (except sub-range of HLS
+ * segment, see {@link HlsByteRange}), configured query parameters and replaces aliased hosts by canonical ones,
+ * file name is generated for normalized url by delegate generator.
+ * <p/>
+ * Note normalization is trusted: urls of different videos with the same normalized url share the same cache file.
+ * Use {@code HttpProxyCacheServer.Builder#verifyContentIdentity(boolean)} to check content of url before using
+ * cache file shared with other url.
+ * <p/>
+ * Usage:
+ * <pre><code>
+ * FileNameGenerator generator = new NormalizingFileNameGenerator.Builder()
+ *         .ignoreQueryParameter("token")
+ *         .ignoreQueryParameter("expires")
+ *         .hostAlias("cdn2.example.com", "cdn1.example.com")
+ *         .build();
+ * </code></pre>
+ */
+public class NormalizingFileNameGenerator implements FileNameGenerator {
+
+    private final FileNameGenerator delegate;
+    private final Set<String> ignoredParameters;
+    private final boolean ignoreAllParameters;
+    private final Map<String, String> hostAliases;
+
+    private NormalizingFileNameGenerator(Builder builder) {
+        this.delegate = builder.delegate;
+        this.ignoredParameters = new HashSet<>(builder.ignoredParameters);
+        this.ignoreAllParameters = builder.ignoreAllParameters;
+        this.hostAliases = new HashMap<>(builder.hostAliases);
+    }
+
+    @Override
+    public String generate(String url) {
+        return delegate.generate(normalize(url));
+    }
+
+    /**
+     * Returns normalized url used as cache key.
+     *
+     * @param url an url to be normalized.
+     * @return url without fragment (except sub-range of HLS segment) and ignored query parameters, with lower case
+     * scheme and canonical host.
+     */
+    public String normalize(String url) {
+        // every sub-range of resource has own cache file
+        String rangeFragment = HlsByteRange.getFragment(url);
+        int fragmentIndex = url.indexOf('#');
+        url = fragmentIndex >= 0 ? url.substring(0, fragmentIndex) : url;
+        int queryIndex = url.indexOf('?');
+        String query = queryIndex >= 0 ? url.substring(queryIndex + 1) : "";
+        String base = queryIndex >= 0 ? url.substring(0, queryIndex) : url;
+        String normalizedQuery = normalizeQuery(query);
+        return normalizeAuthority(base) + (normalizedQuery.isEmpty() ? "" : "?" + normalizedQuery) + rangeFragment;
+    }
+
+    private String normalizeAuthority(String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return url;
+        }
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = url.indexOf('/', authorityStart);
+        authorityEnd = authorityEnd >= 0 ? authorityEnd : url.length();
+        String authority = url.substring(authorityStart, authorityEnd);
+        int userInfoEnd = authority.lastIndexOf('@');
+        String userInfo = userInfoEnd >= 0 ? authority.substring(0, userInfoEnd + 1) : "";
+        String hostAndPort = authority.substring(userInfoEnd + 1);
+        int portIndex = hostAndPort.lastIndexOf(':');
+        // ':' of IPv6 address is inside brackets
+        boolean hasPort = portIndex >= 0 && portIndex > hostAndPort.lastIndexOf(']');
+        String host = (hasPort ? hostAndPort.substring(0, portIndex) : hostAndPort).toLowerCase(Locale.US);
+        String port = hasPort ? hostAndPort.substring(portIndex) : "";
+        String canonicalHost = hostAliases.get(host);
+        host = canonicalHost != null ? canonicalHost : host;
+        String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.US);
+        return scheme + "://" + userInfo + host + port + url.substring(authorityEnd);
+    }
+
+    private String normalizeQuery(String query) {
+        if (ignoreAllParameters || query.isEmpty()) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String parameter : query.split("&")) {
+            int valueIndex = parameter.indexOf('=');
+            String name = valueIndex >= 0 ? parameter.substring(0, valueIndex) : parameter;
+            if (parameter.isEmpty() || ignoredParameters.contains(name)) {
+                continue;
+            }
+            normalized.append(normalized.length() > 0 ? "&" : "").append(parameter);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Builder for {@link NormalizingFileNameGenerator}.
+     */
+    public static final class Builder {
+
+        private final Set<String> ignoredParameters = new HashSet<>();
+        private final Map<String, String> hostAliases = new HashMap<>();
+        private boolean ignoreAllParameters;
+        private FileNameGenerator delegate = new Md5FileNameGenerator();
+
+        /**
+         * Removes query parameter from url before generating file name, e.g. signature or expiration time of signed url.
+         *
+         * @param name a name of parameter, case sensitive.
+         * @return a builder.
+         */
+        public Builder ignoreQueryParameter(String name) {
+            ignoredParameters.add(checkNotNull(name));
+            return this;
+        }
+
+        /**
+         * Removes whole query from url before generating file name. Use it only if query never identifies content.
+         *
+         * @return a builder.
+         */
+        public Builder ignoreAllQueryParameters() {
+            this.ignoreAllParameters = true;
+            return this;
+        }
+
+        /**
+         * Treats urls with host {@code alias} as urls with host {@code canonicalHost}, e.g. for mirrors of the same CDN.
+         *
+         * @param alias         an alias of host, case insensitive.
+         * @param canonicalHost a host to be used instead of alias.
+         * @return a builder.
+         */
+        public Builder hostAlias(String alias, String canonicalHost) {
+            hostAliases.put(checkNotNull(alias).toLowerCase(Locale.US), checkNotNull(canonicalHost).toLowerCase(Locale.US));
+            return this;
+        }
+
+        /**
+         * Sets generator of file name for normalized url, by default {@link Md5FileNameGenerator} is used.
+         *
+         * @param delegate a generator for normalized urls, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder delegate(FileNameGenerator delegate) {
+            this.delegate = checkNotNull(delegate);
+            return this;
+        }
+
+        public NormalizingFileNameGenerator build() {
+            return new NormalizingFileNameGenerator(this);
+        }
+    }
+}
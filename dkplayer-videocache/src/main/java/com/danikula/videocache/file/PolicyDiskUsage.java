@@ -0,0 +1,405 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DiskUsage} that trims cache using pluggable {@link EvictionPolicy}. Typical usage:
+ * <pre><code>
+ * DiskUsage diskUsage = new PolicyDiskUsage.Builder()
+ *         .maxSize(512 * 1024 * 1024)
+ *         .maxPartialSize(64 * 1024 * 1024)
+ *         .evictionPolicy(new LfuEvictionPolicy())
+ *         .expireAfterAccess(7, TimeUnit.DAYS)
+ *         .build();
+ * HttpProxyCacheServer proxy = new HttpProxyCacheServer.Builder(context).diskUsage(diskUsage).build();
+ * </code></pre>
+ * <p/>
+ * Partial files (e.g. preloaded prefixes of videos) are accounted separately from completed ones and may have own
+ * size limit, so preloading doesn't wash out completed videos. Files not accessed for configured time are deleted
+ * regardless of limits. Pinned files (see {@link #pin(File)}) are never deleted.
+ * <p/>
+ * Files' metadata are kept by persistent index, so touching file doesn't list cache directory.
+ */
+public class PolicyDiskUsage implements DiskUsage {
+
+    private static final String PINNED_FILE_NAME = LruIndex.SERVICE_FILE_PREFIX + "pinned";
+
+    private final ExecutorService workerThread = Executors.newSingleThreadExecutor();
+    private final EvictionPolicy policy;
+    private final long maxSize;
+    private final long maxPartialSize;
+    private final long expireAfterAccessMillis;
+    private final TreeSet<Node> completedQueue = new TreeSet<>();
+    private final TreeSet<Node> partialQueue = new TreeSet<>();
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Set<String> pinned = new HashSet<>();
+    private LruIndex index;
+    private long order;
+
+    private PolicyDiskUsage(Builder builder) {
+        this.policy = builder.policy;
+        this.maxSize = builder.maxSize;
+        this.maxPartialSize = builder.maxPartialSize;
+        this.expireAfterAccessMillis = builder.expireAfterAccessMillis;
+    }
+
+    @Override
+    public void touch(File file) throws IOException {
+        workerThread.submit(new TouchCallable(file));
+    }
+
+    /**
+     * Protects cache file from deleting, e.g. video downloaded for offline watching.
+     * Pinned file still counts in cache size. Pins are persisted in cache directory.
+     *
+     * @param file a cache file to be pinned, see {@code HttpProxyCacheServer#getCacheFile(String)}.
+     */
+    public void pin(File file) {
+        workerThread.submit(new PinCallable(file, true));
+    }
+
+    /**
+     * Allows deleting of cache file pinned by {@link #pin(File)}.
+     *
+     * @param file a cache file to be unpinned.
+     */
+    public void unpin(File file) {
+        workerThread.submit(new PinCallable(file, false));
+    }
+
+    private void touchInBackground(File file) {
+        openIndex(file.getParentFile());
+        File tempFile = FileCache.getTempFile(file);
+        if (!tempFile.equals(file)) {
+            removeNode(tempFile.getName()); // temp file is renamed to completed one
+        }
+        removeNode(file.getName());
+        CacheEntry entry = index.touch(file);
+        if (entry != null) {
+            addNode(entry);
+        }
+        trim();
+    }
+
+    private void pinInBackground(File file, boolean pin) {
+        openIndex(file.getParentFile());
+        String name = FileCache.getCompletedFileName(file.getName());
+        boolean changed = pin ? pinned.add(name) : pinned.remove(name);
+        if (!changed) {
+            return;
+        }
+        for (String nodeName : new String[]{name, FileCache.getTempFile(new File(name)).getName()}) {
+            Node node = nodes.get(nodeName);
+            if (node != null) {
+                if (pin) {
+                    queueOf(node.entry).remove(node);
+                } else {
+                    queueOf(node.entry).add(node);
+                }
+            }
+        }
+        writePinned();
+        if (!pin) {
+            trim();
+        }
+    }
+
+    private void openIndex(File directory) {
+        if (index != null && index.getDirectory().equals(directory)) {
+            return;
+        }
+        if (index != null) {
+            index.close();
+        }
+        nodes.clear();
+        completedQueue.clear();
+        partialQueue.clear();
+        index = new LruIndex(directory);
+        readPinned();
+        Iterator<CacheEntry> entries = index.iterator();
+        while (entries.hasNext()) {
+            addNode(entries.next());
+        }
+    }
+
+    private void addNode(CacheEntry entry) {
+        Node node = new Node(entry, policy.getValue(entry), order++);
+        nodes.put(entry.getName(), node);
+        if (!isPinned(entry.getName())) {
+            queueOf(entry).add(node);
+        }
+    }
+
+    private void removeNode(String name) {
+        Node node = nodes.remove(name);
+        if (node != null) {
+            queueOf(node.entry).remove(node);
+        }
+    }
+
+    private TreeSet<Node> queueOf(CacheEntry entry) {
+        return entry.isPartial() ? partialQueue : completedQueue;
+    }
+
+    private boolean isPinned(String name) {
+        return pinned.contains(FileCache.getCompletedFileName(name));
+    }
+
+    private void trim() {
+        if (!expire()) {
+            return;
+        }
+        while (index.getPartialSize() > maxPartialSize && !partialQueue.isEmpty()) {
+            if (!evict(partialQueue.first())) {
+                return;
+            }
+        }
+        while (index.getTotalSize() > maxSize) {
+            Node victim = lowest(partialQueue, completedQueue);
+            if (victim == null || !evict(victim)) {
+                return;
+            }
+        }
+    }
+
+    private boolean expire() {
+        if (expireAfterAccessMillis <= 0) {
+            return true;
+        }
+        long expirationTime = System.currentTimeMillis() - expireAfterAccessMillis;
+        List<Node> expired = new ArrayList<>();
+        Iterator<CacheEntry> entries = index.iterator();
+        while (entries.hasNext()) {
+            CacheEntry entry = entries.next();
+            if (entry.getLastAccessTime() >= expirationTime) {
+                break; // the rest of files are accessed later
+            }
+            if (!isPinned(entry.getName())) {
+                expired.add(nodes.get(entry.getName()));
+            }
+        }
+        for (Node node : expired) {
+            if (node != null && !evict(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Node lowest(TreeSet<Node> first, TreeSet<Node> second) {
+        if (first.isEmpty() || second.isEmpty()) {
+            return first.isEmpty() ? (second.isEmpty() ? null : second.first()) : first.first();
+        }
+        return first.first().compareTo(second.first()) <= 0 ? first.first() : second.first();
+    }
+
+    private boolean evict(Node node) {
+        File file = new File(index.getDirectory(), node.entry.getName());
+        if (file.exists() && !file.delete()) {
+            Logger.error("Error deleting file " + file + " for trimming cache");
+            return false;
+        }
+        FileCache.deleteIndex(file);
+        removeNode(node.entry.getName());
+        index.remove(node.entry.getName());
+        policy.onEvicted(node.entry, node.value);
+        Logger.info("Cache file " + file + " is deleted by eviction policy " + policy.getClass().getSimpleName());
+        return true;
+    }
+
+    private void readPinned() {
+        pinned.clear();
+        File pinnedFile = new File(index.getDirectory(), PINNED_FILE_NAME);
+        if (!pinnedFile.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(pinnedFile), "UTF-8"));
+            String name;
+            while ((name = reader.readLine()) != null) {
+                if (!name.isEmpty()) {
+                    pinned.add(name);
+                }
+            }
+        } catch (IOException e) {
+            Logger.error("Error reading pinned files from " + pinnedFile + ": " + e.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void writePinned() {
+        File pinnedFile = new File(index.getDirectory(), PINNED_FILE_NAME);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pinnedFile), "UTF-8"));
+            for (String name : pinned) {
+                writer.write(name);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Logger.error("Error writing pinned files to " + pinnedFile + ": " + e.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Logger.warn("Error closing " + closeable);
+            }
+        }
+    }
+
+    private static final class Node implements Comparable<Node> {
+
+        private final CacheEntry entry;
+        private final double value;
+        private final long order;
+
+        Node(CacheEntry entry, double value, long order) {
+            this.entry = entry;
+            this.value = value;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Node another) {
+            int byValue = Double.compare(value, another.value);
+            return byValue != 0 ? byValue : (order < another.order ? -1 : (order == another.order ? 0 : 1));
+        }
+    }
+
+    private class TouchCallable implements Callable<Void> {
+
+        private final File file;
+
+        public TouchCallable(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            touchInBackground(file);
+            return null;
+        }
+    }
+
+    private class PinCallable implements Callable<Void> {
+
+        private final File file;
+        private final boolean pin;
+
+        public PinCallable(File file, boolean pin) {
+            this.file = file;
+            this.pin = pin;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            pinInBackground(file, pin);
+            return null;
+        }
+    }
+
+    /**
+     * Builder for {@link PolicyDiskUsage}.
+     */
+    public static final class Builder {
+
+        private EvictionPolicy policy = new LruEvictionPolicy();
+        private long maxSize = Long.MAX_VALUE;
+        private long maxPartialSize = Long.MAX_VALUE;
+        private long expireAfterAccessMillis;
+
+        /**
+         * Sets policy choosing files to be deleted, default policy is {@link LruEvictionPolicy}.
+         *
+         * @param policy an eviction policy, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder evictionPolicy(EvictionPolicy policy) {
+            if (policy == null) {
+                throw new NullPointerException("Eviction policy can't be null!");
+            }
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * Sets max total size of all cache files in bytes. By default size is unlimited.
+         *
+         * @param maxSize max cache size in bytes.
+         * @return a builder.
+         */
+        public Builder maxSize(long maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Max size must be positive number!");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Sets max total size of partial (not completed) cache files in bytes. Only partial files are deleted if this
+         * limit is exceeded. By default partial files are limited only by {@link #maxSize(long)}.
+         *
+         * @param maxPartialSize max size of partial files in bytes.
+         * @return a builder.
+         */
+        public Builder maxPartialSize(long maxPartialSize) {
+            if (maxPartialSize <= 0) {
+                throw new IllegalArgumentException("Max partial files size must be positive number!");
+            }
+            this.maxPartialSize = maxPartialSize;
+            return this;
+        }
+
+        /**
+         * Sets time after the last access to file when file is deleted regardless of cache size.
+         * By default files don't expire.
+         *
+         * @param duration a time of file's life after the last access.
+         * @param unit     a unit of duration.
+         * @return a builder.
+         */
+        public Builder expireAfterAccess(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("Expiration time must be positive number!");
+            }
+            this.expireAfterAccessMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public PolicyDiskUsage build() {
+            return new PolicyDiskUsage(this);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.danikula.videocache.file;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sorted set of non-overlapping byte ranges {@code [start, end)} that are already stored in sparse cache file.
+ * <p/>
+ * Adjacent and overlapping ranges are merged on {@link #add(long, long)}, so count of ranges is count of
+ * holes in cache plus one at most. Not thread safe, guarded by owner.
+ */
+final class RangeSet {
+
+    private static final int MAGIC = 0x52414E47; // "RANG"
+    private static final int INITIAL_CAPACITY = 4;
+
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] ends = new long[INITIAL_CAPACITY];
+    private int size;
+
+    void add(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        int first = indexOf(start);
+        if (first < 0 || ends[first] < start) {
+            first++; // range at first doesn't touch new one
+        }
+        int last = first;
+        while (last < size && starts[last] <= end) {
+            last++;
+        }
+        if (first == last) {
+            insert(first, start, end);
+            return;
+        }
+        starts[first] = Math.min(starts[first], start);
+        ends[first] = Math.max(ends[last - 1], end);
+        int removed = last - first - 1;
+        if (removed > 0) {
+            System.arraycopy(starts, last, starts, first + 1, size - last);
+            System.arraycopy(ends, last, ends, first + 1, size - last);
+            size -= removed;
+        }
+    }
+
+    /**
+     * Removes range {@code [start, end)} from set, stored ranges intersecting it are cut.
+     */
+    void remove(long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        long[] newStarts = new long[size + 1];
+        long[] newEnds = new long[size + 1];
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (starts[i] < start) {
+                newStarts[newSize] = starts[i];
+                newEnds[newSize++] = Math.min(ends[i], start);
+            }
+            if (ends[i] > end) {
+                newStarts[newSize] = Math.max(starts[i], end);
+                newEnds[newSize++] = ends[i];
+            }
+        }
+        starts = newStarts;
+        ends = newEnds;
+        size = newSize;
+    }
+
+    /**
+     * Returns count of bytes stored continuously starting with offset.
+     *
+     * @param offset an offset in bytes.
+     * @return count of stored bytes or {@code 0} if offset points to hole.
+     */
+    long contiguousLength(long offset) {
+        int index = indexOf(offset);
+        return index >= 0 && ends[index] > offset ? ends[index] - offset : 0;
+    }
+
+    /**
+     * Returns total count of stored bytes.
+     */
+    long total() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += ends[i] - starts[i];
+        }
+        return total;
+    }
+
+    /**
+     * Returns end of last stored range or {@code 0} if nothing is stored.
+     */
+    long end() {
+        return size == 0 ? 0 : ends[size - 1];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long start(int index) {
+        return starts[index];
+    }
+
+    long end(int index) {
+        return ends[index];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(starts[i]);
+            out.writeLong(ends[i]);
+        }
+    }
+
+    static RangeSet readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a range index");
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupted range index: negative ranges count " + count);
+        }
+        RangeSet rangeSet = new RangeSet();
+        for (int i = 0; i < count; i++) {
+            long start = in.readLong();
+            long end = in.readLong();
+            if (start < 0 || end < start) {
+                throw new IOException("Corrupted range index: [" + start + ", " + end + ")");
+            }
+            rangeSet.add(start, end);
+        }
+        return rangeSet;
+    }
+
+    /**
+     * Returns index of last range that starts before or at offset, or {@code -1} if there is no such range.
+     */
+    private int indexOf(long offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private void insert(int index, long start, long end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        System.arraycopy(starts, index, starts, index + 1, size - index);
+        System.arraycopy(ends, index, ends, index + 1, size - index);
+        starts[index] = start;
+        ends[index] = end;
+        size++;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RangeSet{");
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "" : ", ").append('[').append(starts[i]).append(", ").append(ends[i]).append(')');
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.danikula.videocache.hls;
+
+/**
+ * Sub-range of resource used as HLS segment or initialization section ({@code #EXT-X-BYTERANGE} tag or
+ * {@code BYTERANGE} attribute of {@code #EXT-X-MAP} tag).
+ * <p/>
+ * Proxy caches every sub-range as separate url: range is appended to resource's url as fragment
+ * {@code #videocache-byterange=<length>@<offset>}. Fragment is never sent to server, so such url still points to
+ * the whole resource, but it has own cache file, and {@code HttpUrlSource} fetches only its range.
+ */
+public final class HlsByteRange {
+
+    private static final String FRAGMENT = "#videocache-byterange=";
+
+    public final long offset;
+    public final long length;
+
+    HlsByteRange(long offset, long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns url of sub-range of resource.
+     *
+     * @param url    an url of resource.
+     * @param offset an offset of sub-range in bytes.
+     * @param length a length of sub-range in bytes.
+     * @return url with sub-range appended as fragment, previous fragment is removed.
+     */
+    public static String toUrl(String url, long offset, long length) {
+        int fragment = url.indexOf('#');
+        return (fragment >= 0 ? url.substring(0, fragment) : url) + FRAGMENT + length + "@" + offset;
+    }
+
+    /**
+     * Returns sub-range of resource appended to url by {@link #toUrl(String, long, long)}.
+     *
+     * @param url an url to be checked.
+     * @return sub-range or {@code null} if url points to whole resource.
+     */
+    public static HlsByteRange fromUrl(String url) {
+        int start = url.lastIndexOf(FRAGMENT);
+        if (start < 0) {
+            return null;
+        }
+        HlsByteRange range = parse(url.substring(start + FRAGMENT.length()), 0);
+        return range != null && range.length > 0 ? range : null;
+    }
+
+    /**
+     * Returns fragment of sub-range's url, e.g. to keep it while url is normalized.
+     *
+     * @param url an url to be checked.
+     * @return fragment starting with {@code #} or empty string if url points to whole resource.
+     */
+    public static String getFragment(String url) {
+        return fromUrl(url) == null ? "" : url.substring(url.lastIndexOf(FRAGMENT));
+    }
+
+    /**
+     * Parses {@code <length>[@<offset>]} value of playlist's tag.
+     *
+     * @param value         a value to be parsed.
+     * @param defaultOffset an offset to be used if value doesn't contain it.
+     * @return range or {@code null} if value is invalid.
+     */
+    static HlsByteRange parse(String value, long defaultOffset) {
+        int at = value.indexOf('@');
+        try {
+            long length = Long.parseLong((at >= 0 ? value.substring(0, at) : value).trim());
+            long offset = at >= 0 ? Long.parseLong(value.substring(at + 1).trim()) : defaultOffset;
+            return length >= 0 && offset >= 0 ? new HlsByteRange(offset, length) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return length + "@" + offset;
+    }
+}
@@ -0,0 +1,345 @@
+package com.danikula.videocache.hls;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parsed HLS playlist (master or media one).
+ * <p/>
+ * Only tags needed for caching are recognized: urls of variants, renditions, segments, initialization sections and keys,
+ * segments' durations and byte ranges, end of list marker. The rest of playlist is kept as is, so playlist can be
+ * rewritten (see {@link #rewrite(UrlRewriter)}) without losing anything player needs.
+ */
+public final class HlsPlaylist {
+
+    private static final String PLAYLIST_EXTENSION = ".m3u8";
+    private static final String EXTINF = "#EXTINF:";
+    private static final String STREAM_INF = "#EXT-X-STREAM-INF";
+    private static final String END_LIST = "#EXT-X-ENDLIST";
+    private static final String BYTE_RANGE = "#EXT-X-BYTERANGE:";
+    private static final String MAP = "#EXT-X-MAP:";
+    private static final String URI_ATTRIBUTE = "URI=\"";
+    private static final String BYTE_RANGE_ATTRIBUTE = "BYTERANGE=\"";
+    // tags with URI attribute pointing to playlists or data that can be cached
+    private static final String[] CACHEABLE_URI_TAGS = {"#EXT-X-MEDIA:", "#EXT-X-I-FRAME-STREAM-INF:", "#EXT-X-MAP:"};
+    // tags with URI attribute pointing to data that must not be stored, e.g. decryption keys
+    private static final String[] NOT_CACHEABLE_URI_TAGS = {"#EXT-X-KEY:", "#EXT-X-SESSION-KEY:"};
+
+    private final String url;
+    private final List<String> lines;
+    private final List<String> mediaPlaylists = new ArrayList<>();
+    private final List<Segment> segments = new ArrayList<>();
+    // segments by index of line with their url
+    private final Map<Integer, Segment> segmentLines = new HashMap<>();
+    private boolean endList;
+
+    private HlsPlaylist(String url, List<String> lines) {
+        this.url = url;
+        this.lines = lines;
+    }
+
+    /**
+     * Parses playlist.
+     *
+     * @param content a text of playlist.
+     * @param url     an url of playlist, relative urls are resolved against it.
+     * @return parsed playlist.
+     * @throws IllegalArgumentException if content is not HLS playlist.
+     */
+    public static HlsPlaylist parse(String content, String url) {
+        List<String> lines = new ArrayList<>();
+        for (String line : content.split("\r?\n")) {
+            lines.add(line.trim());
+        }
+        if (lines.isEmpty() || !lines.get(0).startsWith("#EXTM3U")) {
+            throw new IllegalArgumentException("Content of " + url + " is not HLS playlist");
+        }
+        HlsPlaylist playlist = new HlsPlaylist(url, lines);
+        playlist.parseLines();
+        return playlist;
+    }
+
+    /**
+     * Returns whether url looks like HLS playlist's one, i.e. url's path ends with {@code .m3u8}.
+     *
+     * @param url an url to be checked.
+     * @return {@code true} if url points to HLS playlist.
+     */
+    public static boolean isPlaylistUrl(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        int fragment = url.indexOf('#');
+        end = query >= 0 ? query : end;
+        end = fragment >= 0 ? Math.min(end, fragment) : end;
+        return url.substring(0, end).toLowerCase(Locale.US).endsWith(PLAYLIST_EXTENSION);
+    }
+
+    /**
+     * Returns whether playlist is master one, i.e. it lists variant streams instead of segments.
+     *
+     * @return {@code true} for master playlist.
+     */
+    public boolean isMaster() {
+        return !mediaPlaylists.isEmpty();
+    }
+
+    /**
+     * Returns whether playlist is complete, i.e. it will never change. Only master playlists and media playlists
+     * with {@code #EXT-X-ENDLIST} tag (video on demand) are complete, live playlists are reloaded by player.
+     *
+     * @return {@code true} if playlist can be cached.
+     */
+    public boolean isComplete() {
+        return isMaster() || endList;
+    }
+
+    /**
+     * Returns absolute urls of media playlists (variant streams and renditions) listed by master playlist.
+     *
+     * @return urls of media playlists in order of appearance, empty list for media playlist.
+     */
+    public List<String> getMediaPlaylists() {
+        return Collections.unmodifiableList(mediaPlaylists);
+    }
+
+    /**
+     * Returns segments of media playlist.
+     *
+     * @return segments in order of playing, empty list for master playlist.
+     */
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Returns the first segments needed for playing passed duration, e.g. to preload start of video.
+     *
+     * @param seconds a duration of playback in seconds.
+     * @return the shortest list of the first segments with total duration not less than passed one
+     * (or all segments if playlist is shorter).
+     */
+    public List<Segment> getSegmentsForDuration(float seconds) {
+        List<Segment> result = new ArrayList<>();
+        float duration = 0;
+        for (Segment segment : segments) {
+            if (duration >= seconds) {
+                break;
+            }
+            result.add(segment);
+            duration += segment.duration;
+        }
+        return result;
+    }
+
+    /**
+     * Returns text of playlist with all urls replaced. Urls of data that can be cached (media playlists, segments,
+     * initialization sections) are replaced by rewriter, urls of keys are just made absolute.
+     * <p/>
+     * Segment or initialization section that is sub-range of resource is passed to rewriter as url of its sub-range
+     * (see {@link HlsByteRange#toUrl(String, long, long)}) and its byte range is removed from playlist,
+     * so every sub-range is requested and cached as separate url.
+     *
+     * @param rewriter a rewriter of absolute urls.
+     * @return text of rewritten playlist.
+     */
+    public String rewrite(UrlRewriter rewriter) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isEmpty() || line.startsWith(BYTE_RANGE)) {
+                continue;
+            }
+            Segment segment = segmentLines.get(i);
+            if (segment != null) {
+                line = rewriter.rewrite(segment.range != null
+                        ? HlsByteRange.toUrl(segment.url, segment.range.offset, segment.range.length) : segment.url);
+            } else if (!line.startsWith("#")) {
+                line = rewriter.rewrite(resolve(line));
+            } else if (line.startsWith(MAP) && findAttribute(line, BYTE_RANGE_ATTRIBUTE) != null) {
+                line = rewriteMapWithByteRange(line, rewriter);
+            } else if (startsWithAny(line, CACHEABLE_URI_TAGS)) {
+                line = rewriteUriAttribute(line, rewriter);
+            } else if (startsWithAny(line, NOT_CACHEABLE_URI_TAGS)) {
+                line = rewriteUriAttribute(line, null);
+            }
+            result.append(line).append('\n');
+        }
+        return result.toString();
+    }
+
+    private void parseLines() {
+        float segmentDuration = -1;
+        boolean variantExpected = false;
+        HlsByteRange segmentRange = null;
+        // sub-range without offset starts right after sub-range of previous segment
+        long nextRangeOffset = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith(EXTINF)) {
+                segmentDuration = parseDuration(line.substring(EXTINF.length()));
+            } else if (line.startsWith(BYTE_RANGE)) {
+                segmentRange = HlsByteRange.parse(line.substring(BYTE_RANGE.length()), nextRangeOffset);
+            } else if (line.startsWith(STREAM_INF)) {
+                variantExpected = true;
+            } else if (line.startsWith(END_LIST)) {
+                endList = true;
+            } else if (line.startsWith("#EXT-X-MEDIA:") || line.startsWith("#EXT-X-I-FRAME-STREAM-INF:")) {
+                String uri = findUriAttribute(line);
+                if (uri != null) {
+                    mediaPlaylists.add(resolve(uri));
+                }
+            } else if (!line.startsWith("#")) {
+                if (variantExpected) {
+                    mediaPlaylists.add(resolve(line));
+                } else {
+                    Segment segment = new Segment(resolve(line), Math.max(0, segmentDuration), segmentRange);
+                    segments.add(segment);
+                    segmentLines.put(i, segment);
+                    nextRangeOffset = segmentRange != null ? segmentRange.offset + segmentRange.length : 0;
+                }
+                variantExpected = false;
+                segmentDuration = -1;
+                segmentRange = null;
+            }
+        }
+    }
+
+    private float parseDuration(String value) {
+        int comma = value.indexOf(',');
+        try {
+            return Float.parseFloat(comma >= 0 ? value.substring(0, comma) : value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private String findUriAttribute(String line) {
+        return findAttribute(line, URI_ATTRIBUTE);
+    }
+
+    private String findAttribute(String line, String attribute) {
+        int start = findAttributeStart(line, attribute);
+        int end = start >= 0 ? line.indexOf('"', start + attribute.length()) : -1;
+        return end >= 0 ? line.substring(start + attribute.length(), end) : null;
+    }
+
+    private int findAttributeStart(String line, String attribute) {
+        int start = line.indexOf(attribute);
+        // attribute name must not be a suffix of other name
+        while (start > 0 && line.charAt(start - 1) != ':' && line.charAt(start - 1) != ',') {
+            start = line.indexOf(attribute, start + 1);
+        }
+        return start;
+    }
+
+    private String rewriteMapWithByteRange(String line, UrlRewriter rewriter) {
+        String uri = findUriAttribute(line);
+        HlsByteRange range = HlsByteRange.parse(findAttribute(line, BYTE_RANGE_ATTRIBUTE), 0);
+        if (uri == null || range == null) {
+            return rewriteUriAttribute(line, rewriter);
+        }
+        String newUrl = rewriter.rewrite(HlsByteRange.toUrl(resolve(uri), range.offset, range.length));
+        StringBuilder result = new StringBuilder(MAP).append(URI_ATTRIBUTE).append(newUrl).append('"');
+        // the rest of attributes except URI and BYTERANGE ones, commas inside quoted values are kept
+        for (String attribute : splitAttributes(line.substring(MAP.length()))) {
+            if (!attribute.startsWith(URI_ATTRIBUTE) && !attribute.startsWith(BYTE_RANGE_ATTRIBUTE)) {
+                result.append(',').append(attribute);
+            }
+        }
+        return result.toString();
+    }
+
+    private List<String> splitAttributes(String attributes) {
+        List<String> result = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < attributes.length(); i++) {
+            char c = attributes.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                result.add(attributes.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(attributes.substring(start));
+        return result;
+    }
+
+    private String rewriteUriAttribute(String line, UrlRewriter rewriter) {
+        String uri = findUriAttribute(line);
+        if (uri == null) {
+            return line;
+        }
+        String absoluteUrl = resolve(uri);
+        String newUrl = rewriter != null ? rewriter.rewrite(absoluteUrl) : absoluteUrl;
+        int start = findAttributeStart(line, URI_ATTRIBUTE) + URI_ATTRIBUTE.length();
+        return line.substring(0, start) + newUrl + line.substring(start + uri.length());
+    }
+
+    private String resolve(String uri) {
+        try {
+            return new URL(new URL(url), uri).toString();
+        } catch (MalformedURLException e) {
+            return uri; // e.g. data: uri, leave it as is
+        }
+    }
+
+    private boolean startsWithAny(String line, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (line.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites urls listed by playlist.
+     */
+    public interface UrlRewriter {
+
+        /**
+         * Returns url to be used instead of passed one.
+         *
+         * @param url an absolute url listed by playlist.
+         * @return new url.
+         */
+        String rewrite(String url);
+    }
+
+    /**
+     * Media segment of playlist.
+     */
+    public static final class Segment {
+
+        public final String url;
+        public final float duration;
+        // sub-range of resource or null if segment is whole resource
+        public final HlsByteRange range;
+
+        Segment(String url, float duration, HlsByteRange range) {
+            this.url = url;
+            this.duration = duration;
+            this.range = range;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" +
+                    "url='" + url + '\'' +
+                    ", duration=" + duration +
+                    (range != null ? ", range=" + range : "") +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.danikula.videocache.preload;
+
+/**
+ * Layout of MP4 file read from its prefix: offsets of top-level {@code moov} and {@code mdat} boxes and duration
+ * of video stored by {@code moov}.
+ * <p/>
+ * Duration is taken from {@code mdhd} box of video track ({@code mvhd} box is used if there is no video track).
+ * Only data passed to {@link #parse(byte[], int, long)} is inspected, so boxes placed after the first box not fully
+ * contained in prefix (usually {@code mdat}) are unknown.
+ */
+final class Mp4Header {
+
+    private static final int BOX_HEADER_SIZE = 8;
+    private static final int LARGE_BOX_HEADER_SIZE = 16;
+    private static final long UNKNOWN_DURATION = 0xFFFFFFFFL;
+
+    private boolean mp4;
+    private long moovOffset = -1;
+    private long mdatOffset = -1;
+    private long mdatEnd = -1;
+    private float duration = -1;
+    private float movieDuration = -1;
+
+    private Mp4Header() {
+    }
+
+    /**
+     * Parses prefix of file.
+     *
+     * @param data         a buffer with prefix of file.
+     * @param length       count of bytes in buffer.
+     * @param sourceLength a length of whole file or negative value if it is unknown.
+     * @return parsed layout, never {@code null}.
+     */
+    static Mp4Header parse(byte[] data, int length, long sourceLength) {
+        Mp4Header header = new Mp4Header();
+        header.parseTopLevel(data, length, sourceLength);
+        return header;
+    }
+
+    /**
+     * Parses boxes placed after media data, e.g. {@code moov} box at the end of file not optimized for streaming.
+     *
+     * @param data   a buffer with data starting with box header.
+     * @param length count of bytes in buffer.
+     * @return parsed layout with duration found in {@code moov} box, offsets are unknown.
+     */
+    static Mp4Header parseTail(byte[] data, int length) {
+        Mp4Header header = new Mp4Header();
+        header.mp4 = true;
+        int moov = header.findChild(data, 0, length, "moov");
+        if (moov >= 0) {
+            header.parseMoov(data, moov + BOX_HEADER_SIZE, moov + header.getChildSize(data, moov, length));
+        }
+        return header;
+    }
+
+    /**
+     * Returns whether data starts with {@code ftyp} box, i.e. it is MP4 (or MOV) file.
+     */
+    boolean isMp4() {
+        return mp4;
+    }
+
+    /**
+     * Returns duration of video in seconds or negative value if {@code moov} box is not parsed yet.
+     */
+    float getDuration() {
+        return duration > 0 ? duration : movieDuration;
+    }
+
+    /**
+     * Returns offset of {@code mdat} box or {@code -1} if prefix doesn't reach it.
+     */
+    long getMdatOffset() {
+        return mdatOffset;
+    }
+
+    /**
+     * Returns offset of the first byte after {@code mdat} box or {@code -1} if prefix doesn't reach {@code mdat}.
+     */
+    long getMdatEnd() {
+        return mdatEnd;
+    }
+
+    /**
+     * Returns whether {@code moov} box is placed after {@code mdat} (file is not optimized for streaming),
+     * so player needs data at the end of file before playing.
+     */
+    boolean isMoovAtTail() {
+        return mdatOffset >= 0 && moovOffset < 0;
+    }
+
+    /**
+     * Returns whether longer prefix is needed to find duration: file is MP4, {@code moov} box is expected
+     * before {@code mdat} but isn't read whole yet.
+     */
+    boolean needsMoreData() {
+        return mp4 && getDuration() < 0 && mdatOffset < 0;
+    }
+
+    private void parseTopLevel(byte[] data, int length, long sourceLength) {
+        long offset = 0;
+        while (offset + BOX_HEADER_SIZE <= length) {
+            int position = (int) offset;
+            long size = readUInt32(data, position);
+            String type = readType(data, position + 4);
+            int headerSize = BOX_HEADER_SIZE;
+            if (size == 1) {
+                if (offset + LARGE_BOX_HEADER_SIZE > length) {
+                    return;
+                }
+                size = readInt64(data, position + 8);
+                headerSize = LARGE_BOX_HEADER_SIZE;
+            } else if (size == 0) {
+                size = sourceLength > 0 ? sourceLength - offset : Long.MAX_VALUE - offset; // box lasts till end of file
+            }
+            if (offset == 0) {
+                mp4 = "ftyp".equals(type);
+            }
+            if (!mp4 || size < headerSize) {
+                return; // not MP4 or broken box
+            }
+            if ("moov".equals(type)) {
+                moovOffset = offset;
+                if (offset + size <= length) {
+                    parseMoov(data, position + headerSize, (int) (offset + size));
+                }
+            } else if ("mdat".equals(type)) {
+                mdatOffset = offset;
+                mdatEnd = offset + size;
+                return; // the rest of file is media data or boxes placed after it
+            }
+            offset += size;
+        }
+    }
+
+    private void parseMoov(byte[] data, int start, int end) {
+        int offset = start;
+        while (offset + BOX_HEADER_SIZE <= end) {
+            int size = getChildSize(data, offset, end);
+            if (size < 0) {
+                return;
+            }
+            String type = readType(data, offset + 4);
+            if ("mvhd".equals(type)) {
+                movieDuration = readDuration(data, offset + BOX_HEADER_SIZE, offset + size);
+            } else if ("trak".equals(type)) {
+                parseTrak(data, offset + BOX_HEADER_SIZE, offset + size);
+            }
+            offset += size;
+        }
+    }
+
+    private void parseTrak(byte[] data, int start, int end) {
+        int mdia = findChild(data, start, end, "mdia");
+        if (mdia < 0) {
+            return;
+        }
+        int mdiaEnd = mdia + getChildSize(data, mdia, end);
+        int mdhd = findChild(data, mdia + BOX_HEADER_SIZE, mdiaEnd, "mdhd");
+        int hdlr = findChild(data, mdia + BOX_HEADER_SIZE, mdiaEnd, "hdlr");
+        // hdlr: version and flags (4), pre_defined (4), handler_type (4)
+        boolean video = hdlr >= 0 && hdlr + BOX_HEADER_SIZE + 12 <= mdiaEnd
+                && "vide".equals(readType(data, hdlr + BOX_HEADER_SIZE + 8));
+        if (video && mdhd >= 0 && duration < 0) {
+            duration = readDuration(data, mdhd + BOX_HEADER_SIZE, mdhd + getChildSize(data, mdhd, mdiaEnd));
+        }
+    }
+
+    private int findChild(byte[] data, int start, int end, String childType) {
+        int offset = start;
+        while (offset + BOX_HEADER_SIZE <= end) {
+            int size = getChildSize(data, offset, end);
+            if (size < 0) {
+                return -1;
+            }
+            if (childType.equals(readType(data, offset + 4))) {
+                return offset;
+            }
+            offset += size;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns size of box nested into {@code moov} or {@code -1} if box is broken.
+     */
+    private int getChildSize(byte[] data, int offset, int end) {
+        long size = readUInt32(data, offset);
+        if (size == 0) {
+            size = end - offset;
+        }
+        return size < BOX_HEADER_SIZE || offset + size > end ? -1 : (int) size;
+    }
+
+    /**
+     * Reads duration in seconds from content of full box with layout of {@code mvhd} or {@code mdhd}.
+     */
+    private float readDuration(byte[] data, int offset, int end) {
+        int version = offset < end ? data[offset] & 0xFF : -1;
+        long timescale;
+        long duration;
+        if (offset + (version == 1 ? 32 : 20) > end) {
+            return -1; // broken box
+        } else if (version == 1) {
+            // version and flags (4), creation time (8), modification time (8), timescale (4), duration (8)
+            timescale = readUInt32(data, offset + 20);
+            duration = readInt64(data, offset + 24);
+        } else {
+            // version and flags (4), creation time (4), modification time (4), timescale (4), duration (4)
+            timescale = readUInt32(data, offset + 12);
+            duration = readUInt32(data, offset + 16);
+            duration = duration == UNKNOWN_DURATION ? -1 : duration;
+        }
+        return timescale > 0 && duration > 0 ? (float) duration / timescale : -1;
+    }
+
+    private static long readUInt32(byte[] data, int offset) {
+        return ((data[offset] & 0xFFL) << 24) | ((data[offset + 1] & 0xFFL) << 16)
+                | ((data[offset + 2] & 0xFFL) << 8) | (data[offset + 3] & 0xFFL);
+    }
+
+    private static long readInt64(byte[] data, int offset) {
+        return (readUInt32(data, offset) << 32) | readUInt32(data, offset + 4);
+    }
+
+    private static String readType(byte[] data, int offset) {
+        char[] type = new char[4];
+        for (int i = 0; i < type.length; i++) {
+            type[i] = (char) (data[offset + i] & 0xFF);
+        }
+        return new String(type);
+    }
+}
@@ -0,0 +1,14 @@
+package com.danikula.videocache.preload;
+
+/**
+ * Listener of preloading results, see {@link Preloader.Builder#listener(PreloadListener)}.
+ */
+public interface PreloadListener {
+
+    /**
+     * Called by preloading thread every time run of preloading is finished.
+     *
+     * @param result a result of preloading.
+     */
+    void onPreloadFinished(PreloadResult result);
+}
@@ -0,0 +1,47 @@
+package com.danikula.videocache.preload;
+
+/**
+ * Result of single run of preloading, reported to {@link PreloadListener}. Url may be preloaded by several runs,
+ * e.g. if its preloading was stopped by url with higher priority and started again later.
+ */
+public final class PreloadResult {
+
+    public enum Outcome {
+        /**
+         * Start of video is preloaded.
+         */
+        COMPLETED,
+        /**
+         * Preloading is stopped before completion: url is removed, preloader is paused or url with higher priority
+         * took preload slot.
+         */
+        STOPPED,
+        /**
+         * Preloading is failed, url isn't preloaded again till it is removed.
+         */
+        FAILED
+    }
+
+    public final String url;
+    public final Outcome outcome;
+    // count of bytes read via proxy, both cached before and fetched from source
+    public final long bytes;
+    public final long durationMillis;
+
+    PreloadResult(String url, Outcome outcome, long bytes, long durationMillis) {
+        this.url = url;
+        this.outcome = outcome;
+        this.bytes = bytes;
+        this.durationMillis = durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadResult{" +
+                "url='" + url + '\'' +
+                ", outcome=" + outcome +
+                ", bytes=" + bytes +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
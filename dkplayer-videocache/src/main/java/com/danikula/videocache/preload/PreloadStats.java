@@ -0,0 +1,47 @@
+package com.danikula.videocache.preload;
+
+/**
+ * Snapshot of {@link Preloader}'s aggregate metrics since it is created, see {@link Preloader#getStats()}.
+ */
+public final class PreloadStats {
+
+    public final int completedCount;
+    public final int stoppedCount;
+    public final int failedCount;
+    // count of bytes read by all runs of preloading
+    public final long preloadedBytes;
+    // count of Preloader.getPlayUrl(String) calls and count of them returned preloaded url
+    public final int playRequestsCount;
+    public final int playHitsCount;
+
+    PreloadStats(int completedCount, int stoppedCount, int failedCount, long preloadedBytes, int playRequestsCount, int playHitsCount) {
+        this.completedCount = completedCount;
+        this.stoppedCount = stoppedCount;
+        this.failedCount = failedCount;
+        this.preloadedBytes = preloadedBytes;
+        this.playRequestsCount = playRequestsCount;
+        this.playHitsCount = playHitsCount;
+    }
+
+    /**
+     * Returns share of videos started playing from preloaded data.
+     *
+     * @return hit rate in range [0, 1] or negative value if nothing is played yet.
+     */
+    public float getHitRate() {
+        return playRequestsCount > 0 ? (float) playHitsCount / playRequestsCount : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadStats{" +
+                "completedCount=" + completedCount +
+                ", stoppedCount=" + stoppedCount +
+                ", failedCount=" + failedCount +
+                ", preloadedBytes=" + preloadedBytes +
+                ", playRequestsCount=" + playRequestsCount +
+                ", playHitsCount=" + playHitsCount +
+                ", hitRate=" + getHitRate() +
+                '}';
+    }
+}
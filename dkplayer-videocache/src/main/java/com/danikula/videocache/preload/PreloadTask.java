@@ -0,0 +1,330 @@
+package com.danikula.videocache.preload;
+
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.hls.HlsPlaylist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preloads start of single url by reading it via {@link HttpProxyCacheServer}, so proxy caches data and player
+ * gets it from cache later. Request is marked by {@link HttpProxyCacheServer#PRELOAD_HEADER}, so proxy fetches it
+ * with low priority. HLS stream is preloaded by segments: the first segments of the first variant are read whole.
+ * <p/>
+ * Size of preloaded MP4 data is calculated by duration to be preloaded: header is parsed as soon as it is read
+ * and data needed for playing preload duration is estimated by video's average bitrate (size of media data divided
+ * by duration). Fixed preload length is used for other formats or if duration can't be found.
+ * If {@code moov} box is placed after media data, tail of file is preloaded too (before start of media data),
+ * so player starts without network requests. Proxy caches such ranges separately. Cached tail doesn't make video
+ * preloaded: if task is stopped before start of media data is read, {@link Preloader#isPreloaded(String)} checks data
+ * cached from the start of file and url is preloaded again when it is added next time.
+ * <p/>
+ * Task can be stopped from any thread: connection being read is disconnected, so blocked read is aborted at once,
+ * and task's requests are canceled by {@link HttpProxyCacheServer#cancelPreload(String)}, so proxy stops fetching
+ * data nobody needs without waiting for failed write to closed socket.
+ */
+final class PreloadTask implements Runnable {
+
+    private static final int TIMEOUT = 5_000;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    // enough to recognize the first box of MP4 file
+    private static final int MIN_HEADER_SIZE = 16;
+    // header bigger than it is not parsed, fixed preload length is used instead
+    private static final int MAX_HEADER_SIZE = 1024 * 1024;
+    private static final AtomicInteger idCounter = new AtomicInteger();
+
+    enum State {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    final String url;
+    private final String preloadId = "preload-" + idCounter.incrementAndGet();
+    private final Preloader preloader;
+    private volatile int position;
+    private volatile State state = State.PENDING;
+    private volatile boolean stopped;
+    private volatile HttpURLConnection connection;
+    // bytes read by current run, accessed by preloading thread only
+    private long bytesRead;
+
+    PreloadTask(Preloader preloader, String url, int position) {
+        this.preloader = preloader;
+        this.url = url;
+        this.position = position;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    void setPosition(int position) {
+        this.position = position;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    void onStarted() {
+        stopped = false;
+        state = State.RUNNING;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Stops running task, it can be started again later.
+     */
+    void stop() {
+        stopped = true;
+        HttpURLConnection current = connection;
+        if (current != null) {
+            current.disconnect(); // aborts read blocked in other thread
+        }
+        preloader.getServer().cancelPreload(preloadId);
+    }
+
+    @Override
+    public void run() {
+        long startTime = System.currentTimeMillis();
+        bytesRead = 0;
+        State result = State.PENDING;
+        try {
+            if (HlsPlaylist.isPlaylistUrl(url)) {
+                preloadHls();
+            } else {
+                readVideo(preloader.getServer().getProxyUrl(url, false));
+            }
+            result = stopped ? State.PENDING : State.DONE;
+        } catch (IOException | RuntimeException e) {
+            if (!stopped) {
+                Logger.warn("Error preloading " + url + ": " + e.getMessage());
+                result = State.FAILED;
+            }
+        } finally {
+            state = result;
+            PreloadResult.Outcome outcome = result == State.DONE ? PreloadResult.Outcome.COMPLETED
+                    : (result == State.FAILED ? PreloadResult.Outcome.FAILED : PreloadResult.Outcome.STOPPED);
+            long duration = System.currentTimeMillis() - startTime;
+            preloader.onTaskFinished(new PreloadResult(url, outcome, bytesRead, duration));
+        }
+    }
+
+    private void preloadHls() throws IOException {
+        String playlistUrl = preloader.getServer().getProxyUrl(url, false);
+        HlsPlaylist playlist = HlsPlaylist.parse(readText(playlistUrl), playlistUrl);
+        if (playlist.isMaster()) {
+            String mediaPlaylistUrl = playlist.getMediaPlaylists().get(0);
+            playlist = HlsPlaylist.parse(readText(mediaPlaylistUrl), mediaPlaylistUrl);
+        }
+        List<HlsPlaylist.Segment> segments = playlist.getSegmentsForDuration(preloader.getPreloadSeconds());
+        for (HlsPlaylist.Segment segment : segments) {
+            if (stopped) {
+                return;
+            }
+            readWhole(segment.url);
+        }
+    }
+
+    private void readVideo(String proxyUrl) throws IOException {
+        HttpURLConnection urlConnection = openConnection(proxyUrl, 0, -1);
+        long sourceLength;
+        long read = 0;
+        Mp4Header mp4Header = null;
+        try {
+            InputStream in = urlConnection.getInputStream();
+            sourceLength = getContentLength(urlConnection);
+            long targetLength = -1;
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int readBytes;
+            while (!stopped && (targetLength < 0 || read < targetLength) && (readBytes = in.read(buffer)) != -1) {
+                read += readBytes;
+                if (targetLength < 0) {
+                    header.write(buffer, 0, readBytes);
+                    mp4Header = parseHeader(header, sourceLength);
+                    if (mp4Header != null && mp4Header.isMoovAtTail() && sourceLength > mp4Header.getMdatEnd()) {
+                        break; // player needs moov first, start of media data is read after it
+                    }
+                    targetLength = mp4Header != null ? getTargetLength(mp4Header, sourceLength) : -1;
+                    if (targetLength >= 0) {
+                        preloader.onTargetLength(url, targetLength);
+                    }
+                }
+                onRead(readBytes);
+            }
+        } finally {
+            closeConnection(urlConnection);
+        }
+        if (!stopped && mp4Header != null && mp4Header.isMoovAtTail() && sourceLength > mp4Header.getMdatEnd()) {
+            readMoovAtTail(proxyUrl, mp4Header, sourceLength, read);
+        }
+    }
+
+    /**
+     * Preloads file with {@code moov} box placed after media data: tail of file is read first, so player gets
+     * index of media data without seeking to the end of file via network, then start of media data is read.
+     */
+    private void readMoovAtTail(String proxyUrl, Mp4Header prefixHeader, long sourceLength, long headRead) throws IOException {
+        long tailOffset = prefixHeader.getMdatEnd();
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        readRange(proxyUrl, tailOffset, sourceLength, tail);
+        float duration = Mp4Header.parseTail(tail.toByteArray(), tail.size()).getDuration();
+        Logger.debug("Preload " + (sourceLength - tailOffset) + " bytes of moov at the end of " + url);
+        long headLength = duration > 0
+                ? getLengthForDuration(prefixHeader.getMdatOffset(), tailOffset, duration)
+                : preloader.getPreloadLength();
+        preloader.onTargetLength(url, headLength);
+        if (!stopped && headRead < headLength) {
+            readRange(proxyUrl, headRead, headLength, null);
+        }
+    }
+
+    /**
+     * Returns parsed header or {@code null} if header read so far isn't enough to find out preload size.
+     */
+    private Mp4Header parseHeader(ByteArrayOutputStream header, long sourceLength) {
+        boolean wholeSourceRead = sourceLength >= 0 && header.size() >= sourceLength;
+        if (header.size() < MIN_HEADER_SIZE && !wholeSourceRead) {
+            return null; // too short to be parsed
+        }
+        Mp4Header mp4Header = Mp4Header.parse(header.toByteArray(), header.size(), sourceLength);
+        return mp4Header.needsMoreData() && header.size() < MAX_HEADER_SIZE ? null : mp4Header;
+    }
+
+    /**
+     * Returns count of bytes to be preloaded from start of file.
+     */
+    private long getTargetLength(Mp4Header mp4Header, long sourceLength) {
+        float duration = mp4Header.getDuration();
+        long mdatOffset = mp4Header.getMdatOffset();
+        if (duration <= 0 || mdatOffset < 0 || sourceLength <= mdatOffset) {
+            return preloader.getPreloadLength(); // not MP4 or unknown length
+        }
+        return getLengthForDuration(mdatOffset, Math.min(sourceLength, mp4Header.getMdatEnd()), duration);
+    }
+
+    /**
+     * Estimates count of bytes from start of file needed for playing preload duration by average bitrate.
+     */
+    private long getLengthForDuration(long mdatOffset, long mdatEnd, float duration) {
+        float share = Math.min(1, preloader.getPreloadSeconds() / duration);
+        long targetLength = mdatOffset + (long) ((mdatEnd - mdatOffset) * share);
+        Logger.debug("Preload " + targetLength + " bytes of " + url + " for " + preloader.getPreloadSeconds() + " of " + duration + " seconds");
+        return targetLength;
+    }
+
+    /**
+     * Reads range {@code [offset, end)} of source via proxy.
+     *
+     * @param collector a stream to collect read data, only the first {@link #MAX_HEADER_SIZE} bytes are kept;
+     *                  may be {@code null}.
+     */
+    private void readRange(String proxyUrl, long offset, long end, ByteArrayOutputStream collector) throws IOException {
+        HttpURLConnection urlConnection = openConnection(proxyUrl, offset, end);
+        try {
+            InputStream in = urlConnection.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long read = 0;
+            int readBytes;
+            while (!stopped && read < end - offset && (readBytes = in.read(buffer)) != -1) {
+                read += readBytes;
+                if (collector != null && collector.size() < MAX_HEADER_SIZE) {
+                    collector.write(buffer, 0, Math.min(readBytes, MAX_HEADER_SIZE - collector.size()));
+                }
+                onRead(readBytes);
+            }
+        } finally {
+            closeConnection(urlConnection);
+        }
+    }
+
+    private void onRead(int readBytes) {
+        bytesRead += readBytes;
+        preloader.onProgress();
+    }
+
+    private long getContentLength(HttpURLConnection urlConnection) {
+        String contentLength = urlConnection.getHeaderField("Content-Length");
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void readWhole(String proxyUrl) throws IOException {
+        HttpURLConnection urlConnection = openConnection(proxyUrl);
+        try {
+            InputStream in = urlConnection.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int readBytes;
+            while (!stopped && (readBytes = in.read(buffer)) != -1) {
+                onRead(readBytes);
+            }
+        } finally {
+            closeConnection(urlConnection);
+        }
+    }
+
+    private String readText(String proxyUrl) throws IOException {
+        HttpURLConnection urlConnection = openConnection(proxyUrl);
+        try {
+            InputStream in = urlConnection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int readBytes;
+            while ((readBytes = in.read(buffer)) != -1) {
+                out.write(buffer, 0, readBytes);
+                bytesRead += readBytes;
+            }
+            return out.toString("UTF-8");
+        } finally {
+            closeConnection(urlConnection);
+        }
+    }
+
+    private HttpURLConnection openConnection(String proxyUrl) throws IOException {
+        return openConnection(proxyUrl, 0, -1);
+    }
+
+    private HttpURLConnection openConnection(String proxyUrl, long offset, long end) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(proxyUrl).openConnection();
+        urlConnection.setConnectTimeout(TIMEOUT);
+        urlConnection.setReadTimeout(TIMEOUT);
+        urlConnection.setRequestProperty(HttpProxyCacheServer.PRELOAD_HEADER, "1");
+        urlConnection.setRequestProperty(HttpProxyCacheServer.PRELOAD_ID_HEADER, preloadId);
+        if (offset > 0 || end >= 0) {
+            urlConnection.setRequestProperty("Range", "bytes=" + offset + "-" + (end >= 0 ? end - 1 : ""));
+        }
+        connection = urlConnection;
+        if (stopped) {
+            // stopped before connection is published, nobody will disconnect it
+            closeConnection(urlConnection);
+            throw new IOException("Preloading of " + url + " is stopped");
+        }
+        return urlConnection;
+    }
+
+    private void closeConnection(HttpURLConnection urlConnection) {
+        connection = null;
+        urlConnection.disconnect();
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadTask{" +
+                "url='" + url + '\'' +
+                ", position=" + position +
+                ", state=" + state +
+                '}';
+    }
+}
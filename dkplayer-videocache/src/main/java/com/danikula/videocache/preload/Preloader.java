@@ -0,0 +1,572 @@
+package com.danikula.videocache.preload;
+
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.hls.HlsPlaylist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Preloads start of videos shown by scrollable list (e.g. vertical pager of short videos) via {@link HttpProxyCacheServer},
+ * so next video starts playing from cache.
+ * <p/>
+ * Every item of list has its position. Preloader keeps items ordered by expected time the item is shown: items ahead in
+ * scroll direction go first, the nearer to position list is expected to reach soon (current position moved by scroll
+ * velocity) the higher priority is. Items behind scroll direction go last. Order is updated every time current position
+ * is changed. Several items are preloaded concurrently, running preloading is stopped if item with higher priority
+ * appears and all preload slots are busy. If player downloads data via the same proxy, only one preloading is kept
+ * running, so preloading doesn't compete with playback for bandwidth.
+ * <p/>
+ * Preloaded data is sized by playback duration (see {@link Builder#preloadSeconds(float)}), so low bitrate videos
+ * don't waste data and high bitrate ones have enough data to start. Bytes downloaded by preloading within every minute
+ * are limited by budget: a share of measured bandwidth (see {@link Builder#bandwidthShare(float)}) and optional hard
+ * limit (see {@link Builder#maxBytesPerMinute(long)}). Preloading is suspended till the end of minute once budget is spent.
+ * <p/>
+ * Result of every preloading (bytes, duration and outcome) is reported to {@link PreloadListener}, aggregate metrics
+ * including hit rate of {@link #getPlayUrl(String)} are available by {@link #getStats()}.
+ * <p/>
+ * Usage:
+ * <pre><code>
+ * Preloader preloader = new Preloader.Builder(proxy).maxConcurrentPreloads(2).build();
+ * // list item is bound
+ * preloader.add(url, position);
+ * // page is selected or list is scrolled
+ * preloader.setCurrentPosition(position);
+ * // before playing
+ * videoView.setUrl(preloader.getPlayUrl(url));
+ * </code></pre>
+ */
+public class Preloader {
+
+    // expected position is current position moved by velocity during this time
+    private static final float PREDICTION_SECONDS = 1;
+    // velocity is considered to be zero if position wasn't changed for this time
+    private static final long VELOCITY_TIMEOUT_MS = 2_000;
+    // items behind scroll direction are treated as items ahead placed so many times farther
+    private static final int BEHIND_PENALTY = 3;
+    private static final int CONCURRENT_PRELOADS_DURING_PLAYBACK = 1;
+    private static final long CONTENTION_CHECK_INTERVAL_MS = 500;
+    private static final long BUDGET_PERIOD_MS = 60_000;
+    // weight of the latest measurement in bandwidth estimation
+    private static final float BANDWIDTH_SMOOTHING = 0.3f;
+    private static final long MAX_BANDWIDTH_SAMPLE_MS = 4 * CONTENTION_CHECK_INTERVAL_MS;
+    private static final int MAX_TARGET_LENGTHS = 512;
+
+    private final HttpProxyCacheServer server;
+    private final int maxConcurrentPreloads;
+    private final long preloadLength;
+    private final float preloadSeconds;
+    private final float bandwidthShare;
+    private final long maxBytesPerMinute;
+    private final PreloadListener listener;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new PreloadThreadFactory());
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new PreloadThreadFactory());
+    private final Map<String, PreloadTask> tasks = new LinkedHashMap<>();
+    // count of bytes to be preloaded from start of url, sized by duration, kept after task is removed
+    private final Map<String, Long> targetLengths = new TargetLengthsMap();
+    private int currentPosition;
+    private int direction = 1;
+    private float velocity;
+    private long positionChangeTime;
+    private boolean paused;
+    private int allowedPreloads;
+    private volatile long contentionCheckTime;
+    // bytes per second, negative if not measured yet
+    private float bandwidth = -1;
+    private long bandwidthSampleTime;
+    private long bandwidthSampleBytes;
+    private long budgetPeriodStart;
+    private long budgetPeriodStartBytes;
+    private boolean budgetTimerScheduled;
+    // value of preload bytes counter budget of current period is spent at
+    private volatile long budgetLimitBytes = Long.MAX_VALUE;
+    private int completedCount;
+    private int stoppedCount;
+    private int failedCount;
+    private long preloadedBytes;
+    private int playRequestsCount;
+    private int playHitsCount;
+
+    private Preloader(Builder builder) {
+        this.server = builder.server;
+        this.maxConcurrentPreloads = builder.maxConcurrentPreloads;
+        this.preloadLength = builder.preloadLength;
+        this.preloadSeconds = builder.preloadSeconds;
+        this.bandwidthShare = builder.bandwidthShare;
+        this.maxBytesPerMinute = builder.maxBytesPerMinute;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * Adds url to be preloaded or updates position of already added url. Already preloaded url is ignored.
+     *
+     * @param url      an original url of video.
+     * @param position a position of item in list.
+     */
+    public synchronized void add(String url, int position) {
+        checkNotNull(url, "Url can't be null!");
+        PreloadTask task = tasks.get(url);
+        if (task != null) {
+            task.setPosition(position);
+        } else if (!isPreloaded(url)) {
+            tasks.put(url, new PreloadTask(this, url, position));
+        }
+        schedule();
+    }
+
+    /**
+     * Removes url, its preloading is stopped if it is running.
+     *
+     * @param url an original url of video.
+     */
+    public synchronized void remove(String url) {
+        PreloadTask task = tasks.remove(url);
+        if (task != null) {
+            task.stop();
+            schedule();
+        }
+    }
+
+    /**
+     * Removes all urls and stops all running preloading.
+     */
+    public synchronized void removeAll() {
+        for (PreloadTask task : tasks.values()) {
+            task.stop();
+        }
+        tasks.clear();
+    }
+
+    /**
+     * Sets position of item being shown. Scroll direction and velocity are calculated by consecutive positions.
+     *
+     * @param position a position of current item.
+     */
+    public synchronized void setCurrentPosition(int position) {
+        long now = System.currentTimeMillis();
+        if (position != currentPosition) {
+            float seconds = Math.max(now - positionChangeTime, 1) / 1000f;
+            float instantVelocity = (position - currentPosition) / seconds;
+            boolean recentlyMoved = now - positionChangeTime < VELOCITY_TIMEOUT_MS;
+            velocity = recentlyMoved ? (velocity + instantVelocity) / 2 : instantVelocity;
+            direction = position > currentPosition ? 1 : -1;
+            positionChangeTime = now;
+            currentPosition = position;
+        }
+        schedule();
+    }
+
+    /**
+     * Sets position of item being shown with known scroll velocity, e.g. calculated by list's fling.
+     *
+     * @param position a position of current item.
+     * @param velocity scroll velocity in items per second, positive for scrolling to greater positions.
+     */
+    public synchronized void setCurrentPosition(int position, float velocity) {
+        this.currentPosition = position;
+        this.velocity = velocity;
+        this.direction = velocity < 0 ? -1 : (velocity > 0 ? 1 : direction);
+        this.positionChangeTime = System.currentTimeMillis();
+        schedule();
+    }
+
+    /**
+     * Stops all running preloading, urls are kept and preloaded after {@link #resume()}.
+     */
+    public synchronized void pause() {
+        paused = true;
+        schedule();
+    }
+
+    /**
+     * Resumes preloading paused by {@link #pause()}.
+     */
+    public synchronized void resume() {
+        paused = false;
+        schedule();
+    }
+
+    /**
+     * Returns url to be played. Preloading of url is stopped because player fetches data itself.
+     *
+     * @param url an original url of video.
+     * @return proxy url if start of video is preloaded, original url otherwise.
+     */
+    public String getPlayUrl(String url) {
+        boolean preloaded = isPreloaded(url);
+        synchronized (this) {
+            playRequestsCount++;
+            playHitsCount += preloaded ? 1 : 0;
+        }
+        remove(url);
+        return preloaded ? server.getProxyUrl(url) : url;
+    }
+
+    /**
+     * Returns estimated bandwidth measured by preloading.
+     *
+     * @return bandwidth in bytes per second or negative value if it isn't measured yet.
+     */
+    public synchronized float getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Returns aggregate metrics of preloading since preloader is created.
+     *
+     * @return snapshot of metrics.
+     */
+    public synchronized PreloadStats getStats() {
+        return new PreloadStats(completedCount, stoppedCount, failedCount, preloadedBytes, playRequestsCount, playHitsCount);
+    }
+
+    /**
+     * Returns whether start of video is preloaded, i.e. video is fully cached, preloaded by this preloader
+     * or its preload size is cached from the start of video. Preload size is the one calculated by duration
+     * when url was preloaded, {@link Builder#preloadLength(long)} bytes if url wasn't preloaded yet.
+     *
+     * @param url an original url of video.
+     * @return {@code true} if video can start playing from cache.
+     */
+    public boolean isPreloaded(String url) {
+        long targetLength;
+        synchronized (this) {
+            PreloadTask task = tasks.get(url);
+            if (task != null && task.getState() == PreloadTask.State.DONE) {
+                return true;
+            }
+            Long knownLength = targetLengths.get(url);
+            targetLength = knownLength != null ? knownLength : preloadLength;
+        }
+        if (server.isCached(url)) {
+            return true; // for HLS it means playlist is cached, its first segments are requested right after it
+        }
+        // temp file is sparse, its length says nothing about start of video, e.g. tail is fetched first for moov atom
+        return !HlsPlaylist.isPlaylistUrl(url) && server.getCachedPrefixLength(url) >= targetLength;
+    }
+
+    /**
+     * Stops all preloading and releases threads. Preloader can't be used after shutdown.
+     */
+    public void shutdown() {
+        removeAll();
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    HttpProxyCacheServer getServer() {
+        return server;
+    }
+
+    long getPreloadLength() {
+        return preloadLength;
+    }
+
+    float getPreloadSeconds() {
+        return preloadSeconds;
+    }
+
+    synchronized void onTargetLength(String url, long length) {
+        targetLengths.put(url, length);
+    }
+
+    void onTaskFinished(PreloadResult result) {
+        synchronized (this) {
+            Logger.debug("Preloading finished: " + result);
+            completedCount += result.outcome == PreloadResult.Outcome.COMPLETED ? 1 : 0;
+            stoppedCount += result.outcome == PreloadResult.Outcome.STOPPED ? 1 : 0;
+            failedCount += result.outcome == PreloadResult.Outcome.FAILED ? 1 : 0;
+            preloadedBytes += result.bytes;
+            schedule();
+        }
+        if (listener != null) {
+            listener.onPreloadFinished(result);
+        }
+    }
+
+    /**
+     * Called by running tasks while data is read, checks from time to time whether playback started or finished
+     * downloading (so preloading yields bandwidth to player or takes it back) and whether budget is spent.
+     */
+    void onProgress() {
+        long now = System.currentTimeMillis();
+        boolean checkTime = now - contentionCheckTime >= CONTENTION_CHECK_INTERVAL_MS;
+        boolean budgetSpent = server.getPreloadFetchedBytesCount() >= budgetLimitBytes;
+        if (!checkTime && !budgetSpent) {
+            return;
+        }
+        synchronized (this) {
+            if (checkTime) {
+                contentionCheckTime = now;
+                measureBandwidth(now);
+            }
+            if (getAllowedPreloads() != allowedPreloads) {
+                schedule();
+            }
+        }
+    }
+
+    private void measureBandwidth(long now) {
+        long fetchedBytes = server.getPreloadFetchedBytesCount();
+        long bytes = fetchedBytes - bandwidthSampleBytes;
+        long duration = now - bandwidthSampleTime;
+        // long gap means there was no preloading, its duration says nothing about bandwidth
+        boolean measurable = bytes > 0 && duration > 0 && duration <= MAX_BANDWIDTH_SAMPLE_MS;
+        if (measurable) {
+            // data read from cache isn't counted, so pauses in network reading are not taken into account
+            float sample = bytes * 1000f / duration;
+            bandwidth = bandwidth < 0 ? sample : bandwidth + (sample - bandwidth) * BANDWIDTH_SMOOTHING;
+        }
+        bandwidthSampleTime = now;
+        bandwidthSampleBytes = fetchedBytes;
+    }
+
+    private boolean isBudgetSpent() {
+        long now = System.currentTimeMillis();
+        long fetchedBytes = server.getPreloadFetchedBytesCount();
+        if (now - budgetPeriodStart >= BUDGET_PERIOD_MS) {
+            budgetPeriodStart = now;
+            budgetPeriodStartBytes = fetchedBytes;
+        }
+        long budget = maxBytesPerMinute;
+        if (bandwidth > 0) {
+            budget = Math.min(budget, (long) (bandwidth * bandwidthShare * BUDGET_PERIOD_MS / 1000));
+        }
+        budgetLimitBytes = budget == Long.MAX_VALUE ? Long.MAX_VALUE : budgetPeriodStartBytes + budget;
+        boolean spent = fetchedBytes >= budgetLimitBytes;
+        if (spent && !budgetTimerScheduled) {
+            Logger.debug("Preloading is suspended till the end of minute: " + budget + " bytes are preloaded");
+            budgetTimerScheduled = true;
+            long delay = budgetPeriodStart + BUDGET_PERIOD_MS - now;
+            timer.schedule(new BudgetPeriodEndRunnable(), delay, TimeUnit.MILLISECONDS);
+        }
+        return spent;
+    }
+
+    private synchronized void onBudgetPeriodEnd() {
+        budgetTimerScheduled = false;
+        schedule();
+    }
+
+    private void schedule() {
+        List<PreloadTask> candidates = new ArrayList<>();
+        int stopping = 0;
+        for (PreloadTask task : tasks.values()) {
+            PreloadTask.State state = task.getState();
+            if (state == PreloadTask.State.RUNNING && task.isStopped()) {
+                stopping++; // its connection is being closed, wait for it to free the slot
+            } else if (state == PreloadTask.State.PENDING || state == PreloadTask.State.RUNNING) {
+                candidates.add(task);
+            }
+        }
+        Collections.sort(candidates, new PriorityComparator(getExpectedPosition()));
+        allowedPreloads = getAllowedPreloads();
+        int slots = Math.max(0, allowedPreloads - stopping);
+        int running = 0;
+        for (PreloadTask task : candidates) {
+            boolean allowed = running < slots;
+            if (allowed) {
+                running++;
+                if (task.getState() == PreloadTask.State.PENDING) {
+                    Logger.debug("Start preloading " + task);
+                    task.onStarted();
+                    executor.execute(task);
+                }
+            } else if (task.getState() == PreloadTask.State.RUNNING) {
+                Logger.debug("Stop preloading " + task + ": there are more important urls");
+                task.stop();
+            }
+        }
+    }
+
+    private int getAllowedPreloads() {
+        if (paused || isBudgetSpent()) {
+            return 0;
+        }
+        boolean playbackDownloading = server.getActivePlaybackDownloadsCount() > 0;
+        return playbackDownloading ? Math.min(maxConcurrentPreloads, CONCURRENT_PRELOADS_DURING_PLAYBACK) : maxConcurrentPreloads;
+    }
+
+    private float getExpectedPosition() {
+        boolean moving = System.currentTimeMillis() - positionChangeTime < VELOCITY_TIMEOUT_MS;
+        return moving ? currentPosition + velocity * PREDICTION_SECONDS : currentPosition;
+    }
+
+    private final class PriorityComparator implements Comparator<PreloadTask> {
+
+        private final float expectedPosition;
+
+        PriorityComparator(float expectedPosition) {
+            this.expectedPosition = expectedPosition;
+        }
+
+        @Override
+        public int compare(PreloadTask first, PreloadTask second) {
+            return Float.compare(getDistance(first), getDistance(second));
+        }
+
+        private float getDistance(PreloadTask task) {
+            int position = task.getPosition();
+            boolean behind = direction > 0 ? position < currentPosition : position > currentPosition;
+            float distance = Math.abs(position - expectedPosition);
+            return behind ? (distance + 1) * BEHIND_PENALTY : distance;
+        }
+    }
+
+    private static final class TargetLengthsMap extends LinkedHashMap<String, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        TargetLengthsMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TARGET_LENGTHS;
+        }
+    }
+
+    private final class BudgetPeriodEndRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            onBudgetPeriodEnd();
+        }
+    }
+
+    private static final class PreloadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "Preloader " + threadNumber.incrementAndGet());
+        }
+    }
+
+    /**
+     * Builder for {@link Preloader}.
+     */
+    public static final class Builder {
+
+        private static final int DEFAULT_MAX_CONCURRENT_PRELOADS = 2;
+        private static final long DEFAULT_PRELOAD_LENGTH = 1024 * 1024;
+        private static final float DEFAULT_PRELOAD_SECONDS = 5;
+        private static final float DEFAULT_BANDWIDTH_SHARE = 0.5f;
+
+        private final HttpProxyCacheServer server;
+        private int maxConcurrentPreloads = DEFAULT_MAX_CONCURRENT_PRELOADS;
+        private long preloadLength = DEFAULT_PRELOAD_LENGTH;
+        private float preloadSeconds = DEFAULT_PRELOAD_SECONDS;
+        private float bandwidthShare = DEFAULT_BANDWIDTH_SHARE;
+        private long maxBytesPerMinute = Long.MAX_VALUE;
+        private PreloadListener listener;
+
+        public Builder(HttpProxyCacheServer server) {
+            this.server = checkNotNull(server);
+        }
+
+        /**
+         * Sets max count of urls preloaded concurrently. Default value is 2.
+         *
+         * @param count max count of concurrent preloads, must be positive.
+         * @return a builder.
+         */
+        public Builder maxConcurrentPreloads(int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("Max concurrent preloads count must be positive number!");
+            }
+            this.maxConcurrentPreloads = count;
+            return this;
+        }
+
+        /**
+         * Sets count of bytes preloaded from start of video if preload size can't be calculated by duration,
+         * i.e. video is not MP4 or its {@code moov} box is placed after media data. The same count of cached bytes
+         * makes video not preloaded by this preloader be played from cache. Default value is 1 Mb.
+         *
+         * @param length count of bytes, must be positive.
+         * @return a builder.
+         */
+        public Builder preloadLength(long length) {
+            if (length <= 0) {
+                throw new IllegalArgumentException("Preload length must be positive number!");
+            }
+            this.preloadLength = length;
+            return this;
+        }
+
+        /**
+         * Sets duration of playback to be preloaded from start of video. MP4 data is sized by video's average bitrate,
+         * HLS stream is preloaded by whole segments. Default value is 5 seconds.
+         *
+         * @param seconds a duration in seconds, must be positive.
+         * @return a builder.
+         */
+        public Builder preloadSeconds(float seconds) {
+            if (seconds <= 0) {
+                throw new IllegalArgumentException("Preload duration must be positive number!");
+            }
+            this.preloadSeconds = seconds;
+            return this;
+        }
+
+        /**
+         * Sets share of measured bandwidth preloading may use on average: bytes preloaded within every minute
+         * are limited by {@code share * bandwidth * 60 seconds}. Default value is 0.5.
+         *
+         * @param share a share of bandwidth in range (0, 1].
+         * @return a builder.
+         */
+        public Builder bandwidthShare(float share) {
+            if (share <= 0 || share > 1) {
+                throw new IllegalArgumentException("Bandwidth share must be in range (0, 1]!");
+            }
+            this.bandwidthShare = share;
+            return this;
+        }
+
+        /**
+         * Sets hard limit of bytes preloaded within every minute, e.g. for mobile networks. Not limited by default.
+         *
+         * @param bytes max count of bytes, must be positive.
+         * @return a builder.
+         */
+        public Builder maxBytesPerMinute(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Max bytes per minute must be positive number!");
+            }
+            this.maxBytesPerMinute = bytes;
+            return this;
+        }
+
+        /**
+         * Sets listener to be notified about result of every preloading. Listener is called by preloading thread.
+         *
+         * @param listener a listener, may be {@code null}.
+         * @return a builder.
+         */
+        public Builder listener(PreloadListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public Preloader build() {
+            return new Preloader(this);
+        }
+    }
+}
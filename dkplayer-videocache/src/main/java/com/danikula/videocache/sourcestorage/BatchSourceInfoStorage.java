@@ -0,0 +1,13 @@
+package com.danikula.videocache.sourcestorage;
+
+import com.danikula.videocache.SourceInfo;
+
+import java.util.Collection;
+
+/**
+ * {@link SourceInfoStorage} that can save several infos at once cheaper than one by one.
+ */
+interface BatchSourceInfoStorage extends SourceInfoStorage {
+
+    void putAll(Collection<SourceInfo> sourceInfos);
+}
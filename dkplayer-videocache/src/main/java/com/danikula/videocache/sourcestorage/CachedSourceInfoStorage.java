@@ -0,0 +1,147 @@
+package com.danikula.videocache.sourcestorage;
+
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.SourceInfo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.Preconditions.checkAllNotNull;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link SourceInfoStorage} that serves infos from memory and saves them to persistent storage in background.
+ * <p/>
+ * Recently used infos are kept in LRU map, so {@link #get(String)} doesn't touch persistent storage for them.
+ * {@link #put(String, SourceInfo)} never blocks fetching thread by I/O: changed infos are collected and saved
+ * by single background thread in batches. Info equal to stored one is not saved at all.
+ * Not saved infos are flushed by {@link #release()}.
+ */
+class CachedSourceInfoStorage implements SourceInfoStorage {
+
+    private static final int MAX_CACHED_INFOS = 1024;
+    private static final long WRITER_KEEP_ALIVE_SECONDS = 10;
+    private static final long RELEASE_TIMEOUT_SECONDS = 2;
+
+    private final BatchSourceInfoStorage storage;
+    private final Map<String, SourceInfo> cache = new LruMap();
+    private final Map<String, SourceInfo> pendingWrites = new LinkedHashMap<>();
+    private final ThreadPoolExecutor writer;
+    private boolean flushScheduled;
+
+    CachedSourceInfoStorage(BatchSourceInfoStorage storage) {
+        this.storage = checkNotNull(storage);
+        this.writer = new ThreadPoolExecutor(1, 1, WRITER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WriterThreadFactory());
+        this.writer.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public SourceInfo get(String url) {
+        checkNotNull(url);
+        synchronized (this) {
+            SourceInfo sourceInfo = pendingWrites.get(url);
+            sourceInfo = sourceInfo != null ? sourceInfo : cache.get(url);
+            if (sourceInfo != null) {
+                return sourceInfo;
+            }
+        }
+        SourceInfo sourceInfo = storage.get(url);
+        if (sourceInfo != null) {
+            synchronized (this) {
+                if (!pendingWrites.containsKey(url)) {
+                    cache.put(url, sourceInfo);
+                }
+            }
+        }
+        return sourceInfo;
+    }
+
+    @Override
+    public void put(String url, SourceInfo sourceInfo) {
+        checkAllNotNull(url, sourceInfo);
+        synchronized (this) {
+            SourceInfo cached = cache.put(url, sourceInfo);
+            if (isSame(cached, sourceInfo) && !pendingWrites.containsKey(url)) {
+                return;
+            }
+            pendingWrites.put(url, sourceInfo);
+            if (flushScheduled || writer.isShutdown()) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        writer.execute(new FlushRunnable());
+    }
+
+    @Override
+    public void release() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(RELEASE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Logger.warn("Interrupted while waiting for source infos being saved");
+        }
+        flush();
+        storage.release();
+    }
+
+    private void flush() {
+        List<SourceInfo> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+        }
+        try {
+            storage.putAll(batch);
+        } catch (RuntimeException e) {
+            // infos are just hints for speeding up proxy, so losing them isn't fatal
+            Logger.error("Error saving " + batch.size() + " source infos: " + e.getMessage());
+        }
+    }
+
+    private boolean isSame(SourceInfo first, SourceInfo second) {
+        return first != null && first.length == second.length
+                && (first.mime == null ? second.mime == null : first.mime.equals(second.mime));
+    }
+
+    private final class FlushRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            flush();
+        }
+    }
+
+    private static final class LruMap extends LinkedHashMap<String, SourceInfo> {
+
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SourceInfo> eldest) {
+            return size() > MAX_CACHED_INFOS;
+        }
+    }
+
+    private static final class WriterThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "Source info writer");
+        }
+    }
+}
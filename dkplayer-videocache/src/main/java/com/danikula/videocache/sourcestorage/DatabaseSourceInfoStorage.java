@@ -8,15 +8,19 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 import com.danikula.videocache.SourceInfo;
 
+import java.util.Collection;
+
 import static com.danikula.videocache.Preconditions.checkAllNotNull;
 import static com.danikula.videocache.Preconditions.checkNotNull;
 
 /**
  * Database based {@link SourceInfoStorage}.
+ * <p/>
+ * Urls are unique and indexed, so lookup doesn't scan whole table and saving info is single replacing insert.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
-class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoStorage {
+class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements BatchSourceInfoStorage {
 
     private static final String TABLE = "SourceInfo";
     private static final String COLUMN_ID = "_id";
@@ -31,9 +35,16 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
                     COLUMN_MIME + " TEXT," +
                     COLUMN_LENGTH + " INTEGER" +
                     ");";
+    private static final String CREATE_URL_INDEX_SQL =
+            "CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE + "_" + COLUMN_URL + " ON " + TABLE + " (" + COLUMN_URL + ");";
+    // previous versions could store several rows for one url, keep the latest one
+    private static final String DELETE_DUPLICATES_SQL =
+            "DELETE FROM " + TABLE + " WHERE " + COLUMN_ID + " NOT IN " +
+                    "(SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE + " GROUP BY " + COLUMN_URL + ");";
+    private static final int VERSION_URL_INDEX = 2;
 
     DatabaseSourceInfoStorage(Context context) {
-        super(context, "AndroidVideoCache.db", null, 1);
+        super(context, "AndroidVideoCache.db", null, VERSION_URL_INDEX);
         checkNotNull(context);
     }
 
@@ -41,11 +52,16 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
     public void onCreate(SQLiteDatabase db) {
         checkNotNull(db);
         db.execSQL(CREATE_SQL);
+        db.execSQL(CREATE_URL_INDEX_SQL);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        throw new IllegalStateException("Should not be called. There is no any migration");
+        if (oldVersion >= VERSION_URL_INDEX) {
+            throw new IllegalStateException("Should not be called. There is no any migration from version " + oldVersion);
+        }
+        db.execSQL(DELETE_DUPLICATES_SQL);
+        db.execSQL(CREATE_URL_INDEX_SQL);
     }
 
     @Override
@@ -65,13 +81,21 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
     @Override
     public void put(String url, SourceInfo sourceInfo) {
         checkAllNotNull(url, sourceInfo);
-        SourceInfo sourceInfoFromDb = get(url);
-        boolean exist = sourceInfoFromDb != null;
-        ContentValues contentValues = convert(sourceInfo);
-        if (exist) {
-            getWritableDatabase().update(TABLE, contentValues, COLUMN_URL + "=?", new String[]{url});
-        } else {
-            getWritableDatabase().insert(TABLE, null, contentValues);
+        getWritableDatabase().insertWithOnConflict(TABLE, null, convert(sourceInfo), SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @Override
+    public void putAll(Collection<SourceInfo> sourceInfos) {
+        checkNotNull(sourceInfos);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (SourceInfo sourceInfo : sourceInfos) {
+                db.insertWithOnConflict(TABLE, null, convert(sourceInfo), SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
     }
 
@@ -0,0 +1,191 @@
+package com.danikula.videocache.sourcestorage;
+
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.SourceInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.danikula.videocache.Preconditions.checkAllNotNull;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link SourceInfoStorage} that keeps infos in append-only log file, for apps that don't want to use SQLite.
+ * <p/>
+ * Every saved info is appended to the end of file, the latest record for url wins. Whole log is read once
+ * on first access, broken tail (e.g. app was killed while writing) is cut off. When log contains too many
+ * outdated records it is rewritten with actual ones.
+ */
+class FileSourceInfoStorage implements BatchSourceInfoStorage {
+
+    private static final int RECORD_MAGIC = 0x53494E46;
+    private static final int MIN_RECORDS_TO_COMPACT = 256;
+    private static final String TEMP_POSTFIX = ".tmp";
+
+    private final File file;
+    private Map<String, SourceInfo> infos;
+    private int recordsCount;
+
+    FileSourceInfoStorage(File file) {
+        this.file = checkNotNull(file);
+    }
+
+    @Override
+    public synchronized SourceInfo get(String url) {
+        checkNotNull(url);
+        return loadedInfos().get(url);
+    }
+
+    @Override
+    public void put(String url, SourceInfo sourceInfo) {
+        checkAllNotNull(url, sourceInfo);
+        putAll(Collections.singletonList(sourceInfo));
+    }
+
+    @Override
+    public synchronized void putAll(Collection<SourceInfo> sourceInfos) {
+        checkNotNull(sourceInfos);
+        Map<String, SourceInfo> infos = loadedInfos();
+        for (SourceInfo sourceInfo : sourceInfos) {
+            infos.put(sourceInfo.url, sourceInfo);
+        }
+        try {
+            if (recordsCount + sourceInfos.size() > Math.max(MIN_RECORDS_TO_COMPACT, infos.size() * 2)) {
+                compact();
+            } else {
+                append(sourceInfos);
+            }
+        } catch (IOException e) {
+            Logger.error("Error saving source infos to " + file + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        infos = null;
+        recordsCount = 0;
+    }
+
+    private Map<String, SourceInfo> loadedInfos() {
+        if (infos == null) {
+            infos = new HashMap<>();
+            recordsCount = 0;
+            try {
+                load();
+            } catch (IOException e) {
+                Logger.warn("Error reading source infos from " + file + ": " + e.getMessage());
+            }
+        }
+        return infos;
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] data = readFile();
+        long validLength = 0;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        while (true) {
+            SourceInfo sourceInfo = readRecord(in);
+            if (sourceInfo == null) {
+                break;
+            }
+            infos.put(sourceInfo.url, sourceInfo);
+            recordsCount++;
+            validLength = data.length - in.available();
+        }
+        if (validLength < data.length) {
+            Logger.warn("Source infos log " + file + " is broken, cut it to " + validLength + " bytes");
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(validLength);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] data = new byte[(int) file.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private SourceInfo readRecord(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != RECORD_MAGIC) {
+                return null;
+            }
+            String url = in.readUTF();
+            long length = in.readLong();
+            String mime = in.readBoolean() ? in.readUTF() : null;
+            return new SourceInfo(url, length, mime);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void append(Collection<SourceInfo> sourceInfos) throws IOException {
+        write(file, sourceInfos, true);
+        recordsCount += sourceInfos.size();
+    }
+
+    private void compact() throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+        write(tempFile, infos.values(), false);
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Error renaming " + tempFile + " to " + file);
+        }
+        recordsCount = infos.size();
+    }
+
+    private void write(File target, Collection<SourceInfo> sourceInfos, boolean append) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (SourceInfo sourceInfo : sourceInfos) {
+            try {
+                records.write(toRecord(sourceInfo));
+            } catch (UTFDataFormatException e) {
+                Logger.warn("Url is too long to be saved: " + sourceInfo.url.length() + " chars");
+            }
+        }
+        OutputStream out = new FileOutputStream(target, append);
+        try {
+            records.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] toRecord(SourceInfo sourceInfo) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(RECORD_MAGIC);
+        out.writeUTF(sourceInfo.url);
+        out.writeLong(sourceInfo.length);
+        out.writeBoolean(sourceInfo.mime != null);
+        if (sourceInfo.mime != null) {
+            out.writeUTF(sourceInfo.mime);
+        }
+        return record.toByteArray();
+    }
+}
@@ -2,6 +2,8 @@ package com.danikula.videocache.sourcestorage;
 
 import android.content.Context;
 
+import java.io.File;
+
 /**
  * Simple factory for {@link SourceInfoStorage}.
  *
@@ -10,7 +12,17 @@ import android.content.Context;
 public class SourceInfoStorageFactory {
 
     public static SourceInfoStorage newSourceInfoStorage(Context context) {
-        return new DatabaseSourceInfoStorage(context);
+        return new CachedSourceInfoStorage(new DatabaseSourceInfoStorage(context));
+    }
+
+    /**
+     * Returns storage that keeps infos in append-only log file instead of SQLite database.
+     *
+     * @param file a file to store infos in.
+     * @return new storage.
+     */
+    public static SourceInfoStorage newFileSourceInfoStorage(File file) {
+        return new CachedSourceInfoStorage(new FileSourceInfoStorage(file));
     }
 
     public static SourceInfoStorage newEmptySourceInfoStorage() {
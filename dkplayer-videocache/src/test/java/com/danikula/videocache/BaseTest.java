@@ -0,0 +1,13 @@
+package com.danikula.videocache;
+
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Base class for tests. They are run by Robolectric, so code using Android API (logging, SQLite) works on JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public abstract class BaseTest {
+}
@@ -0,0 +1,270 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileCache;
+import com.danikula.videocache.support.Benchmarks;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares serving of fully cached file by {@link FileCache#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * (used by {@link HttpProxyCache} now) with the previous loop copying data by {@link FileCache#read(byte[], long, int)}
+ * through 8 KB buffer to socket stream. Data is sent to local socket drained by separate thread.
+ * <p/>
+ * It is done without JMH: JMH needs its own annotation processing and runner which Android library unit tests don't
+ * have, so requests are warmed up and measured here. Allocations are counted on serving thread, as JMH's gc profiler
+ * does. Results for 32 MB file on desktop JVM (Linux, loopback, single CPU, so concurrent clients don't run in parallel):
+ * <pre>
+ * 1 client:  loop ~700 MB/s, 240 KB allocated per request; transferTo ~1700 MB/s, 0.6 KB per request
+ * 4 clients: loop ~800 MB/s in total; transferTo ~1700 MB/s in total
+ * </pre>
+ * Besides its buffer the loop allocates about 60 bytes per 8 KB chunk in read and socket write paths. With several CPUs
+ * the loop is also limited by cache's lock, held by every read.
+ */
+public class CachedResponseBenchmarkTest extends BaseTest {
+
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int WARM_UP_REQUESTS = 10;
+    private static final int REQUESTS = 30;
+    private static final int CLIENTS = 4;
+
+    private File dir;
+    private FileCache cache;
+    private Sink sink;
+
+    @Before
+    public void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        dir = ProxyCacheTestUtils.newTempDir();
+        File file = new File(dir, "video.mp4");
+        FileCache temp = new FileCache(file);
+        byte[] data = ProxyCacheTestUtils.generate(FILE_SIZE);
+        for (int offset = 0; offset < data.length; offset += 64 * 1024) {
+            byte[] chunk = new byte[64 * 1024];
+            System.arraycopy(data, offset, chunk, 0, chunk.length);
+            temp.append(chunk, chunk.length);
+        }
+        temp.complete();
+        temp.close();
+        cache = new FileCache(file);
+        sink = new Sink();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sink != null) {
+            sink.close();
+        }
+        if (cache != null) {
+            cache.close();
+        }
+        if (dir != null) {
+            ProxyCacheTestUtils.delete(dir);
+        }
+    }
+
+    @Test
+    public void singleClient() throws Exception {
+        Result loop = measure(new Loop(), 1);
+        Result transfer = measure(new Transfer(), 1);
+        Benchmarks.report("1 client, %d MB file", FILE_SIZE / 1024 / 1024);
+        Benchmarks.report("  loop:       %s", loop);
+        Benchmarks.report("  transferTo: %s", transfer);
+        if (loop.allocatedPerRequest >= 0) {
+            assertTrue(transfer.allocatedPerRequest < loop.allocatedPerRequest);
+        }
+    }
+
+    @Test
+    public void concurrentClients() throws Exception {
+        Result loop = measure(new Loop(), CLIENTS);
+        Result transfer = measure(new Transfer(), CLIENTS);
+        Benchmarks.report("%d clients of the same file, %d MB file", CLIENTS, FILE_SIZE / 1024 / 1024);
+        Benchmarks.report("  loop:       %s", loop);
+        Benchmarks.report("  transferTo: %s", transfer);
+    }
+
+    private Result measure(final Response response, int clients) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            run(executor, response, clients, WARM_UP_REQUESTS);
+            long start = System.nanoTime();
+            long allocated = run(executor, response, clients, REQUESTS);
+            long time = System.nanoTime() - start;
+            long requests = (long) REQUESTS * clients;
+            double megabytesPerSecond = (double) FILE_SIZE * requests / 1024 / 1024 / (time / 1e9);
+            return new Result(megabytesPerSecond, allocated < 0 ? -1 : allocated / requests);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    // returns bytes allocated by all clients or -1 if allocations can't be counted
+    private long run(ExecutorService executor, final Response response, int clients, final int requests) throws Exception {
+        Future<?>[] futures = new Future<?>[clients];
+        for (int i = 0; i < clients; i++) {
+            futures[i] = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long allocatedBefore = Benchmarks.allocatedBytes();
+                    for (int request = 0; request < requests; request++) {
+                        assertEquals(FILE_SIZE, response.send(cache, sink.address()));
+                    }
+                    long allocatedAfter = Benchmarks.allocatedBytes();
+                    return allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+                }
+            });
+        }
+        long allocated = 0;
+        for (Future<?> future : futures) {
+            long clientAllocated = (Long) future.get();
+            allocated = allocated < 0 || clientAllocated < 0 ? -1 : allocated + clientAllocated;
+        }
+        return allocated;
+    }
+
+    private interface Response {
+
+        long send(FileCache cache, InetSocketAddress address) throws Exception;
+    }
+
+    // HttpProxyCache.responseWithCache() before zero-copy path
+    private static final class Loop implements Response {
+
+        @Override
+        public long send(FileCache cache, InetSocketAddress address) throws Exception {
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long offset = 0;
+                int readBytes;
+                while ((readBytes = cache.read(buffer, offset, buffer.length)) != -1) {
+                    out.write(buffer, 0, readBytes);
+                    offset += readBytes;
+                }
+                out.flush();
+                return offset;
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    // HttpProxyCache.responseWithCache() now
+    private static final class Transfer implements Response {
+
+        @Override
+        public long send(FileCache cache, InetSocketAddress address) throws Exception {
+            SocketChannel channel = SocketChannel.open(address);
+            try {
+                long offset = 0;
+                long length = cache.available();
+                while (offset < length) {
+                    long transferred = cache.transferTo(offset, length - offset, channel);
+                    if (transferred < 0) {
+                        break;
+                    }
+                    offset += transferred;
+                }
+                return offset;
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class Result {
+
+        final double megabytesPerSecond;
+        final long allocatedPerRequest;
+
+        Result(double megabytesPerSecond, long allocatedPerRequest) {
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.allocatedPerRequest = allocatedPerRequest;
+        }
+
+        @Override
+        public String toString() {
+            String allocated = allocatedPerRequest < 0 ? "n/a" : String.format(Locale.US, "%.1f KB", allocatedPerRequest / 1024.0);
+            return String.format(Locale.US, "%8.1f MB/s, allocated per request %s", megabytesPerSecond, allocated);
+        }
+    }
+
+    /**
+     * Local server reading and dropping all data sent to it.
+     */
+    private static final class Sink implements Runnable {
+
+        private final ServerSocketChannel serverChannel;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+
+        Sink() throws IOException {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            executor.execute(this);
+        }
+
+        InetSocketAddress address() {
+            return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final SocketChannel channel = serverChannel.accept();
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            drain(channel);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                // server is closed
+            }
+        }
+
+        private void drain(SocketChannel channel) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            try {
+                while (channel.read(buffer) >= 0) {
+                    buffer.clear();
+                }
+                channel.close();
+            } catch (IOException e) {
+                // client is closed
+            }
+        }
+
+        void close() throws IOException {
+            serverChannel.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.hls.HlsByteRange;
+import com.danikula.videocache.hls.HlsPlaylist;
+import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
+import com.danikula.videocache.support.FixtureServer;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.danikula.videocache.support.ProxyCacheTestUtils.read;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests playing HLS via {@link HttpProxyCacheServer}: playlists are fetched from local server, rewritten to proxy urls
+ * and segments are cached as separate urls.
+ */
+public class HlsProxyTest extends BaseTest {
+
+    private static final String MIME = "application/vnd.apple.mpegurl";
+    private static final int SEGMENTS = 3;
+
+    private FixtureServer server;
+    private File dir;
+    private File infoDir;
+    private HttpProxyCacheServer proxy;
+    private final byte[][] segments = new byte[SEGMENTS][];
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FixtureServer();
+        dir = ProxyCacheTestUtils.newTempDir();
+        infoDir = ProxyCacheTestUtils.newTempDir();
+        // mime of cached segment is known without fetching
+        proxy = ProxyCacheTestUtils.newProxyBuilder(dir)
+                .sourceInfoStorage(SourceInfoStorageFactory.newFileSourceInfoStorage(new File(infoDir, "source-info")))
+                .build();
+        server.serve("/hls/master.m3u8", "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000\n" +
+                "low/index.m3u8\n", MIME);
+        StringBuilder media = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:4\n");
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = ProxyCacheTestUtils.generate(100000 + i);
+            server.serve("/hls/low/seg" + i + ".ts", segments[i], "video/mp2t");
+            media.append("#EXTINF:4.0,\n").append(i == 0 ? "/hls/low/seg0.ts" : "seg" + i + ".ts").append('\n');
+        }
+        media.append("#EXT-X-ENDLIST\n");
+        server.serve("/hls/low/index.m3u8", media.toString(), MIME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        proxy.shutdown();
+        server.close();
+        ProxyCacheTestUtils.delete(dir);
+        ProxyCacheTestUtils.delete(infoDir);
+    }
+
+    @Test
+    public void masterPlaylistLeadsToMediaPlaylist() throws Exception {
+        HlsPlaylist master = readPlaylist(proxy.getProxyUrl(server.url("/hls/master.m3u8")));
+        assertTrue(master.isMaster());
+        String mediaPlaylistUrl = master.getMediaPlaylists().get(0);
+        assertEquals(proxy.getProxyUrl(server.url("/hls/low/index.m3u8"), false), mediaPlaylistUrl);
+
+        HlsPlaylist media = readPlaylist(mediaPlaylistUrl);
+
+        assertFalse(media.isMaster());
+        assertSegments(media);
+        // complete playlists are fetched once
+        readPlaylist(proxy.getProxyUrl(server.url("/hls/master.m3u8")));
+        readPlaylist(mediaPlaylistUrl);
+        assertEquals(1, server.getRequests("/hls/master.m3u8").size());
+        assertEquals(1, server.getRequests("/hls/low/index.m3u8").size());
+    }
+
+    @Test
+    public void relativeUrlsAreResolvedAgainstRedirectedUrl() throws Exception {
+        server.redirect("/short/video.m3u8", server.url("/hls/low/index.m3u8"));
+
+        HlsPlaylist media = readPlaylist(proxy.getProxyUrl(server.url("/short/video.m3u8")));
+
+        assertSegments(media);
+        // playlist is cached with absolute urls, so cached copy doesn't depend on redirect
+        readPlaylist(proxy.getProxyUrl(server.url("/short/video.m3u8")));
+        assertEquals(1, server.getRequests("/short/video.m3u8").size());
+    }
+
+    @Test
+    public void everySegmentIsCachedAsSeparateUrl() throws Exception {
+        HlsPlaylist media = readPlaylist(proxy.getProxyUrl(server.url("/hls/low/index.m3u8")));
+        Set<File> cacheFiles = new HashSet<>();
+        for (int i = 0; i < SEGMENTS; i++) {
+            assertArrayEquals(segments[i], read(media.getSegments().get(i).url));
+            String segmentUrl = server.url("/hls/low/seg" + i + ".ts");
+            waitForCached(segmentUrl);
+            cacheFiles.add(proxy.getCacheFile(segmentUrl));
+        }
+        assertEquals(SEGMENTS, cacheFiles.size());
+
+        // cached segments are served without fetching
+        for (int i = 0; i < SEGMENTS; i++) {
+            assertArrayEquals(segments[i], read(media.getSegments().get(i).url));
+            assertEquals(1, server.getRequests("/hls/low/seg" + i + ".ts").size());
+        }
+    }
+
+    @Test
+    public void byteRangeSegmentsAreCachedAsSeparateUrls() throws Exception {
+        byte[] data = ProxyCacheTestUtils.generate(100000);
+        server.serve("/hls/main.mp4", data, "video/mp4");
+        server.serve("/hls/ranges.m3u8", "#EXTM3U\n" +
+                "#EXT-X-VERSION:4\n" +
+                "#EXT-X-MAP:URI=\"main.mp4\",BYTERANGE=\"1000@0\"\n" +
+                "#EXTINF:4,\n" +
+                "#EXT-X-BYTERANGE:30000@1000\n" +
+                "main.mp4\n" +
+                "#EXTINF:4,\n" +
+                "#EXT-X-BYTERANGE:40000\n" +
+                "main.mp4\n" +
+                "#EXT-X-ENDLIST\n", MIME);
+
+        String playlistText = new String(read(proxy.getProxyUrl(server.url("/hls/ranges.m3u8"))), "UTF-8");
+        assertFalse(playlistText, playlistText.contains("BYTERANGE"));
+        HlsPlaylist media = HlsPlaylist.parse(playlistText, proxy.getProxyUrl(server.url("/hls/ranges.m3u8")));
+        List<HlsPlaylist.Segment> rangeSegments = media.getSegments();
+        assertEquals(2, rangeSegments.size());
+
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 31000), read(rangeSegments.get(0).url));
+        assertArrayEquals(Arrays.copyOfRange(data, 31000, 71000), read(rangeSegments.get(1).url));
+        // only sub-ranges are fetched
+        Set<String> ranges = new HashSet<>();
+        for (FixtureServer.Request request : server.getRequests("/hls/main.mp4")) {
+            ranges.add(request.range);
+        }
+        assertEquals(new HashSet<>(Arrays.asList("bytes=1000-30999", "bytes=31000-70999")), ranges);
+
+        String firstUrl = HlsByteRange.toUrl(server.url("/hls/main.mp4"), 1000, 30000);
+        String secondUrl = HlsByteRange.toUrl(server.url("/hls/main.mp4"), 31000, 40000);
+        waitForCached(firstUrl);
+        waitForCached(secondUrl);
+        assertEquals(30000, proxy.getCacheFile(firstUrl).length());
+        assertEquals(40000, proxy.getCacheFile(secondUrl).length());
+        assertFalse(proxy.isCached(server.url("/hls/main.mp4")));
+
+        // range of cached segment is served from its own cache file
+        int requests = server.getRequests("/hls/main.mp4").size();
+        assertArrayEquals(Arrays.copyOfRange(data, 31000 + 100, 31000 + 100 + 5000), read(rangeSegments.get(1).url, 100, 5000));
+        assertEquals(requests, server.getRequests("/hls/main.mp4").size());
+    }
+
+    @Test
+    public void byteRangeOfInitializationSectionIsFetched() throws Exception {
+        byte[] data = ProxyCacheTestUtils.generate(10000);
+        server.serve("/hls/main.mp4", data, "video/mp4");
+        server.serve("/hls/init.m3u8", "#EXTM3U\n" +
+                "#EXT-X-MAP:URI=\"main.mp4\",BYTERANGE=\"1000@0\"\n" +
+                "#EXTINF:4,\n" +
+                "#EXT-X-BYTERANGE:9000@1000\n" +
+                "main.mp4\n" +
+                "#EXT-X-ENDLIST\n", MIME);
+
+        String playlistText = new String(read(proxy.getProxyUrl(server.url("/hls/init.m3u8"))), "UTF-8");
+        String mapUrl = playlistText.substring(playlistText.indexOf("URI=\"") + 5, playlistText.indexOf('"', playlistText.indexOf("URI=\"") + 5));
+
+        assertArrayEquals(Arrays.copyOf(data, 1000), read(mapUrl));
+    }
+
+    private HlsPlaylist readPlaylist(String proxyUrl) throws Exception {
+        return HlsPlaylist.parse(new String(read(proxyUrl), "UTF-8"), proxyUrl);
+    }
+
+    private void assertSegments(HlsPlaylist media) throws Exception {
+        assertEquals(SEGMENTS, media.getSegments().size());
+        for (int i = 0; i < SEGMENTS; i++) {
+            assertEquals(proxy.getProxyUrl(server.url("/hls/low/seg" + i + ".ts"), false), media.getSegments().get(i).url);
+        }
+    }
+
+    private void waitForCached(String url) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!proxy.isCached(url) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Not cached: " + url, proxy.isCached(url));
+    }
+}
@@ -0,0 +1,136 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.support.Benchmarks;
+import com.danikula.videocache.support.FixtureServer;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.danikula.videocache.support.ProxyCacheTestUtils.read;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests fetching single url by several connections (see {@link HttpProxyCacheServer.Builder#parallelDownloads(int)})
+ * from local server limiting speed of every connection.
+ */
+public class ParallelDownloadTest extends BaseTest {
+
+    private static final String PATH = "/video.mp4";
+
+    private FixtureServer server;
+    private final List<HttpProxyCacheServer> proxies = new ArrayList<>();
+    private final List<File> dirs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FixtureServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (HttpProxyCacheServer proxy : proxies) {
+            proxy.shutdown();
+        }
+        server.close();
+        for (File dir : dirs) {
+            ProxyCacheTestUtils.delete(dir);
+        }
+    }
+
+    @Test
+    public void parallelDownloadIsFasterThanSingleConnection() throws Exception {
+        byte[] data = ProxyCacheTestUtils.generate(3 * 1024 * 1024);
+        server.serve(PATH, data, "video/mp4");
+        server.setBytesPerSecond(1024 * 1024);
+
+        long singleTime = timeOfReading(newProxy(1, 6), data);
+        long parallelTime = timeOfReading(newProxy(4, 6), data);
+
+        Benchmarks.report("3 MB with 1 MB/s per connection: single connection %d ms, 4 connections %d ms", singleTime, parallelTime);
+        // ~3 s vs ~0.75 s and time to open connections
+        assertTrue("Parallel download isn't faster: " + parallelTime + " ms vs " + singleTime + " ms", parallelTime < singleTime * 0.6);
+    }
+
+    @Test
+    public void playbackPartIsFetchedBeforeReadAheadParts() throws Exception {
+        byte[] data = ProxyCacheTestUtils.generate(4 * 1024 * 1024);
+        server.serve(PATH, data, "video/mp4");
+        server.setBytesPerSecond(512 * 1024);
+        // single slot: if read ahead part took it first, playback would wait for its 1 Mb (2 s)
+        HttpProxyCacheServer proxy = newProxy(4, 1);
+
+        long start = System.currentTimeMillis();
+        byte[] head = read(proxy.getProxyUrl(server.url(PATH)), 0, 256 * 1024);
+        long time = System.currentTimeMillis() - start;
+
+        assertArrayEquals(Arrays.copyOf(data, head.length), head);
+        assertTrue("Data at playback position is delayed for " + time + " ms", time < 1500);
+    }
+
+    @Test
+    public void seekPreemptsReadAheadParts() throws Exception {
+        int partSize = 1024 * 1024;
+        byte[] data = ProxyCacheTestUtils.generate(4 * partSize);
+        server.serve(PATH, data, "video/mp4");
+        server.setBytesPerSecond(256 * 1024);
+        // both slots are taken by playback part and the first read ahead part, the rest of parts wait in queue
+        HttpProxyCacheServer proxy = newProxy(4, 2);
+        String proxyUrl = proxy.getProxyUrl(server.url(PATH));
+
+        HttpURLConnection playback = (HttpURLConnection) new URL(proxyUrl).openConnection(Proxy.NO_PROXY);
+        try {
+            InputStream in = playback.getInputStream();
+            assertTrue(in.read(new byte[1024]) > 0);
+            waitForRequests(2);
+
+            // seek to not fetched part: its reader must take slot of running read ahead part instead of waiting 4 s for it
+            long start = System.currentTimeMillis();
+            byte[] seekData = read(proxyUrl, 3 * partSize, 64 * 1024);
+            long time = System.currentTimeMillis() - start;
+
+            assertArrayEquals(Arrays.copyOfRange(data, 3 * partSize, 3 * partSize + seekData.length), seekData);
+            assertTrue("Data at seek position is delayed for " + time + " ms", time < 2000);
+        } finally {
+            playback.disconnect();
+        }
+    }
+
+    private HttpProxyCacheServer newProxy(int parallelDownloads, int maxConcurrentDownloads) throws Exception {
+        File dir = ProxyCacheTestUtils.newTempDir();
+        dirs.add(dir);
+        HttpProxyCacheServer proxy = ProxyCacheTestUtils.newProxyBuilder(dir)
+                .parallelDownloads(parallelDownloads)
+                .maxConcurrentDownloads(maxConcurrentDownloads)
+                .build();
+        proxies.add(proxy);
+        return proxy;
+    }
+
+    private long timeOfReading(HttpProxyCacheServer proxy, byte[] expected) throws Exception {
+        long start = System.currentTimeMillis();
+        byte[] read = read(proxy.getProxyUrl(server.url(PATH)));
+        long time = System.currentTimeMillis() - start;
+        assertArrayEquals(expected, read);
+        return time;
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getRequests(PATH).size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Requests: " + server.getRequests(PATH), server.getRequests(PATH).size() >= count);
+    }
+}
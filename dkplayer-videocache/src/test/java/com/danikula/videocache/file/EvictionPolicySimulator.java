@@ -0,0 +1,229 @@
+package com.danikula.videocache.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Replays trace of accesses to cache against {@link EvictionPolicy} in memory, so policies can be compared on the same
+ * workload before configuring {@link PolicyDiskUsage}.
+ * <p/>
+ * Trace is a text file, every line is one access to cache file: {@code <time in ms> <file name> <size in bytes>}.
+ * Files are deleted in the same order as {@link PolicyDiskUsage} deletes them: the lowest value first, files with
+ * equal value in order of access. Partial files, pinning and expiration aren't simulated.
+ * <p/>
+ * Results for synthetic trace of 200 000 accesses to 10 000 videos of 1-32 MB with Zipf(0.8) popularity and 1 GB cache
+ * (checked by {@link EvictionPolicySimulatorTest}):
+ * <pre>
+ * policy                    hit ratio   byte hit ratio
+ * LRU                          16.9 %           17.4 %
+ * LFU                          27.5 %           28.0 %
+ * GDSF (requests)              28.5 %           21.8 %
+ * GDSF (bytes)                 23.2 %           23.7 %
+ * </pre>
+ * Popularity of synthetic videos doesn't change with time, which favours LFU. GDSF maximizing requests keeps small
+ * videos: it serves the most requests, but fewer bytes than LFU and byte oriented GDSF.
+ */
+final class EvictionPolicySimulator {
+
+    static final long MB = 1024 * 1024;
+
+    private EvictionPolicySimulator() {
+    }
+
+    /**
+     * Replays trace against policy.
+     *
+     * @param policy  a policy to be checked, it must not be used by other cache.
+     * @param maxSize a max size of cache in bytes.
+     * @param trace   accesses to cache ordered by time.
+     * @return counts of requests and bytes served from cache.
+     */
+    static Result replay(EvictionPolicy policy, long maxSize, List<Access> trace) {
+        Map<String, Node> nodes = new HashMap<>();
+        TreeSet<Node> queue = new TreeSet<>();
+        Result result = new Result();
+        long totalSize = 0;
+        long order = 0;
+        for (Access access : trace) {
+            Node node = nodes.remove(access.name);
+            CacheEntry entry;
+            if (node != null) {
+                queue.remove(node);
+                totalSize -= node.entry.getSize();
+                entry = node.entry;
+                entry.onAccess(access.size, access.time);
+                result.hits++;
+                result.hitBytes += access.size;
+            } else {
+                entry = new CacheEntry(access.name, access.size, 1, access.time);
+            }
+            result.requests++;
+            result.bytes += access.size;
+            node = new Node(entry, policy.getValue(entry), order++);
+            nodes.put(access.name, node);
+            queue.add(node);
+            totalSize += access.size;
+            while (totalSize > maxSize && !queue.isEmpty()) {
+                Node victim = queue.pollFirst();
+                nodes.remove(victim.entry.getName());
+                totalSize -= victim.entry.getSize();
+                policy.onEvicted(victim.entry, victim.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads trace, see format in class description. Empty lines and lines starting with {@code #} are skipped.
+     *
+     * @param in a stream of trace's text, it is closed after reading.
+     * @return accesses to cache.
+     * @throws IOException if trace can't be read or it has invalid format.
+     */
+    static List<Access> readTrace(InputStream in) throws IOException {
+        List<Access> trace = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new IOException("Invalid trace line: " + line);
+                }
+                try {
+                    trace.add(new Access(Long.parseLong(fields[0]), fields[1], Long.parseLong(fields[2])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid trace line: " + line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    /**
+     * Generates trace of accesses to videos with Zipf popularity, one access per second.
+     *
+     * @param count    a count of accesses.
+     * @param files    a count of distinct videos.
+     * @param exponent an exponent of Zipf distribution, the higher it is the more popular the first videos are.
+     * @param seed     a seed of random generator, the same seed gives the same trace.
+     * @return accesses to cache.
+     */
+    static List<Access> generateTrace(int count, int files, double exponent, long seed) {
+        Random random = new Random(seed);
+        long[] sizes = new long[files];
+        double[] cumulative = new double[files];
+        double sum = 0;
+        for (int i = 0; i < files; i++) {
+            sizes[i] = (long) (MB * Math.pow(2, random.nextDouble() * 5)); // 1-32 MB, log-uniform
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        List<Access> trace = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = binarySearch(cumulative, random.nextDouble() * sum);
+            trace.add(new Access(i * 1000L, "video" + index + ".mp4", sizes[index]));
+        }
+        return trace;
+    }
+
+    private static int binarySearch(double[] cumulative, double value) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Access to cache file.
+     */
+    static final class Access {
+
+        final long time;
+        final String name;
+        final long size;
+
+        Access(long time, String name, long size) {
+            this.time = time;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Counts of requests and bytes served by cache while trace is replayed.
+     */
+    static final class Result {
+
+        private long requests;
+        private long hits;
+        private long bytes;
+        private long hitBytes;
+
+        long getRequests() {
+            return requests;
+        }
+
+        long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns share of requests served from cache.
+         *
+         * @return value from {@code 0} to {@code 1}.
+         */
+        double getHitRatio() {
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        /**
+         * Returns share of requested bytes served from cache.
+         *
+         * @return value from {@code 0} to {@code 1}.
+         */
+        double getByteHitRatio() {
+            return bytes == 0 ? 0 : (double) hitBytes / bytes;
+        }
+    }
+
+    private static final class Node implements Comparable<Node> {
+
+        private final CacheEntry entry;
+        private final double value;
+        private final long order;
+
+        Node(CacheEntry entry, double value, long order) {
+            this.entry = entry;
+            this.value = value;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Node another) {
+            int byValue = Double.compare(value, another.value);
+            return byValue != 0 ? byValue : (order < another.order ? -1 : (order == another.order ? 0 : 1));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.file.EvictionPolicySimulator.Access;
+import com.danikula.videocache.file.EvictionPolicySimulator.Result;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.danikula.videocache.file.EvictionPolicySimulator.MB;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays fixed traces against every {@link EvictionPolicy}, so change of policy's behaviour is noticed.
+ */
+public class EvictionPolicySimulatorTest extends BaseTest {
+
+    private static final double DELTA = 0.0005;
+
+    @Test
+    public void fixedTrace() throws Exception {
+        // 16 accesses: popular 4 MB video 6 times, 1 MB clip 5 times, one-off 4 MB videos between them
+        List<Access> trace = EvictionPolicySimulator.readTrace(getClass().getResourceAsStream("/eviction-trace.txt"));
+        long maxSize = 8 * MB;
+
+        // every one-off video pushes out both popular ones
+        assertResult(2, 10.2, replay(new LruEvictionPolicy(), maxSize, trace));
+        // popular video is kept: all its repeated accesses are hits
+        assertResult(5, 40.8, replay(new LfuEvictionPolicy(), maxSize, trace));
+        // small clip is kept instead of popular video: as many hits as LFU, but fewer bytes
+        assertResult(5, 16.3, replay(new GreedyDualSizeEvictionPolicy(false), maxSize, trace));
+        // cost equal to size makes value of every file hits plus inflation, in so short trace aging outweighs hits
+        assertResult(1, 8.2, replay(new GreedyDualSizeEvictionPolicy(true), maxSize, trace));
+    }
+
+    @Test
+    public void syntheticTrace() {
+        List<Access> trace = EvictionPolicySimulator.generateTrace(200000, 10000, 0.8, 42);
+        long maxSize = 1024 * MB;
+
+        assertRatios(16.9, 17.4, replay(new LruEvictionPolicy(), maxSize, trace));
+        assertRatios(27.5, 28.0, replay(new LfuEvictionPolicy(), maxSize, trace));
+        assertRatios(28.5, 21.8, replay(new GreedyDualSizeEvictionPolicy(false), maxSize, trace));
+        assertRatios(23.2, 23.7, replay(new GreedyDualSizeEvictionPolicy(true), maxSize, trace));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidTraceIsRejected() throws Exception {
+        EvictionPolicySimulator.readTrace(new ByteArrayInputStream("0 video.mp4\n".getBytes("UTF-8")));
+    }
+
+    private Result replay(EvictionPolicy policy, long maxSize, List<Access> trace) {
+        return EvictionPolicySimulator.replay(policy, maxSize, trace);
+    }
+
+    private void assertResult(int hits, double byteHitPercent, Result result) {
+        assertEquals(16, result.getRequests());
+        assertEquals(hits, result.getHits());
+        assertEquals(byteHitPercent / 100, result.getByteHitRatio(), DELTA);
+    }
+
+    private void assertRatios(double hitPercent, double byteHitPercent, Result result) {
+        assertEquals(hitPercent / 100, result.getHitRatio(), DELTA);
+        assertEquals(byteHitPercent / 100, result.getByteHitRatio(), DELTA);
+    }
+}
@@ -0,0 +1,165 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.support.Benchmarks;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares touching file in cache directory with 5 000 files by {@link LruIndex} (used by {@link LruDiskUsage} now)
+ * with the previous way: listing directory, sorting files by last modified date and summing their sizes on every touch.
+ * Cache limit isn't exceeded, so both ways only check the least recently used file.
+ * <p/>
+ * Results on desktop (Linux, ext4, files are in page cache, so listing is faster than on device's flash):
+ * <pre>
+ * listing directory: ~250 ms per touch (sorting stats every file many times)
+ * index:             ~0.04 ms per touch (one journal record)
+ * opening index:     ~140 ms by journal, ~350 ms by rebuilding from directory
+ * </pre>
+ */
+public class LruDiskUsageBenchmarkTest extends BaseTest {
+
+    private static final int FILES = 5000;
+    // listing is so slow that fewer touches are enough
+    private static final int LISTING_TOUCHES = 50;
+    private static final int INDEX_TOUCHES = 5000;
+
+    private File dir;
+    private File[] files;
+
+    @Before
+    public void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        dir = ProxyCacheTestUtils.newTempDir();
+        files = new File[FILES];
+        for (int i = 0; i < FILES; i++) {
+            files[i] = new File(dir, "video-" + i + ".mp4");
+            FileOutputStream out = new FileOutputStream(files[i]);
+            out.write(new byte[1 + i % 100]);
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (dir != null) {
+            ProxyCacheTestUtils.delete(dir);
+        }
+    }
+
+    @Test
+    public void touch() throws Exception {
+        long listingTime = measure(new ListingTouch(), LISTING_TOUCHES);
+
+        LruIndex index = new LruIndex(dir);
+        try {
+            long indexTime = measure(new IndexTouch(index), INDEX_TOUCHES);
+            double listingMillis = listingTime / 1e6 / LISTING_TOUCHES;
+            double indexMillis = indexTime / 1e6 / INDEX_TOUCHES;
+            Benchmarks.report("%d files", FILES);
+            Benchmarks.report("  listing directory: %.3f ms per touch", listingMillis);
+            Benchmarks.report("  index:             %.3f ms per touch", indexMillis);
+            assertEquals(FILES, index.getCount());
+            assertTrue(indexMillis < listingMillis);
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void openIndex() {
+        long start = System.nanoTime();
+        LruIndex index = new LruIndex(dir);
+        long rebuildTime = System.nanoTime() - start;
+        index.close();
+
+        start = System.nanoTime();
+        index = new LruIndex(dir);
+        long journalTime = System.nanoTime() - start;
+        index.close();
+
+        Benchmarks.report("%d files, opening index: by journal %.1f ms, by rebuilding from directory %.1f ms",
+                FILES, journalTime / 1e6, rebuildTime / 1e6);
+        assertEquals(FILES, index.getCount());
+    }
+
+    private long measure(Touch touch, int touches) throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < touches / 10; i++) {
+            touch.touch(files[random.nextInt(FILES)]); // warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < touches; i++) {
+            touch.touch(files[random.nextInt(FILES)]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static boolean accept(long totalSize, int totalCount) {
+        return totalCount <= FILES;
+    }
+
+    private interface Touch {
+
+        void touch(File file) throws IOException;
+    }
+
+    // LruDiskUsage.touchInBackground() before LruIndex
+    private static final class ListingTouch implements Touch {
+
+        @Override
+        public void touch(File file) throws IOException {
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                throw new IOException("Error touching " + file);
+            }
+            List<File> files = Files.getLruListFiles(file.getParentFile());
+            long totalSize = 0;
+            for (File f : files) {
+                totalSize += f.length();
+            }
+            int totalCount = files.size();
+            for (File f : files) {
+                if (accept(totalSize, totalCount)) {
+                    return;
+                }
+                totalSize -= f.length();
+                totalCount--;
+            }
+        }
+    }
+
+    // LruDiskUsage.touchInBackground() now
+    private static final class IndexTouch implements Touch {
+
+        private final LruIndex index;
+
+        IndexTouch(LruIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public void touch(File file) {
+            index.touch(file);
+            Iterator<CacheEntry> entries = index.iterator();
+            while (entries.hasNext()) {
+                entries.next();
+                if (accept(index.getTotalSize(), index.getCount())) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LruIndex}: recovery of index from journal and directory, compaction of journal.
+ */
+public class LruIndexTest extends BaseTest {
+
+    private File dir;
+    private File journal;
+    private LruIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = ProxyCacheTestUtils.newTempDir();
+        journal = new File(dir, LruIndex.SERVICE_FILE_PREFIX + "journal");
+    }
+
+    @After
+    public void tearDown() {
+        if (index != null) {
+            index.close();
+        }
+        ProxyCacheTestUtils.delete(dir);
+    }
+
+    @Test
+    public void touchedFileBecomesMostRecentlyUsed() throws Exception {
+        index = new LruIndex(dir);
+        index.touch(newFile("a", 100));
+        index.touch(newFile("b", 200));
+        index.touch(newFile("c", 300));
+        index.touch(new File(dir, "a"));
+
+        assertEquals(Arrays.asList("b", "c", "a"), names(index));
+        assertEquals(600, index.getTotalSize());
+        assertEquals(3, index.getCount());
+    }
+
+    @Test
+    public void indexIsRestoredFromJournal() throws Exception {
+        index = new LruIndex(dir);
+        index.touch(newFile("a", 100));
+        index.touch(newFile("b", 200));
+        index.touch(newFile("c.download", 50));
+        index.touch(new File(dir, "a"));
+        index.remove("b");
+        assertTrue(new File(dir, "b").delete());
+        index.close();
+
+        index = new LruIndex(dir);
+
+        assertEquals(Arrays.asList("c.download", "a"), names(index));
+        assertEquals(150, index.getTotalSize());
+        assertEquals(50, index.getPartialSize());
+        assertEquals(2, entry(index, "a").getHits());
+    }
+
+    @Test
+    public void completedFileInheritsHistoryOfTempFile() throws Exception {
+        index = new LruIndex(dir);
+        File tempFile = newFile("a.download", 100);
+        index.touch(tempFile);
+        index.touch(tempFile);
+        assertTrue(tempFile.renameTo(new File(dir, "a")));
+        index.touch(new File(dir, "a"));
+        index.close();
+
+        index = new LruIndex(dir);
+
+        assertEquals(Arrays.asList("a"), names(index));
+        assertEquals(3, entry(index, "a").getHits());
+        assertEquals(0, index.getPartialSize());
+    }
+
+    @Test
+    public void indexIsSynchronizedWithDirectoryOnOpening() throws Exception {
+        index = new LruIndex(dir);
+        index.touch(newFile("a", 100));
+        index.touch(newFile("b", 200));
+        index.close();
+        // changed not by cache while index was closed
+        assertTrue(new File(dir, "a").delete());
+        newFile("unknown", 400);
+
+        index = new LruIndex(dir);
+
+        // unknown file is the first candidate for deleting
+        assertEquals(Arrays.asList("unknown", "b"), names(index));
+        assertEquals(600, index.getTotalSize());
+    }
+
+    @Test
+    public void brokenJournalIsRebuiltFromDirectory() throws Exception {
+        index = new LruIndex(dir);
+        index.touch(newFile("a", 100));
+        index.touch(newFile("b", 200));
+        index.close();
+        assertTrue(new File(dir, "a").setLastModified(2000000000000L));
+        assertTrue(new File(dir, "b").setLastModified(1000000000000L));
+        append(journal, "T 100 1 1000"); // record is torn by crash
+
+        index = new LruIndex(dir);
+
+        // access order is lost, files are ordered by time of writing
+        assertEquals(Arrays.asList("b", "a"), names(index));
+        assertEquals(300, index.getTotalSize());
+        assertEquals(Arrays.asList("T 200 1 1000000000000 b", "T 100 1 2000000000000 a"), readLines(journal));
+    }
+
+    @Test
+    public void journalIsCompacted() throws Exception {
+        index = new LruIndex(dir);
+        File a = newFile("a", 100);
+        File b = newFile("b", 200);
+        for (int i = 0; i < 3000; i++) {
+            index.touch(i % 2 == 0 ? a : b);
+        }
+
+        assertTrue("Journal isn't compacted: " + readLines(journal).size(), readLines(journal).size() <= 1000);
+        index.close();
+        index = new LruIndex(dir);
+        assertEquals(Arrays.asList("a", "b"), names(index));
+        assertEquals(1500, entry(index, "b").getHits());
+        assertEquals(300, index.getTotalSize());
+    }
+
+    @Test
+    public void journalIsCompactedOnOpening() throws Exception {
+        index = new LruIndex(dir);
+        index.touch(newFile("a", 100));
+        index.touch(new File(dir, "a"));
+        index.touch(newFile("b", 200));
+        index.remove("b");
+        assertTrue(new File(dir, "b").delete());
+        index.close();
+        assertEquals(4, readLines(journal).size());
+
+        index = new LruIndex(dir);
+
+        assertEquals(1, readLines(journal).size());
+        assertEquals(Arrays.asList("a"), names(index));
+    }
+
+    @Test
+    public void removingByIteratorIsJournaled() throws Exception {
+        index = new LruIndex(dir);
+        index.touch(newFile("a", 100));
+        index.touch(newFile("b", 200));
+        Iterator<CacheEntry> iterator = index.iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(200, index.getTotalSize());
+        index.close();
+
+        // file is still on disk, so it's added back as unknown one: without journal record it would be "b", "a"
+        index = new LruIndex(dir);
+
+        assertEquals(Arrays.asList("a", "b"), names(index));
+        assertEquals(1, entry(index, "a").getHits());
+    }
+
+    @Test
+    public void touchOfDeletedFileRemovesIt() throws Exception {
+        index = new LruIndex(dir);
+        File a = newFile("a", 100);
+        index.touch(a);
+        assertTrue(a.delete());
+
+        assertNull(index.touch(a));
+        assertEquals(0, index.getCount());
+        assertEquals(0, index.getTotalSize());
+    }
+
+    private File newFile(String name, int size) throws IOException {
+        File file = new File(dir, name);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private void append(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private List<String> names(LruIndex index) {
+        List<String> names = new ArrayList<>();
+        Iterator<CacheEntry> iterator = index.iterator();
+        while (iterator.hasNext()) {
+            names.add(iterator.next().getName());
+        }
+        return names;
+    }
+
+    private CacheEntry entry(LruIndex index, String name) {
+        Iterator<CacheEntry> iterator = index.iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+        }
+        throw new AssertionError("No entry " + name);
+    }
+}
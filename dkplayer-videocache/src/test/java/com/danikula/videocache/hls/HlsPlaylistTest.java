@@ -0,0 +1,171 @@
+package com.danikula.videocache.hls;
+
+import com.danikula.videocache.BaseTest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for parsing and rewriting {@link HlsPlaylist}.
+ */
+public class HlsPlaylistTest extends BaseTest {
+
+    private static final String BASE = "http://cdn.example.com/video/";
+    private static final HlsPlaylist.UrlRewriter PROXY = new HlsPlaylist.UrlRewriter() {
+
+        @Override
+        public String rewrite(String url) {
+            return "proxy:" + url;
+        }
+    };
+
+    @Test
+    public void masterPlaylistListsMediaPlaylists() {
+        HlsPlaylist playlist = HlsPlaylist.parse("#EXTM3U\n" +
+                "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"audio\",URI=\"audio/en.m3u8\"\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000,AUDIO=\"audio\"\n" +
+                "low/index.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=2000000,AUDIO=\"audio\"\n" +
+                "/video/high/index.m3u8\n" +
+                "#EXT-X-I-FRAME-STREAM-INF:BANDWIDTH=100000,URI=\"http://other.example.com/iframes.m3u8\"\n",
+                BASE + "master.m3u8");
+
+        assertTrue(playlist.isMaster());
+        assertTrue(playlist.isComplete());
+        assertTrue(playlist.getSegments().isEmpty());
+        assertEquals(Arrays.asList(BASE + "audio/en.m3u8", BASE + "low/index.m3u8", BASE + "high/index.m3u8",
+                "http://other.example.com/iframes.m3u8"), playlist.getMediaPlaylists());
+        assertEquals("#EXTM3U\n" +
+                        "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"audio\",URI=\"proxy:" + BASE + "audio/en.m3u8\"\n" +
+                        "#EXT-X-STREAM-INF:BANDWIDTH=800000,AUDIO=\"audio\"\n" +
+                        "proxy:" + BASE + "low/index.m3u8\n" +
+                        "#EXT-X-STREAM-INF:BANDWIDTH=2000000,AUDIO=\"audio\"\n" +
+                        "proxy:" + BASE + "high/index.m3u8\n" +
+                        "#EXT-X-I-FRAME-STREAM-INF:BANDWIDTH=100000,URI=\"proxy:http://other.example.com/iframes.m3u8\"\n",
+                playlist.rewrite(PROXY));
+    }
+
+    @Test
+    public void mediaPlaylistListsSegments() {
+        HlsPlaylist playlist = HlsPlaylist.parse("#EXTM3U\r\n" +
+                "#EXT-X-TARGETDURATION:4\r\n" +
+                "#EXT-X-KEY:METHOD=AES-128,URI=\"../key.bin\"\r\n" +
+                "#EXT-X-MAP:URI=\"init.mp4\"\r\n" +
+                "#EXTINF:4.0,\r\n" +
+                "seg0.ts\r\n" +
+                "#EXTINF:3.5,title\r\n" +
+                "seg1.ts?token=1\r\n" +
+                "#EXTINF:2,\r\n" +
+                "http://other.example.com/seg2.ts\r\n" +
+                "#EXT-X-ENDLIST\r\n",
+                BASE + "low/index.m3u8");
+
+        assertFalse(playlist.isMaster());
+        assertTrue(playlist.isComplete());
+        List<HlsPlaylist.Segment> segments = playlist.getSegments();
+        assertEquals(3, segments.size());
+        assertSegment(BASE + "low/seg0.ts", 4, segments.get(0));
+        assertSegment(BASE + "low/seg1.ts?token=1", 3.5f, segments.get(1));
+        assertSegment("http://other.example.com/seg2.ts", 2, segments.get(2));
+        assertEquals(2, playlist.getSegmentsForDuration(6).size());
+        assertEquals(3, playlist.getSegmentsForDuration(100).size());
+        // key isn't cached, its url is only made absolute
+        assertEquals("#EXTM3U\n" +
+                        "#EXT-X-TARGETDURATION:4\n" +
+                        "#EXT-X-KEY:METHOD=AES-128,URI=\"" + BASE + "key.bin\"\n" +
+                        "#EXT-X-MAP:URI=\"proxy:" + BASE + "low/init.mp4\"\n" +
+                        "#EXTINF:4.0,\n" +
+                        "proxy:" + BASE + "low/seg0.ts\n" +
+                        "#EXTINF:3.5,title\n" +
+                        "proxy:" + BASE + "low/seg1.ts?token=1\n" +
+                        "#EXTINF:2,\n" +
+                        "proxy:http://other.example.com/seg2.ts\n" +
+                        "#EXT-X-ENDLIST\n",
+                playlist.rewrite(PROXY));
+    }
+
+    @Test
+    public void livePlaylistIsNotComplete() {
+        HlsPlaylist playlist = HlsPlaylist.parse("#EXTM3U\n#EXTINF:2,\nseg100.ts\n", BASE + "live.m3u8");
+
+        assertFalse(playlist.isComplete());
+        assertEquals(1, playlist.getSegments().size());
+    }
+
+    @Test
+    public void byteRangeSegments() {
+        HlsPlaylist playlist = HlsPlaylist.parse("#EXTM3U\n" +
+                "#EXT-X-VERSION:4\n" +
+                "#EXT-X-MAP:URI=\"main.mp4\",BYTERANGE=\"720@0\"\n" +
+                "#EXTINF:4,\n" +
+                "#EXT-X-BYTERANGE:1000@720\n" +
+                "main.mp4\n" +
+                "#EXTINF:4,\n" +
+                "#EXT-X-BYTERANGE:1200\n" +
+                "main.mp4\n" +
+                "#EXTINF:4,\n" +
+                "other.mp4\n" +
+                "#EXT-X-ENDLIST\n",
+                BASE + "index.m3u8");
+
+        List<HlsPlaylist.Segment> segments = playlist.getSegments();
+        assertEquals(3, segments.size());
+        assertRange(720, 1000, segments.get(0).range);
+        // sub-range without offset follows sub-range of previous segment
+        assertRange(1720, 1200, segments.get(1).range);
+        assertNull(segments.get(2).range);
+        // every sub-range is separate url, byte ranges are removed
+        assertEquals("#EXTM3U\n" +
+                        "#EXT-X-VERSION:4\n" +
+                        "#EXT-X-MAP:URI=\"proxy:" + BASE + "main.mp4#videocache-byterange=720@0\"\n" +
+                        "#EXTINF:4,\n" +
+                        "proxy:" + BASE + "main.mp4#videocache-byterange=1000@720\n" +
+                        "#EXTINF:4,\n" +
+                        "proxy:" + BASE + "main.mp4#videocache-byterange=1200@1720\n" +
+                        "#EXTINF:4,\n" +
+                        "proxy:" + BASE + "other.mp4\n" +
+                        "#EXT-X-ENDLIST\n",
+                playlist.rewrite(PROXY));
+    }
+
+    @Test
+    public void byteRangeIsReadFromUrl() {
+        String url = HlsByteRange.toUrl(BASE + "main.mp4#old", 720, 1000);
+
+        assertEquals(BASE + "main.mp4#videocache-byterange=1000@720", url);
+        assertRange(720, 1000, HlsByteRange.fromUrl(url));
+        assertEquals("#videocache-byterange=1000@720", HlsByteRange.getFragment(url));
+        assertNull(HlsByteRange.fromUrl(BASE + "main.mp4#t=10"));
+        assertEquals("", HlsByteRange.getFragment(BASE + "main.mp4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notPlaylistIsRejected() {
+        HlsPlaylist.parse("<html></html>", BASE + "index.m3u8");
+    }
+
+    @Test
+    public void playlistUrlIsRecognizedByPath() {
+        assertTrue(HlsPlaylist.isPlaylistUrl("http://a/b.M3U8?x=.mp4"));
+        assertTrue(HlsPlaylist.isPlaylistUrl("http://a/b.m3u8#t=1"));
+        assertFalse(HlsPlaylist.isPlaylistUrl("http://a/b.mp4?x=.m3u8"));
+    }
+
+    private void assertSegment(String url, float duration, HlsPlaylist.Segment segment) {
+        assertEquals(url, segment.url);
+        assertEquals(duration, segment.duration, 0.001f);
+        assertNull(segment.range);
+    }
+
+    private void assertRange(long offset, long length, HlsByteRange range) {
+        assertEquals(offset, range.offset);
+        assertEquals(length, range.length);
+    }
+}
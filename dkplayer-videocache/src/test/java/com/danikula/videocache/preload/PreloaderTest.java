@@ -0,0 +1,114 @@
+package com.danikula.videocache.preload;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.danikula.videocache.support.FixtureServer;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link Preloader#isPreloaded(String)} compares cached prefix of video with preload size calculated
+ * by its duration rather than with fixed {@link Preloader.Builder#preloadLength(long)}.
+ */
+public class PreloaderTest extends BaseTest {
+
+    private static final String PATH = "/video.mp4";
+    private static final int MOOV_SIZE = 8 + 8 + 100;
+
+    private FixtureServer server;
+    private File dir;
+    private HttpProxyCacheServer proxy;
+    private Preloader preloader;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FixtureServer();
+        dir = ProxyCacheTestUtils.newTempDir();
+        proxy = ProxyCacheTestUtils.newProxyBuilder(dir).build();
+        preloader = new Preloader.Builder(proxy)
+                .listener(new PreloadListener() {
+
+                    @Override
+                    public void onPreloadFinished(PreloadResult result) {
+                        finished.countDown();
+                    }
+                })
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        preloader.shutdown();
+        proxy.shutdown();
+        server.close();
+        ProxyCacheTestUtils.delete(dir);
+    }
+
+    @Test
+    public void lowBitrateVideoStaysPreloadedAfterRemoving() throws Exception {
+        // 5 of 100 seconds of 2 MB media data is ~100 KB, much less than default preload length
+        server.serve(PATH, newMp4(100, 2 * 1024 * 1024), "video/mp4");
+        server.setBytesPerSecond(256 * 1024);
+        String url = server.url(PATH);
+
+        preloader.add(url, 0);
+        assertTrue("Preloading isn't finished", finished.await(10, TimeUnit.SECONDS));
+        preloader.remove(url);
+
+        assertFalse(proxy.isCached(url));
+        assertTrue(preloader.isPreloaded(url));
+        // playing counts as hit
+        assertEquals(proxy.getProxyUrl(url), preloader.getPlayUrl(url));
+        assertEquals(1, preloader.getStats().getHitRate(), 0);
+    }
+
+    @Test
+    public void highBitrateVideoIsNotPreloadedBeforeTargetLength() throws Exception {
+        // 5 of 10 seconds of 8 MB media data is 4 MB, much more than default preload length
+        server.serve(PATH, newMp4(10, 8 * 1024 * 1024), "video/mp4");
+        server.setBytesPerSecond(512 * 1024);
+        String url = server.url(PATH);
+
+        preloader.add(url, 0);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (proxy.getCachedPrefixLength(url) < 1100 * 1024 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        preloader.remove(url);
+
+        long cached = proxy.getCachedPrefixLength(url);
+        assertTrue("Only " + cached + " bytes are cached", cached >= 1100 * 1024 && cached < 4 * 1024 * 1024);
+        assertFalse(preloader.isPreloaded(url));
+    }
+
+    /**
+     * Returns MP4 file optimized for streaming: {@code ftyp}, {@code moov} with {@code mvhd} only and {@code mdat}.
+     */
+    private byte[] newMp4(int durationSeconds, int mediaDataLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + MOOV_SIZE + 8 + mediaDataLength);
+        buffer.putInt(16).put(type("ftyp")).put(type("isom")).putInt(0);
+        buffer.putInt(MOOV_SIZE).put(type("moov"));
+        // mvhd: version and flags, creation time, modification time, timescale, duration and zeros
+        buffer.putInt(MOOV_SIZE - 8).put(type("mvhd")).putInt(0).putInt(0).putInt(0).putInt(1000).putInt(durationSeconds * 1000);
+        buffer.position(16 + MOOV_SIZE);
+        buffer.putInt(8 + mediaDataLength).put(type("mdat"));
+        return buffer.array();
+    }
+
+    private byte[] type(String type) {
+        return type.getBytes();
+    }
+}
@@ -0,0 +1,111 @@
+package com.danikula.videocache.sourcestorage;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.SourceInfo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.sourcestorage.FileSourceInfoStorageTest.assertInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachedSourceInfoStorageTest extends BaseTest {
+
+    @Test
+    public void putDoesNotWaitForStorage() throws Exception {
+        RecordingStorage storage = new RecordingStorage();
+        storage.blocked = new CountDownLatch(1);
+        CachedSourceInfoStorage cachedStorage = new CachedSourceInfoStorage(storage);
+
+        long start = System.currentTimeMillis();
+        cachedStorage.put("a", new SourceInfo("a", 1, "video/mp4"));
+        cachedStorage.put("b", new SourceInfo("b", 2, "video/mp4"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertInfo(cachedStorage.get("a"), 1, "video/mp4");
+
+        storage.blocked.countDown();
+        cachedStorage.release();
+        assertInfo(storage.infos.get("a"), 1, "video/mp4");
+        assertInfo(storage.infos.get("b"), 2, "video/mp4");
+    }
+
+    @Test
+    public void sameInfoIsNotSavedAgain() {
+        RecordingStorage storage = new RecordingStorage();
+        CachedSourceInfoStorage cachedStorage = new CachedSourceInfoStorage(storage);
+        cachedStorage.put("a", new SourceInfo("a", 1, "video/mp4"));
+        cachedStorage.release();
+        int batches = storage.batches.size();
+
+        CachedSourceInfoStorage reopened = new CachedSourceInfoStorage(storage);
+        assertInfo(reopened.get("a"), 1, "video/mp4");
+        reopened.put("a", new SourceInfo("a", 1, "video/mp4"));
+        reopened.release();
+        assertEquals(batches, storage.batches.size());
+    }
+
+    @Test
+    public void infosAreReadFromStorageOnce() {
+        RecordingStorage storage = new RecordingStorage();
+        storage.infos.put("a", new SourceInfo("a", 1, "video/mp4"));
+        CachedSourceInfoStorage cachedStorage = new CachedSourceInfoStorage(storage);
+        for (int i = 0; i < 10; i++) {
+            assertInfo(cachedStorage.get("a"), 1, "video/mp4");
+            assertNull(cachedStorage.get("b"));
+        }
+        assertEquals(1, storage.gets.get("a").intValue());
+        cachedStorage.release();
+    }
+
+    private static final class RecordingStorage implements BatchSourceInfoStorage {
+
+        final Map<String, SourceInfo> infos = new HashMap<>();
+        final Map<String, Integer> gets = new HashMap<>();
+        final List<List<SourceInfo>> batches = new ArrayList<>();
+        volatile CountDownLatch blocked;
+
+        @Override
+        public synchronized SourceInfo get(String url) {
+            Integer count = gets.get(url);
+            gets.put(url, count == null ? 1 : count + 1);
+            return infos.get(url);
+        }
+
+        @Override
+        public void put(String url, SourceInfo sourceInfo) {
+            putAll(Collections.singletonList(sourceInfo));
+        }
+
+        @Override
+        public void putAll(Collection<SourceInfo> sourceInfos) {
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                batches.add(new ArrayList<>(sourceInfos));
+                for (SourceInfo sourceInfo : sourceInfos) {
+                    infos.put(sourceInfo.url, sourceInfo);
+                }
+            }
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
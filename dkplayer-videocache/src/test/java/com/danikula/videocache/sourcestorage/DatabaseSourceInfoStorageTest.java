@@ -0,0 +1,131 @@
+package com.danikula.videocache.sourcestorage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.SourceInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+
+import static com.danikula.videocache.sourcestorage.FileSourceInfoStorageTest.assertInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseSourceInfoStorageTest extends BaseTest {
+
+    private static final String DATABASE = "AndroidVideoCache.db";
+    // schema of database version 1, it has no index on url
+    private static final String CREATE_VERSION_1_SQL =
+            "CREATE TABLE SourceInfo (_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,url TEXT NOT NULL,mime TEXT,length INTEGER);";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void putReplacesInfoOfTheSameUrl() {
+        DatabaseSourceInfoStorage storage = new DatabaseSourceInfoStorage(context);
+        storage.put("a", new SourceInfo("a", 1, "video/mp4"));
+        storage.put("a", new SourceInfo("a", 2, "video/webm"));
+        storage.putAll(Arrays.asList(new SourceInfo("a", 3, "video/mp4"), new SourceInfo("b", 4, null)));
+
+        assertInfo(storage.get("a"), 3, "video/mp4");
+        assertInfo(storage.get("b"), 4, null);
+        assertNull(storage.get("c"));
+        assertEquals(2, countRows(storage.getReadableDatabase()));
+        storage.release();
+    }
+
+    @Test
+    public void lookupUsesUrlIndex() {
+        DatabaseSourceInfoStorage storage = new DatabaseSourceInfoStorage(context);
+        String plan = queryPlan(storage.getReadableDatabase());
+        assertTrue("Lookup scans table: " + plan, plan.contains("USING INDEX SourceInfo_url"));
+        storage.release();
+    }
+
+    @Test
+    public void migrationFromVersion1KeepsLatestInfoOfDuplicatedUrl() {
+        SQLiteOpenHelper version1 = new SQLiteOpenHelper(context, DATABASE, null, 1) {
+
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL(CREATE_VERSION_1_SQL);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                throw new IllegalStateException();
+            }
+        };
+        SQLiteDatabase db = version1.getWritableDatabase();
+        insert(db, "a", 1, "video/mp4");
+        insert(db, "b", 2, "video/mp4");
+        // version 1 checked existing info and inserted new one in two steps, so concurrent puts could duplicate url
+        insert(db, "a", 3, "video/webm");
+        version1.close();
+
+        DatabaseSourceInfoStorage storage = new DatabaseSourceInfoStorage(context);
+        assertInfo(storage.get("a"), 3, "video/webm");
+        assertInfo(storage.get("b"), 2, "video/mp4");
+        assertEquals(2, countRows(storage.getReadableDatabase()));
+        String plan = queryPlan(storage.getReadableDatabase());
+        assertTrue("Lookup scans table: " + plan, plan.contains("USING INDEX SourceInfo_url"));
+
+        storage.put("a", new SourceInfo("a", 4, "video/mp4"));
+        assertInfo(storage.get("a"), 4, "video/mp4");
+        assertEquals(2, countRows(storage.getReadableDatabase()));
+        storage.release();
+    }
+
+    private void insert(SQLiteDatabase db, String url, long length, String mime) {
+        ContentValues values = new ContentValues();
+        values.put("url", url);
+        values.put("length", length);
+        values.put("mime", mime);
+        db.insert("SourceInfo", null, values);
+    }
+
+    private int countRows(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM SourceInfo", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String queryPlan(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN SELECT _id, url, length, mime FROM SourceInfo WHERE url=?", new String[]{"a"});
+        try {
+            StringBuilder plan = new StringBuilder();
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
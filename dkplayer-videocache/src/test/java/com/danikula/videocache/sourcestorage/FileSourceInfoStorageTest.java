@@ -0,0 +1,138 @@
+package com.danikula.videocache.sourcestorage;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.SourceInfo;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileSourceInfoStorageTest extends BaseTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = ProxyCacheTestUtils.newTempDir();
+        file = new File(dir, "infos");
+    }
+
+    @After
+    public void tearDown() {
+        ProxyCacheTestUtils.delete(dir);
+    }
+
+    @Test
+    public void latestRecordWins() {
+        FileSourceInfoStorage storage = new FileSourceInfoStorage(file);
+        storage.put("a", new SourceInfo("a", 1, "video/mp4"));
+        storage.put("b", new SourceInfo("b", 2, null));
+        storage.put("a", new SourceInfo("a", 3, "video/webm"));
+        storage.release();
+
+        FileSourceInfoStorage reopened = new FileSourceInfoStorage(file);
+        assertInfo(reopened.get("a"), 3, "video/webm");
+        assertInfo(reopened.get("b"), 2, null);
+        assertNull(reopened.get("c"));
+    }
+
+    @Test
+    public void tornRecordIsCutOffOnReplay() throws Exception {
+        FileSourceInfoStorage storage = new FileSourceInfoStorage(file);
+        storage.put("a", new SourceInfo("a", 1, "video/mp4"));
+        storage.put("b", new SourceInfo("b", 2, "video/mp4"));
+        storage.release();
+        long validLength = file.length();
+        // app is killed while appending record: only its beginning is written
+        byte[] record = recordOf(new SourceInfo("http://example.com/torn.mp4", 3, "video/mp4"));
+        append(file, Arrays.copyOf(record, record.length - 5));
+
+        FileSourceInfoStorage replayed = new FileSourceInfoStorage(file);
+        assertInfo(replayed.get("a"), 1, "video/mp4");
+        assertInfo(replayed.get("b"), 2, "video/mp4");
+        assertNull(replayed.get("http://example.com/torn.mp4"));
+        assertEquals(validLength, file.length());
+
+        // new records follow valid ones instead of broken tail
+        replayed.put("c", new SourceInfo("c", 4, "video/mp4"));
+        replayed.release();
+        FileSourceInfoStorage reopened = new FileSourceInfoStorage(file);
+        assertInfo(reopened.get("a"), 1, "video/mp4");
+        assertInfo(reopened.get("c"), 4, "video/mp4");
+    }
+
+    @Test
+    public void garbageTailIsCutOffOnReplay() throws Exception {
+        FileSourceInfoStorage storage = new FileSourceInfoStorage(file);
+        storage.put("a", new SourceInfo("a", 1, "video/mp4"));
+        storage.release();
+        long validLength = file.length();
+        // file system may leave zeroes at the end of file after crash
+        append(file, new byte[100]);
+
+        FileSourceInfoStorage replayed = new FileSourceInfoStorage(file);
+        assertInfo(replayed.get("a"), 1, "video/mp4");
+        assertEquals(validLength, file.length());
+    }
+
+    @Test
+    public void logIsCompacted() throws Exception {
+        FileSourceInfoStorage storage = new FileSourceInfoStorage(file);
+        for (int i = 0; i < 1000; i++) {
+            storage.put("a", new SourceInfo("a", i, "video/mp4"));
+            storage.put("b", new SourceInfo("b", i, "video/mp4"));
+        }
+        storage.release();
+
+        assertTrue("Log isn't compacted: " + file.length() + " bytes", file.length() < 300 * recordOf(new SourceInfo("a", 1, "video/mp4")).length);
+        FileSourceInfoStorage reopened = new FileSourceInfoStorage(file);
+        assertInfo(reopened.get("a"), 999, "video/mp4");
+        assertInfo(reopened.get("b"), 999, "video/mp4");
+    }
+
+    private byte[] recordOf(SourceInfo sourceInfo) throws IOException {
+        File recordFile = new File(dir, "record");
+        FileSourceInfoStorage storage = new FileSourceInfoStorage(recordFile);
+        storage.put(sourceInfo.url, sourceInfo);
+        storage.release();
+        byte[] record = new byte[(int) recordFile.length()];
+        InputStream in = new FileInputStream(recordFile);
+        try {
+            assertEquals(record.length, in.read(record));
+        } finally {
+            in.close();
+        }
+        recordFile.delete();
+        return record;
+    }
+
+    private void append(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    static void assertInfo(SourceInfo sourceInfo, long length, String mime) {
+        assertNotNull(sourceInfo);
+        assertEquals(length, sourceInfo.length);
+        assertEquals(mime, sourceInfo.mime);
+    }
+}
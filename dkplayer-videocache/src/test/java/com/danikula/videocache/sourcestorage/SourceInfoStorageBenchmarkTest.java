@@ -0,0 +1,215 @@
+package com.danikula.videocache.sourcestorage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.danikula.videocache.BaseTest;
+import com.danikula.videocache.SourceInfo;
+import com.danikula.videocache.support.Benchmarks;
+import com.danikula.videocache.support.ProxyCacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Measures latency of {@link SourceInfoStorage#get(String)} with 10 000 and 100 000 stored urls.
+ * <p/>
+ * Database benchmarks run on SQLite used by Robolectric, so absolute numbers differ from device, but they show
+ * how lookup scales with count of stored urls: by unique index now (version 2) and by scanning table without index
+ * before (version 1). Average lookup of random stored url on desktop (Linux, single CPU):
+ * <pre>
+ * urls      memory (LRU hit)   file log   database   database without index
+ * 10 000    ~2 us              ~2 us      ~9 us      ~520 us
+ * 100 000   ~1 us              ~3 us      ~18 us     ~11 000 us
+ * </pre>
+ * File log is read into memory by the first lookup: ~80 ms for 10 000 urls, ~240 ms for 100 000 urls.
+ */
+public class SourceInfoStorageBenchmarkTest extends BaseTest {
+
+    private static final int[] URLS_COUNTS = {10000, 100000};
+    private static final int LOOKUPS = 10000;
+    // every lookup scans whole table, so fewer lookups are enough
+    private static final int NOT_INDEXED_LOOKUPS = 200;
+    private static final String DATABASE = "AndroidVideoCache.db";
+    private static final String NOT_INDEXED_DATABASE = "NotIndexed.db";
+
+    private File dir;
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        dir = ProxyCacheTestUtils.newTempDir();
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @After
+    public void tearDown() {
+        if (dir != null) {
+            ProxyCacheTestUtils.delete(dir);
+            context.deleteDatabase(DATABASE);
+            context.deleteDatabase(NOT_INDEXED_DATABASE);
+        }
+    }
+
+    @Test
+    public void memory() {
+        for (int count : URLS_COUNTS) {
+            FileSourceInfoStorage fileStorage = new FileSourceInfoStorage(new File(dir, "memory-" + count));
+            fileStorage.putAll(newInfos(count));
+            CachedSourceInfoStorage storage = new CachedSourceInfoStorage(fileStorage);
+            List<String> recentUrls = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                recentUrls.add(url(i));
+                storage.get(url(i));
+            }
+            report("memory (LRU hit)", count, measureLookups(storage, recentUrls, LOOKUPS));
+            storage.release();
+        }
+    }
+
+    @Test
+    public void fileLog() {
+        for (int count : URLS_COUNTS) {
+            File file = new File(dir, "log-" + count);
+            FileSourceInfoStorage writer = new FileSourceInfoStorage(file);
+            writer.putAll(newInfos(count));
+            writer.release();
+
+            FileSourceInfoStorage storage = new FileSourceInfoStorage(file);
+            long start = System.nanoTime();
+            storage.get(url(0));
+            Benchmarks.report("file log, %d urls: first lookup reads log in %.1f ms", count, (System.nanoTime() - start) / 1e6);
+            report("file log", count, measureLookups(storage, urls(count), LOOKUPS));
+            storage.release();
+        }
+    }
+
+    @Test
+    public void database() {
+        for (int count : URLS_COUNTS) {
+            context.deleteDatabase(DATABASE);
+            DatabaseSourceInfoStorage storage = new DatabaseSourceInfoStorage(context);
+            storage.putAll(newInfos(count));
+            report("database", count, measureLookups(storage, urls(count), LOOKUPS));
+            storage.release();
+        }
+    }
+
+    @Test
+    public void databaseWithoutIndex() {
+        for (int count : URLS_COUNTS) {
+            context.deleteDatabase(NOT_INDEXED_DATABASE);
+            NotIndexedStorage storage = new NotIndexedStorage(context);
+            storage.putAll(newInfos(count));
+            report("database without index", count, measureLookups(storage, urls(count), NOT_INDEXED_LOOKUPS));
+            storage.release();
+        }
+    }
+
+    private double measureLookups(SourceInfoStorage storage, List<String> urls, int lookups) {
+        Random random = new Random(42);
+        for (int i = 0; i < Math.min(lookups, 1000); i++) {
+            assertNotNull(storage.get(urls.get(random.nextInt(urls.size())))); // warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            assertNotNull(storage.get(urls.get(random.nextInt(urls.size()))));
+        }
+        return (System.nanoTime() - start) / 1e3 / lookups;
+    }
+
+    private void report(String storage, int count, double microsPerLookup) {
+        Benchmarks.report("%s, %d urls: %s us per lookup", storage, count, String.format(Locale.US, "%.1f", microsPerLookup));
+    }
+
+    private List<SourceInfo> newInfos(int count) {
+        List<SourceInfo> infos = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            infos.add(new SourceInfo(url(i), 1000000 + i, "video/mp4"));
+        }
+        return infos;
+    }
+
+    private List<String> urls(int count) {
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add(url(i));
+        }
+        return urls;
+    }
+
+    private String url(int index) {
+        return "https://cdn.example.com/videos/2022/06/" + index + "/video.mp4?token=" + Integer.toHexString(index * 31 + 17);
+    }
+
+    /**
+     * Table of database version 1: no index on url, so every lookup scans whole table.
+     */
+    private static final class NotIndexedStorage extends SQLiteOpenHelper implements SourceInfoStorage {
+
+        NotIndexedStorage(Context context) {
+            super(context, NOT_INDEXED_DATABASE, null, 1);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE SourceInfo (_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,url TEXT NOT NULL,mime TEXT,length INTEGER);");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public SourceInfo get(String url) {
+            Cursor cursor = getReadableDatabase().query("SourceInfo", new String[]{"_id", "url", "length", "mime"}, "url=?", new String[]{url}, null, null, null);
+            try {
+                return cursor.moveToFirst() ? new SourceInfo(cursor.getString(1), cursor.getLong(2), cursor.getString(3)) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void put(String url, SourceInfo sourceInfo) {
+            throw new UnsupportedOperationException();
+        }
+
+        void putAll(List<SourceInfo> sourceInfos) {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (SourceInfo sourceInfo : sourceInfos) {
+                    ContentValues values = new ContentValues();
+                    values.put("url", sourceInfo.url);
+                    values.put("length", sourceInfo.length);
+                    values.put("mime", sourceInfo.mime);
+                    db.insert("SourceInfo", null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        @Override
+        public void release() {
+            close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.danikula.videocache.support;
+
+import org.junit.Assume;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+/**
+ * Helpers for benchmarks. Benchmarks are skipped unless tests are run with {@code -Pbenchmark}, e.g.
+ * {@code ./gradlew :dkplayer-videocache:testDebugUnitTest -Pbenchmark --tests '*Benchmark*'}.
+ */
+public final class Benchmarks {
+
+    private static final Object THREAD_BEAN;
+    private static final Method ALLOCATED_BYTES;
+
+    static {
+        Object bean = null;
+        Method method = null;
+        try {
+            // com.sun.management isn't part of android.jar tests are compiled against, so it is accessed by reflection
+            bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            method = null;
+        }
+        THREAD_BEAN = bean;
+        ALLOCATED_BYTES = method;
+    }
+
+    private Benchmarks() {
+    }
+
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks are run with -Pbenchmark", Boolean.getBoolean("videocache.benchmark"));
+    }
+
+    /**
+     * Returns count of bytes allocated by current thread since it is started.
+     *
+     * @return count of bytes or {@code -1} if JVM can't count allocations.
+     */
+    public static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREAD_BEAN, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    public static void report(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+}
@@ -0,0 +1,288 @@
+package com.danikula.videocache.support;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP server standing in for CDN in tests.
+ * <p/>
+ * Serves registered files with support of {@code Range} requests, answers with redirects and limits speed of
+ * every connection like CDNs throttling single TCP stream. Every response closes its connection.
+ * All received requests are recorded, so tests can check what proxy fetched.
+ */
+public class FixtureServer implements Closeable {
+
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private volatile int bytesPerSecond;
+
+    public FixtureServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Returns absolute url of path on this server.
+     *
+     * @param path a path starting with {@code /}.
+     * @return an url.
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    public void serve(String path, byte[] data, String contentType) {
+        resources.put(path, new Resource(data, contentType, null));
+    }
+
+    public void serve(String path, String text, String contentType) {
+        serve(path, text.getBytes(), contentType);
+    }
+
+    /**
+     * Answers requests for path with {@code 302} redirect.
+     *
+     * @param path     a path starting with {@code /}.
+     * @param location an absolute url or path to redirect to.
+     */
+    public void redirect(String path, String location) {
+        resources.put(path, new Resource(null, null, location));
+    }
+
+    /**
+     * Limits speed of every connection.
+     *
+     * @param bytesPerSecond max speed of single connection or {@code 0} for unlimited speed.
+     */
+    public void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Returns requests received so far, in order of receiving.
+     */
+    public List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * Returns requests for path received so far.
+     */
+    public List<Request> getRequests(String path) {
+        List<Request> result = new ArrayList<>();
+        for (Request request : getRequests()) {
+            if (request.path.equals(path)) {
+                result.add(request);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            respond(socket);
+                        } catch (IOException e) {
+                            // client closed connection
+                        } finally {
+                            close(socket);
+                        }
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // server is closed
+        }
+    }
+
+    private void respond(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        String[] requestLine = readLine(in).split(" ");
+        String method = requestLine[0];
+        String path = requestLine[1];
+        String range = null;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                range = line.substring(colon + 1).trim();
+            }
+        }
+        requests.add(new Request(method, path, range, System.nanoTime()));
+
+        OutputStream out = socket.getOutputStream();
+        Resource resource = resources.get(path);
+        if (resource == null) {
+            writeHeaders(out, "404 Not Found", "Content-Length: 0\r\n");
+            return;
+        }
+        if (resource.location != null) {
+            writeHeaders(out, "302 Found", "Location: " + resource.location + "\r\nContent-Length: 0\r\n");
+            return;
+        }
+        byte[] data = resource.data;
+        long start = 0;
+        long end = data.length - 1;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            if (start >= data.length) {
+                writeHeaders(out, "416 Range Not Satisfiable", "Content-Range: bytes */" + data.length + "\r\nContent-Length: 0\r\n");
+                return;
+            }
+        }
+        long length = end - start + 1;
+        String headers = "Content-Type: " + resource.contentType + "\r\n" +
+                "Content-Length: " + length + "\r\n" +
+                "Accept-Ranges: bytes\r\n" +
+                (range != null ? String.format(Locale.US, "Content-Range: bytes %d-%d/%d\r\n", start, end, data.length) : "");
+        writeHeaders(out, range != null ? "206 Partial Content" : "200 OK", headers);
+        if (!method.equals("HEAD")) {
+            writeBody(out, data, (int) start, (int) length);
+        }
+    }
+
+    private void writeHeaders(OutputStream out, String status, String headers) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n";
+        out.write(response.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    private void writeBody(OutputStream out, byte[] data, int offset, int length) throws IOException {
+        long startTime = System.nanoTime();
+        int written = 0;
+        while (written < length) {
+            int count = Math.min(CHUNK_SIZE, length - written);
+            out.write(data, offset + written, count);
+            written += count;
+            int speed = bytesPerSecond;
+            if (speed > 0) {
+                long dueTime = startTime + written * 1000000000L / speed;
+                long delayMillis = (dueTime - System.nanoTime()) / 1000000;
+                if (delayMillis > 0) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        throw new IOException("Server is closed");
+                    }
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            throw new IOException("Connection is closed");
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        sockets.remove(socket);
+    }
+
+    /**
+     * Request received by server.
+     */
+    public static final class Request {
+
+        public final String method;
+        public final String path;
+        // value of Range header or null
+        public final String range;
+        // time of receiving request by System.nanoTime()
+        public final long time;
+
+        Request(String method, String path, String range, long time) {
+            this.method = method;
+            this.path = path;
+            this.range = range;
+            this.time = time;
+        }
+
+        /**
+         * Returns the first requested byte.
+         */
+        public long rangeStart() {
+            return range == null ? 0 : Long.parseLong(range.substring("bytes=".length(), range.indexOf('-')));
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path + (range != null ? " " + range : "");
+        }
+    }
+
+    private static final class Resource {
+
+        final byte[] data;
+        final String contentType;
+        final String location;
+
+        Resource(byte[] data, String contentType, String location) {
+            this.data = data;
+            this.contentType = contentType;
+            this.location = location;
+        }
+    }
+}
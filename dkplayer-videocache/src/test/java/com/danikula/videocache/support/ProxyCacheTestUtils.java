@@ -0,0 +1,96 @@
+package com.danikula.videocache.support;
+
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * Common helpers for tests.
+ */
+public final class ProxyCacheTestUtils {
+
+    private ProxyCacheTestUtils() {
+    }
+
+    public static File newTempDir() throws IOException {
+        File dir = File.createTempFile("videocache-test", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        return dir;
+    }
+
+    public static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Returns random data, the same for the same size.
+     */
+    public static byte[] generate(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Returns builder of proxy keeping cache in passed directory and no source infos.
+     */
+    public static HttpProxyCacheServer.Builder newProxyBuilder(File cacheDir) {
+        return new HttpProxyCacheServer.Builder(RuntimeEnvironment.getApplication())
+                .cacheDirectory(cacheDir)
+                .sourceInfoStorage(SourceInfoStorageFactory.newEmptySourceInfoStorage());
+    }
+
+    /**
+     * Reads response for url, directly without system proxy.
+     *
+     * @param url    an url to read.
+     * @param offset an offset to request data from, {@code 0} for request without range.
+     * @param count  max count of bytes to be read or {@code -1} to read whole response.
+     * @return read data.
+     * @throws IOException if error occur while reading.
+     */
+    public static byte[] read(String url, long offset, int count) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(Proxy.NO_PROXY);
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = connection.getInputStream();
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((count < 0 || out.size() < count) && (read = in.read(buffer, 0, count < 0 ? buffer.length : Math.min(buffer.length, count - out.size()))) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            if (count < 0) {
+                in.close();
+            } else {
+                connection.disconnect(); // don't drain the rest of response
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] read(String url) throws IOException {
+        return read(url, 0, -1);
+    }
+}